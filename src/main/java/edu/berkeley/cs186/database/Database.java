@@ -12,7 +12,10 @@ import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.BPlusTreeLatch;
 import edu.berkeley.cs186.database.index.BPlusTreeMetadata;
+import edu.berkeley.cs186.database.index.CompositeKey;
+import edu.berkeley.cs186.database.index.IndexBuilder;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -79,6 +82,8 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    private static final long DEADLOCK_DETECTION_INTERVAL_MILLIS = 1000;
+    private static final int LOCK_ESCALATION_PAGE_LOCKS = 1000; // escalate to a table lock past 1000 page locks
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -91,15 +96,29 @@ public class Database implements AutoCloseable {
 
     // lock manager
     private final LockManager lockManager;
+    // deadlock detector of the lock manager, or null if there is none
+    private DeadlockDetector deadlockDetector;
     // disk space manager
     private final DiskSpaceManager diskSpaceManager;
     // buffer manager
     private final BufferManager bufferManager;
     // recovery manager
     private final RecoveryManager recoveryManager;
+    // previous images of records of user tables, for snapshot transactions
+    private final VersionStore versionStore = new VersionStore();
+    // serializes the validation and writes of committing optimistic
+    // transactions
+    private final Object optimisticCommitLock = new Object();
+    // latches of the indices, by partition number
+    private final Map<Integer, BPlusTreeLatch> indexLatches = new ConcurrentHashMap<>();
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
+    // how full bulk loaded indexes fill their nodes (see BPlusTree#bulkLoad)
+    private float indexFillFactor = 1.0f;
+    // lock escalation policy of tables (see LockContext#setEscalationPolicy)
+    private volatile int lockEscalationPageLocks = LOCK_ESCALATION_PAGE_LOCKS;
+    private volatile double lockEscalationPageFraction = 0;
     // number of pages of memory available total
     private int numMemoryPages;
     // active transactions
@@ -173,6 +192,23 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param useRecoveryManager flag to enable or disable the recovery manager (ARIES)
+     * @param instantRestart flag to accept new transactions as soon as the analysis
+     *                       pass of restart recovery is done, with redo and undo
+     *                       finishing lazily/in the background (requires ARIES)
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager, boolean instantRestart) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
@@ -180,7 +216,7 @@ public class Database implements AutoCloseable {
         this.lockManager = lockManager;
 
         if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction, instantRestart);
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
@@ -211,6 +247,11 @@ public class Database implements AutoCloseable {
             this.loadMetadataTables();
         }
         initTransaction.commit();
+
+        if (!(lockManager instanceof DummyLockManager)) {
+            this.deadlockDetector = new DeadlockDetector(lockManager, DEADLOCK_DETECTION_INTERVAL_MILLIS,
+                                                         this::deadlockVictimCost);
+        }
     }
 
     private boolean setupDirectory(String fileDir) {
@@ -288,6 +329,10 @@ public class Database implements AutoCloseable {
         // wait for all transactions to terminate
         this.waitAllTransactions();
 
+        if (this.deadlockDetector != null) {
+            this.deadlockDetector.close();
+        }
+
         dropDemoTables();
 
         this.bufferManager.evictAll();
@@ -301,10 +346,107 @@ public class Database implements AutoCloseable {
         this.diskSpaceManager.close();
     }
 
+    /**
+     * Takes an online backup of the database into backupDir, while other
+     * transactions keep running, and keeps archiving the log into it until the
+     * database is closed. The backup can be restored as of any point in the
+     * archived log with LogArchive.restore. Requires the recovery manager.
+     *
+     * @param backupDir directory to back up into (must not exist, or be empty)
+     */
+    public void backup(String backupDir) {
+        if (!(recoveryManager instanceof ARIESRecoveryManager)) {
+            throw new DatabaseException("online backups require the recovery manager");
+        }
+        try {
+            ((ARIESRecoveryManager) recoveryManager).backup(backupDir);
+        } catch (IllegalArgumentException e) {
+            throw new DatabaseException(e.getMessage());
+        }
+    }
+
     public LockManager getLockManager() {
         return lockManager;
     }
 
+    /**
+     * @return the deadlock detector of the lock manager, or null if deadlock
+     * detection is off (as it is with DummyLockManager)
+     */
+    public synchronized DeadlockDetector getDeadlockDetector() {
+        return deadlockDetector;
+    }
+
+    /**
+     * Sets how often the lock manager is checked for deadlocks; 0 turns
+     * deadlock detection off. Transactions aborted to break a deadlock get a
+     * DeadlockException from the lock request they were blocked on, and
+     * should be rolled back.
+     */
+    public synchronized void setDeadlockDetectionInterval(long intervalMillis) {
+        if (deadlockDetector != null) {
+            deadlockDetector.close();
+            deadlockDetector = null;
+        }
+        if (intervalMillis > 0) {
+            deadlockDetector = new DeadlockDetector(lockManager, intervalMillis, this::deadlockVictimCost);
+        }
+    }
+
+    /**
+     * Takes fuzzy checkpoints in the background, and truncates the log after
+     * each one: at least every `intervalMillis` milliseconds, and once
+     * `logPages` pages of log have been written since the last checkpoint. 0
+     * turns either trigger off; no checkpoints are taken in the background
+     * until this is called. Only the recovery manager (ARIES) takes
+     * checkpoints.
+     */
+    public void setCheckpointPolicy(long intervalMillis, int logPages) {
+        if (recoveryManager instanceof ARIESRecoveryManager) {
+            ((ARIESRecoveryManager) recoveryManager).setCheckpointPolicy(intervalMillis, logPages);
+        }
+    }
+
+    // The cost of aborting a transaction to break a deadlock: the number of
+    // log records it wrote, i.e. the work lost and to be undone, if known;
+    // the number of locks it holds otherwise.
+    private long deadlockVictimCost(long transNum) {
+        if (recoveryManager instanceof ARIESRecoveryManager) {
+            return ((ARIESRecoveryManager) recoveryManager).getNumLogRecords(transNum);
+        }
+        return lockManager.getNumLocks(transNum);
+    }
+
+    /**
+     * Sets how long a transaction may wait for a lock before the request fails
+     * with LockTimeoutException (after which the transaction should be rolled
+     * back); 0 waits forever.
+     */
+    public void setLockWaitTimeout(long timeoutMillis) {
+        lockManager.setWaitTimeout(timeoutMillis);
+    }
+
+    /**
+     * @return lock contention statistics by resource, most waited on first
+     */
+    public List<LockContention> getLockContention() {
+        return lockManager.getContention();
+    }
+
+    /**
+     * Sets when a transaction's page locks on a table are escalated to a
+     * single table lock: once it would hold more than `maxPageLocks` page
+     * locks of the table, or more than `maxPageFraction` of its pages. Pass 0
+     * to turn either rule off.
+     */
+    public void setLockEscalation(int maxPageLocks, double maxPageFraction) {
+        if (maxPageLocks < 0 || maxPageFraction < 0 || maxPageFraction > 1) {
+            throw new IllegalArgumentException("invalid lock escalation policy");
+        }
+        this.lockEscalationPageLocks = maxPageLocks;
+        this.lockEscalationPageFraction = maxPageFraction;
+    }
+
     public DiskSpaceManager getDiskSpaceManager() {
         return diskSpaceManager;
     }
@@ -323,6 +465,18 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    /**
+     * Sets how full indexes created with bulk loading fill their leaves, in
+     * (0, 1]: leaving room in them makes for fewer splits when keys are
+     * inserted later.
+     */
+    public void setIndexFillFactor(float fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        }
+        this.indexFillFactor = fillFactor;
+    }
+
     /**
      * @return Schema for _metadata.tables with fields:
      *   | field name   | field type
@@ -450,7 +604,10 @@ public class Database implements AutoCloseable {
         LockContext tableContext = getTableContext(tableName);
         long page0 = DiskSpaceManager.getVirtualPageNum(metadata.partNum, 0);
         PageDirectory pd = new PageDirectory(bufferManager, metadata.partNum, page0, (short) 0, tableContext);
-        return new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        tableContext.setCapacity(pd::getNumDataPages);
+        Table table = new Table(metadata.tableName, metadata.schema, pd, tableContext, stats);
+        table.setVersionStore(versionStore);
+        return table;
     }
 
     /**
@@ -525,12 +682,31 @@ public class Database implements AutoCloseable {
         return result;
     }
 
+    // Returns the key of `record`, a record of a table with schema `schema`,
+    // in the index `metadata`.
+    private static DataBox indexKey(BPlusTreeMetadata metadata, Schema schema, Record record) {
+        List<String> colNames = metadata.getColNames();
+        List<String> fieldNames = schema.getFieldNames();
+        if (colNames.size() == 1) {
+            return record.getValue(fieldNames.indexOf(colNames.get(0)));
+        }
+        List<DataBox> values = new ArrayList<>();
+        List<Type> types = new ArrayList<>();
+        for (String colName : colNames) {
+            int i = fieldNames.indexOf(colName);
+            values.add(record.getValue(i));
+            types.add(schema.getFieldType(i));
+        }
+        return CompositeKey.of(values, types);
+    }
+
     // btree metadata -> btree object
     private BPlusTree indexFromMetadata(BPlusTreeMetadata metadata) {
         String tableName = normalize(metadata.getTableName());
         String columnName = normalize(metadata.getColName());
         LockContext indexContext = lockManager.databaseContext().childContext(tableName + "." + columnName);
-        return new BPlusTree(bufferManager, metadata, indexContext);
+        BPlusTreeLatch latch = indexLatches.computeIfAbsent(metadata.getPartNum(), k -> new BPlusTreeLatch());
+        return new BPlusTree(bufferManager, metadata, indexContext, latch);
     }
 
     // get the lock context for database/_metadata.tables
@@ -545,7 +721,9 @@ public class Database implements AutoCloseable {
 
     // get the lock context for database/tableName
     private LockContext getTableContext(String tableName) {
-        return lockManager.databaseContext().childContext(normalize(tableName));
+        LockContext tableContext = lockManager.databaseContext().childContext(normalize(tableName));
+        tableContext.setEscalationPolicy(lockEscalationPageLocks, lockEscalationPageFraction);
+        return tableContext;
     }
 
     // get the lock context for _metadata.tables/tableName
@@ -583,6 +761,60 @@ public class Database implements AutoCloseable {
         return t;
     }
 
+    /**
+     * Start a read-only snapshot transaction. It sees the records of user
+     * tables as they were when it began, without taking locks: it neither
+     * waits for nor blocks writers. Its queries do not use indices, which
+     * only index current records, and it cannot change anything.
+     *
+     * Table and index metadata are read as they currently are.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginSnapshotTransaction() {
+        TransactionImpl t = new TransactionImpl(this.numTransactions, versionStore.beginSnapshot(), false);
+        activeTransactions.register();
+        if (activeTransactions.isTerminated()) {
+            activeTransactions = new Phaser(1);
+        }
+        ++this.numTransactions;
+        TransactionContext.setTransaction(t.getTransactionContext());
+        return t;
+    }
+
+    /**
+     * Start an optimistic transaction, for short transactions that rarely
+     * conflict. Until it commits, it reads user tables as they were when it
+     * began (like a snapshot transaction), takes no locks, and only buffers
+     * the records it inserts, updates and deletes; record IDs of inserted
+     * records are not known until then, so addRecord returns null.
+     *
+     * On commit, it locks the pages it changes, checks that no page it read
+     * was changed by another transaction since it began, and only then makes
+     * its changes, as an ordinary transaction would. If the check fails, commit
+     * throws ValidationException and the transaction is rolled back.
+     *
+     * Reads of a record the transaction updated or deleted see its change, but
+     * queries only see its snapshot. Records inserted into pages it did not
+     * read are not detected as conflicts. It cannot change tables or indices.
+     *
+     * @return the new Transaction
+     */
+    public synchronized Transaction beginOptimisticTransaction() {
+        TransactionImpl t = new TransactionImpl(this.numTransactions, versionStore.beginSnapshot(), true);
+        activeTransactions.register();
+        if (activeTransactions.isTerminated()) {
+            activeTransactions = new Phaser(1);
+        }
+        ++this.numTransactions;
+        TransactionContext.setTransaction(t.getTransactionContext());
+        return t;
+    }
+
+    public VersionStore getVersionStore() {
+        return versionStore;
+    }
+
     /**
      * Start a transaction for recovery.
      *
@@ -607,13 +839,29 @@ public class Database implements AutoCloseable {
         Map<String, Table> tempTables;
         long tempTableCounter;
         boolean recoveryTransaction;
-
-        private TransactionContextImpl(long tNum, boolean recoveryTransaction) {
+        // snapshot the transaction reads user tables from, or -1
+        long snapshotTimestamp;
+        boolean optimistic;
+        // Changes of an optimistic transaction to user tables, made when it
+        // commits: the new record of each record it updated (null if it
+        // deleted it), and the records it inserted, by table.
+        Map<String, Map<RecordId, Record>> bufferedUpdates;
+        Map<String, List<Record>> bufferedInserts;
+        // pages an optimistic transaction read from its snapshot
+        Set<Long> readSet;
+
+        private TransactionContextImpl(long tNum, boolean recoveryTransaction, long snapshotTimestamp,
+                                       boolean optimistic) {
             this.transNum = tNum;
             this.aliases = new HashMap<>();
             this.tempTables = new HashMap<>();
             this.tempTableCounter = 0;
             this.recoveryTransaction = recoveryTransaction;
+            this.snapshotTimestamp = snapshotTimestamp;
+            this.optimistic = optimistic;
+            this.bufferedUpdates = new LinkedHashMap<>();
+            this.bufferedInserts = new LinkedHashMap<>();
+            this.readSet = new HashSet<>();
         }
 
         @Override
@@ -621,6 +869,39 @@ public class Database implements AutoCloseable {
             return transNum;
         }
 
+        @Override
+        public long getSnapshotTimestamp() {
+            return snapshotTimestamp;
+        }
+
+        @Override
+        public void onSnapshotRead(long pageNum) {
+            if (optimistic) {
+                readSet.add(pageNum);
+            }
+        }
+
+        // Snapshot transactions only read, and optimistic transactions only
+        // change records.
+        private void checkWritable() {
+            if (snapshotTimestamp >= 0) {
+                throw new DatabaseException(optimistic
+                        ? "cannot change tables or indices in an optimistic transaction"
+                        : "cannot change data in a read-only snapshot transaction");
+            }
+        }
+
+        // Whether a change to the records of tab is buffered until commit.
+        private boolean isBuffered(Table tab) {
+            if (snapshotTimestamp < 0 || tempTables.containsValue(tab)) {
+                return false;
+            }
+            if (!optimistic) {
+                checkWritable();
+            }
+            return true;
+        }
+
         @Override
         public int getWorkMemSize() {
             return Database.this.getWorkMem();
@@ -663,12 +944,26 @@ public class Database implements AutoCloseable {
 
         @Override
         public boolean indexExists(String tableName, String columnName) {
+            // indices only have current records, not those of a snapshot
+            if (snapshotTimestamp >= 0) return false;
             if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
             return getColumnIndexMetadata(tableName, columnName) != null;
         }
 
+        @Override
+        public List<List<String>> getIndexColumns(String tableName) {
+            List<List<String>> result = new ArrayList<>();
+            if (snapshotTimestamp >= 0) return result;
+            if (aliases.containsKey(tableName)) tableName = aliases.get(tableName);
+            for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
+                result.add(p.getSecond().getColNames());
+            }
+            return result;
+        }
+
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {
+            checkWritable();
             Record updated = metadata.toRecord();
             String tableName = normalize(metadata.getTableName());
             String columnName = normalize(metadata.getColName());
@@ -697,7 +992,7 @@ public class Database implements AutoCloseable {
             LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
             Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
 
-            if (pair != null) {
+            if (pair != null && snapshotTimestamp < 0) {
                 BPlusTree tree = indexFromMetadata(pair.getSecond());
                 return tab.recordIterator(tree.scanAll());
             } else {
@@ -715,12 +1010,52 @@ public class Database implements AutoCloseable {
             Table tab = getTable(tableName);
             tableName = tab.getName();
             BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
-            // Since we'll likely scan multiple pages of records, its better
-            // to get an S lock on the whole table up front
-            LockUtil.ensureSufficientLockHeld(getTableContext(tableName), LockType.S);
+            // the scan locks the key range it reads, and the records are read
+            // one page at a time, so the table is only intent locked
             return tab.recordIterator(tree.scanGreaterEqual(startValue));
         }
 
+        @Override
+        public Iterator<Record> sortedScanRange(String tableName, String columnName,
+                                                DataBox lo, boolean loInclusive,
+                                                DataBox hi, boolean hiInclusive,
+                                                boolean descending) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
+            // see sortedScanFrom
+            Iterator<RecordId> rids = descending ? tree.scanRangeDescending(lo, loInclusive, hi, hiInclusive)
+                                      : tree.scanRange(lo, loInclusive, hi, hiInclusive);
+            return tab.recordIterator(rids);
+        }
+
+        @Override
+        public Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            BPlusTree tree = indexFromMetadata(getColumnIndexMetadata(tableName, columnName).getSecond());
+            List<Type> types = new ArrayList<>();
+            Schema s = tab.getSchema();
+            for (String colName : tree.getMetadata().getColNames()) {
+                types.add(s.getFieldType(s.findField(colName)));
+            }
+            // the records are never read, so the table is not locked: the
+            // scan locks the keys it reads instead
+            Iterator<Pair<DataBox, RecordId>> entries = tree.scanEntriesGreaterEqual(startValue);
+            return new Iterator<Record>() {
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Record next() {
+                    DataBox key = entries.next().getFirst();
+                    return types.size() == 1 ? new Record(key) : new Record(CompositeKey.decode(key, types));
+                }
+            };
+        }
+
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
             Table tab = getTable(tableName);
@@ -748,31 +1083,63 @@ public class Database implements AutoCloseable {
             if (tab == null) {
                 throw new DatabaseException("table `" + tableName + "` does not exist!");
             }
+            if (isBuffered(tab)) {
+                // the record only gets a record ID when it is inserted
+                bufferedInserts.computeIfAbsent(tableName, k -> new ArrayList<>())
+                        .add(tab.getSchema().verify(record));
+                return null;
+            }
             RecordId rid = tab.addRecord(record);
             Schema s = tab.getSchema();
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
+                DataBox key = indexKey(tree.getMetadata(), s, record);
                 tree.put(key, rid);
             }
             return rid;
         }
 
+        @Override
+        public List<RecordId> addRecords(String tableName, List<Record> records) {
+            Table tab = getTable(tableName);
+            tableName = tab.getName();
+            if (isBuffered(tab)) {
+                return super.addRecords(tableName, records);
+            }
+            List<RecordId> rids = new ArrayList<>();
+            for (Record record : records) {
+                rids.add(tab.addRecord(record));
+            }
+            Schema s = tab.getSchema();
+
+            // every index gets all its new keys at once
+            for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
+                BPlusTree tree = indexFromMetadata(p.getSecond());
+                List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+                for (int i = 0; i < records.size(); ++i) {
+                    entries.add(new Pair<>(indexKey(tree.getMetadata(), s, records.get(i)), rids.get(i)));
+                }
+                tree.putAll(entries.iterator());
+            }
+            return rids;
+        }
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             Table tab = getTable(tableName);
             tableName = tab.getName();
+            if (isBuffered(tab)) {
+                getRecord(tableName, rid);
+                bufferedUpdates.computeIfAbsent(tableName, k -> new LinkedHashMap<>()).put(rid, null);
+                return rid;
+            }
             Schema s = tab.getSchema();
             Record record = tab.deleteRecord(rid);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox key = record.getValue(colNames.indexOf(column));
+                DataBox key = indexKey(tree.getMetadata(), s, record);
                 tree.remove(key);
             }
             return rid;
@@ -780,23 +1147,43 @@ public class Database implements AutoCloseable {
 
         @Override
         public Record getRecord(String tableName, RecordId rid) {
-            return getTable(tableName).getRecord(rid);
+            Table tab = getTable(tableName);
+            Map<RecordId, Record> updates = bufferedUpdates.get(tab.getName());
+            if (updates != null && updates.containsKey(rid)) {
+                Record record = updates.get(rid);
+                if (record == null) {
+                    throw new DatabaseException(String.format("Record %s does not exist.", rid));
+                }
+                return record;
+            }
+            return tab.getRecord(rid);
+        }
+
+        // Whether the transaction deleted record rid of table tableName
+        // without the deletion being made yet.
+        private boolean isBufferedDelete(String tableName, RecordId rid) {
+            Map<RecordId, Record> updates = bufferedUpdates.get(tableName);
+            return updates != null && updates.containsKey(rid) && updates.get(rid) == null;
         }
 
         @Override
         public RecordId updateRecord(String tableName, RecordId rid, Record updated) {
             Table tab = getTable(tableName);
             tableName = tab.getName();
+            if (isBuffered(tab)) {
+                getRecord(tableName, rid);
+                bufferedUpdates.computeIfAbsent(tableName, k -> new LinkedHashMap<>())
+                        .put(rid, tab.getSchema().verify(updated));
+                return rid;
+            }
             Schema s = tab.getSchema();
 
             Record old = tab.updateRecord(rid, updated);
-            List<String> colNames = s.getFieldNames();
 
             for (Pair<RecordId, BPlusTreeMetadata> p: getTableIndicesMetadata(tableName)) {
                 BPlusTree tree = indexFromMetadata(p.getSecond());
-                String column = tree.getMetadata().getColName();
-                DataBox oldKey = old.getValue(colNames.indexOf(column));
-                DataBox newKey = updated.getValue(colNames.indexOf(column));
+                DataBox oldKey = indexKey(tree.getMetadata(), s, old);
+                DataBox newKey = indexKey(tree.getMetadata(), s, updated);
                 tree.remove(oldKey);
                 tree.put(newKey, rid);
             }
@@ -819,6 +1206,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isBufferedDelete(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
 
@@ -838,6 +1226,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isBufferedDelete(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
                 DataBox cond = condition.apply(cur);
@@ -860,6 +1249,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isBufferedDelete(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 List<DataBox> recordCopy = cur.getValues();
 
@@ -876,6 +1266,7 @@ public class Database implements AutoCloseable {
 
             while(recordIds.hasNext()) {
                 RecordId curRID = recordIds.next();
+                if (isBufferedDelete(tableName, curRID)) continue;
                 Record cur = getRecord(tableName, curRID);
                 DataBox cond = condition.apply(cur);
                 if (!Expression.toBool(cond)) continue;
@@ -927,6 +1318,55 @@ public class Database implements AutoCloseable {
             return pair.getSecond().getHeight();
         }
 
+        // Locks the pages of the records an optimistic transaction updated or
+        // deleted, so that no other transaction changes them between
+        // validation and applyBufferedWrites.
+        private void lockBufferedWrites() {
+            snapshotTimestamp = -1;
+            for (Map.Entry<String, Map<RecordId, Record>> entry : bufferedUpdates.entrySet()) {
+                Table tab = getTable(entry.getKey());
+                for (RecordId rid : entry.getValue().keySet()) {
+                    tab.lockForUpdate(rid);
+                }
+            }
+        }
+
+        // Checks that no page an optimistic transaction read was changed by
+        // another transaction that had not committed when it began.
+        private void validate(long snapshot) {
+            for (long pageNum : readSet) {
+                if (versionStore.changedSince(pageNum, snapshot, transNum)) {
+                    throw new ValidationException("transaction " + transNum +
+                            " read a page changed by a concurrent transaction");
+                }
+            }
+        }
+
+        private boolean hasBufferedWrites() {
+            return !bufferedUpdates.isEmpty() || !bufferedInserts.isEmpty();
+        }
+
+        // Makes the buffered changes of an optimistic transaction, with the
+        // locks of an ordinary transaction.
+        private void applyBufferedWrites() {
+            Map<String, Map<RecordId, Record>> updates = bufferedUpdates;
+            Map<String, List<Record>> inserts = bufferedInserts;
+            bufferedUpdates = new LinkedHashMap<>();
+            bufferedInserts = new LinkedHashMap<>();
+            for (Map.Entry<String, Map<RecordId, Record>> entry : updates.entrySet()) {
+                for (Map.Entry<RecordId, Record> update : entry.getValue().entrySet()) {
+                    if (update.getValue() == null) {
+                        deleteRecord(entry.getKey(), update.getKey());
+                    } else {
+                        updateRecord(entry.getKey(), update.getKey(), update.getValue());
+                    }
+                }
+            }
+            for (Map.Entry<String, List<Record>> entry : inserts.entrySet()) {
+                addRecords(entry.getKey(), entry.getValue());
+            }
+        }
+
         @Override
         public void close() {
             try {
@@ -984,12 +1424,29 @@ public class Database implements AutoCloseable {
     private class TransactionImpl extends Transaction {
         private long transNum;
         private boolean recoveryTransaction;
-        private TransactionContext transactionContext;
+        // snapshot of a snapshot or optimistic transaction, or -1
+        private long snapshotTimestamp;
+        private boolean optimistic;
+        // whether the recovery manager knows of the transaction; optimistic
+        // transactions only tell it when they make their changes
+        private boolean logged;
+        private TransactionContextImpl transactionContext;
 
         private TransactionImpl(long transNum, boolean recovery) {
             this.transNum = transNum;
             this.recoveryTransaction = recovery;
-            this.transactionContext = new TransactionContextImpl(transNum, recovery);
+            this.snapshotTimestamp = -1;
+            this.logged = true;
+            this.transactionContext = new TransactionContextImpl(transNum, recovery, -1, false);
+        }
+
+        // A read-only snapshot transaction, or an optimistic transaction,
+        // which the recovery manager does not know of until it writes.
+        private TransactionImpl(long transNum, long snapshotTimestamp, boolean optimistic) {
+            this.transNum = transNum;
+            this.snapshotTimestamp = snapshotTimestamp;
+            this.optimistic = optimistic;
+            this.transactionContext = new TransactionContextImpl(transNum, false, snapshotTimestamp, optimistic);
         }
 
         @Override
@@ -1010,13 +1467,50 @@ public class Database implements AutoCloseable {
         @Override
         protected void startCommit() {
             transactionContext.deleteAllTempTables();
-            recoveryManager.commit(transNum);
+            if (optimistic) {
+                commitOptimistic();
+            } else if (snapshotTimestamp >= 0) {
+                setStatus(Status.COMMITTING);
+            } else {
+                recoveryManager.commit(transNum);
+                // visible to snapshots from now on; locks are released in cleanup
+                versionStore.commit(transNum);
+            }
             this.cleanup();
         }
 
+        // Validates an optimistic transaction and makes its changes, as one
+        // step with respect to other optimistic transactions committing. If
+        // this fails, the transaction is rolled back.
+        private void commitOptimistic() {
+            synchronized (optimisticCommitLock) {
+                try {
+                    transactionContext.lockBufferedWrites();
+                    transactionContext.validate(snapshotTimestamp);
+                    if (transactionContext.hasBufferedWrites()) {
+                        recoveryManager.startTransaction(this);
+                        logged = true;
+                        transactionContext.applyBufferedWrites();
+                        recoveryManager.commit(transNum);
+                        versionStore.commit(transNum);
+                    } else {
+                        setStatus(Status.COMMITTING);
+                    }
+                } catch (RuntimeException e) {
+                    startRollback();
+                    throw e;
+                }
+            }
+        }
+
         @Override
         protected void startRollback() {
-            recoveryManager.abort(transNum);
+            if (!logged) {
+                transactionContext.deleteAllTempTables();
+                setStatus(Status.ABORTING);
+            } else {
+                recoveryManager.abort(transNum);
+            }
             this.cleanup();
         }
 
@@ -1026,8 +1520,15 @@ public class Database implements AutoCloseable {
                 return;
             }
 
-            if (!this.recoveryTransaction) {
+            if (snapshotTimestamp >= 0) {
+                versionStore.endSnapshot(snapshotTimestamp);
+            }
+            if (!logged) {
+                setStatus(Status.COMPLETE);
+            } else if (!this.recoveryTransaction) {
                 recoveryManager.end(transNum);
+                // rolled back by now if it did not commit
+                versionStore.end(transNum);
             }
 
             transactionContext.close();
@@ -1041,6 +1542,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createTable(Schema s, String tableName) {
+            transactionContext.checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1064,6 +1566,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropTable(String tableName) {
+            transactionContext.checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1090,6 +1593,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void dropAllTables() {
+            transactionContext.checkWritable();
             // For something as drastic as dropping all tables we'll want
             // to get an exclusive lock on the entire database.
             LockUtil.ensureSufficientLockHeld(lockManager.databaseContext(), LockType.X);
@@ -1100,6 +1604,7 @@ public class Database implements AutoCloseable {
 
         @Override
         public void createIndex(String tableName, String columnName, boolean bulkLoad) {
+            transactionContext.checkWritable();
             if (tableName.contains(".") || tableName.contains(" ") || tableName.length() == 0) {
                 throw new IllegalArgumentException("name of new table may not contain '.' or ' ', or be the empty string");
             }
@@ -1112,12 +1617,22 @@ public class Database implements AutoCloseable {
             Schema s = tableMetadata.schema;
             List<String> schemaColNames = s.getFieldNames();
             List<Type> schemaColType = s.getFieldTypes();
-            if (!schemaColNames.contains(columnName)) {
-                throw new DatabaseException("table " + tableName + " does not have a column " + columnName);
+            // a composite index is on several columns, separated by commas
+            List<String> columnNames = new ArrayList<>();
+            List<Type> columnTypes = new ArrayList<>();
+            for (String name : columnName.split(",")) {
+                name = name.trim();
+                if (!schemaColNames.contains(name)) {
+                    throw new DatabaseException("table " + tableName + " does not have a column " + name);
+                }
+                columnNames.add(name);
+                columnTypes.add(schemaColType.get(schemaColNames.indexOf(name)));
             }
-
-            int columnIndex = schemaColNames.indexOf(columnName);
-            Type colType = schemaColType.get(columnIndex);
+            columnName = String.join(",", columnNames);
+            if (columnName.length() > 32) {
+                throw new DatabaseException("names of the columns of an index may not be longer than 32 characters");
+            }
+            Type colType = columnNames.size() == 1 ? columnTypes.get(0) : CompositeKey.keySchema(columnTypes);
 
             // To create the index we'll need an exclusive lock on its metadata
             LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
@@ -1140,19 +1655,33 @@ public class Database implements AutoCloseable {
             BPlusTree tree = indexFromMetadata(metadata);
 
             // load data into index
+            Table table = tableFromMetadata(tableMetadata);
             if (bulkLoad) {
-                throw new UnsupportedOperationException("not implemented");
+                Iterator<RecordId> rids = table.ridIterator();
+                Iterator<Pair<DataBox, RecordId>> entries = new Iterator<Pair<DataBox, RecordId>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return rids.hasNext();
+                    }
+
+                    @Override
+                    public Pair<DataBox, RecordId> next() {
+                        RecordId rid = rids.next();
+                        return new Pair<>(indexKey(metadata, s, table.getRecord(rid)), rid);
+                    }
+                };
+                new IndexBuilder(transactionContext, colType).build(tree, entries, indexFillFactor);
             } else {
-                Table table = tableFromMetadata(tableMetadata);
                 for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
                     Record record = table.getRecord(rid);
-                    tree.put(record.getValue(columnIndex), rid);
+                    tree.put(indexKey(metadata, s, record), rid);
                 }
             }
         }
 
         @Override
         public void dropIndex(String tableName, String columnName) {
+            transactionContext.checkWritable();
             // We need exclusive write access on an index to drop it.
             LockUtil.ensureSufficientLockHeld(getColumnIndexMetadataContext(tableName, columnName), LockType.X);
             Pair<RecordId, BPlusTreeMetadata> pair = getColumnIndexMetadata(tableName, columnName);
@@ -1161,6 +1690,7 @@ public class Database implements AutoCloseable {
             }
             indexMetadata.deleteRecord(pair.getFirst());
             bufferManager.freePart(pair.getSecond().getPartNum());
+            indexLatches.remove(pair.getSecond().getPartNum());
         }
 
         @Override
@@ -1178,6 +1708,11 @@ public class Database implements AutoCloseable {
             transactionContext.addRecord(tableName, values);
         }
 
+        @Override
+        public void insertAll(String tableName, List<Record> records) {
+            transactionContext.addRecords(tableName, records);
+        }
+
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {
             update(tableName, targetColumnName, targetValue, null, null, null);
@@ -1208,17 +1743,27 @@ public class Database implements AutoCloseable {
 
         @Override
         public void savepoint(String savepointName) {
-            recoveryManager.savepoint(transNum, savepointName);
+            if (optimistic) {
+                throw new DatabaseException("optimistic transactions do not support savepoints");
+            }
+            // a snapshot transaction changes nothing to roll back
+            if (snapshotTimestamp < 0) {
+                recoveryManager.savepoint(transNum, savepointName);
+            }
         }
 
         @Override
         public void rollbackToSavepoint(String savepointName) {
-            recoveryManager.rollbackToSavepoint(transNum, savepointName);
+            if (snapshotTimestamp < 0) {
+                recoveryManager.rollbackToSavepoint(transNum, savepointName);
+            }
         }
 
         @Override
         public void releaseSavepoint(String savepointName) {
-            recoveryManager.releaseSavepoint(transNum, savepointName);
+            if (snapshotTimestamp < 0) {
+                recoveryManager.releaseSavepoint(transNum, savepointName);
+            }
         }
 
         @Override
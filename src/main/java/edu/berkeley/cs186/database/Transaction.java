@@ -7,6 +7,8 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -147,18 +149,56 @@ public abstract class Transaction implements AutoCloseable {
      * fully implemented as well.
      *
      * @param tableName name of table to create index for
-     * @param columnName name of column to create index on
+     * @param columnName name of column to create index on, or names of
+     *                   columns separated by commas for a composite index
      * @param bulkLoad whether to bulk load data
      */
     public abstract void createIndex(String tableName, String columnName, boolean bulkLoad);
 
+    /**
+     * Creates a composite index. Equivalent to
+     *      CREATE INDEX ON tableName (columnNames[0], columnNames[1], ...)
+     * in postgres. Keys compare column by column, and the index can be
+     * searched on its leading columns.
+     *
+     * @param tableName name of table to create index for
+     * @param columnNames names of columns to create index on, in order
+     * @param bulkLoad whether to bulk load data
+     */
+    public void createIndex(String tableName, List<String> columnNames, boolean bulkLoad) {
+        createIndex(tableName, String.join(",", columnNames), bulkLoad);
+    }
+
+    /**
+     * Creates a covering index. Similar to
+     *      CREATE INDEX ON tableName (keyColumns...) INCLUDE (includedColumns...)
+     * in postgres: queries that only refer to the key and included columns
+     * are answered from the index alone, without reading the table.
+     *
+     * The included columns are stored in the leaves of the index after the
+     * key columns, as the trailing columns of a composite index, so only the
+     * values of all the columns together have to be unique.
+     *
+     * @param tableName name of table to create index for
+     * @param keyColumns names of columns to search the index on, in order
+     * @param includedColumns names of other columns to store in the index
+     * @param bulkLoad whether to bulk load data
+     */
+    public void createIndex(String tableName, List<String> keyColumns, List<String> includedColumns,
+                            boolean bulkLoad) {
+        List<String> columnNames = new ArrayList<>(keyColumns);
+        columnNames.addAll(includedColumns);
+        createIndex(tableName, columnNames, bulkLoad);
+    }
+
     /**
      * Drops an index. Equivalent to
      *      DROP INDEX tableName_columnName
      * in postgres.
      *
      * @param tableName name of table to drop index from
-     * @param columnName name of column to drop index from
+     * @param columnName name of column to drop index from, or names of
+     *                   columns separated by commas for a composite index
      */
     public abstract void dropIndex(String tableName, String columnName);
 
@@ -205,6 +245,19 @@ public abstract class Transaction implements AutoCloseable {
      */
     public abstract void insert(String tableName, Record record);
 
+    /**
+     * Inserts rows into a table, like insert does one at a time; the indexes
+     * of the table may be updated with all the rows at once.
+     *
+     * @param tableName name of table to insert into
+     * @param records records containing the values to be inserted
+     */
+    public void insertAll(String tableName, List<Record> records) {
+        for (Record record : records) {
+            insert(tableName, record);
+        }
+    }
+
     /**
      * Updates rows in a table. Equivalent to
      *      UPDATE tableName SET targetColumnName = targetValue(targetColumnName)
@@ -10,9 +10,12 @@ import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -128,6 +131,17 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract boolean indexExists(String tableName, String columnName);
 
+    /**
+     * Returns the columns of every index on `tableName`, in order: a list of
+     * one column for an index on a single column, and of several for a
+     * composite index. The columns of an index, joined with commas, are the
+     * columnName to pass to the methods below to use it.
+     *
+     * @param tableName the name of the table
+     * @return the columns of the indices on the table
+     */
+    public abstract List<List<String>> getIndexColumns(String tableName);
+
     public abstract void updateIndexMetadata(BPlusTreeMetadata metadata);
 
     // Scans ///////////////////////////////////////////////////////////////////
@@ -145,6 +159,28 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract Iterator<Record> sortedScanFrom(String tableName, String columnName, DataBox startValue);
 
+    /**
+     * Returns an iterator of records in `tableName` whose value in
+     * `columnName` is between `lo` and `hi`, in ascending order of the values
+     * (descending, if `descending`), read from the index on the column. Each
+     * bound is included if `loInclusive` (`hiInclusive`), and a null bound
+     * leaves the range open on its side. The scan stops at the first value
+     * past the range.
+     */
+    public abstract Iterator<Record> sortedScanRange(String tableName, String columnName,
+                                                     DataBox lo, boolean loInclusive,
+                                                     DataBox hi, boolean hiInclusive,
+                                                     boolean descending);
+
+    /**
+     * Returns an iterator over the values of the columns of the index on
+     * `columnName` of `tableName`, read from the index alone: a record of the
+     * indexed columns, in index order, for every record of the table whose key
+     * is greater than or equal to `startValue` (or for every record, if
+     * `startValue` is null), in ascending order of their keys.
+     */
+    public abstract Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue);
+
     /**
      * Returns an iterator over the records in `tableName` where the value in
      * `columnName` are equal to `key`.
@@ -161,6 +197,18 @@ public abstract class TransactionContext implements AutoCloseable {
     // Record Operations ///////////////////////////////////////////////////////
     public abstract RecordId addRecord(String tableName, Record record);
 
+    /**
+     * Adds records to `tableName`, like addRecord does one at a time.
+     * @return the record ids of the records, in order
+     */
+    public List<RecordId> addRecords(String tableName, List<Record> records) {
+        List<RecordId> rids = new ArrayList<>();
+        for (Record record : records) {
+            rids.add(addRecord(tableName, record));
+        }
+        return rids;
+    }
+
     public abstract RecordId deleteRecord(String tableName, RecordId rid);
 
     public abstract void deleteRecordWhere(String tableName, String predColumnName, PredicateOperator predOperator,
@@ -224,6 +272,23 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getTreeHeight(String tableName, String columnName);
 
+    /**
+     * @return the snapshot timestamp of a read-only snapshot transaction or
+     * of an optimistic transaction before it commits, which read records as
+     * of when they began without taking locks (see VersionStore), or -1 if
+     * the transaction reads current records
+     */
+    public long getSnapshotTimestamp() {
+        return -1;
+    }
+
+    /**
+     * Called when the transaction reads page `pageNum` of a table from its
+     * snapshot. Optimistic transactions validate these pages when they
+     * commit.
+     */
+    public void onSnapshotRead(long pageNum) {}
+
     // Synchronization /////////////////////////////////////////////////////////
 
     /**
@@ -257,6 +322,55 @@ public abstract class TransactionContext implements AutoCloseable {
         }
     }
 
+    /**
+     * Blocks the transaction (and thread) for at most `timeoutMillis`
+     * milliseconds. prepareBlock() must be called first.
+     *
+     * @return true if the transaction was unblocked, false if the timeout
+     * elapsed first, in which case the transaction is still considered
+     * blocked (see awaitUnblock)
+     */
+    public boolean block(long timeoutMillis) {
+        if (!this.startBlock) {
+            throw new IllegalStateException("prepareBlock() must be called before block()");
+        }
+        boolean interrupted = false;
+        try {
+            this.blocked = true;
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            long deadline = System.nanoTime() + nanos;
+            while (this.blocked && nanos > 0) {
+                try {
+                    this.unblocked.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                nanos = deadline - System.nanoTime();
+            }
+            return !this.blocked;
+        } finally {
+            this.startBlock = false;
+            this.transactionLock.unlock();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the transaction to be unblocked, after block(long) timed out.
+     */
+    public void awaitUnblock() {
+        this.transactionLock.lock();
+        try {
+            while (this.blocked) {
+                this.unblocked.awaitUninterruptibly();
+            }
+        } finally {
+            this.transactionLock.unlock();
+        }
+    }
+
     /**
      * Unblocks the transaction (and thread running the transaction).
      */
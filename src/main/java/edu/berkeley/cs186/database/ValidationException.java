@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database;
+
+/**
+ * Thrown by commit to an optimistic transaction (see
+ * Database#beginOptimisticTransaction) when a page it read was changed by
+ * another transaction after it began. None of its changes were made, and it
+ * has been rolled back; it may be retried.
+ */
+@SuppressWarnings("serial")
+public class ValidationException extends RuntimeException {
+    ValidationException(String message) {
+        super(message);
+    }
+}
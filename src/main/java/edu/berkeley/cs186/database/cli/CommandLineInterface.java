@@ -9,6 +9,7 @@ import edu.berkeley.cs186.database.cli.parser.ParseException;
 import edu.berkeley.cs186.database.cli.parser.RookieParser;
 import edu.berkeley.cs186.database.cli.parser.TokenMgrError;
 import edu.berkeley.cs186.database.cli.visitor.StatementListVisitor;
+import edu.berkeley.cs186.database.concurrency.LockContention;
 import edu.berkeley.cs186.database.concurrency.LockManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.table.Record;
@@ -189,6 +190,27 @@ public class CommandLineInterface {
             List<Record> records = db.scanIndexMetadataRecords();
             new PrettyPrinter(out).printRecords(db.getIndexInfoSchema().getFieldNames(),
                     records.iterator());
+        } else if (cmd.equals("backup")) {
+            if (tokens.length != 2) {
+                throw new IllegalArgumentException("usage: \\backup <directory>");
+            }
+            db.backup(tokens[1]);
+            this.out.printf("Backed up to %s; the log will be archived there until exit.\n", tokens[1]);
+        } else if (cmd.equals("contention")) {
+            List<LockContention> contention = db.getLockContention();
+            if (contention.isEmpty()) {
+                this.out.println("No locks requested yet.");
+            }
+            for (LockContention c : contention) {
+                this.out.println(c);
+            }
+        } else if (cmd.equals("locktimeout")) {
+            if (tokens.length == 2) {
+                db.setLockWaitTimeout(Long.parseLong(tokens[1]));
+            } else if (tokens.length != 1) {
+                throw new IllegalArgumentException("usage: \\locktimeout [milliseconds, 0 to wait forever]");
+            }
+            this.out.printf("Lock wait timeout: %d ms\n", db.getLockManager().getWaitTimeout());
         } else if (cmd.equals("locks")) {
             if (tc == null) {
                 this.out.println("No locks held, because not currently in a transaction.");
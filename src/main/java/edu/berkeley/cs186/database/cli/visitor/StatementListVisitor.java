@@ -3,6 +3,8 @@ package edu.berkeley.cs186.database.cli.visitor;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.Transaction;
 import edu.berkeley.cs186.database.cli.parser.*;
+import edu.berkeley.cs186.database.concurrency.DeadlockException;
+import edu.berkeley.cs186.database.concurrency.LockTimeoutException;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -63,8 +65,13 @@ public class StatementListVisitor extends RookieParserDefaultVisitor {
                 default:
                     if (currTransaction == null) {
                         try (Transaction tmp = database.beginTransaction()) {
-                            visitor.execute(tmp, out);
-                            tmp.commit();
+                            try {
+                                visitor.execute(tmp, out);
+                                tmp.commit();
+                            } catch (DeadlockException | LockTimeoutException e) {
+                                tmp.rollback();
+                                this.out.println(e.getMessage() + ". ROLLBACK");
+                            }
                         } catch (Exception e) {
                             e.printStackTrace(this.out);
                             this.out.println("Operation failed.");
@@ -72,6 +79,11 @@ public class StatementListVisitor extends RookieParserDefaultVisitor {
                     } else {
                         try {
                             visitor.execute(currTransaction, out);
+                        } catch (DeadlockException | LockTimeoutException e) {
+                            // the transaction has to give up its locks
+                            currTransaction.rollback();
+                            currTransaction = null;
+                            this.out.println(e.getMessage() + ". ROLLBACK");
                         } catch (Exception e) {
                             e.printStackTrace(this.out);
                             this.out.println("Operation failed.");
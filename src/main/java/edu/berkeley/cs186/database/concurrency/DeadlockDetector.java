@@ -0,0 +1,115 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Background thread that looks for deadlocks in a lock manager at a fixed
+ * interval, and breaks them (see LockManager#detectDeadlocks).
+ */
+public class DeadlockDetector implements AutoCloseable {
+    private final LockManager lockManager;
+    private final long intervalMillis;
+    private final ToLongFunction<Long> victimCost;
+    private final Thread thread;
+    private boolean stopped = false;
+
+    // number of times the lock manager was checked
+    private volatile long numChecks = 0;
+    // number of deadlocks found (and broken, by aborting one request each)
+    private volatile long numDeadlocks = 0;
+    // total time spent checking, in nanoseconds
+    private volatile long checkNanos = 0;
+
+    /**
+     * Starts a detector that picks the transaction holding the fewest locks
+     * as the victim of a deadlock.
+     */
+    public DeadlockDetector(LockManager lockManager, long intervalMillis) {
+        this(lockManager, intervalMillis, lockManager::getNumLocks);
+    }
+
+    /**
+     * @param lockManager lock manager to check
+     * @param intervalMillis time between checks, in milliseconds
+     * @param victimCost cost of aborting a transaction, by transaction number;
+     *                   the cheapest transaction of a deadlock is aborted
+     */
+    public DeadlockDetector(LockManager lockManager, long intervalMillis, ToLongFunction<Long> victimCost) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("deadlock detection interval must be positive");
+        }
+        this.lockManager = lockManager;
+        this.intervalMillis = intervalMillis;
+        this.victimCost = victimCost;
+        this.thread = new Thread(this::run, "deadlock-detector");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private synchronized void run() {
+        while (!stopped) {
+            try {
+                wait(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!stopped) {
+                check();
+            }
+        }
+    }
+
+    /**
+     * Checks the lock manager for deadlocks now.
+     * @return the number of deadlocks found
+     */
+    public synchronized int check() {
+        long start = System.nanoTime();
+        int found = lockManager.detectDeadlocks(victimCost);
+        checkNanos += System.nanoTime() - start;
+        numDeadlocks += found;
+        ++numChecks;
+        return found;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getNumChecks() {
+        return numChecks;
+    }
+
+    public long getNumDeadlocks() {
+        return numDeadlocks;
+    }
+
+    /**
+     * @return total time spent checking for deadlocks, in nanoseconds
+     */
+    public long getCheckNanos() {
+        return checkNanos;
+    }
+
+    /**
+     * Stops the detector, waiting for a check in progress to finish.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d deadlocks found in %d checks (%.1f ms)", numDeadlocks, numChecks,
+                             checkNanos / 1e6);
+    }
+}
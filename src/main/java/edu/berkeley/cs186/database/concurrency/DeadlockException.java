@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction whose lock request was aborted to break a deadlock
+ * (see LockManager#detectDeadlocks). The lock was not granted; the
+ * transaction should be rolled back, which releases the locks other
+ * transactions are waiting for.
+ */
+@SuppressWarnings("serial")
+public class DeadlockException extends RuntimeException {
+    DeadlockException(String message) {
+        super(message);
+    }
+}
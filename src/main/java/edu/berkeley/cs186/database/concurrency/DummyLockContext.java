@@ -13,12 +13,17 @@ import edu.berkeley.cs186.database.TransactionContext;
  * context since no synchronization across transactions is needed.
  */
 public class DummyLockContext extends LockContext {
+    // DummyLockManager keeps no state, so every dummy context can share one
+    // (a lock manager is not cheap to construct, and a dummy context is
+    // created for every page fetched with one).
+    private static final DummyLockManager lockManager = new DummyLockManager();
+
     public DummyLockContext() {
         this((LockContext) null);
     }
 
     public DummyLockContext(LockContext parent) {
-        super(new DummyLockManager(), parent, "Unnamed");
+        super(lockManager, parent, "Unnamed");
     }
 
     public DummyLockContext(String name) {
@@ -26,7 +31,7 @@ public class DummyLockContext extends LockContext {
     }
 
     public DummyLockContext(LockContext parent, String name) {
-        super(new DummyLockManager(), parent, name);
+        super(lockManager, parent, name);
     }
 
     @Override
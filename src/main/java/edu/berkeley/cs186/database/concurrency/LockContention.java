@@ -0,0 +1,82 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Contention statistics of a single resource of a lock manager (see
+ * LockManager#getContention), as of when they were read.
+ */
+public class LockContention {
+    private final ResourceName name;
+    private final long numAcquires;
+    private final long numWaits;
+    private final long numTimeouts;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+    private final int queueLength;
+
+    LockContention(ResourceName name, long numAcquires, long numWaits, long numTimeouts,
+                   long totalWaitNanos, long maxWaitNanos, int queueLength) {
+        this.name = name;
+        this.numAcquires = numAcquires;
+        this.numWaits = numWaits;
+        this.numTimeouts = numTimeouts;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.queueLength = queueLength;
+    }
+
+    public ResourceName getName() {
+        return name;
+    }
+
+    /**
+     * @return number of lock requests (acquires, promotions and
+     * acquire-and-releases) made on the resource
+     */
+    public long getNumAcquires() {
+        return numAcquires;
+    }
+
+    /**
+     * @return number of requests that had to wait in the resource's queue
+     */
+    public long getNumWaits() {
+        return numWaits;
+    }
+
+    /**
+     * @return number of requests that gave up waiting (see
+     * LockManager#setWaitTimeout)
+     */
+    public long getNumTimeouts() {
+        return numTimeouts;
+    }
+
+    /**
+     * @return total time requests that are no longer queued waited, in
+     * nanoseconds
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    /**
+     * @return longest time a request waited, in nanoseconds
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    /**
+     * @return number of requests currently queued
+     */
+    public int getQueueLength() {
+        return queueLength;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d acquires, %d waits, %d timeouts, %.1f ms waited (max %.1f ms), %d queued",
+                             name, numAcquires, numWaits, numTimeouts, totalWaitNanos / 1e6,
+                             maxWaitNanos / 1e6, queueLength);
+    }
+}
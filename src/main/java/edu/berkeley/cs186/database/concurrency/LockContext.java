@@ -7,6 +7,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntSupplier;
 
 /**
  * LockContext wraps around LockManager to provide the hierarchical structure
@@ -41,6 +42,17 @@ public class LockContext {
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // Auto-escalation policy, applied by LockUtil#ensureSufficientLockHeld: a
+    // transaction's child locks are escalated to this level instead of taking
+    // a new child lock once it holds `escalationThreshold` child locks, or
+    // `escalationFraction` of `capacity` children. 0 turns a rule off.
+    protected volatile int escalationThreshold;
+    protected volatile double escalationFraction;
+
+    // The number of children of this context (e.g. data pages of a table),
+    // for the fraction rule of the escalation policy.
+    protected volatile IntSupplier capacity = () -> 0;
+
     public LockContext(LockManager lockman, LockContext parent, String name) {
         this(lockman, parent, name, false);
     }
@@ -384,6 +396,56 @@ public class LockContext {
         this.childLocksDisabled = true;
     }
 
+    /**
+     * Sets the auto-escalation policy of this context: when a transaction
+     * would hold more than `maxChildLocks` locks on children of this context,
+     * or more than `maxChildFraction` of its capacity, LockUtil escalates the
+     * transaction's locks to this context instead of locking another child.
+     * Pass 0 to turn either rule off.
+     */
+    public void setEscalationPolicy(int maxChildLocks, double maxChildFraction) {
+        if (maxChildLocks < 0 || maxChildFraction < 0 || maxChildFraction > 1) {
+            throw new IllegalArgumentException("invalid escalation policy");
+        }
+        this.escalationThreshold = maxChildLocks;
+        this.escalationFraction = maxChildFraction;
+    }
+
+    /**
+     * Sets the number of children of this context, used by the fraction rule
+     * of the escalation policy. The supplier is called on every check, so it
+     * can follow e.g. a growing table.
+     */
+    public void setCapacity(IntSupplier capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of children of this context, or 0 if unknown
+     */
+    public int capacity() {
+        return capacity.getAsInt();
+    }
+
+    /**
+     * @return whether `transaction` taking one more lock on a child of this
+     * context would go over the escalation policy of this context
+     */
+    public boolean shouldEscalate(TransactionContext transaction) {
+        if (readonly) {
+            return false;
+        }
+        int numChildren = getNumChildren(transaction) + 1;
+        if (escalationThreshold > 0 && numChildren > escalationThreshold) {
+            return true;
+        }
+        if (escalationFraction > 0) {
+            int capacity = capacity();
+            return capacity > 0 && numChildren > escalationFraction * capacity;
+        }
+        return false;
+    }
+
     /**
      * Gets the parent context.
      */
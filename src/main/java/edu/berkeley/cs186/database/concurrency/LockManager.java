@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.concurrency;
 import edu.berkeley.cs186.database.TransactionContext;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have what locks
@@ -29,16 +32,44 @@ import java.util.*;
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is
  * processed.
+ *
+ * The bookkeeping for resources is split into shards by resource name, each
+ * with its own lock, so that requests on unrelated resources do not wait for
+ * each other.
  */
 public class LockManager {
+    // Number of shards resourceEntries is split into. Each shard is guarded by
+    // its own lock, so requests on resources in different shards do not
+    // contend with each other.
+    private static final int NUM_STRIPES = 64;
+
     // transactionLocks is a mapping from transaction number to a list of lock
-    // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
+    // objects held by that transaction. The lists are synchronized, since a
+    // transaction's locks may be in any shard.
+    private Map<Long, List<Lock>> transactionLocks = new ConcurrentHashMap<>();
 
     // resourceEntries is a mapping from resource names to a ResourceEntry
     // object, which contains a list of Locks on the object, as well as a
-    // queue for requests on that resource.
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    // queue for requests on that resource. It is split into shards by the
+    // hash of the resource name (see stripeOf); a shard's entries may only be
+    // accessed while holding its lock in stripeLocks.
+    private List<Map<ResourceName, ResourceEntry>> resourceEntries = new ArrayList<>();
+    private ReentrantLock[] stripeLocks = new ReentrantLock[NUM_STRIPES];
+
+    // Blocked transactions whose request was aborted to break a deadlock
+    // (see detectDeadlocks), and that have not been woken up yet.
+    private Set<Long> deadlockVictims = ConcurrentHashMap.newKeySet();
+
+    // How long a request may wait in a queue before it fails with
+    // LockTimeoutException, in milliseconds; 0 to wait forever.
+    private volatile long waitTimeoutMillis = 0;
+
+    public LockManager() {
+        for (int i = 0; i < NUM_STRIPES; ++i) {
+            resourceEntries.add(new HashMap<>());
+            stripeLocks[i] = new ReentrantLock();
+        }
+    }
 
     // A ResourceEntry contains the list of locks on a resource, as well as
     // the queue for requests for locks on the resource.
@@ -48,6 +79,13 @@ public class LockManager {
         // Queue for yet-to-be-satisfied lock requests on this resource.
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
 
+        // Contention statistics (see getContention).
+        long numAcquires = 0;
+        long numWaits = 0;
+        long numTimeouts = 0;
+        long totalWaitNanos = 0;
+        long maxWaitNanos = 0;
+
         // Below are a list of helper methods we suggest you implement.
         // You're free to modify their type signatures, delete, or ignore them.
 
@@ -82,20 +120,21 @@ public class LockManager {
             }
             locks.add(lock);
             // add lock to transaction
-            transactionLocks.putIfAbsent(lock.transactionNum, new ArrayList<>());
-            transactionLocks.get(lock.transactionNum).add(lock);
+            transactionLocks.computeIfAbsent(lock.transactionNum,
+                    k -> Collections.synchronizedList(new ArrayList<>())).add(lock);
             return;
         }
 
         /**
          * Releases the lock `lock` and processes the queue. Assumes that the
-         * lock has been granted before.
+         * lock has been granted before. Requests granted off the queue are
+         * added to `granted` (see processQueue).
          */
-        public void releaseLock(Lock lock) {
+        public void releaseLock(Lock lock, List<LockRequest> granted) {
             // TODO(proj4_part1): implement
             locks.remove(lock);
             transactionLocks.get(lock.transactionNum).remove(lock);
-            processQueue();
+            processQueue(granted);
             return;
         }
 
@@ -105,6 +144,7 @@ public class LockManager {
          */
         public void addToQueue(LockRequest request, boolean addFront) {
             // TODO(proj4_part1): implement
+            ++numWaits;
             if (addFront) {
                 waitingQueue.addFirst(request);
             } else {
@@ -117,8 +157,13 @@ public class LockManager {
          * Grant locks to requests from front to back of the queue, stopping
          * when the next lock cannot be granted. Once a request is completely
          * granted, the transaction that made the request can be unblocked.
+         *
+         * The locks a granted request releases may be in other shards, so
+         * releasing them and unblocking the transaction is left to the
+         * caller, once it no longer holds any shard lock (see finishGrants):
+         * granted requests are added to `granted`.
          */
-        private void processQueue() {
+        private void processQueue(List<LockRequest> granted) {
             Iterator<LockRequest> requests = waitingQueue.iterator();
 
             // TODO(proj4_part1): implement
@@ -129,10 +174,8 @@ public class LockManager {
                 if (checkCompatible(request.lock.lockType, request.transaction.getTransNum())) {
                     waitingQueue.removeFirst();
                     grantOrUpdateLock(request.lock);
-                    for (Lock lock : request.releasedLocks) {
-                        release(request.transaction, lock.name);
-                    }
-                    request.transaction.unblock();
+                    recordWait(request);
+                    granted.add(request);
                 }
                 else {
                     break;
@@ -141,6 +184,16 @@ public class LockManager {
             return;
         }
 
+        /**
+         * Adds the time `request` spent waiting to the statistics, once it is
+         * no longer queued.
+         */
+        private void recordWait(LockRequest request) {
+            long nanos = System.nanoTime() - request.requestNanos;
+            totalWaitNanos += nanos;
+            maxWaitNanos = Math.max(maxWaitNanos, nanos);
+        }
+
         /**
          * Gets the type of lock `transaction` has on this resource.
          */
@@ -164,13 +217,68 @@ public class LockManager {
     // You should not modify or use this directly.
     private Map<String, LockContext> contexts = new HashMap<>();
 
+    /**
+     * Returns the index of the shard holding the entry of `name`.
+     */
+    private static int stripeOf(ResourceName name) {
+        int h = name.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), NUM_STRIPES);
+    }
+
+    /**
+     * Locks the shards holding the entries of `names`, in increasing order
+     * of shard index (so that threads locking several shards cannot
+     * deadlock), and returns the locks taken, to pass to unlockStripes.
+     */
+    private List<ReentrantLock> lockStripes(Collection<ResourceName> names) {
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (ResourceName name : names) {
+            stripes.add(stripeOf(name));
+        }
+        List<ReentrantLock> locked = new ArrayList<>();
+        for (int stripe : stripes) {
+            stripeLocks[stripe].lock();
+            locked.add(stripeLocks[stripe]);
+        }
+        return locked;
+    }
+
+    private List<ReentrantLock> lockAllStripes() {
+        List<ReentrantLock> locked = new ArrayList<>();
+        for (ReentrantLock stripeLock : stripeLocks) {
+            stripeLock.lock();
+            locked.add(stripeLock);
+        }
+        return locked;
+    }
+
+    private static void unlockStripes(List<ReentrantLock> locked) {
+        for (int i = locked.size() - 1; i >= 0; --i) {
+            locked.get(i).unlock();
+        }
+    }
+
     /**
      * Helper method to fetch the resourceEntry corresponding to `name`.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
+     * The lock of the shard of `name` must be held.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return resourceEntries.get(stripeOf(name)).computeIfAbsent(name, k -> new ResourceEntry());
+    }
+
+    /**
+     * Completes requests granted off a queue (see processQueue): releases the
+     * locks each request gives up, and unblocks its transaction. Must be
+     * called without holding any shard lock.
+     */
+    private void finishGrants(List<LockRequest> granted) {
+        for (LockRequest request : granted) {
+            for (Lock lock : request.releasedLocks) {
+                release(request.transaction, lock.name);
+            }
+            request.transaction.unblock();
+        }
     }
 
     /**
@@ -203,36 +311,54 @@ public class LockManager {
         // You may modify any part of this method. You are not required to keep
         // all your code within the given synchronized block and are allowed to
         // move the synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        synchronized (this) {
+        LockRequest request = null;
+        long transNum = transaction.getTransNum();
+        List<ResourceName> names = new ArrayList<>(releaseNames);
+        names.add(name);
+        List<LockRequest> granted = new ArrayList<>();
+        List<ReentrantLock> locked = lockStripes(names);
+        try {
             ResourceEntry entry = getResourceEntry(name);
-            if (entry.getTransactionLockType(transaction.getTransNum()) == lockType) {
+            if (entry.getTransactionLockType(transNum) == lockType) {
                 throw new DuplicateLockRequestException("Duplicate lock request");
             }
-            if (entry.checkCompatible(lockType, transaction.getTransNum())) {
-                entry.grantOrUpdateLock(new Lock(name, lockType, transaction.getTransNum()));
+            for (ResourceName releaseName : releaseNames) {
+                if (!releaseName.equals(name) &&
+                        getResourceEntry(releaseName).getTransactionLockType(transNum) == LockType.NL) {
+                    throw new NoLockHeldException("No lock held");
+                }
+            }
+            ++entry.numAcquires;
+            if (entry.checkCompatible(lockType, transNum)) {
+                entry.grantOrUpdateLock(new Lock(name, lockType, transNum));
                 for (ResourceName releaseName : releaseNames) {
                     if (releaseName.equals(name)) {
                         continue;
                     }
-                    if (getResourceEntry(releaseName).getTransactionLockType(transaction.getTransNum()) == LockType.NL) {
-                        throw new NoLockHeldException("No lock held");
-                    }
-                    release(transaction, releaseName);
+                    ResourceEntry releaseEntry = getResourceEntry(releaseName);
+                    LockType releaseType = releaseEntry.getTransactionLockType(transNum);
+                    releaseEntry.releaseLock(new Lock(releaseName, releaseType, transNum), granted);
                 }
             }
             else {
-                shouldBlock = true;
                 List<Lock> releaseLocks = new ArrayList<>();
                 for (ResourceName releaseName : releaseNames) {
-                    releaseLocks.add(new Lock(name, getResourceEntry(releaseName).getTransactionLockType(transaction.getTransNum()), transaction.getTransNum()));
+                    // the lock on `name` itself is replaced when the request is granted
+                    if (!releaseName.equals(name)) {
+                        releaseLocks.add(new Lock(releaseName,
+                                getResourceEntry(releaseName).getTransactionLockType(transNum), transNum));
+                    }
                 }
-                entry.addToQueue(new LockRequest(transaction, new Lock(name, lockType, transaction.getTransNum()), releaseLocks), true);
+                request = new LockRequest(transaction, new Lock(name, lockType, transNum), releaseLocks);
+                entry.addToQueue(request, true);
                 transaction.prepareBlock();
             }
+        } finally {
+            unlockStripes(locked);
         }
-        if (shouldBlock) {
-            transaction.block();
+        finishGrants(granted);
+        if (request != null) {
+            waitForGrant(transaction, name, request);
         }
     }
 
@@ -253,23 +379,28 @@ public class LockManager {
         // You may modify any part of this method. You are not required to keep all your
         // code within the given synchronized block and are allowed to move the
         // synchronized block elsewhere if you wish.
-        boolean shouldBlock = false;
-        synchronized (this) {
+        LockRequest request = null;
+        ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+        stripeLock.lock();
+        try {
             ResourceEntry entry = getResourceEntry(name);
             if (entry.getTransactionLockType(transaction.getTransNum()) != LockType.NL) {
                 throw new DuplicateLockRequestException("Duplicate lock request");
             }
+            ++entry.numAcquires;
             if (entry.waitingQueue.isEmpty() && entry.checkCompatible(lockType, transaction.getTransNum())) {
                 entry.grantOrUpdateLock(new Lock(name, lockType, transaction.getTransNum()));
             }
             else {
-                shouldBlock = true;
-                entry.addToQueue(new LockRequest(transaction, new Lock(name, lockType, transaction.getTransNum())), false);
+                request = new LockRequest(transaction, new Lock(name, lockType, transaction.getTransNum()));
+                entry.addToQueue(request, false);
                 transaction.prepareBlock();
             }
+        } finally {
+            stripeLock.unlock();
         }
-        if (shouldBlock) {
-            transaction.block();
+        if (request != null) {
+            waitForGrant(transaction, name, request);
         }
     }
 
@@ -287,14 +418,20 @@ public class LockManager {
             throws NoLockHeldException {
         // TODO(proj4_part1): implement
         // You may modify any part of this method.
-        synchronized (this) {
+        List<LockRequest> granted = new ArrayList<>();
+        ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+        stripeLock.lock();
+        try {
             ResourceEntry entry = getResourceEntry(name);
             LockType lockType = entry.getTransactionLockType(transaction.getTransNum());
             if (lockType == LockType.NL) {
                 throw new NoLockHeldException("No lock held");
             }
-            entry.releaseLock(new Lock(name, lockType, transaction.getTransNum()));
+            entry.releaseLock(new Lock(name, lockType, transaction.getTransNum()), granted);
+        } finally {
+            stripeLock.unlock();
         }
+        finishGrants(granted);
     }
 
     /**
@@ -323,8 +460,10 @@ public class LockManager {
             throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
         // TODO(proj4_part1): implement
         // You may modify any part of this method.
-        boolean shouldBlock = false;
-        synchronized (this) {
+        LockRequest request = null;
+        ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+        stripeLock.lock();
+        try {
             ResourceEntry entry = getResourceEntry(name);
             LockType lockType = entry.getTransactionLockType(transaction.getTransNum());
             if (lockType == LockType.NL) {
@@ -336,43 +475,288 @@ public class LockManager {
             if (!LockType.substitutable(newLockType, lockType)) {
                 throw new InvalidLockException("Invalid lock request");
             }
+            ++entry.numAcquires;
             if (entry.checkCompatible(newLockType, transaction.getTransNum())) {
                 entry.grantOrUpdateLock(new Lock(name, newLockType, transaction.getTransNum()));
             }
             else {
-                shouldBlock = true;
-                entry.addToQueue(new LockRequest(transaction, new Lock(name, newLockType, transaction.getTransNum())), true);
+                request = new LockRequest(transaction, new Lock(name, newLockType, transaction.getTransNum()));
+                entry.addToQueue(request, true);
                 transaction.prepareBlock();
             }
+        } finally {
+            stripeLock.unlock();
+        }
+        if (request != null) {
+            waitForGrant(transaction, name, request);
         }
-        if (shouldBlock) {
+    }
+
+    /**
+     * Blocks `transaction` until `request`, queued on `name`, is granted. If
+     * the wait timeout elapses first, the request is taken off the queue and
+     * LockTimeoutException is thrown. prepareBlock() must have been called.
+     */
+    private void waitForGrant(TransactionContext transaction, ResourceName name, LockRequest request) {
+        long timeoutMillis = waitTimeoutMillis;
+        if (timeoutMillis <= 0) {
             transaction.block();
+        } else if (!transaction.block(timeoutMillis)) {
+            boolean removed;
+            List<LockRequest> granted = new ArrayList<>();
+            ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+            stripeLock.lock();
+            try {
+                ResourceEntry entry = getResourceEntry(name);
+                removed = entry.waitingQueue.remove(request);
+                if (removed) {
+                    ++entry.numTimeouts;
+                    entry.recordWait(request);
+                    // requests queued behind this one may be grantable now
+                    entry.processQueue(granted);
+                }
+            } finally {
+                stripeLock.unlock();
+            }
+            finishGrants(granted);
+            if (removed) {
+                transaction.unblock();
+                throw new LockTimeoutException("transaction " + transaction.getTransNum() + " timed out after " +
+                                               timeoutMillis + " ms waiting for " + request.lock);
+            }
+            // granted (or aborted to break a deadlock) just as the timeout
+            // elapsed: wait for the transaction to be unblocked
+            transaction.awaitUnblock();
+        }
+        checkDeadlockVictim(transaction);
+    }
+
+    /**
+     * Throws DeadlockException if the request `transaction` was just woken up
+     * from was aborted to break a deadlock.
+     */
+    private void checkDeadlockVictim(TransactionContext transaction) {
+        if (deadlockVictims.remove(transaction.getTransNum())) {
+            throw new DeadlockException("transaction " + transaction.getTransNum() +
+                                        " was aborted to break a deadlock");
+        }
+    }
+
+    /**
+     * Looks for deadlocks among the blocked transactions, and breaks each one
+     * by aborting the lock request of one transaction in it: the one that is
+     * cheapest to abort according to `victimCost`, or the youngest (highest
+     * transaction number) of those. The request is taken off its queue, the
+     * queue is processed, and the transaction is unblocked, after which the
+     * request throws DeadlockException.
+     *
+     * Deadlocks are found as cycles in a waits-for graph: a blocked
+     * transaction waits for the transactions holding a lock its request
+     * conflicts with, and for those queued before it on the same resource
+     * (since queues are processed in order).
+     *
+     * @param victimCost cost of aborting a transaction, by transaction number
+     * @return the number of deadlocks broken
+     */
+    public int detectDeadlocks(ToLongFunction<Long> victimCost) {
+        int numDeadlocks = 0;
+        List<LockRequest> granted = new ArrayList<>();
+        List<TransactionContext> victims = new ArrayList<>();
+        List<ReentrantLock> locked = lockAllStripes();
+        try {
+            Map<Long, Set<Long>> waitsFor = new HashMap<>();
+            Map<Long, ResourceEntry> waitingOn = new HashMap<>();
+            Map<Long, LockRequest> requests = new HashMap<>();
+            for (Map<ResourceName, ResourceEntry> shard : resourceEntries) {
+                for (ResourceEntry entry : shard.values()) {
+                    List<Long> queuedBefore = new ArrayList<>();
+                    for (LockRequest request : entry.waitingQueue) {
+                        long waiter = request.transaction.getTransNum();
+                        Set<Long> edges = waitsFor.computeIfAbsent(waiter, k -> new HashSet<>());
+                        for (Lock lock : entry.locks) {
+                            if (!LockType.compatible(lock.lockType, request.lock.lockType)) {
+                                edges.add(lock.transactionNum);
+                            }
+                        }
+                        edges.addAll(queuedBefore);
+                        edges.remove(waiter);
+                        queuedBefore.add(waiter);
+                        waitingOn.put(waiter, entry);
+                        requests.put(waiter, request);
+                    }
+                }
+            }
+
+            List<Long> cycle;
+            while ((cycle = findCycle(waitsFor)) != null) {
+                ++numDeadlocks;
+                long victim = Collections.min(cycle, Comparator.comparingLong(victimCost)
+                                              .thenComparing(Comparator.reverseOrder()));
+                LockRequest request = requests.get(victim);
+                ResourceEntry entry = waitingOn.get(victim);
+                entry.waitingQueue.remove(request);
+                entry.recordWait(request);
+                deadlockVictims.add(victim);
+                victims.add(request.transaction);
+                waitsFor.remove(victim);
+
+                // requests granted now no longer wait for anything
+                int numGranted = granted.size();
+                entry.processQueue(granted);
+                for (LockRequest grantedRequest : granted.subList(numGranted, granted.size())) {
+                    waitsFor.remove(grantedRequest.transaction.getTransNum());
+                }
+            }
+        } finally {
+            unlockStripes(locked);
+        }
+        finishGrants(granted);
+        for (TransactionContext victim : victims) {
+            victim.unblock();
+        }
+        return numDeadlocks;
+    }
+
+    /**
+     * Returns the transactions on a cycle of the waits-for graph, or null if
+     * there is none.
+     */
+    private static List<Long> findCycle(Map<Long, Set<Long>> waitsFor) {
+        // transactions on the current path of the search, and transactions
+        // already known not to be on any cycle
+        Set<Long> onPath = new HashSet<>();
+        Set<Long> done = new HashSet<>();
+        for (Long start : waitsFor.keySet()) {
+            if (done.contains(start)) {
+                continue;
+            }
+            Deque<Long> path = new ArrayDeque<>();
+            Deque<Iterator<Long>> edges = new ArrayDeque<>();
+            path.push(start);
+            edges.push(waitsFor.get(start).iterator());
+            onPath.add(start);
+            while (!path.isEmpty()) {
+                Iterator<Long> next = edges.peek();
+                if (!next.hasNext()) {
+                    onPath.remove(path.peek());
+                    done.add(path.pop());
+                    edges.pop();
+                    continue;
+                }
+                Long transNum = next.next();
+                if (onPath.contains(transNum)) {
+                    List<Long> cycle = new ArrayList<>();
+                    for (Long t : path) {
+                        cycle.add(t);
+                        if (t.equals(transNum)) {
+                            break;
+                        }
+                    }
+                    return cycle;
+                }
+                if (!done.contains(transNum)) {
+                    path.push(transNum);
+                    edges.push(waitsFor.getOrDefault(transNum, Collections.emptySet()).iterator());
+                    onPath.add(transNum);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets how long a lock request may wait before it fails with
+     * LockTimeoutException; 0 (the default) waits forever. Only applies to
+     * requests made after the call.
+     */
+    public void setWaitTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("lock wait timeout must not be negative");
+        }
+        this.waitTimeoutMillis = timeoutMillis;
+    }
+
+    public long getWaitTimeout() {
+        return waitTimeoutMillis;
+    }
+
+    /**
+     * Returns the contention statistics of every resource a lock was ever
+     * requested on, most waited on first. Each shard is read under its lock,
+     * but shards are read one after another.
+     */
+    public List<LockContention> getContention() {
+        List<LockContention> contention = new ArrayList<>();
+        for (int i = 0; i < NUM_STRIPES; ++i) {
+            stripeLocks[i].lock();
+            try {
+                for (Map.Entry<ResourceName, ResourceEntry> e : resourceEntries.get(i).entrySet()) {
+                    ResourceEntry entry = e.getValue();
+                    if (entry.numAcquires > 0) {
+                        contention.add(new LockContention(e.getKey(), entry.numAcquires, entry.numWaits,
+                                entry.numTimeouts, entry.totalWaitNanos, entry.maxWaitNanos,
+                                entry.waitingQueue.size()));
+                    }
+                }
+            } finally {
+                stripeLocks[i].unlock();
+            }
         }
+        contention.sort(Comparator.comparingLong(LockContention::getTotalWaitNanos).reversed()
+                        .thenComparing(c -> c.getName().toString()));
+        return contention;
+    }
+
+    /**
+     * Returns the number of locks held by the transaction with number
+     * `transNum`.
+     */
+    public int getNumLocks(long transNum) {
+        List<Lock> locks = transactionLocks.get(transNum);
+        return locks == null ? 0 : locks.size();
     }
 
     /**
      * Return the type of lock `transaction` has on `name` or NL if no lock is
      * held.
      */
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
         // TODO(proj4_part1): implement
-        ResourceEntry resourceEntry = getResourceEntry(name);
-        return resourceEntry.getTransactionLockType(transaction.getTransNum());
+        ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+        stripeLock.lock();
+        try {
+            ResourceEntry resourceEntry = getResourceEntry(name);
+            return resourceEntry.getTransactionLockType(transaction.getTransNum());
+        } finally {
+            stripeLock.unlock();
+        }
     }
 
     /**
      * Returns the list of locks held on `name`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        ReentrantLock stripeLock = stripeLocks[stripeOf(name)];
+        stripeLock.lock();
+        try {
+            ResourceEntry entry = resourceEntries.get(stripeOf(name)).get(name);
+            return entry == null ? new ArrayList<>() : new ArrayList<>(entry.locks);
+        } finally {
+            stripeLock.unlock();
+        }
     }
 
     /**
      * Returns the list of locks held by `transaction`, in order of acquisition.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
-        return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
-                Collections.emptyList()));
+    public List<Lock> getLocks(TransactionContext transaction) {
+        List<Lock> locks = transactionLocks.get(transaction.getTransNum());
+        if (locks == null) {
+            return new ArrayList<>();
+        }
+        synchronized (locks) {
+            return new ArrayList<>(locks);
+        }
     }
 
     /**
@@ -15,6 +15,8 @@ class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    // when the request was made, for the wait time statistics
+    long requestNanos = System.nanoTime();
 
     // Lock request for `lock`, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
@@ -0,0 +1,14 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction whose lock request waited longer than the lock
+ * wait timeout of the lock manager (see LockManager#setWaitTimeout). The
+ * lock was not granted and the request was taken off the queue; the
+ * transaction should be rolled back.
+ */
+@SuppressWarnings("serial")
+public class LockTimeoutException extends RuntimeException {
+    LockTimeoutException(String message) {
+        super(message);
+    }
+}
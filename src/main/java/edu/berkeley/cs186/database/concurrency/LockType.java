@@ -114,7 +114,8 @@ public enum LockType {
                 {false, false, false, false, false, true},
                 {true, false, true, false, false, true},
                 {true, true, true, true, true, true},
-                {false, false, false, false, false, true},
+                // SIX already implies S, so children only need IX/X
+                {false, true, false, true, false, true},
                 {false, false, false, false, false, true}
         };
 
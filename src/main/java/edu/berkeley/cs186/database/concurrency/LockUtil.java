@@ -30,6 +30,11 @@ public class LockUtil {
      *
      * You may find it useful to create a helper method that ensures you have
      * the appropriate locks on all ancestors.
+     *
+     * If taking a new lock on `lockContext` would go over the escalation
+     * policy of its parent (see LockContext#setEscalationPolicy), the
+     * transaction's locks under the parent are escalated to the parent
+     * instead.
      */
     public static void ensureSufficientLockHeld(LockContext lockContext, LockType requestType) {
         // requestType must be S, X, or NL
@@ -38,6 +43,8 @@ public class LockUtil {
         // Do nothing if the transaction or lockContext is null
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction == null || lockContext == null) return;
+        // 快照事务（以及提交前的乐观事务）只读取旧版本，不加锁
+        if (transaction.getSnapshotTimestamp() >= 0) return;
 
         // You may find these variables useful
         LockContext parentContext = lockContext.parentContext();
@@ -62,7 +69,14 @@ public class LockUtil {
         }
 
         // 处理当前节点
-        if (explicitLockType == LockType.NL) {
+        if (explicitLockType == LockType.NL && parentContext != null
+                && parentContext.shouldEscalate(transaction)) {
+            // 子锁过多，按父节点的升级策略改为锁住整个父节点
+            parentContext.escalate(transaction);
+            if (!LockType.substitutable(parentContext.getEffectiveLockType(transaction), requestType)) {
+                ensureSufficientLockHeld(parentContext, requestType);
+            }
+        } else if (explicitLockType == LockType.NL) {
             // 没有锁，直接获取
             lockContext.acquire(transaction, requestType);
         } else if (explicitLockType == LockType.IX && requestType == LockType.S) {
@@ -97,6 +111,21 @@ public class LockUtil {
         return;
     }
 
+    /**
+     * Ensure that the current transaction holds at least an `intentType`
+     * (IS or IX) lock on `lockContext` and its ancestors, for operations that
+     * lock descendants of `lockContext` as they go.
+     */
+    public static void ensureIntentLockHeld(LockContext lockContext, LockType intentType) {
+        assert (intentType == LockType.IS || intentType == LockType.IX);
+
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction == null || lockContext == null) return;
+        if (transaction.getSnapshotTimestamp() >= 0) return;
+
+        ensureIntentLocks(lockContext, transaction, intentType);
+    }
+
     // TODO(proj4_part2) add any helper methods you want
     private static void ensureIntentLocks(LockContext lockContext, TransactionContext transaction, LockType lockType) {
         if (lockContext == null) {
@@ -111,6 +140,9 @@ public class LockUtil {
             lockContext.acquire(transaction, lockType);
         } else if (currentLockType == LockType.IS && lockType == LockType.IX) {
             lockContext.promote(transaction, LockType.IX);
+        } else if (currentLockType == LockType.S && lockType == LockType.IX) {
+            // S 加上 IX 即 SIX（例如升级为表锁后再写某一页）
+            lockContext.promote(transaction, LockType.SIX);
         } else if (!LockType.substitutable(currentLockType, lockType) &&
                 currentLockType != LockType.S && currentLockType != LockType.X &&
                 currentLockType != LockType.SIX) {
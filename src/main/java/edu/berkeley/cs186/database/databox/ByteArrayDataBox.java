@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.databox;
 
+import java.util.Arrays;
+
 public class ByteArrayDataBox extends DataBox {
     byte[] bytes;
 
@@ -25,9 +27,40 @@ public class ByteArrayDataBox extends DataBox {
         return this.bytes;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof ByteArrayDataBox)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((ByteArrayDataBox) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    // Byte arrays compare byte by byte, as unsigned bytes, with a prefix of
+    // an array before the array; the keys of composite indexes are byte
+    // arrays ordered this way (see index.CompositeKey).
     @Override
     public int compareTo(DataBox other) {
-        throw new RuntimeException("Cannot compare byte arrays");
+        if (!(other instanceof ByteArrayDataBox)) {
+            String err = String.format("Invalid comparison between %s and %s.",
+                                       toString(), other.toString());
+            throw new IllegalArgumentException(err);
+        }
+        byte[] otherBytes = ((ByteArrayDataBox) other).bytes;
+        for (int i = 0; i < bytes.length && i < otherBytes.length; ++i) {
+            int c = Integer.compare(bytes[i] & 0xff, otherBytes[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(bytes.length, otherBytes.length);
     }
     @Override
     public String toString() {
@@ -4,11 +4,17 @@ import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.RecordId;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -93,9 +99,12 @@ abstract class BPlusNode {
      *   leaf0                  leaf3
      *
      * When a leaf splits, it returns the first entry in the right node as the
-     * split key. In this example, 3 is the split key. After leaf0 splits, inner
-     * inserts the new key and child pointer into itself and hits case 1 (i.e. it
-     * does not overflow). The tree looks like this:
+     * split key. In this example, 3 is the split key. (String keys are the
+     * exception: the split key is the shortest prefix of the first key in the
+     * right node that is still greater than the last key in the left node; see
+     * separator.) After leaf0 splits, inner inserts the new key and child
+     * pointer into itself and hits case 1 (i.e. it does not overflow). The tree
+     * looks like this:
      *
      *                          inner
      *                          +--+--+--+--+
@@ -130,6 +139,11 @@ abstract class BPlusNode {
      * described. For example, do not move entries between nodes to avoid
      * splitting.
      *
+     * A node with prefix-compressed keys (see isPrefixCompressed) also splits
+     * when it has no more than 2d entries but no longer fits on a page. It is
+     * split in half the same way, unless one of the halves would not fit on a
+     * page either; then it is split in half by bytes instead.
+     *
      * Our B+ trees do not support duplicate entries with the same key. If a
      * duplicate key is inserted into a leaf node, the tree is left unchanged
      * and a BPlusTreeException is raised.
@@ -217,6 +231,12 @@ abstract class BPlusNode {
     /** Get the page on which this node is persisted. */
     abstract Page getPage();
 
+    /** Copies this node to a new page of the tree, and returns the copy. */
+    abstract BPlusNode copy();
+
+    /** Returns whether an entry can be added to this node without a split. */
+    abstract boolean hasRoom();
+
     // Pretty Printing /////////////////////////////////////////////////////////
     /**
      * S-expressions (or sexps) are a compact way of encoding nested tree-like
@@ -255,20 +275,245 @@ abstract class BPlusNode {
      */
     public static BPlusNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager,
                                       LockContext treeContext, long pageNum) {
+        // the page is fetched once, and the node loaded from it (which
+        // unpins it) without fetching any other page meanwhile
         Page p = bufferManager.fetchPage(treeContext, pageNum);
+        byte b;
         try {
-            Buffer buf = p.getBuffer();
-            byte b = buf.get();
-            if (b == 1) {
-                return LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else if (b == 0) {
-                return InnerNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
-            } else {
-                String msg = String.format("Unexpected byte %b.", b);
-                throw new IllegalArgumentException(msg);
-            }
-        } finally {
+            b = p.getBuffer().get();
+        } catch (RuntimeException e) {
+            p.unpin();
+            throw e;
+        }
+        if (b == 1) {
+            return LeafNode.fromPage(metadata, bufferManager, treeContext, p);
+        } else if (b == 0) {
+            return InnerNode.fromPage(metadata, bufferManager, treeContext, p);
+        } else {
             p.unpin();
+            String msg = String.format("Unexpected byte %b.", b);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+
+    /**
+     * Reads the serialization of the node on page `pageNum` (see toBytes)
+     * into memory in one go, so that it can be searched in place (see
+     * InnerNode.findChild and LeafNode.findKey) instead of deserialized.
+     */
+    static Buffer readBytes(BufferManager bufferManager, LockContext treeContext, long pageNum) {
+        Page page = bufferManager.fetchPage(treeContext, pageNum);
+        try {
+            byte[] bytes = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+            page.getBuffer().get(bytes);
+            return edu.berkeley.cs186.database.common.ByteBuffer.wrap(bytes);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /** Returns whether `node`, read by readBytes, is a leaf. */
+    static boolean isLeaf(Buffer node) {
+        return node.get(0) == (byte) 1;
+    }
+
+    /**
+     * Keys are serialized at their full, fixed width, except string keys,
+     * whose serialization is prefix compressed: every key is stored as the
+     * number of leading bytes it shares with the key before it (2 bytes), the
+     * number of bytes that follow (2 bytes), and those bytes, unpadded. The
+     * keys of a node are sorted, so neighbors tend to share long prefixes.
+     *
+     * Nodes with prefix-compressed keys are bounded by their size in bytes
+     * rather than by the order of the tree (see maxOrder). Strings so long
+     * that four of them would not fit on a page at full width are not
+     * compressed, so that the halves of a split node always fit on a page.
+     */
+    static boolean isPrefixCompressed(Type keySchema) {
+        int entrySize = KEY_HEADER_SIZE + keySchema.getSizeInBytes() + RecordId.getSizeInBytes();
+        return keySchema.getTypeId() == TypeId.STRING &&
+               4 * entrySize + 13 <= BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    // bytes before the suffix of a prefix-compressed key
+    private static final int KEY_HEADER_SIZE = 2 * Short.BYTES;
+
+    private static final Charset CHARSET = Charset.forName("ascii");
+
+    /**
+     * Returns the fewest bytes a key of type `keySchema` takes up in a
+     * serialized node.
+     */
+    static int minKeySize(Type keySchema) {
+        return isPrefixCompressed(keySchema) ? KEY_HEADER_SIZE : keySchema.getSizeInBytes();
+    }
+
+    /**
+     * Returns the most bytes a key of type `keySchema` takes up in a
+     * serialized node.
+     */
+    static int maxKeySize(Type keySchema) {
+        int size = keySchema.getSizeInBytes();
+        return isPrefixCompressed(keySchema) ? KEY_HEADER_SIZE + size : size;
+    }
+
+    /** Returns the number of bytes the serialization of `keys` takes up. */
+    static int keysSize(List<DataBox> keys, Type keySchema) {
+        if (!isPrefixCompressed(keySchema)) {
+            return keys.size() * keySchema.getSizeInBytes();
+        }
+        int size = 0;
+        byte[] prev = null;
+        for (DataBox key : keys) {
+            byte[] bytes = key.getString().getBytes(CHARSET);
+            size += KEY_HEADER_SIZE + bytes.length - commonPrefix(prev, bytes);
+            prev = bytes;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the serialization of `key` takes up when it
+     * follows `prev` (null for the first key of a node), so that keysSize can
+     * be kept up to date one key at a time.
+     */
+    static int keySize(DataBox prev, DataBox key, Type keySchema) {
+        if (!isPrefixCompressed(keySchema)) {
+            return keySchema.getSizeInBytes();
+        }
+        byte[] bytes = key.getString().getBytes(CHARSET);
+        byte[] prevBytes = prev == null ? null : prev.getString().getBytes(CHARSET);
+        return KEY_HEADER_SIZE + bytes.length - commonPrefix(prevBytes, bytes);
+    }
+
+    /**
+     * Serializes `key` into `buf`, given the bytes of the key before it (null
+     * for the first key of a node). Returns the bytes of `key`, for the key
+     * after it.
+     */
+    static byte[] putKey(ByteBuffer buf, byte[] prev, DataBox key, Type keySchema) {
+        if (!isPrefixCompressed(keySchema)) {
+            byte[] bytes = key.toBytes();
+            buf.put(bytes);
+            return bytes;
+        }
+        byte[] bytes = key.getString().getBytes(CHARSET);
+        int prefix = commonPrefix(prev, bytes);
+        buf.putShort((short) prefix);
+        buf.putShort((short) (bytes.length - prefix));
+        buf.put(bytes, prefix, bytes.length - prefix);
+        return bytes;
+    }
+
+    /**
+     * Deserializes a key serialized by putKey from `buf`, given the key before
+     * it (null for the first key of a node).
+     */
+    static DataBox getKey(Buffer buf, DataBox prev, Type keySchema) {
+        if (!isPrefixCompressed(keySchema)) {
+            return DataBox.fromBytes(buf, keySchema);
+        }
+        int prefix = buf.getShort();
+        byte[] suffix = new byte[buf.getShort()];
+        buf.get(suffix);
+        // deserialized keys are ASCII, a byte per char
+        String s = new String(suffix, CHARSET);
+        if (prefix > 0) {
+            s = prev.getString().substring(0, prefix) + s;
+        }
+        return new StringDataBox(s, keySchema.getSizeInBytes());
+    }
+
+    /**
+     * Compares the key serialized at full width at `index` of `buf` to `key`,
+     * deserializing it only if it is of a type not compared in place.
+     */
+    static int compareKey(Buffer buf, int index, DataBox key, Type keySchema) {
+        switch (keySchema.getTypeId()) {
+            case BOOL: return Boolean.compare(buf.get(index) == (byte) 1, key.getBool());
+            case INT: return Integer.compare(buf.getInt(index), key.getInt());
+            case LONG: return Long.compare(buf.getLong(index), key.getLong());
+            case FLOAT: return Float.compare(buf.getFloat(index), key.getFloat());
+            default: return DataBox.fromBytes(buf.position(index), keySchema).compareTo(key);
+        }
+    }
+
+    /**
+     * Reads the prefix-compressed keys serialized in a buffer (see putKey)
+     * one after the other, rebuilding the bytes of each key over the bytes of
+     * the key before it, and compares them to a key without deserializing
+     * them.
+     */
+    static class KeyScanner {
+        private final Buffer buf;
+        private final byte[] target;
+        private final byte[] bytes;
+        private int length = 0;
+
+        /**
+         * Scans the keys starting at the position of `buf`, comparing them to
+         * `key` (which may be null if they are only skipped).
+         */
+        KeyScanner(Buffer buf, DataBox key, Type keySchema) {
+            this.buf = buf;
+            this.target = key == null ? null : key.getString().getBytes(CHARSET);
+            this.bytes = new byte[keySchema.getSizeInBytes()];
+        }
+
+        /**
+         * Reads the next key, leaving `buf` past it, and returns how it
+         * compares to the key (see Comparable.compareTo).
+         */
+        int next() {
+            skip();
+            int n = Math.min(length, target.length);
+            for (int i = 0; i < n; ++i) {
+                if (bytes[i] != target[i]) {
+                    return Integer.compare(bytes[i] & 0xff, target[i] & 0xff);
+                }
+            }
+            return Integer.compare(length, target.length);
+        }
+
+        /** Reads the next key, leaving `buf` past it. */
+        void skip() {
+            int prefix = buf.getShort();
+            int n = buf.getShort();
+            for (int i = 0; i < n; ++i) {
+                bytes[prefix + i] = buf.get();
+            }
+            length = prefix + n;
+        }
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        if (a == null) {
+            return 0;
+        }
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n && a[i] == b[i]) {
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the key to separate `left` from `right` (left < right) with in
+     * an inner node: `right` itself, or for string keys, its shortest prefix
+     * greater than `left` (suffix truncation), which packs more keys into
+     * the inner nodes.
+     */
+    static DataBox separator(DataBox left, DataBox right) {
+        if (right.getTypeId() != TypeId.STRING) {
+            return right;
+        }
+        String l = left.getString();
+        String r = right.getString();
+        int prefix = 0;
+        while (prefix < l.length() && l.charAt(prefix) == r.charAt(prefix)) {
+            ++prefix;
         }
+        return new StringDataBox(r.substring(0, prefix + 1), right.type().getSizeInBytes());
     }
 }
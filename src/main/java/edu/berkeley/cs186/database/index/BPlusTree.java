@@ -1,7 +1,9 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
@@ -15,6 +17,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * A persistent B+ tree.
@@ -36,6 +40,9 @@ import java.util.*;
  *   tree.scanEqual(new IntDataBox(2));        // [(2, 2)]
  *   tree.scanAll();                             // [(0, 0), (1, 1), (2, 2)]
  *   tree.scanGreaterEqual(new IntDataBox(1)); // [(1, 1), (2, 2)]
+ *   tree.scanLessThan(new IntDataBox(2), false); // [(0, 0), (1, 1)]
+ *   tree.scanRangeDescending(new IntDataBox(1), true,
+ *                            new IntDataBox(2), true); // [(2, 2), (1, 1)]
  *
  *   // Remove some elements from the tree.
  *   tree.get(new IntDataBox(0)); // Optional.of(RecordId(0, 0))
@@ -49,20 +56,60 @@ import java.util.*;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * Transactions do not lock the pages of a tree, but ranges of its keys (next-
+ * key locking). The lock of a key, a child of the tree's lock context, covers
+ * the key and the gap below it down to the previous key; the lock "key:end"
+ * covers the gap above the largest key. A lookup of a key locks the key,
+ * whether it is in the tree or not, so that it cannot be inserted or removed
+ * until the transaction ends; a range scan locks every key it returns and
+ * then the next key (or the end) past the range; an insert or a removal locks
+ * the key, and for the sake of scans the next key, in X mode. To keep the
+ * number of locks of a big tree bounded, keys are hashed onto a fixed number
+ * of locks; keys with the same hash merely conflict needlessly. A scan of the
+ * whole tree locks the whole tree instead. A descending scan locks the next
+ * key past the top of its range first, and then every key it returns, whose
+ * lock covers the gap the scan moves into.
+ *
+ * The nodes themselves are protected by a BPlusTreeLatch. Point lookups read
+ * nodes optimistically, validating the latch of every node after reading it
+ * and starting over if a writer got in the way; everything else latches the
+ * nodes it reads. The root stays on the same page: when it splits, its
+ * contents move to a new page instead. Inner nodes read on the way down are
+ * kept deserialized in the InnerNodeCache of the latch, shared by every
+ * BPlusTree object of the index. Leaves only point to their right siblings:
+ * a descending scan finds the leaf before a leaf from the root again, below
+ * the smallest key the leaf could hold (see descendFenced).
  */
 public class BPlusTree {
+    // Number of locks the keys of a tree are hashed onto.
+    private static final int KEY_LOCKS = 4096;
+
+    // Number of times get tries to descend without latches before it latches
+    // its way down.
+    private static final int OPTIMISTIC_ATTEMPTS = 4;
+
     // Buffer manager
     private BufferManager bufferManager;
 
     // B+ tree metadata
     private BPlusTreeMetadata metadata;
 
-    // root of the B+ tree
-    private BPlusNode root;
+    // root of the B+ tree, with the stamp of the root's latch it was read at
+    // (see BPlusTreeLatch); read without a latch by get, hence one volatile
+    // field
+    private volatile Pair<BPlusNode, Long> root;
 
     // lock context for the B+ tree
     private LockContext lockContext;
 
+    // latches of the nodes of the tree
+    private BPlusTreeLatch latch;
+
+    // lock context the nodes are fetched with: the pages are latched rather
+    // than locked
+    private LockContext nodeContext = new DummyLockContext("_dummyIndexPages");
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Construct a new B+ tree with metadata `metadata` and lock context `lockContext`.
@@ -86,11 +133,15 @@ public class BPlusTree {
      * All pages allocated on the given partition are serializations of inner and leaf nodes.
      */
     public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext) {
-        // Prevent child locks - we only lock the entire tree as a whole.
-        lockContext.disableChildLocks();
-        // By default we want to read the whole tree
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        this(bufferManager, metadata, lockContext, new BPlusTreeLatch());
+    }
 
+    /**
+     * Construct a B+ tree whose nodes are latched with `latch`, which every
+     * BPlusTree object of the same index must share.
+     */
+    public BPlusTree(BufferManager bufferManager, BPlusTreeMetadata metadata, LockContext lockContext,
+                     BPlusTreeLatch latch) {
         // Sanity checks.
         if (metadata.getOrder() < 0) {
             String msg = String.format(
@@ -111,11 +162,9 @@ public class BPlusTree {
         this.bufferManager = bufferManager;
         this.lockContext = lockContext;
         this.metadata = metadata;
+        this.latch = latch;
 
-        if (this.metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
-            this.root = BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
-                    this.metadata.getRootPageNum());
-        } else {
+        if (this.metadata.getRootPageNum() == DiskSpaceManager.INVALID_PAGE_NUM) {
             // We're creating the root, which means we need exclusive access
             // on the tree
             LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
@@ -123,8 +172,13 @@ public class BPlusTree {
             List<DataBox> keys = new ArrayList<>();
             List<RecordId> rids = new ArrayList<>();
             Optional<Long> rightSibling = Optional.empty();
-            this.updateRoot(new LeafNode(this.metadata, bufferManager, keys, rids, rightSibling, lockContext));
+            LeafNode leaf = new LeafNode(this.metadata, bufferManager, keys, rids, rightSibling, nodeContext);
+            metadata.setRootPageNum(leaf.getPage().getPageNum());
+            metadata.incrementHeight();
+            updateMetadata();
         }
+        // read when first latched
+        this.root = null;
     }
 
     // Core API ////////////////////////////////////////////////////////////////
@@ -142,13 +196,24 @@ public class BPlusTree {
      */
     public Optional<RecordId> get(DataBox key) {
         typecheck(key);
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-
-        // TODO(proj2): implement
-        LeafNode leaf = root.get(key);
+        // the key, whether it is in the tree or not, so that it is neither
+        // inserted nor removed by others
+        if (!coveredByTreeLock(LockType.S)) {
+            lockKey(keyLockName(key), LockType.S);
+        }
 
-        return leaf.getKey(key);
+        for (int i = 0; i < OPTIMISTIC_ATTEMPTS; ++i) {
+            Optional<Optional<RecordId>> rid = tryGet(key);
+            if (rid.isPresent()) {
+                return rid.get();
+            }
+        }
+        Deque<Lock> held = new ArrayDeque<>();
+        try {
+            return descend(key, false, held).getKey(key);
+        } finally {
+            release(held);
+        }
     }
 
     /**
@@ -160,9 +225,6 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanEqual(DataBox key) {
         typecheck(key);
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-
         Optional<RecordId> rid = get(key);
         if (rid.isPresent()) {
             ArrayList<RecordId> l = new ArrayList<>();
@@ -199,13 +261,10 @@ public class BPlusTree {
      * memory will receive 0 points.
      */
     public Iterator<RecordId> scanAll() {
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-
-        // TODO(proj2): Return a BPlusTreeIterator.
-        LeafNode LeftMostLeaf = root.getLeftmostLeaf();
+        // a scan of every key locks the whole tree rather than every key
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
-        return new BPlusTreeIterator(LeftMostLeaf);
+        return new RidIterator(new BPlusTreeIterator(null));
     }
 
     /**
@@ -233,14 +292,94 @@ public class BPlusTree {
      */
     public Iterator<RecordId> scanGreaterEqual(DataBox key) {
         typecheck(key);
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
+        return new RidIterator(new BPlusTreeIterator(key));
+    }
 
-        // TODO(proj2): Return a BPlusTreeIterator.
-        LeafNode leaf = root.get(key);
+    /**
+     * Returns an iterator over the (key, rid) pairs stored in the B+ tree
+     * whose keys are greater than or equal to `key`, or over every pair if
+     * `key` is null, in ascending order of their keys. Index-only scans use
+     * it to read the keys themselves, without fetching the records.
+     */
+    public Iterator<Pair<DataBox, RecordId>> scanEntriesGreaterEqual(DataBox key) {
+        if (key == null) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        } else {
+            typecheck(key);
+        }
+        return new BPlusTreeIterator(key);
+    }
 
+    /**
+     * Returns an iterator over the RecordIds stored in the B+ tree whose keys
+     * are less than `key` (or equal to it, if `inclusive`), in ascending order
+     * of their keys. The scan stops at the first key past `key`, without
+     * reading the rest of the tree.
+     *
+     *   Iterator<RecordId> iter = tree.scanLessThan(new IntDataBox(3), false);
+     *   iter.next(); // RecordId(1, 1)
+     *   iter.next(); // RecordId(2, 2)
+     *   iter.next(); // NoSuchElementException
+     */
+    public Iterator<RecordId> scanLessThan(DataBox key, boolean inclusive) {
+        typecheck(key);
+        return scanRange(null, false, key, inclusive);
+    }
 
-        return new BPlusTreeIterator(leaf, key);
+    /**
+     * Returns an iterator over the RecordIds stored in the B+ tree whose keys
+     * are between `lo` and `hi`, in ascending order of their keys. Each bound
+     * is included if `loInclusive` (`hiInclusive`), and a null bound leaves
+     * the range open on its side. The scan starts at `lo` and stops at the
+     * first key past `hi`.
+     *
+     *   Iterator<RecordId> iter = tree.scanRange(new IntDataBox(2), true,
+     *                                            new IntDataBox(4), false);
+     *   iter.next(); // RecordId(2, 2)
+     *   iter.next(); // RecordId(3, 3)
+     *   iter.next(); // NoSuchElementException
+     */
+    public Iterator<RecordId> scanRange(DataBox lo, boolean loInclusive, DataBox hi, boolean hiInclusive) {
+        return new RidIterator(scanEntries(lo, loInclusive, hi, hiInclusive, false));
+    }
+
+    /**
+     * scanRangeDescending(lo, loInclusive, hi, hiInclusive) returns the same
+     * RecordIds as scanRange, in descending order of their keys: the scan
+     * starts at `hi` and stops at the first key past `lo`.
+     *
+     *   Iterator<RecordId> iter = tree.scanRangeDescending(new IntDataBox(2), true,
+     *                                                      new IntDataBox(4), false);
+     *   iter.next(); // RecordId(3, 3)
+     *   iter.next(); // RecordId(2, 2)
+     *   iter.next(); // NoSuchElementException
+     */
+    public Iterator<RecordId> scanRangeDescending(DataBox lo, boolean loInclusive, DataBox hi, boolean hiInclusive) {
+        return new RidIterator(scanEntries(lo, loInclusive, hi, hiInclusive, true));
+    }
+
+    /**
+     * Returns an iterator over the (key, rid) pairs stored in the B+ tree
+     * whose keys are between `lo` and `hi` (see scanRange), in ascending
+     * order of their keys, or in descending order if `descending`. A scan with
+     * neither bound locks the whole tree, like scanAll.
+     */
+    public Iterator<Pair<DataBox, RecordId>> scanEntries(DataBox lo, boolean loInclusive,
+                                                         DataBox hi, boolean hiInclusive,
+                                                         boolean descending) {
+        if (lo != null) {
+            typecheck(lo);
+        }
+        if (hi != null) {
+            typecheck(hi);
+        }
+        if (lo == null && hi == null) {
+            LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        }
+        if (descending) {
+            return new BoundedIterator(new ReverseBPlusTreeIterator(hi, hiInclusive), lo, loInclusive, true);
+        }
+        return new BoundedIterator(new BPlusTreeIterator(lo, loInclusive), hi, hiInclusive, false);
     }
 
     /**
@@ -254,25 +393,134 @@ public class BPlusTree {
      */
     public void put(DataBox key, RecordId rid) {
         typecheck(key);
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-
-        // TODO(proj2): implement
-        // Note: You should NOT update the root variable directly.
-        // Use the provided updateRoot() helper method to change
-        // the tree's root if the old root splits.
-        Optional<Pair<DataBox, Long>> newChild = root.put(key, rid);
-        if (newChild.isPresent()) {
-            List<DataBox> keys = new ArrayList<>();
-            List<Long> children = new ArrayList<>();
-            keys.add(newChild.get().getFirst());
-            children.add(root.getPage().getPageNum());
-            children.add(newChild.get().getSecond());
-            InnerNode newRoot = new InnerNode(metadata, bufferManager, keys, children, lockContext);
-            updateRoot(newRoot);
+        boolean locked = coveredByTreeLock(LockType.X);
+        if (!locked) {
+            lockKey(keyLockName(key), LockType.X);
+        }
+
+        // lock of the next key acquired so far
+        String nextLockName = null;
+        // whether to latch the nodes a split of the leaf would reach
+        boolean splitting = false;
+        boolean grew = false;
+        Deque<Lock> held = new ArrayDeque<>();
+        while (true) {
+            String lockName;
+            try {
+                List<BPlusNode> path = splitting ? descendExclusive(key, held)
+                                       : Collections.singletonList(descend(key, true, held));
+                LeafNode leaf = (LeafNode) path.get(path.size() - 1);
+                // the gap the key goes in, which readers of the gap lock to
+                // keep keys from appearing in it
+                lockName = locked ? null : keyLockName(nextKey(leaf, key));
+                if (Objects.equals(lockName, nextLockName)) {
+                    if (!splitting && !leaf.hasRoom()) {
+                        // start over, latching the ancestors the split reaches
+                        splitting = true;
+                        continue;
+                    }
+                    Optional<Pair<DataBox, Long>> newChild = leaf.put(key, rid);
+                    for (int i = path.size() - 2; i >= 0 && newChild.isPresent(); --i) {
+                        InnerNode parent = (InnerNode) path.get(i);
+                        newChild = parent.insertChild(newChild.get());
+                    }
+                    if (newChild.isPresent()) {
+                        // every node on the path was full, the root included
+                        splitRoot(path.get(0), newChild.get());
+                        grew = true;
+                    }
+                    break;
+                }
+            } finally {
+                release(held);
+            }
+            lockKey(lockName, LockType.X);
+            nextLockName = lockName;
         }
+        if (grew) {
+            updateMetadata();
+        }
+    }
 
-        return;
+    /**
+     * Inserts (key, rid) pairs into a B+ tree, as put would one at a time,
+     * but in key order, descending to a leaf once for all the pairs that go
+     * in it and writing it once. A leaf with no room left for the next pair
+     * is split by putting that pair alone. If a key already exists in the
+     * B+ tree (or twice in `entries`), an exception is raised; the pairs with
+     * smaller keys may have been inserted.
+     *
+     *   tree.putAll(Arrays.asList(new Pair<>(new IntDataBox(2), rid2),
+     *                             new Pair<>(new IntDataBox(1), rid1)).iterator());
+     */
+    public void putAll(Iterator<Pair<DataBox, RecordId>> entries) {
+        List<Pair<DataBox, RecordId>> sorted = new ArrayList<>();
+        while (entries.hasNext()) {
+            Pair<DataBox, RecordId> entry = entries.next();
+            typecheck(entry.getFirst());
+            sorted.add(entry);
+        }
+        sorted.sort(Comparator.comparing(Pair::getFirst));
+        boolean locked = coveredByTreeLock(LockType.X);
+        if (!locked) {
+            for (Pair<DataBox, RecordId> entry : sorted) {
+                lockKey(keyLockName(entry.getFirst()), LockType.X);
+            }
+        }
+
+        // locks of next keys acquired so far
+        Set<String> nextLockNames = new HashSet<>();
+        int i = 0;
+        while (i < sorted.size()) {
+            // pairs inserted into the leaf, and next key locks still needed
+            int n = 0;
+            Set<String> lockNames = new HashSet<>();
+            Deque<Lock> held = new ArrayDeque<>();
+            try {
+                Descent found = descendFenced(sorted.get(i).getFirst(), false, true, held);
+                LeafNode leaf = found.leaf;
+                DataBox upper = found.upper;
+                int end = i;
+                while (end < sorted.size() && (upper == null || sorted.get(end).getFirst().compareTo(upper) < 0)) {
+                    ++end;
+                }
+                List<Pair<DataBox, RecordId>> batch = sorted.subList(i, end);
+                if (!locked) {
+                    // the gaps the keys go in (see put); the keys past the
+                    // last key of the leaf all go in the same one
+                    String endLockName = null;
+                    for (Pair<DataBox, RecordId> entry : batch) {
+                        boolean pastEnd = InnerNode.numLessThanEqual(entry.getFirst(), leaf.getKeys())
+                                          == leaf.getKeys().size();
+                        String lockName = pastEnd && endLockName != null ? endLockName
+                                          : keyLockName(nextKey(leaf, entry.getFirst()));
+                        if (pastEnd) {
+                            endLockName = lockName;
+                        }
+                        if (!nextLockNames.contains(lockName)) {
+                            lockNames.add(lockName);
+                        }
+                    }
+                }
+                if (lockNames.isEmpty()) {
+                    n = leaf.putAll(batch);
+                }
+            } finally {
+                release(held);
+            }
+            for (String lockName : lockNames) {
+                lockKey(lockName, LockType.X);
+                nextLockNames.add(lockName);
+            }
+            if (lockNames.isEmpty()) {
+                if (n == 0) {
+                    // the leaf is full, or has the key already
+                    put(sorted.get(i).getFirst(), sorted.get(i).getSecond());
+                    n = 1;
+                }
+                i += n;
+            }
+        }
     }
 
     /**
@@ -295,32 +543,35 @@ public class BPlusTree {
      * bulkLoad (see comments in BPlusNode.bulkLoad).
      */
     public void bulkLoad(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) {
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
-        // TODO(proj2): implement
-        // Note: You should NOT update the root variable directly.
-        // Use the provided updateRoot() helper method to change
-        // the tree's root if the old root splits.
         if (scanAll().hasNext()) {
             throw new RuntimeException("Tree is not empty");
         }
 
-        while (data.hasNext()) {
-            Optional<Pair<DataBox, Long>> result = root.bulkLoad(data, fillFactor);
-            if (result.isPresent()) {
-                Pair<DataBox, Long> pair = result.get();
-                List<DataBox> keys = new ArrayList<>();
-                List<Long> children = new ArrayList<>();
-                keys.add(pair.getFirst());
-                children.add(root.getPage().getPageNum());
-                children.add(pair.getSecond());
-                BPlusNode newRoot = new InnerNode(metadata, bufferManager, keys, children, lockContext);
-                updateRoot(newRoot);
+        // Other transactions are kept out of the tree by the lock on it, and
+        // everyone else by the latch of the root.
+        boolean grew = false;
+        StampedLock rootLatch = latch.get(metadata.getRootPageNum());
+        rootLatch.asWriteLock().lock();
+        try {
+            while (data.hasNext()) {
+                BPlusNode node = getRoot();
+                Optional<Pair<DataBox, Long>> result = node.bulkLoad(data, fillFactor);
+                if (result.isPresent()) {
+                    splitRoot(node, result.get());
+                    grew = true;
+                }
             }
+        } finally {
+            // nodes below the root were changed without latching them
+            latch.getNodeCache().clear();
+            latch.clear(metadata.getRootPageNum());
+            rootLatch.asWriteLock().unlock();
+        }
+        if (grew) {
+            updateMetadata();
         }
-
-        return;
     }
 
     /**
@@ -336,12 +587,32 @@ public class BPlusTree {
      */
     public void remove(DataBox key) {
         typecheck(key);
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-
-        // TODO(proj2): implement
+        boolean locked = coveredByTreeLock(LockType.X);
+        if (!locked) {
+            lockKey(keyLockName(key), LockType.X);
+        }
 
-        root.remove(key);
+        // lock of the next key acquired so far
+        String nextLockName = null;
+        Deque<Lock> held = new ArrayDeque<>();
+        while (true) {
+            String lockName;
+            try {
+                LeafNode leaf = descend(key, true, held);
+                // the gap the key leaves, which becomes part of the next
+                // key's gap
+                lockName = locked ? null : keyLockName(nextKey(leaf, key));
+                if (Objects.equals(lockName, nextLockName)) {
+                    // leaves are not merged, so only the leaf changes
+                    leaf.remove(key);
+                    return;
+                }
+            } finally {
+                release(held);
+            }
+            lockKey(lockName, LockType.X);
+            nextLockName = lockName;
+        }
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -350,9 +621,14 @@ public class BPlusTree {
      * more information.
      */
     public String toSexp() {
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
-        return root.toSexp();
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        StampedLock rootLatch = latch.get(metadata.getRootPageNum());
+        rootLatch.asWriteLock().lock();
+        try {
+            return getRoot().toSexp();
+        } finally {
+            rootLatch.asWriteLock().unlock();
+        }
     }
 
     /**
@@ -368,13 +644,18 @@ public class BPlusTree {
      * to create a PDF of the tree.
      */
     public String toDot() {
-        // TODO(proj4_integration): Update the following line
-        LockUtil.ensureSufficientLockHeld(lockContext, LockType.NL);
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
         List<String> strings = new ArrayList<>();
         strings.add("digraph g {" );
         strings.add("  node [shape=record, height=0.1];");
-        strings.add(root.toDot());
+        StampedLock rootLatch = latch.get(metadata.getRootPageNum());
+        rootLatch.asWriteLock().lock();
+        try {
+            strings.add(getRoot().toDot());
+        } finally {
+            rootLatch.asWriteLock().unlock();
+        }
         strings.add("}");
         return String.join("\n", strings);
     }
@@ -424,25 +705,325 @@ public class BPlusTree {
         return Math.min(leafOrder, innerOrder);
     }
 
+    /**
+     * @return the cache of the inner nodes of the tree, shared by every
+     * BPlusTree object of the index, with its hit counts
+     */
+    public InnerNodeCache getNodeCache() {
+        return latch.getNodeCache();
+    }
+
     /** Returns the partition number that the B+ tree resides on. */
     public int getPartNum() {
         return metadata.getPartNum();
     }
 
+    // Returns the root, whose latch must be held; it is only read from its
+    // page again if it was latched exclusive since.
+    private BPlusNode getRoot() {
+        StampedLock rootLatch = latch.get(metadata.getRootPageNum());
+        Pair<BPlusNode, Long> cached = root;
+        if (cached == null || !rootLatch.validate(cached.getSecond())) {
+            // the stamp is 0 (never valid) if the latch is held exclusive,
+            // and so the root may yet change
+            cached = new Pair<>(fetchNode(metadata.getRootPageNum()), rootLatch.tryOptimisticRead());
+            root = cached;
+        }
+        return cached.getFirst();
+    }
+
+    /**
+     * Looks `key` up without latching any node: every node is read between
+     * taking a stamp of its latch and validating it, and the stamp of a child
+     * is taken before the stamp of its parent is validated, so that the child
+     * read is the child the parent pointed to. Inner nodes are taken from the
+     * node cache; nodes not cached are searched in place, and inner ones then
+     * cached. Returns Optional.empty() if a writer latched a node on the way
+     * meanwhile.
+     */
+    private Optional<Optional<RecordId>> tryGet(DataBox key) {
+        long pageNum = metadata.getRootPageNum();
+        StampedLock nodeLatch = latch.get(pageNum);
+        long stamp = nodeLatch.tryOptimisticRead();
+        if (stamp == 0) {
+            return Optional.empty();
+        }
+        try {
+            while (true) {
+                long childPageNum;
+                InnerNode inner = latch.getNodeCache().get(pageNum, nodeLatch);
+                if (inner != null) {
+                    childPageNum = inner.getChildPageNum(key);
+                } else {
+                    Buffer node = readNode(pageNum);
+                    if (BPlusNode.isLeaf(node)) {
+                        Optional<RecordId> rid = LeafNode.findKey(node, key, metadata.getKeySchema());
+                        return nodeLatch.validate(stamp) ? Optional.of(rid) : Optional.empty();
+                    }
+                    childPageNum = InnerNode.findChild(node, key, metadata.getKeySchema());
+                    cacheInnerNode(pageNum, stamp);
+                }
+                StampedLock childLatch = latch.get(childPageNum);
+                long childStamp = childLatch.tryOptimisticRead();
+                if (childStamp == 0 || !nodeLatch.validate(stamp)) {
+                    return Optional.empty();
+                }
+                pageNum = childPageNum;
+                nodeLatch = childLatch;
+                stamp = childStamp;
+            }
+        } catch (RuntimeException e) {
+            // a node read while a writer changed it need not make sense
+            if (nodeLatch.validate(stamp)) {
+                throw e;
+            }
+            return Optional.empty();
+        }
+    }
+
+    private BPlusNode fetchNode(long pageNum) {
+        return BPlusNode.fromBytes(metadata, bufferManager, nodeContext, pageNum);
+    }
+
+    private Buffer readNode(long pageNum) {
+        return BPlusNode.readBytes(bufferManager, nodeContext, pageNum);
+    }
+
+    // Reads the inner node on page `pageNum` into the node cache, and returns
+    // it; `stamp` is a stamp of its latch taken before the node was last
+    // searched (and is validated afterwards, if the latch is not held).
+    private InnerNode cacheInnerNode(long pageNum, long stamp) {
+        InnerNode node = (InnerNode) fetchNode(pageNum);
+        latch.getNodeCache().put(pageNum, node, stamp);
+        return node;
+    }
+
+    private static void release(Deque<Lock> held) {
+        while (!held.isEmpty()) {
+            held.pop().unlock();
+        }
+    }
+
+    /**
+     * Descends from the root to the leaf `key` belongs in (the leftmost leaf
+     * if `key` is null), crabbing with shared latches. Returns the leaf with
+     * its latch, exclusive if `exclusive`, held and pushed onto `held`.
+     */
+    private LeafNode descend(DataBox key, boolean exclusive, Deque<Lock> held) {
+        return descendFenced(key, false, exclusive, held).leaf;
+    }
+
+    // A leaf found by descendFenced, with its fences.
+    private static class Descent {
+        final LeafNode leaf;
+        // the largest key separating children on the way down that is at most
+        // the leaf's keys, and the smallest one greater than them; null if
+        // there is none
+        final DataBox lower;
+        final DataBox upper;
+
+        Descent(LeafNode leaf, DataBox lower, DataBox upper) {
+            this.leaf = leaf;
+            this.lower = lower;
+            this.upper = upper;
+        }
+    }
+
+    /**
+     * Like descend, but also returns the fences of the leaf: its keys, and
+     * the keys that go in it, are at least the lower fence and less than the
+     * upper fence, for as long as its latch is held. If `below`, descends to
+     * the leaf holding the keys just less than `key` instead (the rightmost
+     * leaf if `key` is null), which a descending scan moves to next.
+     */
+    private Descent descendFenced(DataBox key, boolean below, boolean exclusive, Deque<Lock> held) {
+        while (true) {
+            DataBox lower = null;
+            DataBox upper = null;
+            long pageNum = metadata.getRootPageNum();
+            StampedLock nodeLatch = latch.get(pageNum);
+            nodeLatch.asReadLock().lock();
+            held.push(nodeLatch.asReadLock());
+            BPlusNode node = getRoot();
+            // whether node was read by this descent, rather than shared with
+            // others through the root cache
+            boolean fetched = false;
+            if (node instanceof InnerNode) {
+                InnerNode inner = (InnerNode) node;
+                // inner nodes below the root are taken from the node cache
+                // (and read into it if they are not there), and every node
+                // missing from it is deserialized once
+                while (true) {
+                    List<DataBox> keys = inner.getKeys();
+                    int i;
+                    if (key == null) {
+                        i = below ? keys.size() : 0;
+                    } else {
+                        i = below ? InnerNode.numLessThan(key, keys) : InnerNode.numLessThanEqual(key, keys);
+                    }
+                    if (i > 0) {
+                        lower = keys.get(i - 1);
+                    }
+                    if (i < keys.size()) {
+                        upper = keys.get(i);
+                    }
+                    pageNum = inner.getChildren().get(i);
+                    nodeLatch = latch.get(pageNum);
+                    nodeLatch.asReadLock().lock();
+                    held.push(nodeLatch.asReadLock());
+                    // the parent is kept until the child is latched for good
+                    if (held.size() > 2) {
+                        held.removeLast().unlock();
+                    }
+                    inner = latch.getNodeCache().get(pageNum, nodeLatch);
+                    if (inner == null) {
+                        BPlusNode child = fetchNode(pageNum);
+                        if (child instanceof LeafNode) {
+                            node = child;
+                            fetched = true;
+                            break;
+                        }
+                        inner = (InnerNode) child;
+                        latch.getNodeCache().put(pageNum, inner, nodeLatch.tryOptimisticRead());
+                    }
+                }
+            }
+            if (exclusive) {
+                // the latch of the parent keeps the leaf from splitting
+                // meanwhile, but not from changing: the leaf read is kept
+                // only if no writer latched it in between
+                long stamp = nodeLatch.tryOptimisticRead();
+                held.pop().unlock();
+                if (!fetched || nodeLatch.tryConvertToWriteLock(stamp) == 0) {
+                    nodeLatch.asWriteLock().lock();
+                    node = fetchNode(pageNum);
+                }
+                held.push(nodeLatch.asWriteLock());
+                if (!(node instanceof LeafNode)) {
+                    // the leaf was the root, and split
+                    release(held);
+                    continue;
+                }
+            }
+            if (held.size() > 1) {
+                held.removeLast().unlock();
+            }
+            return new Descent((LeafNode) node, lower, upper);
+        }
+    }
+
     /**
-     * Save the new root page number and update the tree's metadata.
-     **/
-    private void updateRoot(BPlusNode newRoot) {
-        this.root = newRoot;
+     * Descends from the root to the leaf `key` belongs in, latching nodes
+     * exclusive and releasing the latches of the ancestors of every node
+     * with room for another key, where a split of the leaf would stop.
+     * Returns the nodes still latched from the top down, with their latches
+     * pushed onto `held`.
+     */
+    private List<BPlusNode> descendExclusive(DataBox key, Deque<Lock> held) {
+        List<BPlusNode> path = new ArrayList<>();
+        StampedLock nodeLatch = latch.get(metadata.getRootPageNum());
+        nodeLatch.asWriteLock().lock();
+        held.push(nodeLatch.asWriteLock());
+        BPlusNode node = getRoot();
+        while (true) {
+            if (node.hasRoom()) {
+                while (held.size() > 1) {
+                    held.removeLast().unlock();
+                }
+                path.clear();
+            }
+            path.add(node);
+            if (node instanceof LeafNode) {
+                return path;
+            }
+            long pageNum = ((InnerNode) node).getChildPageNum(key);
+            nodeLatch = latch.get(pageNum);
+            nodeLatch.asWriteLock().lock();
+            held.push(nodeLatch.asWriteLock());
+            node = fetchNode(pageNum);
+        }
+    }
 
-        metadata.setRootPageNum(this.root.getPage().getPageNum());
+    /**
+     * Splits the root `oldRoot`, whose new sibling is `newChild`: the
+     * contents of the root move to a new page, and the root page becomes the
+     * parent of both. The latch of the root must be held exclusive.
+     */
+    private void splitRoot(BPlusNode oldRoot, Pair<DataBox, Long> newChild) {
+        List<DataBox> keys = new ArrayList<>();
+        List<Long> children = new ArrayList<>();
+        keys.add(newChild.getFirst());
+        children.add(oldRoot.copy().getPage().getPageNum());
+        children.add(newChild.getSecond());
+        InnerNode.overwrite(metadata, bufferManager, oldRoot.getPage(), keys, children, nodeContext);
         metadata.incrementHeight();
+    }
+
+    /**
+     * Saves the tree's metadata. Must not be called with latches held: it
+     * waits for a lock on the metadata.
+     */
+    private void updateMetadata() {
         TransactionContext transaction = TransactionContext.getTransaction();
         if (transaction != null) {
             transaction.updateIndexMetadata(metadata);
         }
     }
 
+    // Returns the smallest key greater than `key`, looking from `leaf`, the
+    // leaf `key` belongs in, whose latch is held; null if there is none.
+    // Right siblings are latched shared while they are looked at.
+    private DataBox nextKey(LeafNode leaf, DataBox key) {
+        List<DataBox> keys = leaf.getKeys();
+        int i = InnerNode.numLessThanEqual(key, keys);
+        if (i < keys.size()) {
+            return keys.get(i);
+        }
+        Lock held = null;
+        try {
+            // leaves emptied by removals are not merged away
+            Optional<Long> sibling = leaf.getRightSiblingPageNum();
+            while (sibling.isPresent()) {
+                Lock siblingLatch = latch.get(sibling.get()).asReadLock();
+                siblingLatch.lock();
+                if (held != null) {
+                    held.unlock();
+                }
+                held = siblingLatch;
+                leaf = LeafNode.fromBytes(metadata, bufferManager, nodeContext, sibling.get());
+                if (!leaf.getKeys().isEmpty()) {
+                    return leaf.getKeys().get(0);
+                }
+                sibling = leaf.getRightSiblingPageNum();
+            }
+            return null;
+        } finally {
+            if (held != null) {
+                held.unlock();
+            }
+        }
+    }
+
+    // Name of the lock of `key`, or of the gap above the largest key if
+    // `key` is null.
+    private static String keyLockName(DataBox key) {
+        return key == null ? "key:end" : "key:" + Math.floorMod(key.hashCode(), KEY_LOCKS);
+    }
+
+    // Waits for a lock of type `lockType` on lock `name` of the tree; the
+    // latch must not be held.
+    private void lockKey(String name, LockType lockType) {
+        LockUtil.ensureSufficientLockHeld(lockContext.childContext(name), lockType);
+    }
+
+    // Whether the current transaction takes no key locks of type `lockType`,
+    // because it does not lock, or holds such a lock on the whole tree.
+    private boolean coveredByTreeLock(LockType lockType) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        return transaction == null || transaction.getSnapshotTimestamp() >= 0
+                || LockType.substitutable(lockContext.getEffectiveLockType(transaction), lockType);
+    }
+
     private void typecheck(DataBox key) {
         Type t = metadata.getKeySchema();
         if (!key.type().equals(t)) {
@@ -452,42 +1033,329 @@ public class BPlusTree {
     }
 
     // Iterator ////////////////////////////////////////////////////////////////
-    private class BPlusTreeIterator implements Iterator<RecordId> {
-        // TODO(proj2): Add whatever fields and constructors you want here.
-        private LeafNode currentNode;
-        private Iterator<RecordId> currentIterator;
+    private static class RidIterator implements Iterator<RecordId> {
+        private final Iterator<Pair<DataBox, RecordId>> entries;
+
+        RidIterator(Iterator<Pair<DataBox, RecordId>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public RecordId next() {
+            return entries.next().getSecond();
+        }
+    }
+
+    // Iterates over `entries`, in ascending order of their keys (descending,
+    // if `descending`), until a key is past `bound` (or equal to it, unless
+    // `inclusive`); a null bound stops nothing.
+    private static class BoundedIterator implements Iterator<Pair<DataBox, RecordId>> {
+        private final Iterator<Pair<DataBox, RecordId>> entries;
+        private final DataBox bound;
+        private final boolean inclusive;
+        private final boolean descending;
+
+        // the next entry, once found; null at the end of the scan
+        private Pair<DataBox, RecordId> nextEntry;
+        private boolean done = false;
+
+        BoundedIterator(Iterator<Pair<DataBox, RecordId>> entries, DataBox bound, boolean inclusive,
+                        boolean descending) {
+            this.entries = entries;
+            this.bound = bound;
+            this.inclusive = inclusive;
+            this.descending = descending;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (nextEntry == null && !done) {
+                if (entries.hasNext()) {
+                    Pair<DataBox, RecordId> entry = entries.next();
+                    if (within(entry.getFirst())) {
+                        nextEntry = entry;
+                    } else {
+                        // keys only move away from the bound from here on
+                        done = true;
+                    }
+                } else {
+                    done = true;
+                }
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Pair<DataBox, RecordId> entry = nextEntry;
+            nextEntry = null;
+            return entry;
+        }
 
-        public BPlusTreeIterator(LeafNode startNode) {
-            currentNode = startNode;
-            currentIterator = startNode.scanAll();
+        private boolean within(DataBox key) {
+            if (bound == null) {
+                return true;
+            }
+            int c = key.compareTo(bound);
+            if (descending) {
+                c = -c;
+            }
+            return c < 0 || (inclusive && c == 0);
         }
+    }
+
+    private class BPlusTreeIterator implements Iterator<Pair<DataBox, RecordId>> {
+        // whether the scan locks the keys it returns
+        private final boolean locking;
+        // key locks acquired by the scan
+        private final Set<String> acquired = new HashSet<>();
+
+        // the scan is at the first key after `position` (or at it, if
+        // `inclusive`); a null position is before every key
+        private DataBox position;
+        private boolean inclusive;
+
+        // the leaf the scan is in, as of stamp `stamp` of the leaf's latch,
+        // and the index of the leaf's next entry
+        private LeafNode leaf;
+        private long leafPageNum;
+        private long stamp;
+        private int index;
 
-        public BPlusTreeIterator(LeafNode startNode, DataBox startKey) {
-            currentNode = startNode;
-            currentIterator = startNode.scanGreaterEqual(startKey);
+        // the next entry, once found; null at the end of the scan
+        private Pair<DataBox, RecordId> nextEntry;
+        private boolean found = false;
+
+        BPlusTreeIterator(DataBox startKey) {
+            this(startKey, true);
+        }
+
+        BPlusTreeIterator(DataBox startKey, boolean inclusive) {
+            this.position = startKey;
+            this.inclusive = inclusive;
+            this.locking = !coveredByTreeLock(LockType.S);
         }
 
         @Override
         public boolean hasNext() {
-            // TODO(proj2): implement
-            while (currentNode != null && !currentIterator.hasNext()) {
-                currentNode = currentNode.getRightSibling().orElse(null);
-                if (currentNode != null) {
-                    currentIterator = currentNode.scanAll();
+            if (!found) {
+                nextEntry = findNext();
+                found = true;
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            found = false;
+            return nextEntry;
+        }
+
+        // Finds the next entry and locks its key (or, at the end, the gap
+        // past the last key), moving the position past it. No latch is held
+        // between calls: the leaf is latched again, and found again from the
+        // root if it changed meanwhile.
+        private Pair<DataBox, RecordId> findNext() {
+            Deque<Lock> held = new ArrayDeque<>();
+            while (true) {
+                DataBox key;
+                RecordId rid;
+                try {
+                    if (leaf != null) {
+                        StampedLock leafLatch = latch.get(leafPageNum);
+                        leafLatch.asReadLock().lock();
+                        held.push(leafLatch.asReadLock());
+                    }
+                    if (leaf == null || !latch.get(leafPageNum).validate(stamp)) {
+                        release(held);
+                        seek(held);
+                    }
+                    while (index == leaf.getKeys().size()) {
+                        Optional<Long> sibling = leaf.getRightSiblingPageNum();
+                        if (!sibling.isPresent()) {
+                            break;
+                        }
+                        StampedLock siblingLatch = latch.get(sibling.get());
+                        siblingLatch.asReadLock().lock();
+                        release(held);
+                        held.push(siblingLatch.asReadLock());
+                        leaf = LeafNode.fromBytes(metadata, bufferManager, nodeContext, sibling.get());
+                        leafPageNum = sibling.get();
+                        stamp = siblingLatch.tryOptimisticRead();
+                        index = 0;
+                    }
+                    boolean end = index == leaf.getKeys().size();
+                    key = end ? null : leaf.getKeys().get(index);
+                    rid = end ? null : leaf.getRids().get(index);
+                    if (!locking || acquired.contains(keyLockName(key))) {
+                        if (!end) {
+                            ++index;
+                            position = key;
+                            inclusive = false;
+                        }
+                        return end ? null : new Pair<>(key, rid);
+                    }
+                } finally {
+                    release(held);
                 }
+                lockKey(keyLockName(key), LockType.S);
+                acquired.add(keyLockName(key));
+            }
+        }
+
+        // Moves to the leaf of the position, leaving its latch held in `held`.
+        private void seek(Deque<Lock> held) {
+            leaf = descend(position, false, held);
+            leafPageNum = leaf.getPage().getPageNum();
+            stamp = latch.get(leafPageNum).tryOptimisticRead();
+            List<DataBox> keys = leaf.getKeys();
+            if (position == null) {
+                index = 0;
+            } else if (inclusive) {
+                index = InnerNode.numLessThan(position, keys);
+            } else {
+                index = InnerNode.numLessThanEqual(position, keys);
             }
+        }
+    }
+    /**
+     * Iterates over the entries of the tree in descending order of their
+     * keys, from `startKey` (or the last key before it, unless `inclusive`)
+     * down; a null start key is after every key. Leaves have no pointers to
+     * their left siblings, so once the scan is through a leaf it descends from
+     * the root again, to the leaf holding the keys just less than the lower
+     * fence of the leaf (see descendFenced). The inner nodes on the way are
+     * mostly in the node cache.
+     */
+    private class ReverseBPlusTreeIterator implements Iterator<Pair<DataBox, RecordId>> {
+        // whether the scan locks the keys it returns
+        private final boolean locking;
+        // key locks acquired by the scan
+        private final Set<String> acquired = new HashSet<>();
+        // whether the gap above the start of the scan is locked
+        private boolean started = false;
+
+        // the scan is at the last key before `position` (or at it, if
+        // `inclusive`); a null position is after every key
+        private DataBox position;
+        private boolean inclusive;
+
+        // the leaf the scan is in, as of stamp `stamp` of the leaf's latch,
+        // the leaf's lower fence, and the index of the leaf's next entry (-1
+        // once the scan is through the leaf)
+        private LeafNode leaf;
+        private long leafPageNum;
+        private long stamp;
+        private DataBox lowerFence;
+        private int index;
+
+        // the next entry, once found; null at the end of the scan
+        private Pair<DataBox, RecordId> nextEntry;
+        private boolean found = false;
 
-            return currentIterator != null && currentIterator.hasNext();
+        ReverseBPlusTreeIterator(DataBox startKey, boolean inclusive) {
+            this.position = startKey;
+            this.inclusive = inclusive;
+            this.locking = !coveredByTreeLock(LockType.S);
         }
 
         @Override
-        public RecordId next() {
-            // TODO(proj2): implement
+        public boolean hasNext() {
+            if (!found) {
+                nextEntry = findNext();
+                found = true;
+            }
+            return nextEntry != null;
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
+            found = false;
+            return nextEntry;
+        }
+
+        // Finds the next entry and locks its key, moving the position past
+        // it, as BPlusTreeIterator does. The lock of a key covers the gap
+        // below it, and so the gap the scan moves into: only the gap above
+        // the start needs locking, through the next key past the start.
+        private Pair<DataBox, RecordId> findNext() {
+            if (locking && !started) {
+                if (position == null) {
+                    lockKey(keyLockName(null), LockType.S);
+                } else {
+                    new BPlusTreeIterator(position, !inclusive).hasNext();
+                }
+                started = true;
+            }
+            Deque<Lock> held = new ArrayDeque<>();
+            while (true) {
+                DataBox key;
+                RecordId rid;
+                try {
+                    if (leaf != null) {
+                        StampedLock leafLatch = latch.get(leafPageNum);
+                        leafLatch.asReadLock().lock();
+                        held.push(leafLatch.asReadLock());
+                    }
+                    if (leaf == null || !latch.get(leafPageNum).validate(stamp)) {
+                        release(held);
+                        seek(position, inclusive, held);
+                    }
+                    while (index < 0 && lowerFence != null) {
+                        // lower fences only decrease on the way
+                        release(held);
+                        seek(lowerFence, false, held);
+                    }
+                    boolean end = index < 0;
+                    key = end ? null : leaf.getKeys().get(index);
+                    rid = end ? null : leaf.getRids().get(index);
+                    if (end || !locking || acquired.contains(keyLockName(key))) {
+                        if (!end) {
+                            --index;
+                            position = key;
+                            inclusive = false;
+                        }
+                        return end ? null : new Pair<>(key, rid);
+                    }
+                } finally {
+                    release(held);
+                }
+                lockKey(keyLockName(key), LockType.S);
+                acquired.add(keyLockName(key));
+            }
+        }
 
-            return currentIterator.next();
+        // Moves to the leaf holding `key` (the keys just less than it, unless
+        // `inclusive`), leaving its latch held in `held`, at the last entry of
+        // the leaf before the position.
+        private void seek(DataBox key, boolean inclusive, Deque<Lock> held) {
+            Descent descent = descendFenced(key, key == null || !inclusive, false, held);
+            leaf = descent.leaf;
+            lowerFence = descent.lower;
+            leafPageNum = leaf.getPage().getPageNum();
+            stamp = latch.get(leafPageNum).tryOptimisticRead();
+            List<DataBox> keys = leaf.getKeys();
+            if (position == null) {
+                index = keys.size() - 1;
+            } else if (this.inclusive) {
+                index = InnerNode.numLessThanEqual(position, keys) - 1;
+            } else {
+                index = InnerNode.numLessThan(position, keys) - 1;
+            }
         }
     }
 }
@@ -0,0 +1,80 @@
+package edu.berkeley.cs186.database.index;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Latches of the nodes of a B+ tree, shared by every BPlusTree object of the
+ * same index.
+ *
+ * Transactions lock key ranges of a tree (see BPlusTree), which only keeps
+ * them from seeing each other's uncommitted keys; latches are what keep them
+ * from seeing each other's half-done changes to the nodes. Every node has a
+ * read-write latch, which operations crab down the tree with: the latch of a
+ * child is acquired before the latch of its parent is released. Readers latch
+ * nodes shared. Writers latch the inner nodes on their way shared and the
+ * leaf exclusive, unless the leaf is full: then they start over, latching
+ * every node exclusive and releasing the latches of its ancestors whenever a
+ * node has room for another key (a split below it stops there). Leaves are
+ * latched left to right. A thread never waits for a lock while holding a
+ * latch.
+ *
+ * Nodes are only changed with their latch held exclusive, so a node can also
+ * be read without latching it at all: take a stamp of its latch
+ * (StampedLock#tryOptimisticRead), read the node, and validate the stamp
+ * afterwards; the read is only good if no writer latched the node meanwhile.
+ * Point lookups descend this way, and in-memory copies of nodes are checked
+ * for staleness the same way. Latches are not reentrant.
+ *
+ * The inner nodes of the tree are cached alongside their latches (see
+ * InnerNodeCache), checked for staleness with stamps the same way.
+ */
+public class BPlusTreeLatch {
+    // latches of the nodes, by page number
+    private final Map<Long, StampedLock> latches = new ConcurrentHashMap<>();
+
+    private final InnerNodeCache nodeCache;
+
+    public BPlusTreeLatch() {
+        this(InnerNodeCache.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param cacheCapacity the greatest number of inner nodes cached
+     */
+    public BPlusTreeLatch(int cacheCapacity) {
+        this.nodeCache = new InnerNodeCache(cacheCapacity);
+    }
+
+    /**
+     * @return the latch of the node on page `pageNum`
+     */
+    StampedLock get(long pageNum) {
+        return latches.computeIfAbsent(pageNum, k -> new StampedLock());
+    }
+
+    /**
+     * Drops the latches of every node but the one on page `keepPageNum`,
+     * after the tree was rebuilt while no one else could be in it (see
+     * BPlusTree#bulkLoad), so that the latches of pages that are no longer
+     * nodes of the tree do not pile up. Dropping the index drops all of them.
+     */
+    void clear(long keepPageNum) {
+        latches.keySet().removeIf(pageNum -> pageNum != keepPageNum);
+    }
+
+    /**
+     * @return number of latches, including those of pages no longer in the tree
+     */
+    int size() {
+        return latches.size();
+    }
+
+    /**
+     * @return the cache of the inner nodes of the tree
+     */
+    InnerNodeCache getNodeCache() {
+        return nodeCache;
+    }
+}
@@ -4,12 +4,16 @@ import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.Record;
 
+import java.util.Arrays;
+import java.util.List;
+
 /** Metadata about a B+ tree. */
 public class BPlusTreeMetadata {
     // Table for which this B+ tree is for
     private final String tableName;
 
-    // Column that this B+ tree uses as a search key
+    // Column that this B+ tree uses as a search key, or the columns, separated
+    // by commas, of a composite index (see CompositeKey)
     private final String colName;
 
     // B+ trees map keys (of some type) to record ids. This is the type of the
@@ -75,6 +79,13 @@ public class BPlusTreeMetadata {
         return colName;
     }
 
+    /**
+     * @return the columns the keys of this B+ tree are made of, in order
+     */
+    public List<String> getColNames() {
+        return Arrays.asList(colName.split(","));
+    }
+
     public String getName() {
         return tableName + "," + colName;
     }
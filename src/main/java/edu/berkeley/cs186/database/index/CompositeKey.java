@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.ByteArrayDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.LongDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keys of composite indexes, on several columns of a table.
+ *
+ * The key of a record is a byte array: its values of the indexed columns,
+ * one after the other, each encoded so that comparing two keys byte by byte
+ * (see ByteArrayDataBox#compareTo) compares their values column by column.
+ *
+ *   - bools are a byte, 0 or 1;
+ *   - ints and longs are big-endian, with the sign bit flipped;
+ *   - floats are their bits big-endian, with the sign bit flipped if they
+ *     are positive and every bit flipped if they are negative;
+ *   - strings are their ascii bytes, padded with 0 bytes.
+ *
+ * Every column has a fixed width, so the keys of the records whose leading
+ * columns have given values are contiguous: they are the keys between those
+ * values padded with 0x00 bytes and padded with 0xff bytes. Byte array
+ * columns cannot be indexed.
+ *
+ * Keys decode back into the values they were made of (see decode), so that
+ * index-only scans can answer queries from the keys alone.
+ */
+public class CompositeKey {
+    private CompositeKey() {}
+
+    /**
+     * @return the type of the keys of an index on columns of types `types`
+     */
+    public static Type keySchema(List<Type> types) {
+        int size = 0;
+        for (Type type : types) {
+            if (type.getTypeId() == TypeId.BYTE_ARRAY) {
+                throw new IllegalArgumentException("byte array columns cannot be indexed");
+            }
+            size += type.getSizeInBytes();
+        }
+        return Type.byteArrayType(size);
+    }
+
+    /**
+     * @return the key of values `values` of columns of types `types`
+     */
+    public static DataBox of(List<DataBox> values, List<Type> types) {
+        assert values.size() == types.size();
+        return lowerBound(values, types);
+    }
+
+    /**
+     * @return the smallest key whose leading columns have values `prefix`
+     */
+    public static DataBox lowerBound(List<DataBox> prefix, List<Type> types) {
+        return bound(prefix, types, (byte) 0);
+    }
+
+    /**
+     * @return the largest key whose leading columns have values `prefix`
+     */
+    public static DataBox upperBound(List<DataBox> prefix, List<Type> types) {
+        return bound(prefix, types, (byte) 0xff);
+    }
+
+    /**
+     * @return the values of columns of types `types` that `key` is the key of,
+     * the inverse of `of`. Trailing 0 bytes of strings are dropped.
+     */
+    public static List<DataBox> decode(DataBox key, List<Type> types) {
+        ByteBuffer buf = ByteBuffer.wrap(key.toBytes());
+        List<DataBox> values = new ArrayList<>();
+        for (Type type : types) {
+            values.add(get(buf, type));
+        }
+        return values;
+    }
+
+    private static DataBox bound(List<DataBox> prefix, List<Type> types, byte padding) {
+        int size = keySchema(types).getSizeInBytes();
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        for (int i = 0; i < prefix.size(); ++i) {
+            put(buf, prefix.get(i), types.get(i));
+        }
+        byte[] bytes = buf.array();
+        Arrays.fill(bytes, buf.position(), size, padding);
+        return new ByteArrayDataBox(bytes, size);
+    }
+
+    private static void put(ByteBuffer buf, DataBox value, Type type) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                buf.put((byte) (value.getBool() ? 1 : 0));
+                break;
+            case INT:
+                buf.putInt(value.getInt() ^ Integer.MIN_VALUE);
+                break;
+            case LONG:
+                buf.putLong(value.getLong() ^ Long.MIN_VALUE);
+                break;
+            case FLOAT: {
+                int bits = Float.floatToIntBits(value.getFloat());
+                buf.putInt(bits < 0 ? ~bits : bits ^ Integer.MIN_VALUE);
+                break;
+            }
+            case STRING: {
+                byte[] bytes = value.getString().getBytes(StandardCharsets.US_ASCII);
+                int n = Math.min(bytes.length, type.getSizeInBytes());
+                buf.put(bytes, 0, n);
+                buf.put(new byte[type.getSizeInBytes() - n]);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("byte array columns cannot be indexed");
+        }
+    }
+
+    private static DataBox get(ByteBuffer buf, Type type) {
+        switch (type.getTypeId()) {
+            case BOOL:
+                return new BoolDataBox(buf.get() != 0);
+            case INT:
+                return new IntDataBox(buf.getInt() ^ Integer.MIN_VALUE);
+            case LONG:
+                return new LongDataBox(buf.getLong() ^ Long.MIN_VALUE);
+            case FLOAT: {
+                int bits = buf.getInt();
+                return new FloatDataBox(Float.intBitsToFloat(bits < 0 ? bits ^ Integer.MIN_VALUE : ~bits));
+            }
+            case STRING: {
+                byte[] bytes = new byte[type.getSizeInBytes()];
+                buf.get(bytes);
+                int n = bytes.length;
+                while (n > 0 && bytes[n - 1] == 0) {
+                    --n;
+                }
+                return new StringDataBox(new String(bytes, 0, n, StandardCharsets.US_ASCII), type.getSizeInBytes());
+            }
+            default:
+                throw new IllegalArgumentException("byte array columns cannot be indexed");
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.query.disk.Run;
+import edu.berkeley.cs186.database.table.PageDirectory;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Builds a B+ tree out of (key, record id) pairs in no particular order, such
+ * as the keys of the records of a table an index is created on:
+ *
+ *   1. the pairs are read in chunks that fit in the transaction's work
+ *      memory, and every chunk is sorted in memory, on several threads;
+ *   2. if there is more than one chunk, the sorted chunks are written out as
+ *      runs (temporary tables), which are merged workMem - 1 at a time until
+ *      a single merge is left;
+ *   3. the last merge streams the pairs straight into BPlusTree#bulkLoad,
+ *      which fills the leaves from left to right and the inner nodes above
+ *      them as it goes, so that the nodes are written once, in order.
+ *
+ * A table that fits in the work memory is never written out.
+ */
+public class IndexBuilder {
+    private static final Comparator<Pair<DataBox, RecordId>> BY_KEY = Comparator.comparing(Pair::getFirst);
+
+    private final TransactionContext transaction;
+    private final int workMem;
+    // schema of the records pairs are written to runs as
+    private final Schema runSchema;
+
+    public IndexBuilder(TransactionContext transaction, Type keySchema) {
+        this.transaction = transaction;
+        this.workMem = transaction.getWorkMemSize();
+        this.runSchema = new Schema()
+                .add("key", keySchema)
+                .add("page_num", Type.longType())
+                .add("entry_num", Type.intType());
+    }
+
+    /**
+     * Bulk loads the empty tree `tree` with `entries`, filling nodes up to
+     * `fillFactor` (see BPlusTree#bulkLoad).
+     *
+     * @throws BPlusTreeException if two of the entries have the same key
+     */
+    public void build(BPlusTree tree, Iterator<Pair<DataBox, RecordId>> entries, float fillFactor) {
+        tree.bulkLoad(sort(entries), fillFactor);
+    }
+
+    /**
+     * Returns `entries` sorted by key, merging the last runs as the result is
+     * iterated over.
+     */
+    Iterator<Pair<DataBox, RecordId>> sort(Iterator<Pair<DataBox, RecordId>> entries) {
+        int chunkSize = Table.computeNumRecordsPerPage(PageDirectory.EFFECTIVE_PAGE_SIZE, runSchema) * workMem;
+        List<Pair<DataBox, RecordId>> chunk = sortChunk(entries, chunkSize);
+        if (!entries.hasNext()) {
+            return new UniqueKeyIterator(chunk.iterator());
+        }
+        List<Run> runs = new ArrayList<>();
+        runs.add(makeRun(chunk.iterator()));
+        while (entries.hasNext()) {
+            runs.add(makeRun(sortChunk(entries, chunkSize).iterator()));
+        }
+        // a merge takes a buffer per run, and one for its output
+        int fanIn = Math.max(workMem - 1, 2);
+        while (runs.size() > fanIn) {
+            List<Run> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                merged.add(makeRun(merge(runs.subList(i, Math.min(i + fanIn, runs.size())))));
+            }
+            runs = merged;
+        }
+        return new UniqueKeyIterator(merge(runs));
+    }
+
+    // Reads up to `chunkSize` entries and sorts them.
+    private List<Pair<DataBox, RecordId>> sortChunk(Iterator<Pair<DataBox, RecordId>> entries, int chunkSize) {
+        List<Pair<DataBox, RecordId>> chunk = new ArrayList<>();
+        for (int i = 0; i < chunkSize && entries.hasNext(); ++i) {
+            chunk.add(entries.next());
+        }
+        return chunk.parallelStream().sorted(BY_KEY).collect(Collectors.toList());
+    }
+
+    private Run makeRun(Iterator<Pair<DataBox, RecordId>> entries) {
+        Run run = new Run(transaction, runSchema);
+        while (entries.hasNext()) {
+            Pair<DataBox, RecordId> entry = entries.next();
+            RecordId rid = entry.getSecond();
+            run.add(new Record(entry.getFirst(), rid.getPageNum(), (int) rid.getEntryNum()));
+        }
+        return run;
+    }
+
+    // Merges sorted runs, as the result is iterated over.
+    private Iterator<Pair<DataBox, RecordId>> merge(List<Run> runs) {
+        List<Iterator<Record>> iterators = new ArrayList<>();
+        for (Run run : runs) {
+            iterators.add(run.iterator());
+        }
+        return new MergeIterator(iterators);
+    }
+
+    /**
+     * Merges iterators over sorted runs, holding the next entry of every run
+     * in a priority queue.
+     */
+    private static class MergeIterator implements Iterator<Pair<DataBox, RecordId>> {
+        private final List<Iterator<Record>> runs;
+        // the next entry of every run that has one, and the run's index
+        private final PriorityQueue<Pair<Pair<DataBox, RecordId>, Integer>> heads =
+            new PriorityQueue<>((a, b) -> BY_KEY.compare(a.getFirst(), b.getFirst()));
+
+        MergeIterator(List<Iterator<Record>> runs) {
+            this.runs = runs;
+            for (int i = 0; i < runs.size(); ++i) {
+                advance(i);
+            }
+        }
+
+        private void advance(int i) {
+            if (runs.get(i).hasNext()) {
+                Record record = runs.get(i).next();
+                RecordId rid = new RecordId(record.getValue(1).getLong(), (short) record.getValue(2).getInt());
+                heads.add(new Pair<>(new Pair<>(record.getValue(0), rid), i));
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Pair<Pair<DataBox, RecordId>, Integer> head = heads.poll();
+            advance(head.getSecond());
+            return head.getFirst();
+        }
+    }
+
+    /**
+     * Passes sorted entries through, checking that no two have the same key:
+     * bulkLoad does not check, and B+ trees do not allow duplicate keys.
+     */
+    private static class UniqueKeyIterator implements Iterator<Pair<DataBox, RecordId>> {
+        private final Iterator<Pair<DataBox, RecordId>> entries;
+        private DataBox prevKey;
+
+        UniqueKeyIterator(Iterator<Pair<DataBox, RecordId>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public Pair<DataBox, RecordId> next() {
+            Pair<DataBox, RecordId> entry = entries.next();
+            if (prevKey != null && prevKey.equals(entry.getFirst())) {
+                throw new BPlusTreeException("Duplicate key");
+            }
+            prevKey = entry.getFirst();
+            return entry;
+        }
+    }
+}
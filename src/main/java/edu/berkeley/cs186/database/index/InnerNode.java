@@ -56,6 +56,15 @@ class InnerNode extends BPlusNode {
              keys, children, treeContext);
     }
 
+    /**
+     * Construct an inner node that replaces the node persisted to page `page`.
+     */
+    static InnerNode overwrite(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
+                               List<DataBox> keys, List<Long> children, LockContext treeContext) {
+        page.pin();
+        return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
+    }
+
     /**
      * Construct an inner node that is persisted to page `page`.
      */
@@ -106,19 +115,27 @@ class InnerNode extends BPlusNode {
         if (!newChild.isPresent()) {
             return Optional.empty();
         }
+        return insertChild(newChild.get());
+    }
 
-        DataBox newKey = newChild.get().getFirst();
-        Long newChildPageNum = newChild.get().getSecond();
+    /**
+     * Adds `newChild`, split off one of the children of this node: the key
+     * separating the two and the page number of the new node. This node is
+     * split in turn if it overflows; see BPlusNode.put for what is returned.
+     */
+    Optional<Pair<DataBox, Long>> insertChild(Pair<DataBox, Long> newChild) {
+        DataBox newKey = newChild.getFirst();
+        Long newChildPageNum = newChild.getSecond();
         int insertIndex = numLessThan(newKey, keys);
         keys.add(insertIndex, newKey);
         children.add(insertIndex + 1, newChildPageNum);
 
-        if (keys.size() <= 2 * metadata.getOrder()) {
+        if (keys.size() <= 2 * metadata.getOrder() && size(keys) <= BufferManager.EFFECTIVE_PAGE_SIZE) {
             sync();
             return Optional.empty();
         }
 
-        int mid = keys.size() / 2;
+        int mid = splitIndex();
         List<DataBox> right_keys = new ArrayList<>(keys.subList(mid + 1, keys.size()));
         List<Long> right_children = new ArrayList<>(children.subList(mid + 1, children.size()));
         DataBox split_key = keys.get(mid);
@@ -137,7 +154,7 @@ class InnerNode extends BPlusNode {
         // TODO(proj2): implement
         int maxKeys = (int) Math.ceil(2 * metadata.getOrder());
 
-        while (data.hasNext() && keys.size() < maxKeys) {
+        while (data.hasNext() && keys.size() <= maxKeys && size(keys) <= BufferManager.EFFECTIVE_PAGE_SIZE) {
             BPlusNode rightMostChild = getChild(children.size() - 1);
             Optional<Pair<DataBox, Long>> result = rightMostChild.bulkLoad(data, fillFactor);
 
@@ -148,8 +165,8 @@ class InnerNode extends BPlusNode {
             }
         }
 
-        if (keys.size() > maxKeys) {
-            int mid = metadata.getOrder();
+        if (keys.size() > maxKeys || size(keys) > BufferManager.EFFECTIVE_PAGE_SIZE) {
+            int mid = splitIndex();
             List<DataBox> newKeys = new ArrayList<>(keys.subList(mid + 1, keys.size()));
             List<Long> newChildren = new ArrayList<>(children.subList(mid + 1, children.size()));
             DataBox splitKey = keys.get(mid);
@@ -181,6 +198,89 @@ class InnerNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    InnerNode copy() {
+        return new InnerNode(metadata, bufferManager, keys, children, treeContext);
+    }
+
+    @Override
+    boolean hasRoom() {
+        int entrySize = maxKeySize(metadata.getKeySchema()) + Long.BYTES;
+        return keys.size() < 2 * metadata.getOrder() &&
+               size(keys) + entrySize <= BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    // Returns the number of bytes an inner node with keys `keys` is
+    // serialized to.
+    private int size(List<DataBox> keys) {
+        return 1 + Integer.BYTES + keysSize(keys, metadata.getKeySchema()) + (keys.size() + 1) * Long.BYTES;
+    }
+
+    // Returns the index of the key that moves up when this node splits (see
+    // BPlusNode.put).
+    private int splitIndex() {
+        int mid = keys.size() / 2;
+        if (size(keys.subList(0, mid)) <= BufferManager.EFFECTIVE_PAGE_SIZE &&
+                size(keys.subList(mid + 1, keys.size())) <= BufferManager.EFFECTIVE_PAGE_SIZE) {
+            return mid;
+        }
+        int half = size(keys) / 2;
+        mid = 1;
+        while (mid < keys.size() - 2 && size(keys.subList(0, mid + 1)) <= half) {
+            ++mid;
+        }
+        return mid;
+    }
+
+    /** Returns the page number of the child whose subtree `key` belongs in. */
+    long getChildPageNum(DataBox key) {
+        return children.get(numLessThanEqual(key, keys));
+    }
+
+    /**
+     * Returns the page number of the child whose subtree `key` belongs in (the
+     * leftmost child if `key` is null) of the inner node `node`, read by
+     * BPlusNode.readBytes, without deserializing the node: keys of a fixed
+     * width are binary searched in place, and prefix-compressed keys scanned
+     * in place.
+     */
+    static long findChild(Buffer node, DataBox key, Type keySchema) {
+        int n = node.getInt(1);
+        int keysStart = 1 + Integer.BYTES;
+        // number of keys less than or equal to `key`, and where the children
+        // start
+        int index = 0;
+        int childrenStart;
+        if (isPrefixCompressed(keySchema)) {
+            KeyScanner scanner = new KeyScanner(node.position(keysStart), key, keySchema);
+            // past the first key greater than `key`, the keys are skipped
+            boolean searching = key != null;
+            for (int i = 0; i < n; ++i) {
+                if (!searching) {
+                    scanner.skip();
+                } else if (scanner.next() <= 0) {
+                    ++index;
+                } else {
+                    searching = false;
+                }
+            }
+            childrenStart = node.position();
+        } else {
+            int keySize = keySchema.getSizeInBytes();
+            int hi = key == null ? 0 : n;
+            while (index < hi) {
+                int mid = (index + hi) >>> 1;
+                if (compareKey(node, keysStart + mid * keySize, key, keySchema) <= 0) {
+                    index = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            childrenStart = keysStart + n * keySize;
+        }
+        return node.getLong(childrenStart + index * Long.BYTES);
+    }
+
     private BPlusNode getChild(int i) {
         long pageNum = children.get(i);
         return BPlusNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
@@ -194,19 +294,19 @@ class InnerNode extends BPlusNode {
             byte[] bytes = new byte[newBytes.length];
             b.get(bytes);
             if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+                page.getBuffer().put(newBytes);
             }
         } finally {
             page.unpin();
         }
     }
 
-    // Just for testing.
+    // Also used by BPlusTree, to descend through cached nodes.
     List<DataBox> getKeys() {
         return keys;
     }
 
-    // Just for testing.
+    // Also used by BPlusTree, to descend through cached nodes.
     List<Long> getChildren() {
         return children;
     }
@@ -235,8 +335,10 @@ class InnerNode extends BPlusNode {
         //
         //   n = (pageSizeInBytes - 13) / (keySize + 8)
         //
-        // The order d is half of n.
-        int keySize = keySchema.getSizeInBytes();
+        // The order d is half of n. Prefix-compressed keys (see
+        // BPlusNode.isPrefixCompressed) are counted at their smallest; inner
+        // nodes with such keys split when their bytes no longer fit on a page.
+        int keySize = minKeySize(keySchema);
         int n = (pageSize - 13) / (keySize + 8);
         return n / 2;
     }
@@ -269,27 +371,32 @@ class InnerNode extends BPlusNode {
      * a, b, c).
      */
     static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) <= 0) {
-                ++n;
+        // binary search: cached nodes are searched on every lookup
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) <= 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) < 0) {
-                ++n;
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) < 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     // Pretty Printing /////////////////////////////////////////////////////////
@@ -376,15 +483,16 @@ class InnerNode extends BPlusNode {
         assert (keys.size() + 1 == children.size());
         int isLeafSize = 1;
         int numKeysSize = Integer.BYTES;
-        int keysSize = metadata.getKeySchema().getSizeInBytes() * keys.size();
+        int keysSize = keysSize(keys, metadata.getKeySchema());
         int childrenSize = Long.BYTES * children.size();
         int size = isLeafSize + numKeysSize + keysSize + childrenSize;
 
         ByteBuffer buf = ByteBuffer.allocate(size);
         buf.put((byte) 0);
         buf.putInt(keys.size());
+        byte[] prev = null;
         for (DataBox key : keys) {
-            buf.put(key.toBytes());
+            prev = putKey(buf, prev, key, metadata.getKeySchema());
         }
         for (Long child : children) {
             buf.putLong(child);
@@ -397,7 +505,15 @@ class InnerNode extends BPlusNode {
      */
     public static InnerNode fromBytes(BPlusTreeMetadata metadata,
                                       BufferManager bufferManager, LockContext treeContext, long pageNum) {
-        Page page = bufferManager.fetchPage(treeContext, pageNum);
+        return fromPage(metadata, bufferManager, treeContext, bufferManager.fetchPage(treeContext, pageNum));
+    }
+
+    /**
+     * Loads an inner node from `page`, already fetched (see
+     * BPlusNode.fromBytes), and unpins it.
+     */
+    static InnerNode fromPage(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                              LockContext treeContext, Page page) {
         Buffer buf = page.getBuffer();
 
         byte nodeType = buf.get();
@@ -407,7 +523,7 @@ class InnerNode extends BPlusNode {
         List<Long> children = new ArrayList<>();
         int n = buf.getInt();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(getKey(buf, i == 0 ? null : keys.get(i - 1), metadata.getKeySchema()));
         }
         for (int i = 0; i < n + 1; ++i) {
             children.add(buf.getLong());
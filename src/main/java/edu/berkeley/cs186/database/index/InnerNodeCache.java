@@ -0,0 +1,129 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.common.Pair;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Deserialized inner nodes of a B+ tree, shared by every BPlusTree object of
+ * the same index (see BPlusTreeLatch#getNodeCache), so that the upper levels
+ * of the tree, which every lookup goes through, are not read from their pages
+ * and parsed again and again.
+ *
+ * A node is cached along with a stamp of its latch taken before it was read,
+ * and is only handed out while the stamp is valid: a writer latching the node
+ * exclusive to change it makes the cached copy stale, and it is read again
+ * the next time it is needed. Cached nodes are only ever read, never changed;
+ * writers change nodes they read from their pages themselves. The cache holds
+ * at most `capacity` nodes, evicting the least recently used.
+ */
+public class InnerNodeCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final int capacity;
+    // cached nodes and the stamps they were read at, by page number, least
+    // recently used first; guarded by the map's monitor
+    private final Map<Long, Pair<InnerNode, Long>> nodes;
+
+    // lookups that found a node, and nodes read because they were not cached
+    // or stale
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public InnerNodeCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    @SuppressWarnings("serial")
+    public InnerNodeCache(int capacity) {
+        this.capacity = capacity;
+        this.nodes = new LinkedHashMap<Long, Pair<InnerNode, Long>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Pair<InnerNode, Long>> eldest) {
+                return size() > InnerNodeCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached inner node on page `pageNum`, whose latch is
+     * `nodeLatch`, or null if it is not cached or has changed since.
+     */
+    InnerNode get(long pageNum, StampedLock nodeLatch) {
+        Pair<InnerNode, Long> cached;
+        synchronized (nodes) {
+            cached = nodes.get(pageNum);
+        }
+        if (cached == null || !nodeLatch.validate(cached.getSecond())) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.getFirst();
+    }
+
+    /**
+     * Caches `node`, just read from page `pageNum`. `stamp` is a stamp of its
+     * latch taken before it was read (with the latch held shared, or
+     * validated afterwards); if the latch was held exclusive, the stamp is 0
+     * and the node is not cached.
+     */
+    void put(long pageNum, InnerNode node, long stamp) {
+        misses.incrementAndGet();
+        if (stamp == 0) {
+            return;
+        }
+        synchronized (nodes) {
+            nodes.put(pageNum, new Pair<>(node, stamp));
+        }
+    }
+
+    /**
+     * Drops every cached node, after nodes were changed without latching them
+     * (see BPlusTree#bulkLoad).
+     */
+    void clear() {
+        synchronized (nodes) {
+            nodes.clear();
+        }
+    }
+
+    /**
+     * @return the greatest number of nodes cached
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of nodes cached, including stale ones
+     */
+    public int size() {
+        synchronized (nodes) {
+            return nodes.size();
+        }
+    }
+
+    /**
+     * @return number of times an inner node was found in the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return number of times an inner node was read from its page because it
+     * was not cached, or had changed since it was
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("InnerNodeCache(size=%d, capacity=%d, hits=%d, misses=%d)",
+                             size(), capacity, getHits(), getMisses());
+    }
+}
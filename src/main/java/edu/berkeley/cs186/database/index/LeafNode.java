@@ -100,6 +100,10 @@ class LeafNode extends BPlusNode {
     private List<DataBox> keys;
     private List<RecordId> rids;
 
+    // The number of bytes this leaf is serialized to (see size), kept up to
+    // date as entries are added and removed rather than recomputed from keys.
+    private int size;
+
     // If this leaf is the rightmost leaf, then rightSibling is Optional.empty().
     // Otherwise, rightSibling is Optional.of(n) where n is the page number of
     // this leaf's right sibling.
@@ -135,6 +139,7 @@ class LeafNode extends BPlusNode {
             this.keys = new ArrayList<>(keys);
             this.rids = new ArrayList<>(rids);
             this.rightSibling = rightSibling;
+            this.size = size(this.keys);
 
             sync();
         } finally {
@@ -168,26 +173,48 @@ class LeafNode extends BPlusNode {
             throw new BPlusTreeException("Duplicate key");
         }
 
-        index = -index - 1;
-        keys.add(index, key);
-        rids.add(index, rid);
+        addEntry(-index - 1, key, rid);
 
-        if (keys.size() <= 2 * metadata.getOrder()) {
+        if (keys.size() <= 2 * metadata.getOrder() && size <= BufferManager.EFFECTIVE_PAGE_SIZE) {
             // no split
             sync();
             return Optional.empty();
         }
 
-        int mid = keys.size() / 2;
+        int mid = splitIndex();
+        DataBox splitKey = separator(keys.get(mid - 1), keys.get(mid));
         List<DataBox> newKeys = new ArrayList<>(keys.subList(mid, keys.size()));
         List<RecordId> newRids = new ArrayList<>(rids.subList(mid, rids.size()));
         keys = new ArrayList<>(keys.subList(0, mid));
         rids = new ArrayList<>(rids.subList(0, mid));
+        size = size(keys);
 
         LeafNode newNode = new LeafNode(metadata, bufferManager, newKeys, newRids, rightSibling, treeContext);
         rightSibling = Optional.of(newNode.getPage().getPageNum());
         sync();
-        return Optional.of(new Pair<>(newKeys.get(0), newNode.getPage().getPageNum()));
+        return Optional.of(new Pair<>(splitKey, newNode.getPage().getPageNum()));
+    }
+
+    /**
+     * Inserts pairs from the front of `entries`, which are sorted by key and
+     * all belong in this leaf, for as long as the leaf has room for them
+     * without splitting, and writes the leaf once. Stops at a key already in
+     * the leaf, for put to report. Returns the number of pairs inserted.
+     */
+    int putAll(List<Pair<DataBox, RecordId>> entries) {
+        int n = 0;
+        for (Pair<DataBox, RecordId> entry : entries) {
+            int index = Collections.binarySearch(keys, entry.getFirst());
+            if (index >= 0 || !hasRoom()) {
+                break;
+            }
+            addEntry(-index - 1, entry.getFirst(), entry.getSecond());
+            ++n;
+        }
+        if (n > 0) {
+            sync();
+        }
+        return n;
     }
 
     // See BPlusNode.bulkLoad.
@@ -196,16 +223,24 @@ class LeafNode extends BPlusNode {
             float fillFactor) {
         // TODO(proj2): implement
         int maxKeys = (int) Math.ceil(2 * metadata.getOrder() * fillFactor);
+        int maxSize = (int) Math.ceil(BufferManager.EFFECTIVE_PAGE_SIZE * fillFactor);
 
-        while (keys.size() < maxKeys && data.hasNext()) {
+        // the pair that did not fit on the page, if any
+        Pair<DataBox, RecordId> overflow = null;
+        while (overflow == null && keys.size() < maxKeys && size < maxSize && data.hasNext()) {
             Pair<DataBox, RecordId> pair = data.next();
-            keys.add(pair.getFirst());
-            rids.add(pair.getSecond());
+            addEntry(keys.size(), pair.getFirst(), pair.getSecond());
+            if (size > BufferManager.EFFECTIVE_PAGE_SIZE) {
+                removeEntry(keys.size() - 1);
+                overflow = pair;
+            }
         }
 
         // if more data, then split
-        if (data.hasNext()) {
-            Pair<DataBox, RecordId> newLeaf = data.next();
+        if (overflow != null || data.hasNext()) {
+            Pair<DataBox, RecordId> newLeaf = overflow != null ? overflow : data.next();
+            DataBox splitKey = keys.isEmpty() ? newLeaf.getFirst()
+                               : separator(keys.get(keys.size() - 1), newLeaf.getFirst());
             List<DataBox> newKeys = new ArrayList<>();
             List<RecordId> newRids = new ArrayList<>();
             newKeys.add(newLeaf.getFirst());
@@ -214,7 +249,7 @@ class LeafNode extends BPlusNode {
             LeafNode newNode = new LeafNode(metadata, bufferManager, newKeys, newRids, rightSibling, treeContext);
             rightSibling = Optional.of(newNode.getPage().getPageNum());
             sync();
-            return Optional.of(new Pair<>(newKeys.get(0), newNode.getPage().getPageNum()));
+            return Optional.of(new Pair<>(splitKey, newNode.getPage().getPageNum()));
         }
 
         sync();
@@ -229,16 +264,56 @@ class LeafNode extends BPlusNode {
         if (index < 0) {
             throw new BPlusTreeException("Key not found");
         }
-        keys.remove(index);
-        rids.remove(index);
+        removeEntry(index);
         sync();
     }
 
     // Iterators ///////////////////////////////////////////////////////////////
     /** Return the record id associated with `key`. */
     Optional<RecordId> getKey(DataBox key) {
-        int index = keys.indexOf(key);
-        return index == -1 ? Optional.empty() : Optional.of(rids.get(index));
+        int index = Collections.binarySearch(keys, key);
+        return index < 0 ? Optional.empty() : Optional.of(rids.get(index));
+    }
+
+    /**
+     * Returns the record id associated with `key` in the leaf `node`, read by
+     * BPlusNode.readBytes, without deserializing the leaf: keys of a fixed
+     * width are binary searched in place, and prefix-compressed keys scanned
+     * in place. Only the record id returned is deserialized.
+     */
+    static Optional<RecordId> findKey(Buffer node, DataBox key, Type keySchema) {
+        int n = node.getInt(1 + Long.BYTES);
+        int entriesStart = 1 + Long.BYTES + Integer.BYTES;
+        int ridSize = RecordId.getSizeInBytes();
+        if (isPrefixCompressed(keySchema)) {
+            KeyScanner scanner = new KeyScanner(node.position(entriesStart), key, keySchema);
+            for (int i = 0; i < n; ++i) {
+                int cmp = scanner.next();
+                if (cmp == 0) {
+                    return Optional.of(RecordId.fromBytes(node));
+                } else if (cmp > 0) {
+                    break;
+                }
+                node.position(node.position() + ridSize);
+            }
+            return Optional.empty();
+        }
+        int entrySize = keySchema.getSizeInBytes() + ridSize;
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = entriesStart + mid * entrySize;
+            int cmp = compareKey(node, entry, key, keySchema);
+            if (cmp == 0) {
+                return Optional.of(RecordId.fromBytes(node.position(entry + keySchema.getSizeInBytes())));
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return Optional.empty();
     }
 
     /**
@@ -265,6 +340,87 @@ class LeafNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    LeafNode copy() {
+        return new LeafNode(metadata, bufferManager, keys, rids, rightSibling, treeContext);
+    }
+
+    @Override
+    boolean hasRoom() {
+        int entrySize = maxKeySize(metadata.getKeySchema()) + RecordId.getSizeInBytes();
+        return keys.size() < 2 * metadata.getOrder() &&
+               size + entrySize <= BufferManager.EFFECTIVE_PAGE_SIZE;
+    }
+
+    // Returns the number of bytes this leaf is serialized to.
+    int getSize() {
+        return size;
+    }
+
+    // Inserts (key, rid) at `index`, updating size: the key takes the bytes
+    // it is serialized to after the key before it, and with prefix
+    // compression, the key after it is now serialized after it instead.
+    private void addEntry(int index, DataBox key, RecordId rid) {
+        Type keySchema = metadata.getKeySchema();
+        DataBox prev = index > 0 ? keys.get(index - 1) : null;
+        size += keySize(prev, key, keySchema) + RecordId.getSizeInBytes();
+        if (index < keys.size()) {
+            DataBox next = keys.get(index);
+            size += keySize(key, next, keySchema) - keySize(prev, next, keySchema);
+        }
+        keys.add(index, key);
+        rids.add(index, rid);
+    }
+
+    // Removes the entry at `index`, updating size (see addEntry).
+    private void removeEntry(int index) {
+        Type keySchema = metadata.getKeySchema();
+        DataBox prev = index > 0 ? keys.get(index - 1) : null;
+        DataBox key = keys.get(index);
+        size -= keySize(prev, key, keySchema) + RecordId.getSizeInBytes();
+        if (index + 1 < keys.size()) {
+            DataBox next = keys.get(index + 1);
+            size -= keySize(key, next, keySchema) - keySize(prev, next, keySchema);
+        }
+        keys.remove(index);
+        rids.remove(index);
+    }
+
+    // Returns the number of bytes a leaf with keys `keys` is serialized to.
+    private int size(List<DataBox> keys) {
+        return 1 + Long.BYTES + Integer.BYTES + keysSize(keys, metadata.getKeySchema()) +
+               keys.size() * RecordId.getSizeInBytes();
+    }
+
+    // Returns the index of the first entry that moves to the new right
+    // sibling when this leaf splits (see BPlusNode.put).
+    private int splitIndex() {
+        int mid = keys.size() / 2;
+        if (size(keys.subList(0, mid)) <= BufferManager.EFFECTIVE_PAGE_SIZE &&
+                size(keys.subList(mid, keys.size())) <= BufferManager.EFFECTIVE_PAGE_SIZE) {
+            return mid;
+        }
+        // grow the left half one key at a time, leftSize being the size of a
+        // leaf with keys [0, mid]
+        Type keySchema = metadata.getKeySchema();
+        int half = size / 2;
+        int leftSize = size(keys.subList(0, 1));
+        mid = 1;
+        while (mid < keys.size() - 1) {
+            leftSize += keySize(keys.get(mid - 1), keys.get(mid), keySchema) + RecordId.getSizeInBytes();
+            if (leftSize > half) {
+                break;
+            }
+            ++mid;
+        }
+        return mid;
+    }
+
+    /** Returns the page number of the right sibling of this leaf, if it has one. */
+    Optional<Long> getRightSiblingPageNum() {
+        return rightSibling;
+    }
+
     /** Returns the right sibling of this leaf, if it has one. */
     Optional<LeafNode> getRightSibling() {
         if (!rightSibling.isPresent()) {
@@ -284,19 +440,19 @@ class LeafNode extends BPlusNode {
             byte[] bytes = new byte[newBytes.length];
             b.get(bytes);
             if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+                page.getBuffer().put(newBytes);
             }
         } finally {
             page.unpin();
         }
     }
 
-    // Just for testing.
+    // Also used by BPlusTree, to find the keys next to a key.
     List<DataBox> getKeys() {
         return keys;
     }
 
-    // Just for testing.
+    // Also used by BPlusTree, to scan the leaf.
     List<RecordId> getRids() {
         return rids;
     }
@@ -327,8 +483,10 @@ class LeafNode extends BPlusNode {
         //
         //   n = (pageSizeInBytes - 13) / (keySize + ridSize)
         //
-        // The order d is half of n.
-        int keySize = keySchema.getSizeInBytes();
+        // The order d is half of n. Prefix-compressed keys (see
+        // BPlusNode.isPrefixCompressed) are counted at their smallest; leaves
+        // with such keys split when their bytes no longer fit on a page.
+        int keySize = minKeySize(keySchema);
         int ridSize = RecordId.getSizeInBytes();
         int n = (pageSize - 13) / (keySize + ridSize);
         return n / 2;
@@ -401,17 +559,17 @@ class LeafNode extends BPlusNode {
         int isLeafSize = 1;
         int siblingSize = Long.BYTES;
         int lenSize = Integer.BYTES;
-        int keySize = metadata.getKeySchema().getSizeInBytes();
-        int ridSize = RecordId.getSizeInBytes();
-        int entriesSize = (keySize + ridSize) * keys.size();
-        int size = isLeafSize + siblingSize + lenSize + entriesSize;
+        int keysSize = keysSize(keys, metadata.getKeySchema());
+        int ridsSize = RecordId.getSizeInBytes() * rids.size();
+        int size = isLeafSize + siblingSize + lenSize + keysSize + ridsSize;
 
         ByteBuffer buf = ByteBuffer.allocate(size);
         buf.put((byte) 1);
         buf.putLong(rightSibling.orElse(-1L));
         buf.putInt(keys.size());
+        byte[] prev = null;
         for (int i = 0; i < keys.size(); ++i) {
-            buf.put(keys.get(i).toBytes());
+            prev = putKey(buf, prev, keys.get(i), metadata.getKeySchema());
             buf.put(rids.get(i).toBytes());
         }
         return buf.array();
@@ -426,8 +584,16 @@ class LeafNode extends BPlusNode {
         // Note: LeafNode has two constructors. To implement fromBytes be sure to
         // use the constructor that reuses an existing page instead of fetching a
         // brand new one.
+        return fromPage(metadata, bufferManager, treeContext, bufferManager.fetchPage(treeContext, pageNum));
+    }
+
+    /**
+     * Loads a leaf from `page`, already fetched (see BPlusNode.fromBytes),
+     * and unpins it.
+     */
+    static LeafNode fromPage(BPlusTreeMetadata metadata, BufferManager bufferManager,
+                             LockContext treeContext, Page page) {
         // 1.读取节点类型
-        Page page = bufferManager.fetchPage(treeContext, pageNum);
         Buffer buf = page.getBuffer();
 
         byte nodeType = buf.get();
@@ -444,7 +610,7 @@ class LeafNode extends BPlusNode {
         List<DataBox> keys = new ArrayList<>();
         List<RecordId> rids = new ArrayList<>();
         for (int i = 0; i < numPairs; i++) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(getKey(buf, i == 0 ? null : keys.get(i - 1), metadata.getKeySchema()));
             rids.add(RecordId.fromBytes(buf));
         }
 
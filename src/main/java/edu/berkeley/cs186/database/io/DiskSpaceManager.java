@@ -73,6 +73,18 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * Copies every partition except one into another directory, in the format
+     * this disk space manager stores partitions in, while pages keep being
+     * allocated, read, and written. Each page is copied atomically, but pages
+     * may be copied at different points in time, so the copy is only
+     * consistent once the log written since the copy started is replayed.
+     *
+     * @param destDir directory to copy partitions into
+     * @param excludedPartNum partition not to copy
+     */
+    void copyPartitions(String destDir, int excludedPartNum);
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -5,7 +5,9 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -331,6 +333,44 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public void copyPartitions(String destDir, int excludedPartNum) {
+        File dir = new File(destDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new PageException("could not make directory " + destDir);
+        }
+        List<Map.Entry<Integer, PartitionHandle>> parts;
+        this.managerLock.lock();
+        try {
+            parts = new ArrayList<>(this.partInfo.entrySet());
+        } finally {
+            this.managerLock.unlock();
+        }
+        for (Map.Entry<Integer, PartitionHandle> part : parts) {
+            int partNum = part.getKey();
+            if (partNum == excludedPartNum) {
+                continue;
+            }
+            File pf = new File(destDir + "/" + partNum);
+            try {
+                part.getValue().copyTo(pf.getPath());
+            } catch (IOException e) {
+                this.managerLock.lock();
+                try {
+                    if (this.partInfo.get(partNum) == part.getValue()) {
+                        throw new PageException("could not copy partition " + partNum + ": " + e.getMessage());
+                    }
+                } finally {
+                    this.managerLock.unlock();
+                }
+                // partition was freed while being copied; its free is in the log
+                if (pf.exists() && !pf.delete()) {
+                    throw new PageException("could not clean up copy of partition " + partNum);
+                }
+            }
+        }
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
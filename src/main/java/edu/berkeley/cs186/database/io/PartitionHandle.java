@@ -260,6 +260,81 @@ class PartitionHandle implements AutoCloseable {
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Copies the partition into a new OS file. The data pages allocated at the
+     * start of the copy are copied one at a time, so the partition lock is only
+     * held briefly and writes to the partition can go on during the copy. The
+     * pages allocated in the meantime are then copied, together with the
+     * master and header pages, while holding the lock.
+     * @param fileName name of OS file to copy the partition into
+     */
+    void copyTo(String fileName) throws IOException {
+        byte[][] headerCopies = new byte[MAX_HEADER_PAGES][];
+        this.partitionLock.lock();
+        try {
+            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                if (this.masterPage[i] > 0) {
+                    headerCopies[i] = this.headerPages[i].clone();
+                }
+            }
+        } finally {
+            this.partitionLock.unlock();
+        }
+
+        try (RandomAccessFile dest = new RandomAccessFile(fileName, "rw")) {
+            FileChannel destChannel = dest.getChannel();
+            byte[] page = new byte[PAGE_SIZE];
+            for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                for (int j = 0; headerCopies[i] != null && j < DATA_PAGES_PER_HEADER; ++j) {
+                    if (Bits.getBit(headerCopies[i], j) == Bits.Bit.ZERO) {
+                        continue;
+                    }
+                    this.partitionLock.lock();
+                    try {
+                        copyDataPage(destChannel, i * DATA_PAGES_PER_HEADER + j, page);
+                    } finally {
+                        this.partitionLock.unlock();
+                    }
+                }
+            }
+
+            this.partitionLock.lock();
+            try {
+                ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
+                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                    b.putShort((short) this.masterPage[i]);
+                }
+                b.position(0);
+                destChannel.write(b, PartitionHandle.masterPageOffset());
+                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                    if (this.headerPages[i] == null) {
+                        continue;
+                    }
+                    for (int j = 0; this.masterPage[i] > 0 && j < DATA_PAGES_PER_HEADER; ++j) {
+                        boolean copied = headerCopies[i] != null && Bits.getBit(headerCopies[i], j) == Bits.Bit.ONE;
+                        if (!copied && Bits.getBit(this.headerPages[i], j) == Bits.Bit.ONE) {
+                            copyDataPage(destChannel, i * DATA_PAGES_PER_HEADER + j, page);
+                        }
+                    }
+                    destChannel.write(ByteBuffer.wrap(this.headerPages[i]), PartitionHandle.headerPageOffset(i));
+                }
+            } finally {
+                this.partitionLock.unlock();
+            }
+            destChannel.force(false);
+        }
+    }
+
+    /**
+     * Copies a data page to the same position in another file. The partition
+     * lock must be held.
+     */
+    private void copyDataPage(FileChannel destChannel, int pageNum, byte[] buf) throws IOException {
+        long offset = PartitionHandle.dataPageOffset(pageNum);
+        this.fileChannel.read(ByteBuffer.wrap(buf), offset);
+        destChannel.write(ByteBuffer.wrap(buf), offset);
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
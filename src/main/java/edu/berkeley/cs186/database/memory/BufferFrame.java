@@ -63,6 +63,17 @@ abstract class BufferFrame {
      */
     abstract void writeBytes(short position, short num, byte[] buf);
 
+    /**
+     * Write to the buffer frame without logging the write, and mark frame as dirtied.
+     * Frames that never log writes can rely on this default.
+     * @param position position in buffer frame to start writing
+     * @param num number of bytes to write
+     * @param buf input buffer
+     */
+    void writeBytesUnlogged(short position, short num, byte[] buf) {
+        writeBytes(position, num, buf);
+    }
+
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
      * Frame is pinned on return.
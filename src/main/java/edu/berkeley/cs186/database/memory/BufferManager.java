@@ -219,6 +219,21 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         void writeBytes(short position, short num, byte[] buf) {
+            writeBytes(position, num, buf, true);
+        }
+
+        /**
+         * Write to the buffer frame without logging the write, and mark frame as dirtied.
+         * @param position position in buffer frame to start writing
+         * @param num number of bytes to write
+         * @param buf input buffer
+         */
+        @Override
+        void writeBytesUnlogged(short position, short num, byte[] buf) {
+            writeBytes(position, num, buf, false);
+        }
+
+        private void writeBytes(short position, short num, byte[] buf, boolean log) {
             this.pin();
             try {
                 if (!this.isValid()) {
@@ -226,7 +241,7 @@ public class BufferManager implements AutoCloseable {
                 }
                 int offset = position + dataOffset();
                 TransactionContext transaction = TransactionContext.getTransaction();
-                if (transaction != null && !logPage) {
+                if (log && transaction != null && !logPage) {
                     List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
@@ -457,6 +472,8 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
+        // called before pinning, since pinning excludes other threads from the page
+        this.recoveryManager.pageFetchHook(pageNum);
         return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
     }
 
@@ -488,6 +505,35 @@ public class BufferManager implements AutoCloseable {
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
+    /**
+     * Fetches a buffer frame for a new page with a specific page number. Pins the buffer frame.
+     * Cannot be used outside the package.
+     *
+     * @param pageNum page number of the new page (must not be allocated)
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(long pageNum) {
+        this.diskSpaceManager.allocPage(pageNum);
+        this.managerLock.lock();
+        try {
+            return fetchPageFrame(pageNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Fetches a new page with a specific page number, with a loaded and pinned buffer frame.
+     *
+     * @param parentContext parent lock context of the new page
+     * @param pageNum       page number of the new page (must not be allocated)
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, long pageNum) {
+        Frame newFrame = this.fetchNewPageFrame(pageNum);
+        return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
+    }
+
     /**
      * Frees a page - evicts the page from cache, and tells the disk space manager
      * that the page is no longer needed. Page must be pinned before this call,
@@ -526,7 +572,8 @@ public class BufferManager implements AutoCloseable {
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                // frames of pages freed by freePage are already free
+                if (!frame.isFreed() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
                     this.pageToFrame.remove(frame.getPageNum(), i);
                     evictionPolicy.cleanup(frame);
                     frame.flush();
@@ -585,6 +632,15 @@ public class BufferManager implements AutoCloseable {
         }
     }
 
+    /**
+     * Flushes every dirty page to disk, without evicting any.
+     */
+    public void flushAll() {
+        for (Frame frame : frames) {
+            frame.flush();
+        }
+    }
+
     /**
      * Calls the passed in method with the page number of every loaded page.
      * @param process method to consume page numbers. The first parameter is the page number,
@@ -614,6 +670,20 @@ public class BufferManager implements AutoCloseable {
         return numIOs;
     }
 
+    /**
+     * @return the number of pages the buffer can hold
+     */
+    public int getBufferSize() {
+        return frames.length;
+    }
+
+    /**
+     * @return the recovery manager that page writes are logged through
+     */
+    public RecoveryManager getRecoveryManager() {
+        return recoveryManager;
+    }
+
     public static boolean logIOs;
     private void incrementIOs() {
         if (logIOs) {
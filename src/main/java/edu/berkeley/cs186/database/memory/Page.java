@@ -19,6 +19,9 @@ public class Page {
     // buffer manager frame for this page's data (potentially invalidated)
     private BufferFrame frame;
 
+    // whether writes through this page handle are logged by the buffer manager
+    private boolean logWrites = true;
+
     /**
      * Create a page handle with the given buffer frame
      *
@@ -38,6 +41,7 @@ public class Page {
     protected Page(Page page) {
         this.lockContext = page.lockContext;
         this.frame = page.frame;
+        this.logWrites = page.logWrites;
     }
 
     /**
@@ -47,6 +51,22 @@ public class Page {
         this.lockContext = new DummyLockContext("_dummyPage");
     }
 
+    /**
+     * Disables logging of writes made through this page handle. Callers are
+     * responsible for logging their changes themselves (e.g. with a record-level
+     * log record) and for updating the pageLSN.
+     */
+    public void disableLogging() {
+        this.logWrites = false;
+    }
+
+    /**
+     * Re-enables logging of writes made through this page handle.
+     */
+    public void enableLogging() {
+        this.logWrites = true;
+    }
+
     /**
      * Gets a Buffer object for more convenient access to the page.
      *
@@ -108,7 +128,11 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        if (logWrites) {
+            this.frame.writeBytes((short) position, (short) num, buf);
+        } else {
+            this.frame.writeBytesUnlogged((short) position, (short) num, buf);
+        }
     }
 
     /**
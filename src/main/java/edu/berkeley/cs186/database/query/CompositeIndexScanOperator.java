@@ -0,0 +1,178 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.CompositeKey;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A scan of a composite index (see CompositeKey), for records whose leading
+ * indexed columns equal given values, and whose next indexed column is in a
+ * range, if `ranges` are given.
+ *
+ * The scan starts at the smallest key that can match and stops at the first
+ * key past the largest, but the bounds of the range are inclusive: records
+ * with a value equal to the bound of a strict range are returned too, and
+ * the range predicate has to be applied again (see QueryPlan#minCostSingleAccess).
+ */
+class CompositeIndexScanOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String tableName;
+    // the columns of the index, in order
+    private List<String> indexColumns;
+    // the values of the leading columns of the index
+    private List<DataBox> prefix;
+    // comparisons (<, <=, > or >=) of column indexColumns[prefix.size()]
+    // with values, which together make a range
+    private List<Pair<PredicateOperator, DataBox>> ranges;
+
+    private List<Integer> columnIndices = new ArrayList<>();
+    private List<Type> columnTypes = new ArrayList<>();
+    // the smallest and largest keys of records the scan returns
+    private DataBox lowerBound;
+    private DataBox upperBound;
+
+    /**
+     * A composite index scan operator.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param indexColumns the columns the index is on, in order
+     * @param prefix the values of the leading columns of the index
+     * @param ranges comparisons (<, <=, > or >=) of the column after those of
+     *               prefix with values, if prefix is shorter than indexColumns
+     */
+    CompositeIndexScanOperator(TransactionContext transaction,
+                               String tableName,
+                               List<String> indexColumns,
+                               List<DataBox> prefix,
+                               List<Pair<PredicateOperator, DataBox>> ranges) {
+        super(OperatorType.INDEX_SCAN);
+        this.transaction = transaction;
+        this.tableName = tableName;
+        this.indexColumns = indexColumns;
+        this.prefix = prefix;
+        this.ranges = ranges;
+        this.setOutputSchema(this.computeSchema());
+        Schema schema = this.getSchema();
+        for (String column : indexColumns) {
+            int index = schema.findField(column);
+            this.columnIndices.add(index);
+            this.columnTypes.add(schema.getFieldType(index));
+        }
+
+        List<DataBox> lower = new ArrayList<>(prefix);
+        List<DataBox> upper = new ArrayList<>(prefix);
+        Pair<DataBox, DataBox> range = rangeBounds(ranges);
+        if (range.getFirst() != null) lower.add(range.getFirst());
+        if (range.getSecond() != null) upper.add(range.getSecond());
+        this.lowerBound = CompositeKey.lowerBound(lower, columnTypes);
+        this.upperBound = CompositeKey.upperBound(upper, columnTypes);
+        this.stats = this.estimateStats();
+    }
+
+    /**
+     * @return the greatest lower bound and the least upper bound of the values
+     * of comparisons `ranges`, or null where there is none. Strict bounds are
+     * returned as they are, so they are inclusive.
+     */
+    static Pair<DataBox, DataBox> rangeBounds(List<Pair<PredicateOperator, DataBox>> ranges) {
+        DataBox lower = null;
+        DataBox upper = null;
+        for (Pair<PredicateOperator, DataBox> range : ranges) {
+            DataBox value = range.getSecond();
+            switch (range.getFirst()) {
+                case GREATER_THAN:
+                case GREATER_THAN_EQUALS:
+                    if (lower == null || value.compareTo(lower) > 0) lower = value;
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_EQUALS:
+                    if (upper == null || value.compareTo(upper) < 0) upper = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("not a range: " + range.getFirst());
+            }
+        }
+        return new Pair<>(lower, upper);
+    }
+
+    @Override
+    public boolean isIndexScan() {
+        return true;
+    }
+
+    @Override
+    public String str() {
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i < prefix.size(); ++i) {
+            predicates.add(indexColumns.get(i) + PredicateOperator.EQUALS.toSymbol() + prefix.get(i));
+        }
+        for (Pair<PredicateOperator, DataBox> range : ranges) {
+            predicates.add(indexColumns.get(prefix.size()) + range.getFirst().toSymbol() + range.getSecond());
+        }
+        return String.format("Composite Index Scan for %s on %s(%s) (cost=%d)",
+            String.join(" AND ", predicates), this.tableName, getColumnName(),
+            this.estimateIOCost());
+    }
+
+    /**
+     * Returns the columns of the index, joined with commas
+     *
+     * @return columnName
+     */
+    public String getColumnName() {
+        return String.join(",", this.indexColumns);
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        TableStats stats = this.transaction.getStats(this.tableName);
+        for (int i = 0; i < prefix.size(); ++i) {
+            stats = stats.copyWithPredicate(columnIndices.get(i), PredicateOperator.EQUALS, prefix.get(i));
+        }
+        for (Pair<PredicateOperator, DataBox> range : ranges) {
+            stats = stats.copyWithPredicate(columnIndices.get(prefix.size()), range.getFirst(), range.getSecond());
+        }
+        return stats;
+    }
+
+    @Override
+    public int estimateIOCost() {
+        int height = transaction.getTreeHeight(tableName, getColumnName());
+        int order = transaction.getTreeOrder(tableName, getColumnName());
+        int count = this.stats.getNumRecords();
+        // as in IndexScanOperator: leaves are about 75% full
+        return (int) (height + Math.ceil(count / (1.5 * order)) + count);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        // both bounds are inclusive: they are the smallest and the largest
+        // keys with the leading columns of the range, and the index stops the
+        // scan at the first key past the upper one
+        return transaction.sortedScanRange(tableName, getColumnName(), lowerBound, true,
+                                           upperBound, true, false);
+    }
+
+    @Override
+    public Schema computeSchema() {
+        return this.transaction.getFullyQualifiedSchema(this.tableName);
+    }
+
+    @Override
+    public List<String> sortedBy() {
+        // the leading columns are constant, so the records are sorted by
+        // them as well as by the next column
+        return indexColumns.subList(0, Math.min(prefix.size() + 1, indexColumns.size()));
+    }
+}
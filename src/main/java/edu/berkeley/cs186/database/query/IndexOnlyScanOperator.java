@@ -0,0 +1,217 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.index.CompositeKey;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A scan of an index that answers a query from the keys of the index alone,
+ * without fetching a single record of the table: its records only have the
+ * indexed columns, in index order. It can only be used when every column of
+ * the table the query refers to is indexed (see QueryPlan#minCostSingleAccess).
+ *
+ * Like CompositeIndexScanOperator, the scan can be limited to the records
+ * whose leading indexed columns equal given values, and whose next indexed
+ * column is in a range, if `ranges` are given; the bounds of the range are
+ * inclusive, so the range predicates have to be applied again.
+ */
+class IndexOnlyScanOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String tableName;
+    // the columns of the index, in order
+    private List<String> indexColumns;
+    // the values of the leading columns of the index
+    private List<DataBox> prefix;
+    // comparisons (<, <=, > or >=) of column indexColumns[prefix.size()]
+    // with values, which together make a range
+    private List<Pair<PredicateOperator, DataBox>> ranges;
+
+    // the indices of the indexed columns in the table
+    private List<Integer> columnIndices = new ArrayList<>();
+    private List<Type> columnTypes = new ArrayList<>();
+    // the smallest and largest keys of records the scan returns; null if the
+    // scan is not bounded
+    private DataBox lowerBound;
+    private DataBox upperBound;
+
+    /**
+     * An index-only scan operator.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table whose index to iterate over
+     * @param indexColumns the columns the index is on, in order
+     * @param prefix the values of the leading columns of the index
+     * @param ranges comparisons (<, <=, > or >=) of the column after those of
+     *               prefix with values, if prefix is shorter than indexColumns
+     */
+    IndexOnlyScanOperator(TransactionContext transaction,
+                          String tableName,
+                          List<String> indexColumns,
+                          List<DataBox> prefix,
+                          List<Pair<PredicateOperator, DataBox>> ranges) {
+        super(OperatorType.INDEX_SCAN);
+        this.transaction = transaction;
+        this.tableName = tableName;
+        this.indexColumns = indexColumns;
+        this.prefix = prefix;
+        this.ranges = ranges;
+        Schema tableSchema = transaction.getFullyQualifiedSchema(tableName);
+        for (String column : indexColumns) {
+            int index = tableSchema.findField(column);
+            this.columnIndices.add(index);
+            this.columnTypes.add(tableSchema.getFieldType(index));
+        }
+        this.setOutputSchema(this.computeSchema());
+
+        List<DataBox> lower = new ArrayList<>(prefix);
+        List<DataBox> upper = new ArrayList<>(prefix);
+        Pair<DataBox, DataBox> range = CompositeIndexScanOperator.rangeBounds(ranges);
+        if (range.getFirst() != null) lower.add(range.getFirst());
+        if (range.getSecond() != null) upper.add(range.getSecond());
+        this.lowerBound = bound(lower, false);
+        this.upperBound = bound(upper, true);
+        this.stats = this.estimateStats();
+    }
+
+    // The bound of the keys whose leading columns have values `values`.
+    private DataBox bound(List<DataBox> values, boolean upper) {
+        if (values.isEmpty()) return null;
+        if (indexColumns.size() == 1) {
+            // the keys of the tree have the width of the column; cutting a
+            // string short keeps it a bound
+            Type type = columnTypes.get(0);
+            DataBox value = values.get(0);
+            return type.getTypeId() == TypeId.STRING ? new StringDataBox(value.getString(), type.getSizeInBytes()) : value;
+        }
+        return upper ? CompositeKey.upperBound(values, columnTypes) : CompositeKey.lowerBound(values, columnTypes);
+    }
+
+    // The key of record `record` of this operator.
+    private DataBox key(Record record) {
+        if (indexColumns.size() == 1) return record.getValue(0);
+        return CompositeKey.of(record.getValues(), columnTypes);
+    }
+
+    @Override
+    public boolean isIndexScan() {
+        return true;
+    }
+
+    @Override
+    public String str() {
+        List<String> predicates = new ArrayList<>();
+        for (int i = 0; i < prefix.size(); ++i) {
+            predicates.add(indexColumns.get(i) + PredicateOperator.EQUALS.toSymbol() + prefix.get(i));
+        }
+        for (Pair<PredicateOperator, DataBox> range : ranges) {
+            predicates.add(indexColumns.get(prefix.size()) + range.getFirst().toSymbol() + range.getSecond());
+        }
+        String on = predicates.isEmpty() ? "" : " for " + String.join(" AND ", predicates);
+        return String.format("Index Only Scan%s on %s(%s) (cost=%d)",
+            on, this.tableName, getColumnName(), this.estimateIOCost());
+    }
+
+    /**
+     * Returns the columns of the index, joined with commas
+     *
+     * @return columnName
+     */
+    public String getColumnName() {
+        return String.join(",", this.indexColumns);
+    }
+
+    @Override
+    public TableStats estimateStats() {
+        TableStats stats = this.transaction.getStats(this.tableName);
+        for (int i = 0; i < prefix.size(); ++i) {
+            stats = stats.copyWithPredicate(columnIndices.get(i), PredicateOperator.EQUALS, prefix.get(i));
+        }
+        for (Pair<PredicateOperator, DataBox> range : ranges) {
+            stats = stats.copyWithPredicate(columnIndices.get(prefix.size()), range.getFirst(), range.getSecond());
+        }
+        return stats.copyWithProjection(columnIndices);
+    }
+
+    @Override
+    public int estimateIOCost() {
+        int height = transaction.getTreeHeight(tableName, getColumnName());
+        int order = transaction.getTreeOrder(tableName, getColumnName());
+        int count = this.stats.getNumRecords();
+        // as in IndexScanOperator, leaves are about 75% full, but no record is
+        // fetched: only the leaves are read
+        return (int) (height + Math.ceil(count / (1.5 * order)));
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new IndexOnlyScanIterator();
+    }
+
+    @Override
+    public Schema computeSchema() {
+        Schema tableSchema = this.transaction.getFullyQualifiedSchema(this.tableName);
+        Schema schema = new Schema();
+        for (int index : columnIndices) {
+            schema.add(tableSchema.getFieldName(index), tableSchema.getFieldType(index));
+        }
+        return schema;
+    }
+
+    @Override
+    public List<String> sortedBy() {
+        // the leading columns are constant, so the records are sorted by
+        // them as well as by the next column
+        return indexColumns.subList(0, Math.min(prefix.size() + 1, indexColumns.size()));
+    }
+
+    /**
+     * Iterates over the keys from the lower bound on, until a key is past the
+     * upper bound.
+     */
+    private class IndexOnlyScanIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextRecord;
+
+        private IndexOnlyScanIterator() {
+            this.sourceIterator = transaction.indexOnlyScanFrom(tableName, getColumnName(), lowerBound);
+            this.nextRecord = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.nextRecord != null) return true;
+            if (this.sourceIterator == null || !this.sourceIterator.hasNext()) return false;
+            Record r = this.sourceIterator.next();
+            if (upperBound != null && key(r).compareTo(upperBound) > 0) {
+                // keys only grow from here on
+                this.sourceIterator = null;
+                return false;
+            }
+            this.nextRecord = r;
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database.query;
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -20,6 +23,8 @@ class IndexScanOperator extends QueryOperator {
     private DataBox value;
 
     private int columnIndex;
+    // whether the records are returned in descending order of the column
+    private boolean descending = false;
 
     /**
      * An index scan operator.
@@ -49,9 +54,19 @@ class IndexScanOperator extends QueryOperator {
         return true;
     }
 
+    /**
+     * Makes the scan return its records in descending order of the column,
+     * reading the index backwards, so that a descending sort on the column
+     * needs no SortOperator (see QueryPlan#addSort).
+     */
+    void scanDescending() {
+        this.descending = true;
+    }
+
     @Override
     public String str() {
-        return String.format("Index Scan for %s%s%s on %s (cost=%d)",
+        return String.format("Index Scan%s for %s%s%s on %s (cost=%d)",
+            this.descending ? " Backward" : "",
             this.columnName, this.predicate.toSymbol(), this.value, this.tableName,
             this.estimateIOCost());
     }
@@ -98,7 +113,19 @@ class IndexScanOperator extends QueryOperator {
 
     @Override
     public List<String> sortedBy() {
-        return Collections.singletonList(this.columnName);
+        // the columns records are sorted by in ascending order
+        return this.descending ? Collections.emptyList() : Collections.singletonList(this.columnName);
+    }
+
+    // The value of the predicate as a bound of the keys of the index. The keys
+    // of a string column have the width of the column, and cutting a string
+    // short keeps it a bound, but only an inclusive one.
+    private DataBox keyBound() {
+        Type type = this.getSchema().getFieldType(this.columnIndex);
+        if (type.getTypeId() == TypeId.STRING) {
+            return new StringDataBox(this.value.getString(), type.getSizeInBytes());
+        }
+        return this.value;
     }
 
     /**
@@ -115,30 +142,20 @@ class IndexScanOperator extends QueryOperator {
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName,
                                           IndexScanOperator.this.value);
-            } else if (IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN ||
-                       IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName);
-            } else if (IndexScanOperator.this.predicate == PredicateOperator.GREATER_THAN) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
+            } else {
+                // the index is read from one end of the range to the other,
+                // and no further; the bounds are inclusive (see keyBound), so
+                // records equal to the bound of a strict range are skipped
+                // in hasNext
+                boolean upper = IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN ||
+                                IndexScanOperator.this.predicate == PredicateOperator.LESS_THAN_EQUALS;
+                DataBox bound = keyBound();
+                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanRange(
                                           IndexScanOperator.this.tableName,
                                           IndexScanOperator.this.columnName,
-                                          IndexScanOperator.this.value);
-                while (this.sourceIterator.hasNext()) {
-                    Record r = this.sourceIterator.next();
-
-                    if (r.getValue(IndexScanOperator.this.columnIndex)
-                            .compareTo(IndexScanOperator.this.value) > 0) {
-                        this.nextRecord = r;
-                        break;
-                    }
-                }
-            } else if (IndexScanOperator.this.predicate == PredicateOperator.GREATER_THAN_EQUALS) {
-                this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                                          IndexScanOperator.this.tableName,
-                                          IndexScanOperator.this.columnName,
-                                          IndexScanOperator.this.value);
+                                          upper ? null : bound, true,
+                                          upper ? bound : null, true,
+                                          IndexScanOperator.this.descending);
             }
         }
 
@@ -149,20 +166,14 @@ class IndexScanOperator extends QueryOperator {
         @Override
         public boolean hasNext() {
             if (this.nextRecord != null) return true;
-            if (!this.sourceIterator.hasNext()) return false;
-            Record r = this.sourceIterator.next();
-            if (predicate == PredicateOperator.LESS_THAN) {
-                if (r.getValue(columnIndex).compareTo(value) < 0) {
-                    this.nextRecord = r;
-                }
-            } else if (predicate == PredicateOperator.LESS_THAN_EQUALS) {
-                if (r.getValue(columnIndex).compareTo(value) <= 0) {
+            while (this.sourceIterator.hasNext()) {
+                Record r = this.sourceIterator.next();
+                if (predicate.evaluate(r.getValue(columnIndex), value)) {
                     this.nextRecord = r;
+                    return true;
                 }
-            } else  {
-                this.nextRecord = r;
             }
-            return this.nextRecord != null;
+            return false;
         }
 
         /**
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.query;
 
 import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.query.expr.Expression;
@@ -39,6 +40,8 @@ public class QueryPlan {
     private List<String> groupByColumns;
     // Column to sort on
     private String sortColumn;
+    // Whether to sort in descending order
+    private boolean sortDescending;
     // A limit to the number of records yielded (LIMIT clause)
     private int limit;
     // An offset to the records yielded (OFFSET clause)
@@ -304,26 +307,61 @@ public class QueryPlan {
      * Add a sort operator to the query plan on the given column.
      */
     public void sort(String sortColumn) {
+        sort(sortColumn, false);
+    }
+
+    /**
+     * Add a sort operator to the query plan on the given column, in descending
+     * order if `descending`.
+     */
+    public void sort(String sortColumn, boolean descending) {
         if (sortColumn == null) throw new UnsupportedOperationException("Only one sort column supported");
         this.sortColumn = sortColumn;
+        this.sortDescending = descending;
     }
 
     /**
      * Sets the final operator to a sort operator if a sort was specified and
-     * the final operator isn't already sorted.
+     * the final operator isn't already sorted. Records in ascending order of
+     * an index scan on the sort column are in descending order once the index
+     * is read backwards, so a descending sort reverses such a scan instead.
      */
     private void addSort() {
         if (this.sortColumn == null) return;
-        if (this.finalOperator.sortedBy().contains(sortColumn.toLowerCase())) {
+        if (this.sortDescending) {
+            IndexScanOperator scan = orderedIndexScan(this.finalOperator);
+            if (scan != null) {
+                scan.scanDescending();
+                return;
+            }
+        } else if (this.finalOperator.sortedBy().contains(sortColumn.toLowerCase())) {
             return; // already sorted
         }
         this.finalOperator = new SortOperator(
                 this.transaction,
                 this.finalOperator,
-                this.sortColumn
+                this.sortColumn,
+                this.sortDescending
         );
     }
 
+    /**
+     * @return the index scan on the sort column at the bottom of `operator`, if
+     * the operators above it keep its records in order, and null otherwise.
+     */
+    private IndexScanOperator orderedIndexScan(QueryOperator operator) {
+        while (operator.getType() == QueryOperator.OperatorType.SELECT ||
+               operator.getType() == QueryOperator.OperatorType.PROJECT ||
+               operator.getType() == QueryOperator.OperatorType.MATERIALIZE) {
+            operator = operator.getSource();
+        }
+        if (operator instanceof IndexScanOperator &&
+                operator.sortedBy().contains(sortColumn.toLowerCase())) {
+            return (IndexScanOperator) operator;
+        }
+        return null;
+    }
+
     // Limit ///////////////////////////////////////////////////////////////////
 
     /**
@@ -556,6 +594,104 @@ public class QueryPlan {
         return source;
     }
 
+    /**
+     * Returns a scan of the index on columns `indexColumns` of `table` that
+     * uses the select predicates of the query: equality predicates on the
+     * leading columns of the index, then range predicates (<, <=, > or >=) on
+     * the next column. Only predicates that compare a column with a value of
+     * its own type can be used.
+     *
+     * @param indexOnly whether to return an IndexOnlyScanOperator rather than
+     *                  a CompositeIndexScanOperator
+     * @return the scan, or null if no predicate can be used with the index
+     * (an index-only scan of the whole index, if indexOnly)
+     */
+    private QueryOperator indexScan(String table, List<String> indexColumns, boolean indexOnly) {
+        Schema schema = this.transaction.getSchema(table);
+        List<DataBox> prefix = new ArrayList<>();
+        List<Pair<PredicateOperator, DataBox>> ranges = new ArrayList<>();
+        for (String column : indexColumns) {
+            SelectPredicate equals = null;
+            for (SelectPredicate p : this.selectPredicates) {
+                if (!p.tableName.equals(table) || !p.column.equalsIgnoreCase(column)) continue;
+                int columnIndex = schema.findField(column);
+                if (schema.getFieldType(columnIndex).getTypeId() != p.value.getTypeId()) continue;
+                if (p.operator == PredicateOperator.EQUALS) {
+                    equals = p;
+                } else if (p.operator != PredicateOperator.NOT_EQUALS) {
+                    ranges.add(new Pair<>(p.operator, p.value));
+                }
+            }
+            if (equals == null) break;
+            prefix.add(equals.value);
+            ranges.clear();
+        }
+        if (indexOnly) {
+            return new IndexOnlyScanOperator(this.transaction, table, indexColumns, prefix, ranges);
+        }
+        if (prefix.isEmpty() && ranges.isEmpty()) return null;
+        return new CompositeIndexScanOperator(this.transaction, table, indexColumns, prefix, ranges);
+    }
+
+    /**
+     * Returns the names of the columns of `table` that the query refers to, in
+     * lower case: the columns it projects, filters, joins, groups or sorts on.
+     * Every column of the table if it projects all of them.
+     */
+    private Set<String> referencedColumns(String table) {
+        List<String> names = new ArrayList<>();
+        if (this.projectColumns.isEmpty()) {
+            names.addAll(this.transaction.getSchema(table).getFieldNames());
+        }
+        for (int i = 0; i < this.projectColumns.size(); i++) {
+            Expression function = this.projectFunctions == null ? null : this.projectFunctions.get(i);
+            if (function != null) {
+                names.addAll(function.getDependencies());
+            } else {
+                names.add(this.projectColumns.get(i));
+            }
+        }
+        for (SelectPredicate p : this.selectPredicates) {
+            if (p.tableName.equals(table)) names.add(p.column);
+        }
+        for (JoinPredicate p : this.joinPredicates) {
+            names.add(p.leftColumn);
+            names.add(p.rightColumn);
+        }
+        names.addAll(this.groupByColumns);
+        if (this.sortColumn != null) names.add(this.sortColumn);
+
+        Schema schema = this.transaction.getSchema(table);
+        Set<String> result = new HashSet<>();
+        for (String name : names) {
+            if (name.contains(".")) {
+                String[] parts = name.split("\\.", 2);
+                if (!parts[0].equalsIgnoreCase(table)) continue;
+                name = parts[1];
+            } else if (!hasColumn(schema, name)) {
+                boolean known = false;
+                for (String tableName : this.tableNames) {
+                    known |= hasColumn(this.transaction.getSchema(tableName), name);
+                }
+                // a column of another table, or an alias of an expression
+                // that may refer to any column
+                if (known) continue;
+                name = "*";
+            }
+            for (String fieldName : schema.getFieldNames()) {
+                if (name.equals("*") || fieldName.equalsIgnoreCase(name)) result.add(fieldName.toLowerCase());
+            }
+        }
+        return result;
+    }
+
+    private static boolean hasColumn(Schema schema, String name) {
+        for (String fieldName : schema.getFieldNames()) {
+            if (fieldName.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
     /**
      * Finds the lowest cost QueryOperator that accesses the given table. First
      * determine the cost of a sequential scan for the given table. Then for
@@ -596,6 +732,33 @@ public class QueryPlan {
             }
         }
 
+        // Composite indices can use several predicates at once, and indices
+        // on every column the query refers to can answer it on their own,
+        // without reading the table. Their scans are conservative, so every
+        // predicate is applied again afterwards.
+        Set<String> referenced = referencedColumns(table);
+        for (List<String> indexColumns : this.transaction.getIndexColumns(table)) {
+            // an index-only scan wins ties, as it never reads the table
+            List<QueryOperator> indexOps = new ArrayList<>();
+            Set<String> covered = new HashSet<>();
+            for (String column : indexColumns) covered.add(column.toLowerCase());
+            if (covered.containsAll(referenced)) {
+                indexOps.add(indexScan(table, indexColumns, true));
+            }
+            if (indexColumns.size() > 1) {
+                indexOps.add(indexScan(table, indexColumns, false));
+            }
+            for (QueryOperator indexOp : indexOps) {
+                if (indexOp == null) continue;
+                int indexCost = indexOp.estimateIOCost();
+                if (indexCost < minCost) {
+                    minOp = indexOp;
+                    minCost = indexCost;
+                    index = -1;
+                }
+            }
+        }
+
         //3. Push down select predicates for each eligible index
         minOp = addEligibleSelections(minOp, index);
         return minOp;
@@ -17,10 +17,18 @@ public class SortOperator extends QueryOperator {
     private int numBuffers;
     private int sortColumnIndex;
     private String sortColumnName;
+    // whether records are sorted in descending order
+    private boolean descending;
 
     public SortOperator(TransactionContext transaction, QueryOperator source,
                         String columnName) {
+        this(transaction, source, columnName, false);
+    }
+
+    public SortOperator(TransactionContext transaction, QueryOperator source,
+                        String columnName, boolean descending) {
         super(OperatorType.SORT, source);
+        this.descending = descending;
         this.transaction = transaction;
         this.numBuffers = this.transaction.getWorkMemSize();
         this.sortColumnIndex = getSchema().findField(columnName);
@@ -31,7 +39,8 @@ public class SortOperator extends QueryOperator {
     private class RecordComparator implements Comparator<Record> {
         @Override
         public int compare(Record r1, Record r2) {
-            return r1.getValue(sortColumnIndex).compareTo(r2.getValue(sortColumnIndex));
+            int c = r1.getValue(sortColumnIndex).compareTo(r2.getValue(sortColumnIndex));
+            return descending ? -c : c;
         }
     }
 
@@ -55,11 +64,13 @@ public class SortOperator extends QueryOperator {
 
     @Override
     public String str() {
-        return "Sort (cost=" + estimateIOCost() + ")";
+        return (descending ? "Sort Descending" : "Sort") + " (cost=" + estimateIOCost() + ")";
     }
 
     @Override
     public List<String> sortedBy() {
+        // the columns records are sorted by in ascending order
+        if (descending) return Collections.emptyList();
         return Collections.singletonList(sortColumnName);
     }
 
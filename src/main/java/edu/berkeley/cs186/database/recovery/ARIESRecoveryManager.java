@@ -1,15 +1,23 @@
 package edu.berkeley.cs186.database.recovery;
 
 import edu.berkeley.cs186.database.Transaction;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 
 import java.util.*;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -34,9 +42,58 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // true if redo phase of restart has terminated, false otherwise. Used
     // to prevent DPT entries from being flushed during restartRedo.
     boolean redoComplete;
+    // Number of threads the redo pass of restart recovery uses.
+    int redoParallelism = Runtime.getRuntime().availableProcessors();
+    // Number of threads the undo pass of restart recovery uses.
+    int undoParallelism = Runtime.getRuntime().availableProcessors();
+
+    // Whether restart opens the database right after analysis, finishing redo
+    // and undo in the background (see restartInstantly).
+    private boolean instantRestart;
+    // Pages whose redo has been deferred until they are fetched (page number ->
+    // LSNs of records to redo, in order). Only used by instant restart.
+    Map<Long, PendingRedo> pendingRedo = new ConcurrentHashMap<>();
+    // Pages with changes by loser transactions that have not been undone yet.
+    // Only used by instant restart.
+    Set<Long> pendingUndo = ConcurrentHashMap.newKeySet();
+    // Set on threads doing restart recovery work, which may fetch pages in
+    // pendingUndo.
+    private static final ThreadLocal<Boolean> recoveryThread = ThreadLocal.withInitial(() -> false);
+    // Threads finishing an instant restart in the background.
+    private List<Thread> backgroundRecovery = new ArrayList<>();
+
+    // LSN of the begin checkpoint record of the last checkpoint, or -1 if
+    // none has been taken since startup.
+    volatile long lastCheckpointLSN = -1;
+    // The background checkpointer takes a checkpoint after this many
+    // milliseconds, or after this many log pages have been appended since the
+    // last checkpoint, whichever comes first. 0 disables the trigger.
+    private long checkpointIntervalMillis = 0;
+    private int checkpointLogPages = 0;
+    // Background checkpointer thread, started at the end of restart, and the
+    // lock it waits on between checks.
+    private Thread checkpointer;
+    private final Object checkpointerLock = new Object();
+    private volatile boolean checkpointerStopped = false;
+    // Whether restart is done, so that a checkpointer runs.
+    private boolean restarted = false;
+    // Backup the log is being archived into (see backup), or null.
+    private volatile LogArchive logArchive;
+    // Timings and counters of restart recovery.
+    private final RecoveryStats recoveryStats = new RecoveryStats();
 
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
+        this(newTransaction, false);
+    }
+
+    /**
+     * @param newTransaction function to create a new transaction for recovery
+     * @param instantRestart whether restart should return as soon as analysis
+     *                       is done, and redo and undo lazily/in the background
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, boolean instantRestart) {
         this.newTransaction = newTransaction;
+        this.instantRestart = instantRestart;
     }
 
     /**
@@ -78,7 +135,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public synchronized void startTransaction(Transaction transaction) {
-        this.transactionTable.put(transaction.getTransNum(), new TransactionTableEntry(transaction));
+        TransactionTableEntry entry = new TransactionTableEntry(transaction);
+        entry.firstLSN = this.logManager.getTailPageLSN();
+        this.transactionTable.put(transaction.getTransNum(), entry);
     }
 
     /**
@@ -104,6 +163,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         //4.将commit log record写入到log中
         long LSN = logManager.appendToLog(record);
         transactionTableEntry.lastLSN = LSN;
+        transactionTableEntry.cacheRecord(record);
         //5.将log flush到磁盘
         logManager.flushToLSN(LSN);
         //6.更新事务的状态
@@ -135,6 +195,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         //4.将abort log record写入到log中
         long LSN = logManager.appendToLog(record);
         transactionTableEntry.lastLSN = LSN;
+        transactionTableEntry.cacheRecord(record);
         //5.更新事务的状态为ABORTING
         transactionTableEntry.transaction.setStatus(Transaction.Status.ABORTING);
         return LSN;
@@ -177,6 +238,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         return LSN;
     }
 
+    /**
+     * @return the number of log records a running transaction has appended
+     * since it began (0 if it is not in the transaction table): a measure of
+     * how much work is lost, and has to be undone, if it aborts
+     */
+    public long getNumLogRecords(long transNum) {
+        TransactionTableEntry entry = transactionTable.get(transNum);
+        return entry == null ? 0 : entry.getNumLogRecords();
+    }
+
     /**
      * Recommended helper function: performs a rollback of all of a
      * transaction's actions, up to (but not including) a certain LSN.
@@ -196,7 +267,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     private void rollbackToLSN(long transNum, long LSN) {
         TransactionTableEntry transactionEntry = transactionTable.get(transNum);
-        LogRecord lastRecord = logManager.fetchLogRecord(transactionEntry.lastLSN);
+        LogRecord lastRecord = fetchTransactionRecord(transactionEntry, transactionEntry.lastLSN);
         long lastRecordLSN = lastRecord.getLSN();
         // Small optimization: if the last record is a CLR we can start rolling
         // back from the next record that hasn't yet been undone.
@@ -204,18 +275,30 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // TODO(proj5) implement the rollback logic described above
         //1.循环回滚日志记录，直到currentLSN <= LSN
         while (currentLSN > LSN) {
-            LogRecord record = logManager.fetchLogRecord(currentLSN);
+            LogRecord record = fetchTransactionRecord(transactionEntry, currentLSN);
 
             if (record.isUndoable()) {
                 LogRecord clr = record.undo(transactionEntry.lastLSN);
                 long clrLSN = logManager.appendToLog(clr);
                 transactionEntry.lastLSN = clrLSN;
+                transactionEntry.cacheRecord(clr);
                 clr.redo(this, diskSpaceManager, bufferManager);
             }
-            currentLSN = record.getPrevLSN().orElse(0L);
+            // later rollbacks skip over this record, so it can leave the cache
+            transactionEntry.uncacheRecord(currentLSN);
+            currentLSN = nextUndoLSN(record);
         }
     }
 
+    /**
+     * Fetches a record logged by a transaction, from the transaction's undo
+     * cache if it is still there, and from the log otherwise.
+     */
+    private LogRecord fetchTransactionRecord(TransactionTableEntry transactionEntry, long LSN) {
+        LogRecord record = transactionEntry.getCachedRecord(LSN);
+        return record != null ? record : logManager.fetchLogRecord(LSN);
+    }
+
     /**
      * Called before a page is flushed from the buffer cache. This
      * method is never called on a log page.
@@ -242,6 +325,36 @@ public class ARIESRecoveryManager implements RecoveryManager {
         if (redoComplete) dirtyPageTable.remove(pageNum);
     }
 
+    /**
+     * Called when a page is fetched, before it is pinned.
+     *
+     * Outside of an instant restart this does nothing. During one, the first
+     * fetch of a page whose redo was deferred redoes it (concurrent fetches of
+     * the page wait for this), and fetches of a page with changes by loser
+     * transactions wait until the losers have been rolled back.
+     *
+     * @param pageNum page number of page being fetched
+     */
+    @Override
+    public void pageFetchHook(long pageNum) {
+        PendingRedo redo = pendingRedo.get(pageNum);
+        if (redo != null) {
+            redo.run(pageNum);
+        }
+        if (!pendingUndo.isEmpty() && pendingUndo.contains(pageNum) && !recoveryThread.get()) {
+            synchronized (pendingUndo) {
+                while (pendingUndo.contains(pageNum)) {
+                    try {
+                        pendingUndo.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted waiting for undo of page " + pageNum, e);
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Called when a write to a page happens.
      *
@@ -279,12 +392,106 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         //5.更新事务的lastLSN
         transactionTableEntry.lastLSN = LSN;
+        transactionTableEntry.cacheRecord(record);
 
         //6.将page标记为dirty
         dirtyPage(pageNum, LSN);
         return LSN;
     }
 
+    /**
+     * Called when a record is inserted into a slot of a heap data page.
+     *
+     * The appropriate log record should be appended, and the transaction table
+     * and dirty page table should be updated accordingly.
+     *
+     * @param transNum transaction inserting the record
+     * @param pageNum page number of page the record is inserted into
+     * @param bitmapOffset offset of the page's slot bitmap, or -1 if it has none
+     * @param entryNum slot the record is inserted into
+     * @param offset offset of the slot on the page
+     * @param record serialized record
+     * @return LSN of record written to log
+     */
+    @Override
+    public long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                                byte[] record) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long prevLSN = transactionEntry.lastLSN;
+        LogRecord logRecord = new InsertRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, entryNum,
+                offset, record);
+        long LSN = logManager.appendToLog(logRecord);
+        // Update lastLSN
+        transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(logRecord);
+        dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when the record in a slot of a heap data page is deleted.
+     *
+     * The appropriate log record should be appended, and the transaction table
+     * and dirty page table should be updated accordingly.
+     *
+     * @param transNum transaction deleting the record
+     * @param pageNum page number of page the record is deleted from
+     * @param bitmapOffset offset of the page's slot bitmap, or -1 if it has none
+     * @param entryNum slot the record is deleted from
+     * @param offset offset of the slot on the page
+     * @param record serialized record before the delete
+     * @return LSN of record written to log
+     */
+    @Override
+    public long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                                byte[] record) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long prevLSN = transactionEntry.lastLSN;
+        LogRecord logRecord = new DeleteRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, entryNum,
+                offset, record);
+        long LSN = logManager.appendToLog(logRecord);
+        // Update lastLSN
+        transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(logRecord);
+        dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
+    /**
+     * Called when the record in a slot of a heap data page is updated.
+     *
+     * The appropriate log record should be appended, and the transaction table
+     * and dirty page table should be updated accordingly.
+     *
+     * @param transNum transaction updating the record
+     * @param pageNum page number of page holding the record
+     * @param offset offset of the slot on the page
+     * @param diffOffsets offsets of the changed columns within the slot
+     * @param before bytes of each changed column before the update
+     * @param after bytes of each changed column after the update
+     * @return LSN of record written to log
+     */
+    @Override
+    public long logUpdateRecord(long transNum, long pageNum, short offset, short[] diffOffsets, byte[][] before,
+                                byte[][] after) {
+        TransactionTableEntry transactionEntry = transactionTable.get(transNum);
+        assert (transactionEntry != null);
+
+        long prevLSN = transactionEntry.lastLSN;
+        LogRecord logRecord = new UpdateRecordLogRecord(transNum, pageNum, prevLSN, offset, diffOffsets,
+                before, after);
+        long LSN = logManager.appendToLog(logRecord);
+        // Update lastLSN
+        transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(logRecord);
+        dirtyPage(pageNum, LSN);
+        return LSN;
+    }
+
     /**
      * Called when a new partition is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
@@ -310,6 +517,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -341,6 +549,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -372,6 +581,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -403,6 +613,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long LSN = logManager.appendToLog(record);
         // Update lastLSN
         transactionEntry.lastLSN = LSN;
+        transactionEntry.cacheRecord(record);
         dirtyPageTable.remove(pageNum);
         // Flush log
         logManager.flushToLSN(LSN);
@@ -521,6 +732,181 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+        lastCheckpointLSN = beginLSN;
+    }
+
+    /**
+     * Takes fuzzy checkpoints in the background once restart is done, and
+     * truncates the log after each one. No checkpointer runs until a policy
+     * is set; setting one after restart replaces the running checkpointer.
+     *
+     * @param intervalMillis take a checkpoint at least this often (0 to never
+     *                       checkpoint based on time)
+     * @param logPages take a checkpoint once this many log pages have been
+     *                 appended since the last checkpoint (0 to never checkpoint
+     *                 based on log volume)
+     */
+    public void setCheckpointPolicy(long intervalMillis, int logPages) {
+        if (intervalMillis < 0 || logPages < 0) {
+            throw new IllegalArgumentException("checkpoint interval and log pages must be non-negative");
+        }
+        this.stopCheckpointer();
+        this.checkpointIntervalMillis = intervalMillis;
+        this.checkpointLogPages = logPages;
+        if (restarted) {
+            this.startCheckpointer();
+        }
+    }
+
+    /**
+     * Frees the log pages that are no longer needed by restart recovery:
+     * analysis starts at the last checkpoint, redo starts at the smallest
+     * recLSN in the DPT, and undo goes back as far as the first record of
+     * each active transaction. Nothing is truncated while an instant restart
+     * is still finishing, or while a transaction whose first record is
+     * unknown (found during analysis) is active.
+     *
+     * @return number of log pages freed
+     */
+    synchronized int truncateLog() {
+        if (TransactionContext.getTransaction() != null || !pendingRedo.isEmpty() || !pendingUndo.isEmpty()) {
+            return 0;
+        }
+        long LSN = oldestNeededLSN();
+        if (LSN < 0) {
+            return 0;
+        }
+        if (logArchive != null) {
+            // keep whatever has not been archived yet
+            LSN = Math.min(LSN, logArchive.getArchivedLSN());
+        }
+        return logManager.truncate(LSN);
+    }
+
+    /**
+     * @return the LSN of the oldest log record restart recovery would need if
+     * the database crashed now (see truncateLog), or -1 if unknown
+     */
+    private synchronized long oldestNeededLSN() {
+        if (lastCheckpointLSN < 0) {
+            return -1L;
+        }
+        long LSN = lastCheckpointLSN;
+        for (long recLSN : dirtyPageTable.values()) {
+            LSN = Math.min(LSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            if (entry.lastLSN == 0) {
+                // nothing to undo, and anything it logs from now on comes
+                // after the last checkpoint
+                continue;
+            }
+            if (entry.firstLSN == 0) {
+                return -1L;
+            }
+            LSN = Math.min(LSN, entry.firstLSN);
+        }
+        return LSN;
+    }
+
+    /**
+     * Takes an online backup of the database into backupDir, and keeps
+     * archiving the log into it until the database is closed or another
+     * backup is taken (see LogArchive for restoring it).
+     *
+     * Dirty pages are flushed and a checkpoint is taken first; the data
+     * partitions are then copied page by page while transactions keep
+     * running, and all log from the oldest record restart recovery of the
+     * checkpoint needs is archived, which makes the copy consistent when it
+     * is restored.
+     *
+     * @param backupDir directory to back up into (must not exist, or be empty)
+     */
+    public void backup(String backupDir) {
+        //先把脏页写回磁盘，这样备份中的页面包含备份开始前的所有修改
+        bufferManager.flushAll();
+        this.checkpoint();
+        LogArchive archive;
+        synchronized (this) {
+            long startLSN = oldestNeededLSN();
+            if (startLSN < 0) {
+                startLSN = logManager.getFirstPageLSN();
+            }
+            archive = new LogArchive(backupDir, lastCheckpointLSN, startLSN);
+            if (logArchive != null) {
+                this.archiveLog();
+                logArchive.close();
+            }
+            // from now on, the log is only truncated once archived
+            logArchive = archive;
+        }
+        diskSpaceManager.copyPartitions(archive.getDataDir(), LogManager.LOG_PARTITION);
+        // every page copied was flushed, so its changes are in the log up to here
+        this.archiveLog();
+    }
+
+    /**
+     * Copies the log flushed since the last call into the current backup, if
+     * there is one.
+     */
+    void archiveLog() {
+        LogArchive archive = logArchive;
+        if (archive != null) {
+            archive.archive(diskSpaceManager, logManager.getFlushedLSN());
+        }
+    }
+
+    private void startCheckpointer() {
+        if (checkpointer != null || (checkpointIntervalMillis == 0 && checkpointLogPages == 0)) {
+            return;
+        }
+        checkpointerStopped = false;
+        long pollMillis = checkpointIntervalMillis == 0 ? 100 : Math.min(checkpointIntervalMillis, 100);
+        checkpointer = new Thread(() -> {
+            long lastCheckpointTime = System.currentTimeMillis();
+            while (!checkpointerStopped) {
+                // not interrupted to stop, since interrupting file I/O closes the file
+                synchronized (checkpointerLock) {
+                    try {
+                        if (!checkpointerStopped) {
+                            checkpointerLock.wait(pollMillis);
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                boolean timeDue = checkpointIntervalMillis > 0 &&
+                                  now - lastCheckpointTime >= checkpointIntervalMillis;
+                boolean logDue = checkpointLogPages > 0 && LogManager.getLSNPage(logManager.getTailPageLSN())
+                                 - LogManager.getLSNPage(Math.max(lastCheckpointLSN, 0)) >= checkpointLogPages;
+                if ((timeDue || logDue) && !checkpointerStopped) {
+                    this.checkpoint();
+                    this.archiveLog();
+                    this.truncateLog();
+                    lastCheckpointTime = now;
+                }
+            }
+        }, "checkpointer");
+        checkpointer.setDaemon(true);
+        checkpointer.start();
+    }
+
+    // Stops the checkpointer, if one runs, and waits for it to finish.
+    private void stopCheckpointer() {
+        if (checkpointer == null) {
+            return;
+        }
+        synchronized (checkpointerLock) {
+            checkpointerStopped = true;
+            checkpointerLock.notifyAll();
+        }
+        try {
+            checkpointer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        checkpointer = null;
     }
 
     /**
@@ -545,8 +931,20 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        this.stopCheckpointer();
+        for (Thread thread : backgroundRecovery) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         this.checkpoint();
         this.logManager.close();
+        if (logArchive != null) {
+            this.archiveLog();
+            logArchive.close();
+        }
     }
 
     // Restart Recovery ////////////////////////////////////////////////////////
@@ -560,15 +958,46 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * dirty page table of non-dirty pages (pages that aren't dirty in the
      * buffer manager) between redo and undo, and perform a checkpoint after
      * undo.
+     *
+     * In instant restart mode, only analysis runs before this method returns;
+     * see restartInstantly.
+     *
+     * Once restart is done, the background checkpointer is started if a
+     * checkpoint policy was set (see setCheckpointPolicy).
+     *
+     * The time and I/Os each pass takes are recorded in getRecoveryStats.
      */
     @Override
     public void restart() {
-        this.restartAnalysis();
-        this.restartRedo();
-        this.redoComplete = true;
-        this.cleanDPT();
-        this.restartUndo();
-        this.checkpoint();
+        if (instantRestart) {
+            this.restartInstantly();
+        } else {
+            timePass(RecoveryStats.Pass.ANALYSIS, this::restartAnalysis);
+            timePass(RecoveryStats.Pass.REDO, this::restartRedo);
+            this.redoComplete = true;
+            this.cleanDPT();
+            timePass(RecoveryStats.Pass.UNDO, this::restartUndo);
+            this.checkpoint();
+        }
+        this.restarted = true;
+        this.startCheckpointer();
+    }
+
+    /**
+     * @return timings and counters of restart recovery so far
+     */
+    public RecoveryStats getRecoveryStats() {
+        return recoveryStats;
+    }
+
+    private void timePass(RecoveryStats.Pass pass, Runnable runPass) {
+        long startIOs = bufferManager.getNumIOs();
+        long start = System.nanoTime();
+        try {
+            runPass.run();
+        } finally {
+            recoveryStats.addTime(pass, System.nanoTime() - start, bufferManager.getNumIOs() - startIOs);
+        }
     }
 
     /**
@@ -584,7 +1013,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - update the transaction table
      *
      * If the log record is page-related (getPageNum is present), update the dpt
-     *   - update/undoupdate page will dirty pages
+     *   - update/undoupdate page and insert/delete/update record (and their
+     *     CLRs) will dirty pages
      *   - free/undoalloc page always flush changes to disk
      *   - no action needed for alloc/undofree page
      *
@@ -627,19 +1057,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
         Iterator<LogRecord> iter = logManager.scanFrom(LSN);
         while (iter.hasNext()) {
             record = iter.next();
+            recoveryStats.recordScanned(RecoveryStats.Pass.ANALYSIS);
             Optional<Long> transNumOpt = record.getTransNum();
             if (transNumOpt.isPresent()) {
                 long transNum = transNumOpt.get();
                 if (!transactionTable.containsKey(transNum)) {
-                    Transaction transaction = newTransaction.apply(transNum);
-                    startTransaction(transaction);
+                    startRecoveredTransaction(transNum);
                 }
                 TransactionTableEntry entry = transactionTable.get(transNum);
                 entry.lastLSN = record.getLSN();
             }
 
             //2.更新页面操作log，更新dirty页表
-            if (record.getType() == LogType.UPDATE_PAGE || record.getType() == LogType.UNDO_UPDATE_PAGE) {
+            if (updatesPage(record.getType())) {
                 long pageNum = record.getPageNum().get();
                 if (!dirtyPageTable.containsKey(pageNum)) {
                     dirtyPageTable.put(pageNum, record.getLSN());
@@ -674,8 +1104,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
                         continue;
                     }
                     if (!transactionTable.containsKey(transNum)) {
-                        Transaction transaction = newTransaction.apply(transNum);
-                        startTransaction(transaction);
+                        startRecoveredTransaction(transNum);
                     }
                     TransactionTableEntry tableEntry = transactionTable.get(transNum);
                     tableEntry.lastLSN = Math.max(tableEntry.lastLSN, entry.getValue().getSecond());
@@ -707,6 +1136,17 @@ public class ARIESRecoveryManager implements RecoveryManager {
         return;
     }
 
+    /**
+     * Adds a transaction found in the log during analysis to the transaction
+     * table. Unlike startTransaction, its firstLSN is left at 0: the
+     * transaction began before the analysis scan, so its first record is
+     * unknown, and the log is not truncated until it ends (see truncateLog).
+     */
+    private void startRecoveredTransaction(long transNum) {
+        Transaction transaction = newTransaction.apply(transNum);
+        this.transactionTable.put(transNum, new TransactionTableEntry(transaction));
+    }
+
     /**
      * This method performs the redo pass of restart recovery.
      *
@@ -715,9 +1155,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * Then, scanning from the starting point, if the record is redoable and
      * - partition-related (Alloc/Free/UndoAlloc/UndoFree..Part), always redo it
      * - allocates a page (AllocPage/UndoFreePage), always redo it
-     * - modifies a page (Update/UndoUpdate/Free/UndoAlloc....Page) in
+     * - modifies a page (Update/UndoUpdate/Free/UndoAlloc....Page, or
+     *   Insert/Delete/Update...Record and their CLRs) in
      *   the dirty page table with LSN >= recLSN, the page is fetched from disk,
      *   the pageLSN is checked, and the record is redone if needed.
+     *
+     * Records are redone by redoParallelism worker threads: every record
+     * concerning a page is handed to the worker that page hashes to, so records
+     * for the same page are still redone in LSN order, while records for
+     * different pages are redone (and their pages read in) concurrently.
+     * Partition-related records affect every page of the partition, so all
+     * workers are drained before one is redone. Before the scan starts, the
+     * workers prefetch the pages of the dirty page table with the smallest
+     * recLSNs, so that reading them overlaps with reading the log.
      */
     void restartRedo() {
         // TODO(proj5): implement
@@ -727,44 +1177,147 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
 
         long minRecLSN = Collections.min(dirtyPageTable.values());
-        //从最小的recLSN开始扫描日志记录
-        Iterator<LogRecord> iter = logManager.scanFrom(minRecLSN);
-        while (iter.hasNext()) {
-            LogRecord record = iter.next();
+        RedoWorkers workers = new RedoWorkers(redoParallelism);
+        try {
+            //按recLSN顺序预取dirty页表中的页面
+            List<Map.Entry<Long, Long>> dirtyPages = new ArrayList<>(dirtyPageTable.entrySet());
+            dirtyPages.sort(Map.Entry.comparingByValue());
+            int numPrefetch = Math.min(dirtyPages.size(), bufferManager.getBufferSize() / 2);
+            for (Map.Entry<Long, Long> entry : dirtyPages.subList(0, numPrefetch)) {
+                long pageNum = entry.getKey();
+                //页面可能由之后的AllocPage记录才分配（例如从备份恢复时）
+                workers.submit(pageNum, () -> {
+                    if (diskSpaceManager.pageAllocated(pageNum)) {
+                        bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+                    }
+                });
+            }
 
-            //分区相关的记录，AllocPart, UndoAllocPart, FreePart, UndoFreePart, 总是redo
-            if (record.getType() == LogType.ALLOC_PART || record.getType() == LogType.UNDO_ALLOC_PART || record.getType() == LogType.FREE_PART || record.getType() == LogType.UNDO_FREE_PART) {
-                record.redo(this, diskSpaceManager, bufferManager);
-                continue;
+            //从最小的recLSN开始扫描日志记录
+            Iterator<LogRecord> iter = logManager.scanFrom(minRecLSN);
+            while (iter.hasNext()) {
+                LogRecord record = iter.next();
+                recoveryStats.recordScanned(RecoveryStats.Pass.REDO);
+
+                //分区相关的记录，AllocPart, UndoAllocPart, FreePart, UndoFreePart, 总是redo
+                //需要等待所有worker完成之前的记录
+                if (record.getType() == LogType.ALLOC_PART || record.getType() == LogType.UNDO_ALLOC_PART || record.getType() == LogType.FREE_PART || record.getType() == LogType.UNDO_FREE_PART) {
+                    workers.drain();
+                    record.redo(this, diskSpaceManager, bufferManager);
+                    continue;
+                }
+
+                //分配页面的记录，AllocPage, UndoFreePage, 总是redo
+                if (record.getType() == LogType.ALLOC_PAGE || record.getType() == LogType.UNDO_FREE_PAGE) {
+                    workers.submit(record.getPageNum().get(), () ->
+                        record.redo(this, diskSpaceManager, bufferManager));
+                    continue;
+                }
+
+                //修改页面的记录，UpdatePage, UndoUpdatePage, FreePage, UndoAllocPage
+                //检查
+                //1. page在dirty页表中
+                //2. record 的 LSN >= 该页面的recLSN
+                //3. pageLSN < record 的 LSN
+                if (updatesPage(record.getType()) || record.getType() == LogType.UNDO_ALLOC_PAGE || record.getType() == LogType.FREE_PAGE) {
+                    long pageNum = record.getPageNum().get();
+                    Long recLSN = dirtyPageTable.get(pageNum);
+                    if (recLSN != null && record.getLSN() >= recLSN) {
+                        workers.submit(pageNum, () -> redoIfNewer(record, pageNum));
+                    }
+                }
             }
+            workers.drain();
+        } finally {
+            workers.shutdown();
+        }
+    }
 
-            //分配页面的记录，AllocPage, UndoFreePage, 总是redo
-            if (record.getType() == LogType.ALLOC_PAGE || record.getType() == LogType.UNDO_FREE_PAGE) {
+    /**
+     * Redoes record if the pageLSN of page pageNum is less than its LSN.
+     */
+    private void redoIfNewer(LogRecord record, long pageNum) {
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            long pageLSN = page.getPageLSN();
+            if (pageLSN < record.getLSN()) {
                 record.redo(this, diskSpaceManager, bufferManager);
-                continue;
+                recoveryStats.recordsRedone.incrementAndGet();
+            } else {
+                recoveryStats.recordsSkippedByPageLSN.incrementAndGet();
             }
+        } finally {
+            page.unpin();
+        }
+    }
 
-            //修改页面的记录，UpdatePage, UndoUpdatePage, FreePage, UndoAllocPage
-            //检查
-            //1. page在dirty页表中
-            //2. record 的 LSN >= 该页面的recLSN
-            //3. pageLSN < record 的 LSN
-            if (record.getType() == LogType.UPDATE_PAGE || record.getType() == LogType.UNDO_UPDATE_PAGE || record.getType() == LogType.UNDO_ALLOC_PAGE || record.getType() == LogType.FREE_PAGE) {
-                long pageNum = record.getPageNum().get();
-                if (dirtyPageTable.containsKey(pageNum) && record.getLSN() >= dirtyPageTable.get(pageNum)) {
-                    Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+    /**
+     * Worker threads for the redo pass. Each worker runs its tasks one at a
+     * time, in the order they were submitted, and a page is always assigned to
+     * the same worker.
+     */
+    private static class RedoWorkers {
+        private ExecutorService[] executors;
+        private List<Future<?>> pending = new ArrayList<>();
+
+        RedoWorkers(int numWorkers) {
+            this.executors = new ExecutorService[Math.max(1, numWorkers)];
+            for (int i = 0; i < executors.length; ++i) {
+                this.executors[i] = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, "redo-worker");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+
+        void submit(long pageNum, Runnable task) {
+            int worker = Math.floorMod(Long.hashCode(pageNum), executors.length);
+            pending.add(executors[worker].submit(task));
+            // don't let completed tasks pile up on long logs
+            if (pending.size() >= 4096) {
+                rethrowFailures();
+                pending.removeIf(Future::isDone);
+            }
+        }
+
+        /**
+         * Waits for all submitted tasks to finish, rethrowing the first
+         * exception thrown by any of them.
+         */
+        void drain() {
+            for (Future<?> future : pending) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted during redo", e);
+                } catch (ExecutionException e) {
+                    rethrowCause(e);
+                }
+            }
+            pending.clear();
+        }
+
+        private void rethrowFailures() {
+            for (Future<?> future : pending) {
+                if (future.isDone()) {
                     try {
-                        long pageLSN = page.getPageLSN();
-                        if (pageLSN < record.getLSN()) {
-                            record.redo(this, diskSpaceManager, bufferManager);
-                        }
-                    } finally {
-                        page.unpin();
+                        future.get();
+                    } catch (InterruptedException | CancellationException e) {
+                        throw new IllegalStateException("redo task did not complete", e);
+                    } catch (ExecutionException e) {
+                        rethrowCause(e);
                     }
                 }
             }
         }
-        return;
+
+        void shutdown() {
+            for (ExecutorService executor : executors) {
+                executor.shutdownNow();
+            }
+        }
     }
 
     /**
@@ -779,18 +1332,84 @@ public class ARIESRecoveryManager implements RecoveryManager {
      *   if the prevLSN otherwise.
      * - if the new LSN is 0, clean up the transaction, set the status to complete,
      *   and remove from transaction table.
+     *
+     * If undoParallelism is greater than 1, the aborting transactions are first
+     * split into groups that have no pages left to undo in common (see
+     * groupUndoTransactions), and the groups are undone as above concurrently,
+     * one priority queue per group. Undoing the changes of transactions in
+     * different groups in any relative order leaves every page as undoing them
+     * in LSN order would; CLRs are still appended one at a time through the
+     * log manager.
      */
     void restartUndo() {
         // TODO(proj5): implement
-        // 创建一个初始化的撤销集合
-        PriorityQueue<Pair<Long, Long>> undoLSNs = new PriorityQueue<>(Comparator.comparing(Pair<Long, Long>::getSecond).reversed());
-
+        List<Long> losers = new ArrayList<>();
         for (Long transNum : transactionTable.keySet()) {
             Transaction transaction = transactionTable.get(transNum).transaction;
             if (transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
-                undoLSNs.add(new Pair<>(transNum, transactionTable.get(transNum).lastLSN));
+                losers.add(transNum);
             }
         }
+        undoLosers(losers);
+    }
+
+    /**
+     * Rolls back the given aborting transactions, on undoParallelism threads
+     * if there is more than one, as described in restartUndo.
+     */
+    private void undoLosers(List<Long> losers) {
+        if (undoParallelism <= 1 || losers.size() <= 1) {
+            undoTransactions(losers);
+            return;
+        }
+
+        Collection<List<Long>> groups = groupUndoTransactions(losers);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(undoParallelism, groups.size()), r -> {
+            Thread t = new Thread(r, "undo-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (List<Long> group : groups) {
+                futures.add(executor.submit(() -> undoTransactions(group)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted during undo", e);
+                } catch (ExecutionException e) {
+                    rethrowCause(e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Undoes the given aborting transactions with a single priority queue of
+     * LSNs, as described in restartUndo.
+     */
+    private void undoTransactions(Collection<Long> transNums) {
+        boolean wasRecoveryThread = recoveryThread.get();
+        recoveryThread.set(true);
+        try {
+            undoTransactionsByLSN(transNums);
+        } finally {
+            recoveryThread.set(wasRecoveryThread);
+        }
+    }
+
+    private void undoTransactionsByLSN(Collection<Long> transNums) {
+        // 创建一个初始化的撤销集合
+        PriorityQueue<Pair<Long, Long>> undoLSNs = new PriorityQueue<>(Comparator.comparing(Pair<Long, Long>::getSecond).reversed());
+
+        for (Long transNum : transNums) {
+            undoLSNs.add(new Pair<>(transNum, transactionTable.get(transNum).lastLSN));
+        }
 
         //2.反复撤销日志记录，即撤销最大的LSN日志记录
         while (!undoLSNs.isEmpty()) {
@@ -805,18 +1424,14 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 LogRecord clr = record.undo(transactionTableEntry.lastLSN);
                 long clrLSN = logManager.appendToLog(clr);
                 transactionTableEntry.lastLSN = clrLSN;
+                recoveryStats.CLRsWritten.incrementAndGet();
                 // 执行CLR的重做操作
                 clr.redo(this, diskSpaceManager, bufferManager);
                 // 更新事务表中的lastLSN
 
             }
             //将dirty页添加到dirty页表中
-            long nextLSN = 0L;
-            if (record.getUndoNextLSN().isPresent()) {
-                nextLSN = record.getUndoNextLSN().get();
-            } else {
-                nextLSN = record.getPrevLSN().orElse(0L);
-            }
+            long nextLSN = nextUndoLSN(record);
 
             if (nextLSN == 0L) {
                 transactionTableEntry.transaction.cleanup();
@@ -825,7 +1440,74 @@ public class ARIESRecoveryManager implements RecoveryManager {
             }
             undoLSNs.add(new Pair<>(transNum, nextLSN));
         }
-        return;
+    }
+
+    /**
+     * Splits aborting transactions into groups such that no two transactions
+     * in different groups have a record left to undo on the same page. Records
+     * that are not about a single page (partition allocation and freeing) are
+     * treated as touching one shared page, so all transactions with such
+     * records end up in the same group.
+     *
+     * Only the records that the undo pass will actually visit are considered:
+     * the undoNextLSN of a CLR skips records that were already undone.
+     */
+    private Collection<List<Long>> groupUndoTransactions(List<Long> transNums) {
+        // page -> a transaction with a record to undo on that page
+        Map<Long, Long> pageOwners = new HashMap<>();
+        // transaction -> transaction it was grouped with (union-find forest)
+        Map<Long, Long> parents = new HashMap<>();
+        for (Long transNum : transNums) {
+            parents.put(transNum, transNum);
+        }
+
+        for (Long transNum : transNums) {
+            forEachRecordToUndo(transNum, record -> {
+                long pageKey = record.getPageNum().orElse(-1L);
+                Long owner = pageOwners.putIfAbsent(pageKey, transNum);
+                if (owner != null) {
+                    parents.put(findGroup(parents, transNum), findGroup(parents, owner));
+                }
+            });
+        }
+
+        Map<Long, List<Long>> groups = new HashMap<>();
+        for (Long transNum : transNums) {
+            groups.computeIfAbsent(findGroup(parents, transNum), k -> new ArrayList<>()).add(transNum);
+        }
+        return groups.values();
+    }
+
+    /**
+     * Calls process on every undoable record of an aborting transaction that
+     * the undo pass will visit, starting from its lastLSN.
+     */
+    private void forEachRecordToUndo(long transNum, Consumer<LogRecord> process) {
+        long LSN = transactionTable.get(transNum).lastLSN;
+        while (LSN != 0L) {
+            LogRecord record = logManager.fetchLogRecord(LSN);
+            if (record.isUndoable()) {
+                process.accept(record);
+            }
+            LSN = nextUndoLSN(record);
+        }
+    }
+
+    private static long findGroup(Map<Long, Long> parents, long transNum) {
+        long root = transNum;
+        while (parents.get(root) != root) {
+            root = parents.get(root);
+        }
+        parents.put(transNum, root);
+        return root;
+    }
+
+    // LSN of the record to undo after record (0 if none)
+    private static long nextUndoLSN(LogRecord record) {
+        if (record.getUndoNextLSN().isPresent()) {
+            return record.getUndoNextLSN().get();
+        }
+        return record.getPrevLSN().orElse(0L);
     }
 
     /**
@@ -846,7 +1528,192 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
     }
 
+    // Instant Restart /////////////////////////////////////////////////////////
+
+    /**
+     * Performs restart recovery so that new transactions can start right after
+     * the analysis pass:
+     * - analysis runs as usual
+     * - the log is scanned from the start of redo as in restartRedo, but
+     *   records that change a page are not redone yet: their LSNs are
+     *   recorded in pendingRedo, and the page is redone the first time it is
+     *   fetched (see pageFetchHook). Partition and page allocation records,
+     *   and page frees (which first redo the page's earlier records), are
+     *   redone during the scan.
+     * - the pages that loser transactions have changes to undo on are added
+     *   to pendingUndo, so that other transactions fetching them wait until
+     *   the losers are rolled back, as if the losers still held their locks
+     *
+     * A background thread then rolls back the losers (as restartUndo does) and
+     * takes a checkpoint, and another fetches every page left in pendingRedo.
+     * Unlike a normal restart, the dirty page table is not cleaned: entries
+     * of pages that were not actually dirty are removed as pages are flushed.
+     */
+    void restartInstantly() {
+        timePass(RecoveryStats.Pass.ANALYSIS, this::restartAnalysis);
+        timePass(RecoveryStats.Pass.REDO, this::deferRedo);
+        this.redoComplete = true;
+
+        List<Long> losers = new ArrayList<>();
+        for (Map.Entry<Long, TransactionTableEntry> entry : transactionTable.entrySet()) {
+            if (entry.getValue().transaction.getStatus() == Transaction.Status.RECOVERY_ABORTING) {
+                losers.add(entry.getKey());
+            }
+        }
+        for (Long transNum : losers) {
+            forEachRecordToUndo(transNum, record -> record.getPageNum().ifPresent(pendingUndo::add));
+        }
+
+        startBackgroundRecovery("redo-sweeper", () -> {
+            for (Long pageNum : new ArrayList<>(pendingRedo.keySet())) {
+                try {
+                    bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+                } catch (PageException e) {
+                    /* page was freed by a later record; nothing left to redo */
+                    pendingRedo.remove(pageNum);
+                }
+            }
+        });
+        startBackgroundRecovery("undo-losers", () -> {
+            timePass(RecoveryStats.Pass.UNDO, () -> undoLosers(losers));
+            synchronized (pendingUndo) {
+                pendingUndo.clear();
+                pendingUndo.notifyAll();
+            }
+            this.checkpoint();
+        });
+    }
+
+    private void startBackgroundRecovery(String name, Runnable task) {
+        Thread thread = new Thread(() -> {
+            recoveryThread.set(true);
+            task.run();
+        }, name);
+        thread.setDaemon(true);
+        backgroundRecovery.add(thread);
+        thread.start();
+    }
+
+    /**
+     * The redo pass of an instant restart: like restartRedo, but records
+     * changing the contents of a page are added to pendingRedo instead of
+     * being redone.
+     */
+    private void deferRedo() {
+        if (dirtyPageTable.isEmpty()) {
+            return;
+        }
+        long minRecLSN = Collections.min(dirtyPageTable.values());
+        Iterator<LogRecord> iter = logManager.scanFrom(minRecLSN);
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            recoveryStats.recordScanned(RecoveryStats.Pass.REDO);
+            LogType type = record.getType();
+            if (type == LogType.ALLOC_PART || type == LogType.UNDO_ALLOC_PART || type == LogType.FREE_PART
+                    || type == LogType.UNDO_FREE_PART || type == LogType.ALLOC_PAGE
+                    || type == LogType.UNDO_FREE_PAGE) {
+                record.redo(this, diskSpaceManager, bufferManager);
+                continue;
+            }
+            if (!updatesPage(type) && type != LogType.UNDO_ALLOC_PAGE && type != LogType.FREE_PAGE) {
+                continue;
+            }
+            long pageNum = record.getPageNum().get();
+            Long recLSN = dirtyPageTable.get(pageNum);
+            if (recLSN == null || record.getLSN() < recLSN) {
+                continue;
+            }
+            if (updatesPage(type)) {
+                pendingRedo.computeIfAbsent(pageNum, k -> new PendingRedo()).LSNs.add(record.getLSN());
+            } else {
+                // the page is about to be freed, so catch up on its earlier records first
+                PendingRedo redo = pendingRedo.get(pageNum);
+                if (redo != null) {
+                    redo.run(pageNum);
+                }
+                redoIfNewer(record, pageNum);
+            }
+        }
+    }
+
+    /**
+     * Records deferred by an instant restart for a single page.
+     */
+    class PendingRedo {
+        List<Long> LSNs = new ArrayList<>();
+        // thread currently redoing the page, if any
+        private Thread running;
+
+        /**
+         * Redoes the records, unless they have already been redone. Threads
+         * other than the one redoing the records wait for it to finish; the
+         * redoing thread itself returns immediately when it fetches the page
+         * while redoing.
+         */
+        synchronized void run(long pageNum) {
+            if (running != null || !pendingRedo.containsKey(pageNum)) {
+                return;
+            }
+            running = Thread.currentThread();
+            boolean wasRecoveryThread = recoveryThread.get();
+            recoveryThread.set(true);
+            // redo must not be logged as a write by the transaction that fetched the page
+            TransactionContext transaction = TransactionContext.getTransaction();
+            if (transaction != null) {
+                TransactionContext.unsetTransaction();
+            }
+            try {
+                for (long LSN : LSNs) {
+                    redoIfNewer(logManager.fetchLogRecord(LSN), pageNum);
+                }
+                pendingRedo.remove(pageNum);
+            } finally {
+                if (transaction != null) {
+                    TransactionContext.setTransaction(transaction);
+                }
+                recoveryThread.set(wasRecoveryThread);
+                running = null;
+            }
+        }
+    }
+
     // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * Rethrows the exception thrown by a task run on a recovery worker thread.
+     */
+    private static void rethrowCause(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    /**
+     * Returns whether log records of the given type modify the contents of a
+     * page: byte-level page updates and record-level heap page operations, as
+     * well as their CLRs. Such records dirty their page during analysis, and
+     * are only redone if the pageLSN shows they have not reached disk.
+     */
+    static boolean updatesPage(LogType type) {
+        switch (type) {
+        case UPDATE_PAGE:
+        case UNDO_UPDATE_PAGE:
+        case INSERT_RECORD:
+        case DELETE_RECORD:
+        case UPDATE_RECORD:
+        case UNDO_INSERT_RECORD:
+        case UNDO_DELETE_RECORD:
+        case UNDO_UPDATE_RECORD:
+            return true;
+        default:
+            return false;
+        }
+    }
+
     /**
      * Comparator for Pair<A, B> comparing only on the first element (type A),
      * in reverse order.
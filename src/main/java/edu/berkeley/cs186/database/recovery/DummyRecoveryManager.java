@@ -45,12 +45,33 @@ public class DummyRecoveryManager implements RecoveryManager {
     @Override
     public void diskIOHook(long pageNum) {}
 
+    @Override
+    public void pageFetchHook(long pageNum) {}
+
     @Override
     public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                              byte[] after) {
         return 0L;
     }
 
+    @Override
+    public long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                                byte[] record) {
+        return 0L;
+    }
+
+    @Override
+    public long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                                byte[] record) {
+        return 0L;
+    }
+
+    @Override
+    public long logUpdateRecord(long transNum, long pageNum, short offset, short[] diffOffsets, byte[][] before,
+                                byte[][] after) {
+        return 0L;
+    }
+
     @Override
     public long logAllocPart(long transNum, int partNum) {
         return 0L;
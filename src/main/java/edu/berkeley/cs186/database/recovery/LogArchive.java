@@ -0,0 +1,273 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.recovery.records.MasterLogRecord;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A backup of a running database, together with an archive of the log written
+ * since the backup started, which allows restoring the database as of any
+ * later point in the archived log (point-in-time recovery).
+ *
+ * A backup directory contains:
+ * - db/: a database directory, with copies of the data partitions (copied page
+ *   by page while the database kept running), and a log partition holding the
+ *   archived log pages at their original page numbers, so that LSNs are
+ *   unchanged. Its master record points at the checkpoint taken when the
+ *   backup started.
+ * - timeline: one "<time in milliseconds> <LSN>" line per archiving pass,
+ *   recording how far the log had been archived at that time. The first line
+ *   is written when the partitions have been copied: a restore must stop at
+ *   or after its LSN, since copied pages may hold changes up to there.
+ *
+ * Restoring (see restore) copies db/, cuts the log off after the record to
+ * stop at, and leaves the rest to the usual restart recovery when the
+ * restored directory is opened as a database: committed changes up to that
+ * record are redone, and transactions that had not committed by then are
+ * rolled back.
+ */
+public class LogArchive implements AutoCloseable {
+    static final String DATA_DIR = "db";
+    static final String TIMELINE_FILE = "timeline";
+
+    private String backupDir;
+    // disk space manager of the backup's database directory
+    private DiskSpaceManager archiveDiskSpaceManager;
+    // first log page that may still change (and therefore has to be copied
+    // again on the next archiving pass)
+    private long nextPageNum;
+
+    /**
+     * Creates a new, empty backup.
+     * @param backupDir directory of the backup (must not exist, or be empty)
+     * @param checkpointLSN LSN of the begin checkpoint record restart recovery
+     *                      of the backup should start at
+     * @param startLSN LSN of the oldest log record the backup needs
+     */
+    LogArchive(String backupDir, long checkpointLSN, long startLSN) {
+        File dir = new File(backupDir);
+        String[] existing = dir.list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalArgumentException("backup directory " + backupDir + " is not empty");
+        }
+        this.backupDir = backupDir;
+        this.archiveDiskSpaceManager = new DiskSpaceManagerImpl(getDataDir(), new DummyRecoveryManager());
+        this.archiveDiskSpaceManager.allocPart(LogManager.LOG_PARTITION);
+
+        // page 0: the master record, followed by nothing
+        byte[] masterPage = new byte[DiskSpaceManager.PAGE_SIZE];
+        ByteBuffer.wrap(masterPage).put(new MasterLogRecord(checkpointLSN).toBytes());
+        this.archiveDiskSpaceManager.allocPage(0L);
+        this.archiveDiskSpaceManager.writePage(0L, masterPage);
+        this.nextPageNum = Math.max(LogManager.getLSNPage(startLSN), 1L);
+    }
+
+    /**
+     * @return the backup's database directory
+     */
+    String getDataDir() {
+        return backupDir + "/" + DATA_DIR;
+    }
+
+    /**
+     * Copies the log pages flushed since the last archiving pass from the
+     * database's log partition into the backup, and records how far the log
+     * has been archived in the timeline.
+     * @param diskSpaceManager disk space manager of the database
+     * @param flushedLSN the database's flushedLSN, read before this call
+     */
+    synchronized void archive(DiskSpaceManager diskSpaceManager, long flushedLSN) {
+        long lastPageNum = LogManager.getLSNPage(flushedLSN);
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (long pageNum = nextPageNum; pageNum <= lastPageNum; ++pageNum) {
+            try {
+                diskSpaceManager.readPage(pageNum, page);
+            } catch (PageException e) {
+                // pages of the log are never freed before they are archived,
+                // so this page was never written
+                continue;
+            }
+            if (!archiveDiskSpaceManager.pageAllocated(pageNum)) {
+                archiveDiskSpaceManager.allocPage(pageNum);
+            }
+            archiveDiskSpaceManager.writePage(pageNum, page);
+        }
+        // the last flushed page may still receive records
+        nextPageNum = Math.max(nextPageNum, lastPageNum);
+        appendToTimeline(flushedLSN);
+    }
+
+    /**
+     * @return the LSN of the first log page not yet completely archived;
+     * the log must not be truncated past it
+     */
+    synchronized long getArchivedLSN() {
+        return LogManager.makeLSN(nextPageNum, 0);
+    }
+
+    private void appendToTimeline(long LSN) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(backupDir + "/" + TIMELINE_FILE, true))) {
+            writer.println(System.currentTimeMillis() + " " + LSN);
+        } catch (IOException e) {
+            throw new PageException("could not write backup timeline: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        archiveDiskSpaceManager.close();
+    }
+
+    /**
+     * Reads the timeline of a backup.
+     * @return (time in milliseconds, LSN) pairs, oldest first
+     */
+    private static List<long[]> readTimeline(String backupDir) {
+        List<long[]> timeline = new ArrayList<>();
+        try {
+            for (String line : Files.readAllLines(new File(backupDir, TIMELINE_FILE).toPath())) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 2) {
+                    timeline.add(new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) });
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read timeline of backup " + backupDir + ": " +
+                                               e.getMessage());
+        }
+        if (timeline.isEmpty()) {
+            throw new IllegalArgumentException("backup " + backupDir + " was never completed");
+        }
+        return timeline;
+    }
+
+    /**
+     * @return the LSN the log had been archived up to at the given time, for
+     * use as the stopLSN of restore
+     * @throws IllegalArgumentException if the backup was not completed by then
+     */
+    public static long getLSNAt(String backupDir, long timeMillis) {
+        long LSN = -1L;
+        for (long[] entry : readTimeline(backupDir)) {
+            if (entry[0] <= timeMillis) {
+                LSN = entry[1];
+            }
+        }
+        if (LSN < 0) {
+            throw new IllegalArgumentException("backup " + backupDir + " was not completed by " + timeMillis);
+        }
+        return LSN;
+    }
+
+    /**
+     * Restores a backup into a new database directory, as of the log record
+     * with the largest LSN at most stopLSN. The database is brought to a
+     * consistent state by restart recovery when the directory is opened.
+     *
+     * @param backupDir directory of the backup
+     * @param targetDir directory to restore into (must not exist, or be empty)
+     * @param stopLSN LSN to restore up to; Long.MAX_VALUE for all archived log
+     * @throws IllegalArgumentException if stopLSN is before the end of the backup
+     */
+    public static void restore(String backupDir, String targetDir, long stopLSN) {
+        long backupEndLSN = readTimeline(backupDir).get(0)[1];
+        if (stopLSN < backupEndLSN) {
+            throw new IllegalArgumentException("cannot restore to LSN " + stopLSN + " before the end of the " +
+                                               "backup at LSN " + backupEndLSN);
+        }
+        File target = new File(targetDir);
+        String[] existing = target.list();
+        if (existing != null && existing.length > 0) {
+            throw new IllegalArgumentException("restore directory " + targetDir + " is not empty");
+        }
+        if (!target.exists() && !target.mkdirs()) {
+            throw new IllegalArgumentException("could not make directory " + targetDir);
+        }
+        File[] files = new File(backupDir, DATA_DIR).listFiles();
+        try {
+            for (File f : files == null ? new File[0] : files) {
+                Files.copy(f.toPath(), new File(target, f.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not copy backup " + backupDir + ": " + e.getMessage());
+        }
+
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(targetDir, new DummyRecoveryManager());
+        try {
+            cutLog(diskSpaceManager, stopLSN);
+        } finally {
+            diskSpaceManager.close();
+        }
+    }
+
+    /**
+     * Removes every record after stopLSN from the log: the rest of the page
+     * holding the last record to keep is zeroed out, and later pages are freed.
+     */
+    private static void cutLog(DiskSpaceManager diskSpaceManager, long stopLSN) {
+        long stopPageNum = LogManager.getLSNPage(stopLSN);
+        if (DiskSpaceManager.getPartNum(stopPageNum) != LogManager.LOG_PARTITION) {
+            // past the end of any log
+            return;
+        }
+        if (diskSpaceManager.pageAllocated(stopPageNum)) {
+            byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(stopPageNum, page);
+            Buffer buf = ByteBuffer.wrap(page);
+            int end = 0;
+            while (end < DiskSpaceManager.PAGE_SIZE && end <= LogManager.getLSNIndex(stopLSN)) {
+                buf.position(end);
+                Optional<LogRecord> record = LogRecord.fromBytes(buf);
+                if (!record.isPresent()) {
+                    break;
+                }
+                end = buf.position();
+            }
+            Arrays.fill(page, end, DiskSpaceManager.PAGE_SIZE, (byte) 0);
+            diskSpaceManager.writePage(stopPageNum, page);
+        }
+        for (long pageNum = stopPageNum + 1; diskSpaceManager.pageAllocated(pageNum); ++pageNum) {
+            diskSpaceManager.freePage(pageNum);
+        }
+    }
+
+    /**
+     * Restores a backup from the command line:
+     *     LogArchive backupDir targetDir [lsn=LSN | time=MILLISECONDS]
+     * restores as of the given LSN or time, or as of the end of the archived
+     * log if neither is given.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: LogArchive backupDir targetDir [lsn=LSN | time=MILLISECONDS]");
+            System.exit(1);
+        }
+        long stopLSN = Long.MAX_VALUE;
+        if (args.length == 3) {
+            if (args[2].startsWith("lsn=")) {
+                stopLSN = Long.parseLong(args[2].substring(4));
+            } else if (args[2].startsWith("time=")) {
+                stopLSN = getLSNAt(args[0], Long.parseLong(args[2].substring(5)));
+            } else {
+                System.err.println("expected lsn=LSN or time=MILLISECONDS, got " + args[2]);
+                System.exit(1);
+            }
+        }
+        restore(args[0], args[1], stopLSN);
+        System.out.println("restored " + args[0] + " into " + args[1]);
+    }
+}
@@ -16,8 +16,9 @@ import java.util.*;
 
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
- * on its own partition (partition 0). Since log pages are never deleted, the page number
- * is always increasing, so we assign LSNs as follow:
+ * on its own partition (partition 0). Log pages are always allocated right after the
+ * newest log page (even once older pages have been truncated), so the page number
+ * is always increasing, and we assign LSNs as follow:
  * - page 1: [ LSN 10000, LSN 10040, LSN 10080, ...]
  * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
  * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
@@ -28,6 +29,9 @@ import java.util.*;
  * by an empty begin and end checkpoint record. The master record is the only record in the
  * entire log that may be rewritten.
  *
+ * Pages before the oldest record still needed by recovery may be freed with truncate; page 0
+ * is never freed, and scans skip over the freed pages.
+ *
  * The LogManager is also responsible for writing pageLSNs onto pages and flushing the log
  * when pages are flushed, and therefore has a few methods that must be called by the buffer
  * manager when pages are fetched and evicted (fetchPageHook, fetchNewPageHook, and pageEvictHook).
@@ -41,6 +45,10 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
     private long flushedLSN;
+    // page number of the newest log page
+    private long lastPageNum;
+    // page number of the oldest log page after page 0 that has not been truncated
+    private volatile long firstPageNum;
 
     public static final int LOG_PARTITION = 0;
 
@@ -48,7 +56,14 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.bufferManager = bufferManager;
         this.unflushedLogTail = new ArrayDeque<>();
 
-        this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+        long pageNum = findLastPage();
+        this.firstPageNum = findFirstPage();
+        if (pageNum < 0) {
+            this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+        } else {
+            this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), pageNum + 1);
+        }
+        this.lastPageNum = this.logTail.getPageNum();
         this.unflushedLogTail.add(this.logTail);
         this.logTailBuffer = this.logTail.getBuffer();
         this.logTail.unpin();
@@ -56,6 +71,51 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
     }
 
+    /**
+     * Finds the newest page of an existing log, by walking forward from the page
+     * of the last checkpoint (which truncation never frees).
+     * @return page number of the newest log page, or -1 if there is no log yet
+     */
+    private long findLastPage() {
+        if (!isPageAllocated(0L)) {
+            return -1L;
+        }
+        long pageNum = 0L;
+        LogRecord masterRecord = fetchLogRecord(0L);
+        if (masterRecord instanceof MasterLogRecord) {
+            pageNum = getLSNPage(((MasterLogRecord) masterRecord).lastCheckpointLSN);
+        }
+        while (isPageAllocated(pageNum + 1)) {
+            ++pageNum;
+        }
+        return pageNum;
+    }
+
+    /**
+     * @return page number of the oldest log page after page 0 that has not been
+     * truncated
+     */
+    private long findFirstPage() {
+        long pageNum = 1L;
+        LogRecord masterRecord = isPageAllocated(0L) ? fetchLogRecord(0L) : null;
+        if (masterRecord instanceof MasterLogRecord) {
+            long checkpointPage = getLSNPage(((MasterLogRecord) masterRecord).lastCheckpointLSN);
+            while (pageNum < checkpointPage && !isPageAllocated(pageNum)) {
+                ++pageNum;
+            }
+        }
+        return pageNum;
+    }
+
+    private boolean isPageAllocated(long pageNum) {
+        try {
+            bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), pageNum).unpin();
+            return true;
+        } catch (PageException e) {
+            return false;
+        }
+    }
+
     /**
      * Writes to the first record in the log.
      * @param record log record to replace first record with
@@ -81,7 +141,8 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         do {
             if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
                 logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), lastPageNum + 1);
+                lastPageNum = logTail.getPageNum();
                 unflushedLogTail.add(logTail);
                 logTailBuffer = logTail.getBuffer();
             } else {
@@ -159,6 +220,53 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         return flushedLSN;
     }
 
+    /**
+     * @return LSN of the start of the newest log page; every record appended
+     * from now on has an LSN at least this large
+     */
+    public synchronized long getTailPageLSN() {
+        return makeLSN(lastPageNum, 0);
+    }
+
+    /**
+     * @return LSN of the start of the oldest log page after page 0 that has
+     * not been truncated
+     */
+    public long getFirstPageLSN() {
+        return makeLSN(firstPageNum, 0);
+    }
+
+    /**
+     * Frees the log pages that only hold records older than LSN. Page 0 (the
+     * master record) and pages that have not been flushed yet are never freed.
+     * Must not be called from a transaction, since freeing pages there logs
+     * the change.
+     * @param LSN LSN of the oldest record that must be kept
+     * @return number of pages freed
+     */
+    public synchronized int truncate(long LSN) {
+        long endPageNum = Math.min(getLSNPage(LSN), getLSNPage(flushedLSN) + 1);
+        if (!unflushedLogTail.isEmpty()) {
+            endPageNum = Math.min(endPageNum, unflushedLogTail.getFirst().getPageNum());
+        }
+        int freed = 0;
+        for (; firstPageNum < endPageNum; ++firstPageNum) {
+            Page page;
+            try {
+                page = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), firstPageNum);
+            } catch (PageException e) {
+                continue;
+            }
+            try {
+                bufferManager.freePage(page);
+                ++freed;
+            } finally {
+                page.unpin();
+            }
+        }
+        return freed;
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -277,9 +385,15 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
         private LogPagesIterator(long startLSN) {
             nextIndex = getLSNPage(startLSN);
+            int startIndex = getLSNIndex(startLSN);
+            if (nextIndex != 0 && nextIndex < firstPageNum) {
+                // records before the truncation point are gone
+                nextIndex = firstPageNum;
+                startIndex = 0;
+            }
             try {
                 Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
+                nextIter = new LogPageIterator(page, startIndex);
             } catch (PageException e) {
                 nextIter = null;
             }
@@ -313,7 +427,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
 
                 nextIter = null;
                 do {
-                    ++nextIndex;
+                    nextIndex = Math.max(nextIndex + 1, firstPageNum);
                     try {
                         Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
                         nextIter = new LogPageIterator(page, 0);
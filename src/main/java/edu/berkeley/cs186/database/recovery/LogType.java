@@ -33,7 +33,20 @@ public enum LogType {
     // compensation log record for undoing a partition alloc
     UNDO_ALLOC_PART,
     // compensation log record for undoing a partition free
-    UNDO_FREE_PART;
+    UNDO_FREE_PART,
+    // log record for inserting a record into a slot of a heap data page
+    INSERT_RECORD,
+    // log record for deleting the record in a slot of a heap data page
+    DELETE_RECORD,
+    // log record for updating some columns of the record in a slot of a
+    // heap data page
+    UPDATE_RECORD,
+    // compensation log record for undoing a record insert
+    UNDO_INSERT_RECORD,
+    // compensation log record for undoing a record delete
+    UNDO_DELETE_RECORD,
+    // compensation log record for undoing a record update
+    UNDO_UPDATE_RECORD;
 
     private static LogType[] values = LogType.values();
 
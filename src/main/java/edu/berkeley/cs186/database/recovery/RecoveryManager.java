@@ -65,6 +65,13 @@ public interface RecoveryManager extends AutoCloseable {
      */
     void diskIOHook(long pageNum);
 
+    /**
+     * Called when a page is fetched from the buffer manager, before the page
+     * is pinned. This method is never called on a new page.
+     * @param pageNum page number of page being fetched
+     */
+    void pageFetchHook(long pageNum);
+
     /**
      * Called when a write to a page happens.
      *
@@ -81,6 +88,52 @@ public interface RecoveryManager extends AutoCloseable {
     long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                       byte[] after);
 
+    /**
+     * Called when a record is inserted into a slot of a heap data page, in
+     * place of logging the individual byte-level writes to the page.
+     *
+     * @param transNum transaction inserting the record
+     * @param pageNum page number of page the record is inserted into
+     * @param bitmapOffset offset of the page's slot bitmap, or -1 if it has none
+     * @param entryNum slot the record is inserted into
+     * @param offset offset of the slot on the page
+     * @param record serialized record
+     * @return LSN of record written to log
+     */
+    long logInsertRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                         byte[] record);
+
+    /**
+     * Called when the record in a slot of a heap data page is deleted, in
+     * place of logging the individual byte-level writes to the page.
+     *
+     * @param transNum transaction deleting the record
+     * @param pageNum page number of page the record is deleted from
+     * @param bitmapOffset offset of the page's slot bitmap, or -1 if it has none
+     * @param entryNum slot the record is deleted from
+     * @param offset offset of the slot on the page
+     * @param record serialized record before the delete
+     * @return LSN of record written to log
+     */
+    long logDeleteRecord(long transNum, long pageNum, short bitmapOffset, short entryNum, short offset,
+                         byte[] record);
+
+    /**
+     * Called when the record in a slot of a heap data page is updated, in
+     * place of logging the individual byte-level writes to the page. Only the
+     * changed columns are passed in.
+     *
+     * @param transNum transaction updating the record
+     * @param pageNum page number of page holding the record
+     * @param offset offset of the slot on the page
+     * @param diffOffsets offsets of the changed columns within the slot
+     * @param before bytes of each changed column before the update
+     * @param after bytes of each changed column after the update
+     * @return LSN of record written to log
+     */
+    long logUpdateRecord(long transNum, long pageNum, short offset, short[] diffOffsets, byte[][] before,
+                         byte[][] after);
+
     /**
      * Called when a new partition is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
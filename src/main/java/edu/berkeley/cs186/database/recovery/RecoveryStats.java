@@ -0,0 +1,97 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of the passes of restart recovery, filled in by
+ * ARIESRecoveryManager as they run (see ARIESRecoveryManager#getRecoveryStats).
+ *
+ * Counters are updated by the redo and undo worker threads concurrently. In
+ * instant restart mode, the redo counters keep growing as pages are redone on
+ * demand, and the undo pass is timed on its background thread.
+ */
+public class RecoveryStats {
+    /**
+     * A pass of restart recovery.
+     */
+    public enum Pass {
+        ANALYSIS,
+        REDO,
+        UNDO
+    }
+
+    private final AtomicLong[] nanos = newCounters();
+    private final AtomicLong[] IOs = newCounters();
+    private final AtomicLong[] recordsScanned = newCounters();
+
+    // records whose changes were applied again during redo
+    final AtomicLong recordsRedone = new AtomicLong();
+    // records not redone because the pageLSN showed they had reached disk
+    final AtomicLong recordsSkippedByPageLSN = new AtomicLong();
+    // CLRs appended by the undo pass
+    final AtomicLong CLRsWritten = new AtomicLong();
+
+    private static AtomicLong[] newCounters() {
+        AtomicLong[] counters = new AtomicLong[Pass.values().length];
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    void addTime(Pass pass, long nanos, long IOs) {
+        this.nanos[pass.ordinal()].addAndGet(nanos);
+        this.IOs[pass.ordinal()].addAndGet(IOs);
+    }
+
+    void recordScanned(Pass pass) {
+        this.recordsScanned[pass.ordinal()].incrementAndGet();
+    }
+
+    /**
+     * @return wall-clock time spent in the pass, in nanoseconds
+     */
+    public long getNanos(Pass pass) {
+        return nanos[pass.ordinal()].get();
+    }
+
+    /**
+     * @return buffer manager I/Os done during the pass (see
+     * BufferManager#getNumIOs)
+     */
+    public long getIOs(Pass pass) {
+        return IOs[pass.ordinal()].get();
+    }
+
+    /**
+     * @return number of log records read by the pass's log scan (the undo
+     * pass fetches records one at a time instead, and always reports 0)
+     */
+    public long getRecordsScanned(Pass pass) {
+        return recordsScanned[pass.ordinal()].get();
+    }
+
+    public long getRecordsRedone() {
+        return recordsRedone.get();
+    }
+
+    public long getRecordsSkippedByPageLSN() {
+        return recordsSkippedByPageLSN.get();
+    }
+
+    public long getCLRsWritten() {
+        return CLRsWritten.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        for (Pass pass : Pass.values()) {
+            b.append(String.format("%-8s %8.1f ms, %8d I/Os, %8d records scanned%n", pass.name().toLowerCase(),
+                                   getNanos(pass) / 1e6, getIOs(pass), getRecordsScanned(pass)));
+        }
+        b.append(String.format("redone %d records, skipped %d by pageLSN, wrote %d CLRs", getRecordsRedone(),
+                               getRecordsSkippedByPageLSN(), getCLRsWritten()));
+        return b.toString();
+    }
+}
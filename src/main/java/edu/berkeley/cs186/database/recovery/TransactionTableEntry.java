@@ -3,22 +3,69 @@ package edu.berkeley.cs186.database.recovery;
 import edu.berkeley.cs186.database.Transaction;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 
 class TransactionTableEntry {
+    // Maximum number of log records kept in the undo cache of a transaction.
+    static final int MAX_CACHED_RECORDS = 128;
+
     // Transaction object for the transaction.
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
+    // lower bound on the LSN of the transaction's first log entry, or 0 if
+    // unknown (for transactions found during restart analysis).
+    long firstLSN = 0;
+    // number of log records the transaction has appended since it began
+    private long numLogRecords = 0;
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
+    // the transaction's most recent log records (LSN -> record), oldest first,
+    // so that rollbacks don't have to read them back from the log
+    @SuppressWarnings("serial")
+    private Map<Long, LogRecord> recentRecords = new LinkedHashMap<Long, LogRecord>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LogRecord> eldest) {
+            return size() > MAX_CACHED_RECORDS;
+        }
+    };
 
     TransactionTableEntry(Transaction transaction) {
         this.transaction = transaction;
     }
 
+    /**
+     * Adds a record just appended by the transaction to its undo cache,
+     * evicting its oldest cached record if the cache is full. Every record
+     * the transaction appends goes through here, so this also counts them.
+     */
+    synchronized void cacheRecord(LogRecord record) {
+        recentRecords.put(record.getLSN(), record);
+        ++numLogRecords;
+    }
+
+    synchronized long getNumLogRecords() {
+        return numLogRecords;
+    }
+
+    /**
+     * @return the record at LSN if it is in the undo cache, null otherwise
+     */
+    synchronized LogRecord getCachedRecord(long LSN) {
+        return recentRecords.get(LSN);
+    }
+
+    synchronized void uncacheRecord(long LSN) {
+        recentRecords.remove(LSN);
+    }
+
+    synchronized int numCachedRecords() {
+        return recentRecords.size();
+    }
+
     void addSavepoint(String name) {
         savepoints.put(name, lastLSN);
     }
@@ -0,0 +1,162 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record-level log record for deleting the record in a slot of a heap data
+ * page. Redo only needs to clear the slot's bit in the bitmap; the deleted
+ * record is kept so that the delete can be undone.
+ */
+public class DeleteRecordLogRecord extends LogRecord {
+    private long transNum; // transaction that deleted the record
+    private long pageNum; // page the record was deleted from
+    private long prevLSN; // previous log's LSN
+    public short bitmapOffset; // offset of the page's slot bitmap, or -1 if the page has none
+    public short entryNum; // slot the record was deleted from
+    public short offset; // offset of the slot on the page
+    public byte[] record; // serialized record (before delete)
+
+    /**
+     * @param transNum transaction number of transaction that deleted the record
+     * @param pageNum the page that the record was deleted from
+     * @param prevLSN previous log's LSN
+     * @param bitmapOffset offset of the slot bitmap on the page, or -1 if the
+     *                     page holds a single record and has no bitmap
+     * @param entryNum slot the record was deleted from
+     * @param offset offset of the slot on the page
+     * @param record serialized record (before delete)
+     */
+    public DeleteRecordLogRecord(long transNum, long pageNum, long prevLSN, short bitmapOffset,
+                                 short entryNum, short offset, byte[] record) {
+        super(LogType.DELETE_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.entryNum = entryNum;
+        this.offset = offset;
+        this.record = record;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        if (!isUndoable()) {
+            throw new UnsupportedOperationException("cannot undo this record: " + this);
+        }
+        return new UndoDeleteRecordLogRecord(transNum, pageNum, lastLSN, prevLSN, bitmapOffset, entryNum,
+                                             offset, record);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyDeleteRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            InsertRecordLogRecord.setSlotBit(page, bitmapOffset, entryNum, Bits.Bit.ZERO);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[33 + record.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(bitmapOffset)
+        .putShort(entryNum)
+        .putShort(offset)
+        .putShort((short) record.length)
+        .put(record);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short entryNum = buf.getShort();
+        short offset = buf.getShort();
+        byte[] record = new byte[buf.getShort()];
+        buf.get(record);
+        return Optional.of(new DeleteRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, entryNum,
+                           offset, record));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        DeleteRecordLogRecord that = (DeleteRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               entryNum == that.entryNum &&
+               offset == that.offset &&
+               Arrays.equals(record, that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, bitmapOffset, entryNum, offset);
+        result = 31 * result + Arrays.hashCode(record);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "DeleteRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", bitmapOffset=" + bitmapOffset +
+               ", entryNum=" + entryNum +
+               ", offset=" + offset +
+               ", record=" + Arrays.toString(record) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
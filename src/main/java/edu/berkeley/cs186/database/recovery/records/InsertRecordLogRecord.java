@@ -0,0 +1,190 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record-level log record for inserting a record into a slot of a heap data
+ * page. Instead of logging the bytes of the slot and the bitmap separately,
+ * the whole record is logged once along with where the slot and its bitmap
+ * bit live on the page.
+ */
+public class InsertRecordLogRecord extends LogRecord {
+    private long transNum; // transaction that inserted the record
+    private long pageNum; // page the record was inserted into
+    private long prevLSN; // previous log's LSN
+    public short bitmapOffset; // offset of the page's slot bitmap, or -1 if the page has none
+    public short entryNum; // slot the record was inserted into
+    public short offset; // offset of the slot on the page
+    public byte[] record; // serialized record
+
+    /**
+     * @param transNum transaction number of transaction that inserted the record
+     * @param pageNum the page that the record was inserted into
+     * @param prevLSN previous log's LSN
+     * @param bitmapOffset offset of the slot bitmap on the page, or -1 if the
+     *                     page holds a single record and has no bitmap
+     * @param entryNum slot the record was inserted into
+     * @param offset offset of the slot on the page
+     * @param record serialized record
+     */
+    public InsertRecordLogRecord(long transNum, long pageNum, long prevLSN, short bitmapOffset,
+                                 short entryNum, short offset, byte[] record) {
+        super(LogType.INSERT_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.entryNum = entryNum;
+        this.offset = offset;
+        this.record = record;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        if (!isUndoable()) {
+            throw new UnsupportedOperationException("cannot undo this record: " + this);
+        }
+        return new UndoInsertRecordLogRecord(transNum, pageNum, lastLSN, prevLSN, bitmapOffset, entryNum);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyInsertRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            insertSlot(page, bitmapOffset, entryNum, offset, record);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Writes a record into a slot and marks the slot as used.
+     * @param page pinned page to write to
+     * @param bitmapOffset offset of the slot bitmap, or -1 if the page has none
+     * @param entryNum slot to write the record into
+     * @param offset offset of the slot on the page
+     * @param record serialized record
+     */
+    static void insertSlot(Page page, short bitmapOffset, short entryNum, short offset, byte[] record) {
+        page.getBuffer().position(offset).put(record);
+        setSlotBit(page, bitmapOffset, entryNum, Bits.Bit.ONE);
+    }
+
+    /**
+     * Sets the bit of a slot in the slot bitmap of a page. Does nothing if
+     * the page has no bitmap.
+     */
+    static void setSlotBit(Page page, short bitmapOffset, short entryNum, Bits.Bit bit) {
+        if (bitmapOffset < 0) {
+            return;
+        }
+        Buffer buf = page.getBuffer();
+        byte[] b = new byte[1];
+        buf.position(bitmapOffset + entryNum / 8).get(b);
+        Bits.setBit(b, entryNum % 8, bit);
+        buf.position(bitmapOffset + entryNum / 8).put(b);
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[33 + record.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putShort(bitmapOffset)
+        .putShort(entryNum)
+        .putShort(offset)
+        .putShort((short) record.length)
+        .put(record);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short entryNum = buf.getShort();
+        short offset = buf.getShort();
+        byte[] record = new byte[buf.getShort()];
+        buf.get(record);
+        return Optional.of(new InsertRecordLogRecord(transNum, pageNum, prevLSN, bitmapOffset, entryNum,
+                           offset, record));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        InsertRecordLogRecord that = (InsertRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               entryNum == that.entryNum &&
+               offset == that.offset &&
+               Arrays.equals(record, that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, bitmapOffset, entryNum, offset);
+        result = 31 * result + Arrays.hashCode(record);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "InsertRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", bitmapOffset=" + bitmapOffset +
+               ", entryNum=" + entryNum +
+               ", offset=" + offset +
+               ", record=" + Arrays.toString(record) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,149 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+public class UndoDeleteRecordLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    public short bitmapOffset;
+    public short entryNum;
+    public short offset;
+    public byte[] record;
+
+    public UndoDeleteRecordLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                     short bitmapOffset, short entryNum, short offset, byte[] record) {
+        super(LogType.UNDO_DELETE_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.entryNum = entryNum;
+        this.offset = offset;
+        this.record = record;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUndoDeleteRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            InsertRecordLogRecord.insertSlot(page, bitmapOffset, entryNum, offset, record);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+        rm.dirtyPage(pageNum, getLSN());
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[41 + record.length];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putLong(undoNextLSN)
+        .putShort(bitmapOffset)
+        .putShort(entryNum)
+        .putShort(offset)
+        .putShort((short) record.length)
+        .put(record);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short entryNum = buf.getShort();
+        short offset = buf.getShort();
+        byte[] record = new byte[buf.getShort()];
+        buf.get(record);
+        return Optional.of(new UndoDeleteRecordLogRecord(transNum, pageNum, prevLSN, undoNextLSN,
+                           bitmapOffset, entryNum, offset, record));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoDeleteRecordLogRecord that = (UndoDeleteRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               entryNum == that.entryNum &&
+               offset == that.offset &&
+               Arrays.equals(record, that.record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN, bitmapOffset,
+                                  entryNum, offset);
+        result = 31 * result + Arrays.hashCode(record);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UndoDeleteRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", bitmapOffset=" + bitmapOffset +
+               ", entryNum=" + entryNum +
+               ", offset=" + offset +
+               ", record=" + Arrays.toString(record) +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
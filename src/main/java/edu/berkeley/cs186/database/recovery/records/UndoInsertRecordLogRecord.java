@@ -0,0 +1,132 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Bits;
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Objects;
+import java.util.Optional;
+
+public class UndoInsertRecordLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    public short bitmapOffset;
+    public short entryNum;
+
+    public UndoInsertRecordLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                     short bitmapOffset, short entryNum) {
+        super(LogType.UNDO_INSERT_RECORD);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.bitmapOffset = bitmapOffset;
+        this.entryNum = entryNum;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUndoInsertRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            InsertRecordLogRecord.setSlotBit(page, bitmapOffset, entryNum, Bits.Bit.ZERO);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+        rm.dirtyPage(pageNum, getLSN());
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[37];
+        ByteBuffer.wrap(b)
+        .put((byte) getType().getValue())
+        .putLong(transNum)
+        .putLong(pageNum)
+        .putLong(prevLSN)
+        .putLong(undoNextLSN)
+        .putShort(bitmapOffset)
+        .putShort(entryNum);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short bitmapOffset = buf.getShort();
+        short entryNum = buf.getShort();
+        return Optional.of(new UndoInsertRecordLogRecord(transNum, pageNum, prevLSN, undoNextLSN,
+                           bitmapOffset, entryNum));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoInsertRecordLogRecord that = (UndoInsertRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               bitmapOffset == that.bitmapOffset &&
+               entryNum == that.entryNum;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN, bitmapOffset, entryNum);
+    }
+
+    @Override
+    public String toString() {
+        return "UndoInsertRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", bitmapOffset=" + bitmapOffset +
+               ", entryNum=" + entryNum +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,152 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+public class UndoUpdateRecordLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    public short offset;
+    public short[] diffOffsets;
+    public byte[][] after;
+
+    public UndoUpdateRecordLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                     short offset, short[] diffOffsets, byte[][] after) {
+        super(LogType.UNDO_UPDATE_RECORD);
+        assert (diffOffsets.length == after.length);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.offset = offset;
+        this.diffOffsets = diffOffsets;
+        this.after = after;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUndoUpdateRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            UpdateRecordLogRecord.applyDiffs(page, offset, diffOffsets, after);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+        rm.dirtyPage(pageNum, getLSN());
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[37 + UpdateRecordLogRecord.diffsSize(after)];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putLong(undoNextLSN)
+                     .putShort(offset)
+                     .putShort((short) diffOffsets.length);
+        for (int i = 0; i < diffOffsets.length; ++i) {
+            buf.putShort(diffOffsets[i])
+            .putShort((short) after[i].length)
+            .put(after[i]);
+        }
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short offset = buf.getShort();
+        int numDiffs = buf.getShort();
+        short[] diffOffsets = new short[numDiffs];
+        byte[][] after = new byte[numDiffs][];
+        for (int i = 0; i < numDiffs; ++i) {
+            diffOffsets[i] = buf.getShort();
+            after[i] = new byte[buf.getShort()];
+            buf.get(after[i]);
+        }
+        return Optional.of(new UndoUpdateRecordLogRecord(transNum, pageNum, prevLSN, undoNextLSN, offset,
+                           diffOffsets, after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoUpdateRecordLogRecord that = (UndoUpdateRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               offset == that.offset &&
+               Arrays.equals(diffOffsets, that.diffOffsets) &&
+               Arrays.deepEquals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN, offset);
+        result = 31 * result + Arrays.hashCode(diffOffsets);
+        result = 31 * result + Arrays.deepHashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UndoUpdateRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", offset=" + offset +
+               ", diffOffsets=" + Arrays.toString(diffOffsets) +
+               ", after=" + Arrays.deepToString(after) +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
@@ -0,0 +1,195 @@
+package edu.berkeley.cs186.database.recovery.records;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.ByteBuffer;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.LogRecord;
+import edu.berkeley.cs186.database.recovery.LogType;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Record-level log record for updating the record in a slot of a heap data
+ * page. Only the columns that changed are logged: diff i covers the bytes
+ * starting diffOffsets[i] bytes into the slot, with before[i] and after[i]
+ * holding the old and new values of those bytes.
+ */
+public class UpdateRecordLogRecord extends LogRecord {
+    private long transNum; // transaction that updated the record
+    private long pageNum; // page holding the record
+    private long prevLSN; // previous log's LSN
+    public short offset; // offset of the slot on the page
+    public short[] diffOffsets; // offsets of changed columns within the slot
+    public byte[][] before; // old bytes of changed columns
+    public byte[][] after; // new bytes of changed columns
+
+    /**
+     * @param transNum transaction number of transaction that updated the record
+     * @param pageNum the page holding the record
+     * @param prevLSN previous log's LSN
+     * @param offset offset of the slot on the page
+     * @param diffOffsets offsets of changed columns within the slot
+     * @param before old bytes of changed columns
+     * @param after new bytes of changed columns
+     */
+    public UpdateRecordLogRecord(long transNum, long pageNum, long prevLSN, short offset,
+                                 short[] diffOffsets, byte[][] before, byte[][] after) {
+        super(LogType.UPDATE_RECORD);
+        assert (diffOffsets.length == before.length && before.length == after.length);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.offset = offset;
+        this.diffOffsets = diffOffsets;
+        this.before = before;
+        this.after = after;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        if (!isUndoable()) {
+            throw new UnsupportedOperationException("cannot undo this record: " + this);
+        }
+        return new UndoUpdateRecordLogRecord(transNum, pageNum, lastLSN, prevLSN, offset, diffOffsets, before);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUpdateRecordRecord"), pageNum);
+        try {
+            page.disableLogging();
+            applyDiffs(page, offset, diffOffsets, after);
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Writes each diff into the slot starting at offset.
+     */
+    static void applyDiffs(Page page, short offset, short[] diffOffsets, byte[][] values) {
+        Buffer buf = page.getBuffer();
+        for (int i = 0; i < diffOffsets.length; ++i) {
+            buf.position(offset + diffOffsets[i]).put(values[i]);
+        }
+    }
+
+    /**
+     * @return number of bytes needed to serialize the given diffs
+     */
+    static int diffsSize(byte[][] values) {
+        int size = 0;
+        for (byte[] value : values) {
+            size += Short.BYTES + Short.BYTES + value.length;
+        }
+        return size;
+    }
+
+    @Override
+    public byte[] toBytes() {
+        // the length of each diff is only stored once, since before and after have the same length
+        byte[] b = new byte[29 + diffsSize(before) + diffsSize(after) - 2 * Short.BYTES * diffOffsets.length];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putShort(offset)
+                     .putShort((short) diffOffsets.length);
+        for (int i = 0; i < diffOffsets.length; ++i) {
+            buf.putShort(diffOffsets[i])
+            .putShort((short) before[i].length)
+            .put(before[i])
+            .put(after[i]);
+        }
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short offset = buf.getShort();
+        int numDiffs = buf.getShort();
+        short[] diffOffsets = new short[numDiffs];
+        byte[][] before = new byte[numDiffs][];
+        byte[][] after = new byte[numDiffs][];
+        for (int i = 0; i < numDiffs; ++i) {
+            diffOffsets[i] = buf.getShort();
+            short length = buf.getShort();
+            before[i] = new byte[length];
+            after[i] = new byte[length];
+            buf.get(before[i]).get(after[i]);
+        }
+        return Optional.of(new UpdateRecordLogRecord(transNum, pageNum, prevLSN, offset, diffOffsets,
+                           before, after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UpdateRecordLogRecord that = (UpdateRecordLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               offset == that.offset &&
+               Arrays.equals(diffOffsets, that.diffOffsets) &&
+               Arrays.deepEquals(before, that.before) &&
+               Arrays.deepEquals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, offset);
+        result = 31 * result + Arrays.hashCode(diffOffsets);
+        result = 31 * result + Arrays.deepHashCode(before);
+        result = 31 * result + Arrays.deepHashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdateRecordLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", offset=" + offset +
+               ", diffOffsets=" + Arrays.toString(diffOffsets) +
+               ", before=" + Arrays.deepToString(before) +
+               ", after=" + Arrays.deepToString(after) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
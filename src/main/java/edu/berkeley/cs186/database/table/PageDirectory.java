@@ -48,7 +48,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
 
     // size of the header in data pages
-    private static final short DATA_HEADER_SIZE = 10;
+    static final short DATA_HEADER_SIZE = 10;
 
     // effective page size
     public static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
@@ -96,6 +96,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         return EFFECTIVE_PAGE_SIZE;
     }
 
+    public BufferManager getBufferManager() {
+        return bufferManager;
+    }
+
     public void setEmptyPageMetadataSize(short emptyPageMetadataSize) {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
@@ -115,7 +119,11 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
         LockContext pageContext = lockContext.childContext(page.getPageNum());
         // TODO(proj4_part2): Update the following line
+        // don't keep the page pinned while waiting for its lock: the holder
+        // may need to pin it to roll back (e.g. as a deadlock victim)
+        page.unpin();
         LockUtil.ensureSufficientLockHeld(pageContext, LockType.X);
+        page.pin();
 
         return new DataPage(pageDirectoryId, page);
     }
@@ -1,8 +1,10 @@
 package edu.berkeley.cs186.database.table;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.iterator.ArrayBacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterable;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.common.iterator.ConcatBacktrackingIterator;
@@ -11,12 +13,19 @@ import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.io.PageException;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * # Overview
@@ -89,8 +98,23 @@ import java.util.Map;
  * only supports locking at the page level, so in cases where tuple-level locks are
  * necessary even at the cost of an I/O per tuple, a full page record may be desirable),
  * and may be explicitly toggled on with the setFullPageRecords method.
+ *
+ * # Logging
+ * Changes to data pages made on behalf of a transaction are logged at the
+ * record level: inserting a record, deleting a record, and updating the
+ * changed columns of a record are each logged as a single log record that
+ * names the slot being changed (see RecoveryManager#logInsertRecord and
+ * friends), rather than as separate byte-level writes to the record and the
+ * bitmap. Tables with records too large for such a log record to fit on a
+ * log page fall back to byte-level logging of page writes.
  */
 public class Table implements BacktrackingIterable<Record> {
+    // Records of at most this many bytes are logged with record-level log
+    // records. The largest record-level log record (an update touching every
+    // other byte of the record) is about three times the size of the record,
+    // and must fit on a single log page.
+    private static final int MAX_RECORD_LOGGED_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE / 4;
+
     // The name of the table.
     private String name;
 
@@ -109,6 +133,13 @@ public class Table implements BacktrackingIterable<Record> {
     // The lock context of the table.
     private LockContext tableContext;
 
+    // Previous images of records for snapshot reads, or null if the table
+    // is not read by snapshot transactions (e.g. temporary tables).
+    private VersionStore versionStore;
+
+    // The recovery manager that changes to the table are logged through.
+    private RecoveryManager recoveryManager;
+
     // Statistics about the contents of the database.
     Map<String, TableStats> stats;
 
@@ -123,6 +154,7 @@ public class Table implements BacktrackingIterable<Record> {
         this.pageDirectory = pageDirectory;
         this.schema = schema;
         this.tableContext = lockContext;
+        this.recoveryManager = pageDirectory.getBufferManager().getRecoveryManager();
 
         this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
         this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
@@ -156,6 +188,16 @@ public class Table implements BacktrackingIterable<Record> {
                                           schema.getSizeInBytes()));
     }
 
+    /**
+     * Keeps previous images of the records of this table in `versionStore`
+     * as they are changed, and makes reads by snapshot transactions (see
+     * TransactionContext#getSnapshotTimestamp) reconstruct the records as of
+     * their snapshot from it.
+     */
+    public void setVersionStore(VersionStore versionStore) {
+        this.versionStore = versionStore;
+    }
+
     public TableStats getStats() {
         return this.stats.get(name);
     }
@@ -262,11 +304,25 @@ public class Table implements BacktrackingIterable<Record> {
                 entryNum = 0;
             }
             assert (entryNum < numRecordsPerPage);
+            addVersion(new RecordId(page.getPageNum(), (short) entryNum), null);
 
             // Insert the record and update the bitmap.
-            insertRecord(page, entryNum, record);
-            Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
-            writeBitMap(page, bitmap);
+            TransactionContext transaction = getLoggingTransaction();
+            if (transaction != null) {
+                long LSN = recoveryManager.logInsertRecord(transaction.getTransNum(), page.getPageNum(),
+                           getBitmapPageOffset(), (short) entryNum, getSlotPageOffset(entryNum),
+                           record.toBytes(schema));
+                page.disableLogging();
+                insertRecord(page, entryNum, record);
+                Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+                writeBitMap(page, bitmap);
+                page.setPageLSN(LSN);
+                page.enableLogging();
+            } else {
+                insertRecord(page, entryNum, record);
+                Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+                writeBitMap(page, bitmap);
+            }
 
             // Update the metadata.
             stats.get(name).addRecord(record);
@@ -282,6 +338,10 @@ public class Table implements BacktrackingIterable<Record> {
      */
     public synchronized Record getRecord(RecordId rid) {
         validateRecordId(rid);
+        long snapshot = getSnapshotTimestamp();
+        if (snapshot >= 0) {
+            return getSnapshotRecord(rid, snapshot);
+        }
         Page page = fetchPage(rid.getPageNum());
         try {
             byte[] bitmap = getBitMap(page);
@@ -317,7 +377,13 @@ public class Table implements BacktrackingIterable<Record> {
 
         Page page = fetchPage(rid.getPageNum());
         try {
-            insertRecord(page, rid.getEntryNum(), newRecord);
+            addVersion(rid, oldRecord);
+            TransactionContext transaction = getLoggingTransaction();
+            if (transaction != null) {
+                logAndUpdateRecord(transaction, page, rid.getEntryNum(), oldRecord, newRecord);
+            } else {
+                insertRecord(page, rid.getEntryNum(), newRecord);
+            }
 
             this.stats.get(name).removeRecord(oldRecord);
             this.stats.get(name).addRecord(newRecord);
@@ -327,6 +393,15 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * Acquires the lock that updateRecord and deleteRecord need to change
+     * record rid, without changing it.
+     */
+    public void lockForUpdate(RecordId rid) {
+        validateRecordId(rid);
+        LockUtil.ensureSufficientLockHeld(tableContext.childContext(rid.getPageNum()), LockType.X);
+    }
+
     /**
      * Deletes and returns the record specified by rid from the table and updates
      * stats, freePageNums, and numRecords as necessary. An exception is thrown
@@ -342,10 +417,22 @@ public class Table implements BacktrackingIterable<Record> {
         Page page = fetchPage(rid.getPageNum());
         try {
             Record record = getRecord(rid);
+            addVersion(rid, record);
 
             byte[] bitmap = getBitMap(page);
             Bits.setBit(bitmap, rid.getEntryNum(), Bits.Bit.ZERO);
-            writeBitMap(page, bitmap);
+            TransactionContext transaction = getLoggingTransaction();
+            if (transaction != null) {
+                long LSN = recoveryManager.logDeleteRecord(transaction.getTransNum(), page.getPageNum(),
+                           getBitmapPageOffset(), rid.getEntryNum(), getSlotPageOffset(rid.getEntryNum()),
+                           record.toBytes(schema));
+                page.disableLogging();
+                writeBitMap(page, bitmap);
+                page.setPageLSN(LSN);
+                page.enableLogging();
+            } else {
+                writeBitMap(page, bitmap);
+            }
 
             stats.get(name).removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
@@ -363,6 +450,143 @@ public class Table implements BacktrackingIterable<Record> {
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
+    /**
+     * Returns the transaction that changes to this table's data pages should
+     * be logged for with record-level log records, or null if the changes
+     * should be left to the buffer manager to log as byte-level page writes
+     * (because no transaction is running, or records are too large).
+     */
+    private TransactionContext getLoggingTransaction() {
+        if (schema.getSizeInBytes() > MAX_RECORD_LOGGED_SIZE) {
+            return null;
+        }
+        return TransactionContext.getTransaction();
+    }
+
+    /**
+     * Returns the snapshot timestamp of the current transaction if it reads
+     * this table from a snapshot, or -1 if it reads the current records.
+     */
+    private long getSnapshotTimestamp() {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (versionStore == null || transaction == null) {
+            return -1;
+        }
+        return transaction.getSnapshotTimestamp();
+    }
+
+    // Tells the current transaction that it read page pageNum from its
+    // snapshot.
+    private void addToReadSet(long pageNum) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            transaction.onSnapshotRead(pageNum);
+        }
+    }
+
+    // Keeps the image of record rid before the current transaction changes
+    // it; the record's page must be pinned.
+    private void addVersion(RecordId rid, Record before) {
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (versionStore != null && transaction != null) {
+            versionStore.addVersion(transaction.getTransNum(), rid, before);
+        }
+    }
+
+    /**
+     * Returns record rid as of snapshot `snapshot`. The current record is read
+     * before the version chain, so that a change made in between is found on
+     * the chain.
+     */
+    private Record getSnapshotRecord(RecordId rid, long snapshot) {
+        addToReadSet(rid.getPageNum());
+        Record current = null;
+        try {
+            Page page = fetchPage(rid.getPageNum());
+            try {
+                if (Bits.getBit(getBitMap(page), rid.getEntryNum()) == Bits.Bit.ONE) {
+                    Buffer buf = page.getBuffer();
+                    buf.position(bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes()));
+                    current = Record.fromBytes(buf, schema);
+                }
+            } finally {
+                page.unpin();
+            }
+        } catch (DatabaseException e) {
+            // the page was emptied and freed since the snapshot was taken
+        }
+        VersionStore.Version version = versionStore.find(rid, snapshot);
+        Record record = version == null ? current : version.getBefore();
+        if (record == null) {
+            throw new DatabaseException(String.format("Record %s does not exist.", rid));
+        }
+        return record;
+    }
+
+    // offset of the bitmap on the underlying page, or -1 if pages have no bitmap
+    private short getBitmapPageOffset() {
+        return bitmapSizeInBytes > 0 ? PageDirectory.DATA_HEADER_SIZE : -1;
+    }
+
+    // offset of slot entryNum on the underlying page
+    private short getSlotPageOffset(int entryNum) {
+        return (short) (PageDirectory.DATA_HEADER_SIZE + bitmapSizeInBytes + entryNum * schema.getSizeInBytes());
+    }
+
+    /**
+     * Overwrites the record in slot entryNum of page, logging only the columns
+     * that differ between oldRecord and newRecord. Adjacent changed columns are
+     * logged as a single diff. Nothing is logged or written if no column changed.
+     */
+    private void logAndUpdateRecord(TransactionContext transaction, Page page, int entryNum,
+                                    Record oldRecord, Record newRecord) {
+        byte[] before = oldRecord.toBytes(schema);
+        byte[] after = newRecord.toBytes(schema);
+        List<Short> diffOffsets = new ArrayList<>();
+        List<Short> diffLengths = new ArrayList<>();
+        int columnOffset = 0;
+        boolean extendLast = false;
+        for (int i = 0; i < schema.size(); ++i) {
+            int columnSize = schema.getFieldType(i).getSizeInBytes();
+            boolean changed = !Arrays.equals(
+                Arrays.copyOfRange(before, columnOffset, columnOffset + columnSize),
+                Arrays.copyOfRange(after, columnOffset, columnOffset + columnSize));
+            if (changed && extendLast) {
+                int last = diffLengths.size() - 1;
+                diffLengths.set(last, (short) (diffLengths.get(last) + columnSize));
+            } else if (changed) {
+                diffOffsets.add((short) columnOffset);
+                diffLengths.add((short) columnSize);
+            }
+            extendLast = changed;
+            columnOffset += columnSize;
+        }
+        if (diffOffsets.isEmpty()) {
+            return;
+        }
+
+        short[] offsets = new short[diffOffsets.size()];
+        byte[][] beforeDiffs = new byte[offsets.length][];
+        byte[][] afterDiffs = new byte[offsets.length][];
+        for (int i = 0; i < offsets.length; ++i) {
+            int start = diffOffsets.get(i);
+            int end = start + diffLengths.get(i);
+            offsets[i] = diffOffsets.get(i);
+            beforeDiffs[i] = Arrays.copyOfRange(before, start, end);
+            afterDiffs[i] = Arrays.copyOfRange(after, start, end);
+        }
+        long LSN = recoveryManager.logUpdateRecord(transaction.getTransNum(), page.getPageNum(),
+                   getSlotPageOffset(entryNum), offsets, beforeDiffs, afterDiffs);
+        page.disableLogging();
+        Buffer buf = page.getBuffer();
+        int slotOffset = bitmapSizeInBytes + entryNum * schema.getSizeInBytes();
+        for (int i = 0; i < offsets.length; ++i) {
+            buf.position(slotOffset + offsets[i]).put(afterDiffs[i]);
+        }
+        page.setPageLSN(LSN);
+        page.enableLogging();
+    }
+
     private Page fetchPage(long pageNum) {
         try {
             return pageDirectory.getPage(pageNum);
@@ -409,18 +633,50 @@ public class Table implements BacktrackingIterable<Record> {
         LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
 
         BacktrackingIterator<Page> iter = pageDirectory.iterator();
-        return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+        long snapshot = getSnapshotTimestamp();
+        if (snapshot < 0) {
+            return new ConcatBacktrackingIterator<>(new PageIterator(iter, false));
+        }
+        // Pages emptied and freed since the snapshot was taken are no longer
+        // in the page directory, so their records are only in the version
+        // store; they follow the pages of the directory.
+        Set<Long> directoryPages = new HashSet<>();
+        PageIterator pages = new PageIterator(iter, false, snapshot, directoryPages);
+        BacktrackingIterable<RecordId> directoryRecords = () -> new ConcatBacktrackingIterator<>(pages);
+        BacktrackingIterable<RecordId> freedPageRecords = () -> {
+            List<RecordId> rids = new ArrayList<>();
+            for (long pageNum : versionStore.getVersionedPages(getPartNum())) {
+                if (directoryPages.contains(pageNum)) {
+                    continue;
+                }
+                addToReadSet(pageNum);
+                for (short entryNum : versionStore.getVersionedEntries(pageNum)) {
+                    RecordId rid = new RecordId(pageNum, entryNum);
+                    VersionStore.Version version = versionStore.find(rid, snapshot);
+                    if (version != null && version.getBefore() != null) {
+                        rids.add(rid);
+                    }
+                }
+            }
+            return new ArrayBacktrackingIterator<>(rids);
+        };
+        return new ConcatBacktrackingIterator<>(new ArrayBacktrackingIterator<>(
+                Arrays.asList(directoryRecords, freedPageRecords)));
     }
 
     /**
+     * Only an intent lock is taken on the table: each record is read under an
+     * S lock on its page (see RecordIterator), so that transactions can change
+     * other pages meanwhile. Records that would be added to an index scan
+     * producing `rids` are kept out by the key range locks of the scan.
+     *
      * @param rids an iterator of record IDs for records in this table
      * @return an iterator over the records corresponding to the record IDs. If
      * the record ID iterator supported backtracking, the new record iterator
      * will also support backtracking.
      */
     public BacktrackingIterator<Record> recordIterator(Iterator<RecordId> rids) {
-        // TODO(proj4_part2): Update the following line
-        LockUtil.ensureSufficientLockHeld(tableContext, LockType.S);
+        LockUtil.ensureIntentLockHeld(tableContext, LockType.IS);
         return new RecordIterator(rids);
     }
 
@@ -446,10 +702,27 @@ public class Table implements BacktrackingIterable<Record> {
         private byte[] bitmap;
 
         RIDPageIterator(Page page) {
+            this(page, -1);
+        }
+
+        // iterates over the records of `snapshot` on the page if it is not -1
+        RIDPageIterator(Page page, long snapshot) {
             super(numRecordsPerPage);
             this.page = page;
             this.bitmap = getBitMap(page);
             page.unpin();
+            if (snapshot >= 0) {
+                addToReadSet(page.getPageNum());
+                // the records of the snapshot: current records, except where
+                // the version chain has an older image
+                for (short entryNum : versionStore.getVersionedEntries(page.getPageNum())) {
+                    VersionStore.Version version = versionStore.find(new RecordId(page.getPageNum(), entryNum),
+                                                                     snapshot);
+                    if (version != null) {
+                        Bits.setBit(bitmap, entryNum, version.getBefore() == null ? Bits.Bit.ZERO : Bits.Bit.ONE);
+                    }
+                }
+            }
         }
 
         @Override
@@ -471,10 +744,21 @@ public class Table implements BacktrackingIterable<Record> {
     private class PageIterator implements BacktrackingIterator<BacktrackingIterable<RecordId>> {
         private BacktrackingIterator<Page> sourceIterator;
         private boolean pinOnFetch;
+        // snapshot to iterate over the records of, or -1 for current records
+        private long snapshot;
+        // page numbers of the pages iterated over, if not null
+        private Set<Long> pageNums;
 
         private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch) {
+            this(sourceIterator, pinOnFetch, -1, null);
+        }
+
+        private PageIterator(BacktrackingIterator<Page> sourceIterator, boolean pinOnFetch, long snapshot,
+                             Set<Long> pageNums) {
             this.sourceIterator = sourceIterator;
             this.pinOnFetch = pinOnFetch;
+            this.snapshot = snapshot;
+            this.pageNums = pageNums;
         }
 
         @Override
@@ -507,6 +791,9 @@ public class Table implements BacktrackingIterable<Record> {
 
             private InnerIterable(Page baseObject) {
                 this.baseObject = baseObject;
+                if (pageNums != null) {
+                    pageNums.add(baseObject.getPageNum());
+                }
                 if (!pinOnFetch) {
                     baseObject.unpin();
                 }
@@ -515,13 +802,14 @@ public class Table implements BacktrackingIterable<Record> {
             @Override
             public BacktrackingIterator<RecordId> iterator() {
                 baseObject.pin();
-                return new RIDPageIterator(baseObject);
+                return new RIDPageIterator(baseObject, snapshot);
             }
         }
     }
 
     /**
-     * Wraps an iterator of record ids to form an iterator over records.
+     * Wraps an iterator of record ids to form an iterator over records, locking
+     * the page of each record (S) before reading it.
      */
     private class RecordIterator implements BacktrackingIterator<Record> {
         private Iterator<RecordId> ridIter;
@@ -538,7 +826,9 @@ public class Table implements BacktrackingIterable<Record> {
         @Override
         public Record next() {
             try {
-                return getRecord(ridIter.next());
+                RecordId rid = ridIter.next();
+                LockUtil.ensureSufficientLockHeld(tableContext.childContext(rid.getPageNum()), LockType.S);
+                return getRecord(rid);
             } catch (DatabaseException e) {
                 throw new IllegalStateException(e);
             }
@@ -0,0 +1,268 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Previous images of records, for snapshot reads.
+ *
+ * Before a transaction changes a record of a table, the table adds the
+ * record's current image (null if the slot is empty) to the record's version
+ * chain here, newest first. When the transaction commits, it is given a
+ * commit timestamp from a clock that only moves forward on commits; a
+ * snapshot is the value of the clock when it began.
+ *
+ * The record a snapshot sees is reconstructed from the current record: going
+ * down the chain, every change made by a transaction that had not committed
+ * as of the snapshot is undone by taking its previous image. Changes of
+ * transactions that roll back are undone on the page, and their versions are
+ * then dropped.
+ *
+ * Versions are dropped once they are older than every snapshot: when a
+ * transaction commits with no older snapshot running, or when the oldest
+ * snapshot ends.
+ */
+public class VersionStore {
+    // Versions of records, by page number and entry number, newest first.
+    // The entries of a page are only changed inside a compute of the outer
+    // map on the page, so that an empty page can be removed safely.
+    private final Map<Long, Map<Short, Version>> versions = new ConcurrentHashMap<>();
+
+    // Transactions that made versions, by transaction number, until their
+    // versions are dropped.
+    private final Map<Long, Writer> writers = new ConcurrentHashMap<>();
+
+    // Committed writers whose versions are still needed by a snapshot, in
+    // commit order.
+    private final Deque<Writer> committed = new ArrayDeque<>();
+
+    // Last commit timestamp handed out, and the number of snapshots running
+    // at each timestamp. Guarded by the store's monitor.
+    private long clock = 0;
+    private final TreeMap<Long, Integer> snapshots = new TreeMap<>();
+
+    private static class Writer {
+        final long transNum;
+        // commit timestamp, or Long.MAX_VALUE while not committed
+        volatile long commitTimestamp = Long.MAX_VALUE;
+        // records the writer made versions of
+        final List<RecordId> records = Collections.synchronizedList(new ArrayList<>());
+
+        Writer(long transNum) {
+            this.transNum = transNum;
+        }
+    }
+
+    /**
+     * The image of a record before a change by `writer`.
+     */
+    public static class Version {
+        private final Record before;
+        private final Writer writer;
+        private volatile Version older;
+
+        private Version(Record before, Writer writer, Version older) {
+            this.before = before;
+            this.writer = writer;
+            this.older = older;
+        }
+
+        /**
+         * @return the record before the change, or null if the slot was empty
+         */
+        public Record getBefore() {
+            return before;
+        }
+    }
+
+    /**
+     * Records the current image of the record `rid` (null if the slot is
+     * empty) before transaction `transNum` changes it. Must be called while
+     * the record's page is pinned, before the page is changed.
+     */
+    public void addVersion(long transNum, RecordId rid, Record before) {
+        Writer writer = writers.computeIfAbsent(transNum, Writer::new);
+        versions.compute(rid.getPageNum(), (k, page) -> {
+            if (page == null) {
+                page = new ConcurrentHashMap<>();
+            }
+            page.put(rid.getEntryNum(), new Version(before, writer, page.get(rid.getEntryNum())));
+            return page;
+        });
+        writer.records.add(rid);
+    }
+
+    /**
+     * Returns the version of `rid` whose previous image is what a snapshot
+     * taken at `snapshot` sees, or null if it sees the current record.
+     */
+    public Version find(RecordId rid, long snapshot) {
+        Map<Short, Version> page = versions.get(rid.getPageNum());
+        Version version = page == null ? null : page.get(rid.getEntryNum());
+        Version visible = null;
+        while (version != null && version.writer.commitTimestamp > snapshot) {
+            visible = version;
+            version = version.older;
+        }
+        return visible;
+    }
+
+    /**
+     * Returns whether a record of page `pageNum` was changed by a transaction
+     * other than `transNum` that had not committed as of snapshot `snapshot`
+     * (including transactions that have not committed yet).
+     */
+    public boolean changedSince(long pageNum, long snapshot, long transNum) {
+        Map<Short, Version> page = versions.get(pageNum);
+        if (page == null) {
+            return false;
+        }
+        for (Version version : page.values()) {
+            for (; version != null; version = version.older) {
+                if (version.writer.transNum != transNum && version.writer.commitTimestamp > snapshot) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return entry numbers of the records of page `pageNum` with versions
+     */
+    public Set<Short> getVersionedEntries(long pageNum) {
+        Map<Short, Version> page = versions.get(pageNum);
+        return page == null ? Collections.emptySet() : new TreeSet<>(page.keySet());
+    }
+
+    /**
+     * @return page numbers of the pages of partition `partNum` with versions
+     */
+    public SortedSet<Long> getVersionedPages(int partNum) {
+        SortedSet<Long> pages = new TreeSet<>();
+        for (long pageNum : versions.keySet()) {
+            if (DiskSpaceManager.getPartNum(pageNum) == partNum) {
+                pages.add(pageNum);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Gives transaction `transNum` its commit timestamp, making its changes
+     * visible to snapshots taken from now on. Must be called once the commit
+     * is durable, before the transaction's locks are released.
+     */
+    public synchronized void commit(long transNum) {
+        Writer writer = writers.get(transNum);
+        if (writer == null) {
+            return;
+        }
+        writer.commitTimestamp = ++clock;
+        committed.addLast(writer);
+        prune();
+    }
+
+    /**
+     * Ends transaction `transNum`: if it did not commit, its changes have
+     * been rolled back, and its versions are dropped.
+     */
+    public void end(long transNum) {
+        Writer writer = writers.get(transNum);
+        if (writer == null || writer.commitTimestamp != Long.MAX_VALUE) {
+            return;
+        }
+        synchronized (writer.records) {
+            for (RecordId rid : writer.records) {
+                unlink(rid, version -> version.writer == writer);
+            }
+        }
+        writers.remove(transNum);
+    }
+
+    /**
+     * Starts a snapshot of the changes committed so far.
+     * @return the snapshot's timestamp
+     */
+    public synchronized long beginSnapshot() {
+        snapshots.merge(clock, 1, Integer::sum);
+        return clock;
+    }
+
+    /**
+     * Ends a snapshot started by beginSnapshot.
+     */
+    public synchronized void endSnapshot(long snapshot) {
+        if (snapshots.merge(snapshot, -1, Integer::sum) == 0) {
+            snapshots.remove(snapshot);
+        }
+        prune();
+    }
+
+    /**
+     * @return the number of snapshots running
+     */
+    public synchronized int getNumSnapshots() {
+        int numSnapshots = 0;
+        for (int n : snapshots.values()) {
+            numSnapshots += n;
+        }
+        return numSnapshots;
+    }
+
+    /**
+     * @return the number of record versions kept
+     */
+    public int getNumVersions() {
+        int numVersions = 0;
+        for (Writer writer : writers.values()) {
+            numVersions += writer.records.size();
+        }
+        return numVersions;
+    }
+
+    // Drops the versions of writers that committed at or before the oldest
+    // running snapshot: every snapshot sees their changes, and so never goes
+    // past them down a chain.
+    private void prune() {
+        long horizon = snapshots.isEmpty() ? clock : snapshots.firstKey();
+        while (!committed.isEmpty() && committed.peekFirst().commitTimestamp <= horizon) {
+            Writer writer = committed.removeFirst();
+            synchronized (writer.records) {
+                for (RecordId rid : writer.records) {
+                    // the writer's version and everything older
+                    unlink(rid, version -> version.writer.commitTimestamp <= writer.commitTimestamp);
+                }
+            }
+            writers.remove(writer.transNum);
+        }
+    }
+
+    // Removes the versions of `rid` matching `drop` from its chain.
+    private void unlink(RecordId rid, Predicate<Version> drop) {
+        versions.computeIfPresent(rid.getPageNum(), (k, page) -> {
+            Version head = page.get(rid.getEntryNum());
+            while (head != null && drop.test(head)) {
+                head = head.older;
+            }
+            Version prev = head;
+            while (prev != null) {
+                Version next = prev.older;
+                while (next != null && drop.test(next)) {
+                    next = next.older;
+                }
+                prev.older = next;
+                prev = next;
+            }
+            if (head == null) {
+                page.remove(rid.getEntryNum());
+            } else {
+                page.put(rid.getEntryNum(), head);
+            }
+            return page.isEmpty() ? null : page;
+        });
+    }
+}
@@ -215,4 +215,24 @@ public class TableStats {
                 PageDirectory.EFFECTIVE_PAGE_SIZE, joinedSchema);
         return new TableStats(joinedSchema, joinedRecordsPerPage, outputSize, copyHistograms);
     }
+
+    /**
+     * Creates a new TableStats which is the statistics for the table that
+     * results from keeping only the columns `columns` of this one, in that
+     * order, such as the records of an index-only scan.
+     *
+     * @param columns the indices of the columns to keep
+     * @return new TableStats based off of this and params
+     */
+    public TableStats copyWithProjection(List<Integer> columns) {
+        Schema projectedSchema = new Schema();
+        List<Histogram> copyHistograms = new ArrayList<>();
+        for (int i : columns) {
+            projectedSchema.add(schema.getFieldName(i), schema.getFieldType(i));
+            copyHistograms.add(histograms.get(i));
+        }
+        int projectedRecordsPerPage = Table.computeNumRecordsPerPage(
+                PageDirectory.EFFECTIVE_PAGE_SIZE, projectedSchema);
+        return new TableStats(projectedSchema, projectedRecordsPerPage, numRecords, copyHistograms);
+    }
 }
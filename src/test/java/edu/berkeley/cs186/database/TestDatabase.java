@@ -3,10 +3,12 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.categories.Proj99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.LockManager;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.index.BPlusTreeException;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
@@ -19,10 +21,16 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -306,4 +314,350 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testBulkLoadIndex() {
+        // More keys than fit in the work memory, in no particular order, so
+        // that they are sorted in runs that are merged before the tree is
+        // loaded.
+        int n = 5000;
+        try (Transaction t1 = db.beginTransaction()) {
+            Schema s = new Schema()
+                    .add("id", Type.intType())
+                    .add("name", Type.stringType(10));
+            t1.createTable(s, "table1");
+            for (int i = 0; i < n; ++i) {
+                int id = (int) ((i * 7919L) % n);
+                t1.insert("table1", id, "name" + id);
+            }
+            t1.createIndex("table1", "id", true);
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            TransactionContext transaction = t2.getTransactionContext();
+            Iterator<Record> iter = transaction.sortedScan("table1", "id");
+            for (int i = 0; i < n; ++i) {
+                assertEquals(new Record(i, "name" + i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+            assertEquals(new Record(1234, "name1234"),
+                         transaction.lookupKey("table1", "id", new IntDataBox(1234)).next());
+        }
+
+        try (Transaction t3 = db.beginTransaction()) {
+            // keys must be unique, as they must be when inserted one by one
+            t3.createTable(new Schema().add("id", Type.intType()), "table2");
+            t3.insert("table2", 2);
+            t3.insert("table2", 1);
+            t3.insert("table2", 2);
+            try {
+                t3.createIndex("table2", "id", true);
+                fail();
+            } catch (BPlusTreeException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInsertAll() {
+        // Rows inserted together go into the index of the table together.
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(new Schema().add("id", Type.intType()), "table1");
+            t1.createIndex("table1", "id", false);
+            List<Record> records = new ArrayList<>();
+            for (int i = 999; i >= 0; --i) {
+                records.add(new Record(i));
+            }
+            t1.insertAll("table1", records);
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            Iterator<Record> iter = t2.getTransactionContext().sortedScan("table1", "id");
+            for (int i = 0; i < 1000; ++i) {
+                assertEquals(new Record(i), iter.next());
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testCompositeIndex() {
+        // An index on (name, id) is kept up to date, and is searched on name
+        // alone or on both columns.
+        Schema schema = new Schema().add("id", Type.intType()).add("name", Type.stringType(8));
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(schema, "table1");
+            for (int i = 0; i < 300; ++i) {
+                t1.insert("table1", i, "n" + (i % 3));
+            }
+            t1.createIndex("table1", Arrays.asList("name", "id"), true);
+            t1.delete("table1", "id", PredicateOperator.LESS_THAN, new IntDataBox(30));
+            t1.update("table1", "name", d -> new StringDataBox("n1", 8), "id", PredicateOperator.EQUALS,
+                      new IntDataBox(99));
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            assertEquals(Collections.singletonList(Arrays.asList("name", "id")),
+                         t2.getTransactionContext().getIndexColumns("table1"));
+
+            // the index is sorted by name, then by id
+            Iterator<Record> iter = t2.getTransactionContext().sortedScan("table1", "name,id");
+            String prevName = "";
+            int prevId = -1;
+            int count = 0;
+            while (iter.hasNext()) {
+                Record record = iter.next();
+                String name = record.getValue(1).getString();
+                int id = record.getValue(0).getInt();
+                assertTrue(name.compareTo(prevName) > 0 || (name.equals(prevName) && id > prevId));
+                prevName = name;
+                prevId = id;
+                ++count;
+            }
+            assertEquals(270, count);
+
+            // name = 'n1' AND id >= 90 AND id < 120
+            QueryPlan query = t2.query("table1");
+            query.select("name", PredicateOperator.EQUALS, "n1");
+            query.select("id", PredicateOperator.GREATER_THAN_EQUALS, 90);
+            query.select("id", PredicateOperator.LESS_THAN, 120);
+            List<Integer> ids = new ArrayList<>();
+            query.execute().forEachRemaining(r -> ids.add(r.getValue(0).getInt()));
+            Collections.sort(ids);
+            assertEquals(Arrays.asList(91, 94, 97, 99, 100, 103, 106, 109, 112, 115, 118), ids);
+        }
+    }
+
+    @Test
+    public void testCoveringIndex() {
+        // An index on id that includes name answers queries on both columns
+        // without reading the table, and is kept up to date.
+        Schema schema = new Schema()
+                .add("id", Type.intType())
+                .add("name", Type.stringType(8))
+                .add("score", Type.intType());
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(schema, "table1");
+            t1.createIndex("table1", Collections.singletonList("id"), Collections.singletonList("name"), false);
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 3000; ++i) {
+                records.add(new Record(i, "n" + i, i * 2));
+            }
+            t1.insertAll("table1", records);
+            t1.update("table1", "name", d -> new StringDataBox("renamed", 8), "id", PredicateOperator.EQUALS,
+                      new IntDataBox(102));
+            t1.getTransactionContext().getTable("table1").buildStatistics(10);
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            // SELECT name FROM table1 WHERE id >= 100 AND id <= 103
+            QueryPlan query = t2.query("table1");
+            query.project("name");
+            query.select("id", PredicateOperator.GREATER_THAN_EQUALS, 100);
+            query.select("id", PredicateOperator.LESS_THAN_EQUALS, 103);
+            List<Record> names = new ArrayList<>();
+            query.execute().forEachRemaining(names::add);
+            assertEquals(Arrays.asList(new Record(new StringDataBox("n100", 8)), new Record(new StringDataBox("n101", 8)),
+                                       new Record(new StringDataBox("renamed", 8)), new Record(new StringDataBox("n103", 8))),
+                         names);
+            assertTrue(query.getFinalOperator().toString().contains("Index Only Scan"));
+
+            // SELECT score FROM table1 WHERE id = 7 reads the table
+            query = t2.query("table1");
+            query.project("score");
+            query.select("id", PredicateOperator.EQUALS, 7);
+            Iterator<Record> iter = query.execute();
+            assertEquals(new Record(14), iter.next());
+            assertFalse(iter.hasNext());
+            assertFalse(query.getFinalOperator().toString().contains("Index Only Scan"));
+        }
+    }
+
+    // Makes t the transaction running on this thread.
+    private static void switchTo(Transaction t) {
+        if (TransactionContext.getTransaction() != null) {
+            TransactionContext.unsetTransaction();
+        }
+        TransactionContext.setTransaction(t.getTransactionContext());
+    }
+
+    // Sorted values of the first column of a table, as seen by t.
+    private static List<Integer> scanIds(Transaction t, String tableName) {
+        switchTo(t);
+        List<Integer> ids = new ArrayList<>();
+        Iterator<Record> iter = t.query(tableName).execute();
+        while (iter.hasNext()) {
+            ids.add(iter.next().getValue(0).getInt());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<Integer> range(int start, int end) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = start; i < end; ++i) {
+            ids.add(i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void testSnapshotTransaction() {
+        // writers hold real locks, which snapshot transactions must not wait for
+        db.close();
+        db = new Database(filename, 32, new LockManager());
+        db.setWorkMem(4);
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("value", Type.intType());
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 500; ++i) {
+                t.insert("table1", i, i);
+            }
+        }
+
+        Transaction snapshot1 = db.beginSnapshotTransaction();
+        TransactionContext.unsetTransaction();
+
+        // update, delete and insert records without committing
+        Transaction writer = db.beginTransaction();
+        writer.update("table1", "value", v -> new IntDataBox(-1),
+                      r -> DataBox.fromObject(r.getValue(0).getInt() < 100));
+        writer.delete("table1", "id", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(250));
+        for (int i = 500; i < 1000; ++i) {
+            writer.insert("table1", i, i);
+        }
+        assertEquals(750, scanIds(writer, "table1").size());
+
+        assertEquals(range(0, 500), scanIds(snapshot1, "table1"));
+        switchTo(snapshot1);
+        Iterator<Record> iter = snapshot1.query("table1").execute();
+        while (iter.hasNext()) {
+            Record r = iter.next();
+            assertEquals(r.getValue(0), r.getValue(1));
+        }
+        try {
+            snapshot1.insert("table1", 0, 0);
+            fail("snapshot transactions cannot write");
+        } catch (DatabaseException e) {
+            // expected
+        }
+
+        switchTo(writer);
+        writer.commit();
+
+        // the commit is only visible to snapshots that began after it
+        Transaction snapshot2 = db.beginSnapshotTransaction();
+        List<Integer> expected = range(0, 250);
+        expected.addAll(range(500, 1000));
+        assertEquals(expected, scanIds(snapshot2, "table1"));
+        assertEquals(range(0, 500), scanIds(snapshot1, "table1"));
+
+        // deleting every record frees the pages of the table
+        TransactionContext.unsetTransaction();
+        Transaction deleter = db.beginTransaction();
+        deleter.delete("table1", "id", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(0));
+        deleter.commit();
+        assertEquals(expected, scanIds(snapshot2, "table1"));
+        assertEquals(range(0, 500), scanIds(snapshot1, "table1"));
+
+        snapshot1.commit();
+        assertEquals(expected, scanIds(snapshot2, "table1"));
+        snapshot2.commit();
+        assertEquals(0, db.getVersionStore().getNumSnapshots());
+        assertEquals(0, db.getVersionStore().getNumVersions());
+    }
+
+    @Test
+    public void testOptimisticTransaction() {
+        Schema s = new Schema()
+                .add("id", Type.intType())
+                .add("value", Type.intType());
+        // two pages of records
+        List<RecordId> rids = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 1000; ++i) {
+                rids.add(t.getTransactionContext().addRecord("table1", new Record(i, i)));
+            }
+        }
+        RecordId first = rids.get(0);
+        RecordId last = rids.get(999);
+        assertFalse(first.getPageNum() == last.getPageNum());
+
+        // changes are buffered until commit, but seen by the transaction
+        Transaction t1 = db.beginOptimisticTransaction();
+        TransactionContext c1 = t1.getTransactionContext();
+        c1.updateRecord("table1", first, new Record(0, 100));
+        assertEquals(new Record(0, 100), c1.getRecord("table1", first));
+        assertEquals(null, c1.addRecord("table1", new Record(1000, 1000)));
+        t1.delete("table1", "id", PredicateOperator.EQUALS, new IntDataBox(1));
+        TransactionContext.unsetTransaction();
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(new Record(0, 0), t.getTransactionContext().getRecord("table1", first));
+            assertEquals(range(0, 1000), scanIds(t, "table1"));
+        }
+        switchTo(t1);
+        t1.commit();
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(new Record(0, 100), t.getTransactionContext().getRecord("table1", first));
+            List<Integer> expected = range(0, 1001);
+            expected.remove(1);
+            assertEquals(expected, scanIds(t, "table1"));
+        }
+
+        // transactions that read and change different pages both commit
+        Transaction t2 = db.beginOptimisticTransaction();
+        t2.getTransactionContext().updateRecord("table1", first, new Record(0, 200));
+        TransactionContext.unsetTransaction();
+        Transaction t3 = db.beginOptimisticTransaction();
+        t3.getTransactionContext().updateRecord("table1", last, new Record(999, 200));
+        t3.commit();
+        switchTo(t2);
+        t2.commit();
+
+        // a transaction that read a page changed since it began is rolled back
+        Transaction t4 = db.beginOptimisticTransaction();
+        t4.update("table1", "value", v -> new IntDataBox(-1),
+                  r -> DataBox.fromObject(r.getValue(0).getInt() == 999));
+        TransactionContext.unsetTransaction();
+        Transaction t5 = db.beginOptimisticTransaction();
+        t5.getTransactionContext().updateRecord("table1", last, new Record(999, 300));
+        t5.commit();
+        switchTo(t4);
+        try {
+            t4.commit();
+            fail("t4 read a page t5 changed");
+        } catch (ValidationException e) {
+            assertEquals(Transaction.Status.COMPLETE, t4.getStatus());
+        }
+
+        // including changes of transactions that have not committed yet
+        Transaction t6 = db.beginOptimisticTransaction();
+        assertEquals(new Record(0, 200), t6.getTransactionContext().getRecord("table1", first));
+        TransactionContext.unsetTransaction();
+        Transaction writer = db.beginTransaction();
+        writer.getTransactionContext().updateRecord("table1", first, new Record(0, 400));
+        switchTo(t6);
+        try {
+            t6.commit();
+            fail("t6 read a page changed by an uncommitted transaction");
+        } catch (ValidationException e) {
+            // expected
+        }
+        switchTo(writer);
+        writer.commit();
+
+        try (Transaction t = db.beginTransaction()) {
+            assertEquals(new Record(0, 400), t.getTransactionContext().getRecord("table1", first));
+            assertEquals(new Record(999, 300), t.getTransactionContext().getRecord("table1", last));
+        }
+        assertEquals(0, db.getVersionStore().getNumSnapshots());
+    }
 }
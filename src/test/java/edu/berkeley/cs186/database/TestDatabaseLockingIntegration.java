@@ -245,11 +245,108 @@ public class TestDatabaseLockingIntegration {
 
     @Test
     @Category(PublicTests.class)
-    public void testBPlusTreeRestrict() {
+    public void testBPlusTreeKeyLocks() {
         String tableName = "testTable1";
         lockManager.startLog();
-        createTableWithIndices(tableName, 0, Collections.singletonList("int1"));
-        assertTrue(lockManager.log.contains("disable-children database/testtable1.int1"));
+        createTableWithIndices(tableName, 1, Collections.singletonList("int1"));
+        try(Transaction t1 = beginTransaction()) {
+            t1.getTransactionContext().addRecord(tableName, new Record(-1, -1));
+            // the key inserted (hashed onto 4096 locks) and the next key
+            assertContainsAll(prepare(t1.getTransNum(),
+                    "acquire %s database/testtable1.int1 IX",
+                    "acquire %s database/testtable1.int1/key:4095 X",
+                    "acquire %s database/testtable1.int1/key:0 X"
+            ), removeMetadataLogs(lockManager.log));
+        }
+        // keys of the index are locked, never its pages
+        for (String entry : lockManager.log) {
+            if (entry.contains("database/testtable1.int1/")) {
+                assertTrue(entry, entry.contains("database/testtable1.int1/key:"));
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBPlusTreeKeyRangeConflicts() {
+        String tableName = "testTable1";
+        int numRecords = createTableWithIndices(tableName, 1, Collections.singletonList("int1")).size();
+        DeterministicRunner runner = new DeterministicRunner(3);
+        Transaction[] transactions = new Transaction[2];
+
+        // t0 does not find a key...
+        runner.run(0, () -> {
+            transactions[0] = beginTransaction();
+            assertFalse(transactions[0].getTransactionContext().contains(tableName, "int1",
+                        new IntDataBox(numRecords + 10)));
+        });
+        // ...which does not keep keys from being inserted elsewhere...
+        runner.run(2, () -> {
+            try (Transaction t = beginTransaction()) {
+                t.getTransactionContext().addRecord(tableName, new Record(-5, -5));
+            }
+        });
+        // ...but keeps it from being inserted until t0 ends
+        runner.run(1, () -> {
+            transactions[1] = beginTransaction();
+            transactions[1].getTransactionContext().addRecord(tableName, new Record(numRecords + 10, 0));
+        });
+        assertTrue(transactions[1].getTransactionContext().getBlocked());
+
+        runner.run(0, () -> transactions[0].commit());
+        runner.run(1, () -> transactions[1].commit());
+        runner.joinAll();
+        assertFalse(transactions[1].getTransactionContext().getBlocked());
+
+        try (Transaction t = beginTransaction()) {
+            assertTrue(t.getTransactionContext().contains(tableName, "int1", new IntDataBox(-5)));
+            assertTrue(t.getTransactionContext().contains(tableName, "int1", new IntDataBox(numRecords + 10)));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testIndexRangeScanConcurrentInserts() {
+        String tableName = "testTable1";
+        int numRecords = createTableWithIndices(tableName, 1, Collections.singletonList("int1")).size();
+        DeterministicRunner runner = new DeterministicRunner(3);
+        Transaction[] transactions = new Transaction[2];
+
+        // t0 scans the last few keys and the gap past them...
+        runner.run(0, () -> {
+            transactions[0] = beginTransaction();
+            Iterator<Record> r = transactions[0].getTransactionContext().sortedScanRange(tableName, "int1",
+                    new IntDataBox(numRecords - 3), true, new IntDataBox(numRecords + 10), true, false);
+            int count = 0;
+            while (r.hasNext()) {
+                r.next();
+                ++count;
+            }
+            assertEquals(3, count);
+        });
+        // ...which does not keep records from being inserted elsewhere in the
+        // index while it is open...
+        runner.run(2, () -> {
+            try (Transaction t = beginTransaction()) {
+                t.getTransactionContext().addRecord(tableName, new Record(-5, -5));
+            }
+        });
+        // ...but keeps a record from being inserted into the range until t0 ends
+        runner.run(1, () -> {
+            transactions[1] = beginTransaction();
+            transactions[1].getTransactionContext().addRecord(tableName, new Record(numRecords + 5, 0));
+        });
+        assertTrue(transactions[1].getTransactionContext().getBlocked());
+
+        runner.run(0, () -> transactions[0].commit());
+        runner.run(1, () -> transactions[1].commit());
+        runner.joinAll();
+        assertFalse(transactions[1].getTransactionContext().getBlocked());
+
+        try (Transaction t = beginTransaction()) {
+            assertTrue(t.getTransactionContext().contains(tableName, "int1", new IntDataBox(-5)));
+            assertTrue(t.getTransactionContext().contains(tableName, "int1", new IntDataBox(numRecords + 5)));
+        }
     }
 
     @Test
@@ -282,11 +379,16 @@ public class TestDatabaseLockingIntegration {
                 r.next();
             }
             List<String> log = removeMetadataLogs(lockManager.log);
+            // the records are read under page locks, the range under key locks
             assertContainsAll(prepare(t2.getTransNum(),
                     "acquire %s database IS",
-                    "acquire %s database/testtable1 S",
-                    "acquire %s database/testtable1.int2 S"
+                    "acquire %s database/testtable1 IS",
+                    "acquire %s database/testtable1/" + rids.get(rids.size() / 2).getPageNum() + " S",
+                    "acquire %s database/testtable1.int2 IS",
+                    "acquire %s database/testtable1.int2/key:" + rids.size() / 2 + " S",
+                    "acquire %s database/testtable1.int2/key:end S"
             ), log);
+            assertFalse(log.contains(prepare(t2.getTransNum(), "acquire %s database/testtable1 S").get(0)));
         }
     }
 
@@ -301,8 +403,9 @@ public class TestDatabaseLockingIntegration {
             t1.getTransactionContext().lookupKey(tableName, "int1", new IntDataBox(rids.size() / 2));
             assertContainsAll(prepare(t1.getTransNum(),
                     "acquire %s database IS",
-                    "acquire %s database/testtable1.int1 S",
-                    "acquire %s database/testtable1 S"
+                    "acquire %s database/testtable1.int1 IS",
+                    "acquire %s database/testtable1.int1/key:" + rids.size() / 2 + " S",
+                    "acquire %s database/testtable1 IS"
             ), removeMetadataLogs(lockManager.log));
         } finally {
             this.db.waitAllTransactions();
@@ -313,7 +416,8 @@ public class TestDatabaseLockingIntegration {
             t2.getTransactionContext().contains(tableName, "int2", new IntDataBox(rids.size() / 2 - 1));
             assertContainsAll(prepare(t2.getTransNum(),
                     "acquire %s database IS",
-                    "acquire %s database/testtable1.int2 S"
+                    "acquire %s database/testtable1.int2 IS",
+                    "acquire %s database/testtable1.int2/key:" + (rids.size() / 2 - 1) + " S"
             ), removeMetadataLogs(lockManager.log));
         }
     }
@@ -339,8 +443,9 @@ public class TestDatabaseLockingIntegration {
 
             assertContainsAll(prepare(t0.getTransNum(),
                     "acquire %s database IS",
-                    "acquire %s database/testtable1 S",
-                    "acquire %s database/testtable1.int1 S"
+                    "acquire %s database/testtable1 IS",
+                    "acquire %s database/testtable1.int1 IS",
+                    "acquire %s database/testtable1.int1/key:2 S"
             ), removeMetadataLogs(lockManager.log));
         }
     }
@@ -408,7 +513,7 @@ public class TestDatabaseLockingIntegration {
                     "acquire %s database/_metadata.indices IX",
                     "acquire %s database/_metadata.indices/testtable1 IX",
                     "acquire %s database/_metadata.indices/testtable1/int1 X",
-                    "promote %s database/testtable1.int1 X"
+                    "acquire %s database/testtable1.int1 X"
             ), lockManager.log);
         }
     }
@@ -21,10 +21,14 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @Category({Proj99Tests.class, SystemTests.class})
@@ -88,6 +92,26 @@ public class TestSelectClause {
         }
     }
 
+    @Test
+    public void testIndexOnlySelect() {
+        // The same records are returned whether or not an index on every
+        // column the query refers to answers it.
+        String query = "SELECT sid, major FROM Students WHERE major = 'Chemistry' AND sid > 50;";
+        List<Record> expected = new ArrayList<>();
+        try (Transaction t = db.beginTransaction()) {
+            parse(query).getQueryPlan(t).get().execute().forEachRemaining(expected::add);
+            assertFalse(expected.isEmpty());
+            t.createIndex("Students", Arrays.asList("major", "sid"), true);
+        }
+        try (Transaction t = db.beginTransaction()) {
+            QueryPlan queryPlan = parse(query).getQueryPlan(t).get();
+            List<Record> records = new ArrayList<>();
+            queryPlan.execute().forEachRemaining(records::add);
+            assertEquals(expected, records);
+            assertTrue(queryPlan.getFinalOperator().toString().contains("Index Only Scan"));
+        }
+    }
+
     @Test
     public void testMultiColumnSelect() {
         SelectStatementVisitor v = parse(
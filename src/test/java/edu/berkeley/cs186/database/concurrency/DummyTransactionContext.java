@@ -12,6 +12,7 @@ import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
@@ -60,6 +61,11 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public List<List<String>> getIndexColumns(String tableName) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public Iterator<Record> sortedScan(String tableName, String columnName) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -71,6 +77,20 @@ public class DummyTransactionContext extends TransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public Iterator<Record> sortedScanRange(String tableName, String columnName,
+                                            DataBox lo, boolean loInclusive,
+                                            DataBox hi, boolean hiInclusive,
+                                            boolean descending) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
+    @Override
+    public Iterator<Record> indexOnlyScanFrom(String tableName, String columnName,
+                                              DataBox startValue) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public Iterator<Record> lookupKey(String tableName, String columnName,
                                       DataBox key) {
@@ -756,5 +756,208 @@ public class TestLockManager {
         runner.joinAll();
     }
 
-}
+    @Test
+    @Category(PublicTests.class)
+    public void testQueuedAcquireAndReleaseOtherResource() {
+        DeterministicRunner runner = new DeterministicRunner(2);
+
+        TransactionContext t0 = transactions[0];
+        TransactionContext t1 = transactions[1];
+
+        /**
+         * Transaction 0 acquires an X lock on table0
+         * Transaction 1 acquires an S lock on table1, then attempts to
+         *    acquire an X lock on table0 in exchange for it, and blocks
+         * Transaction 0 releases table0: transaction 1 gets its X lock on
+         *    table0, gives up table1, and unblocks
+         */
+        runner.run(0, () -> lockman.acquire(t0, tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(t1, tables[1], LockType.S));
+        runner.run(1, () -> lockman.acquireAndRelease(t1, tables[0], LockType.X,
+                   new ArrayList<>(Collections.singletonList(tables[1]))));
+        assertTrue(t1.getBlocked());
+        assertTrue(holds(lockman, t1, tables[1], LockType.S));
+
+        runner.run(0, () -> lockman.release(t0, tables[0]));
+
+        assertFalse(t1.getBlocked());
+        assertEquals(Collections.singletonList(new Lock(tables[0], LockType.X, 1L)), lockman.getLocks(t1));
+        assertEquals(Collections.emptyList(), lockman.getLocks(tables[1]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentLockTraffic() throws Exception {
+        /**
+         * Every transaction takes an IS lock on the database, and repeatedly
+         * acquires and releases an X lock on its own table from its own thread.
+         */
+        ExecutorService executor = Executors.newFixedThreadPool(transactions.length);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < transactions.length; ++i) {
+                TransactionContext t = transactions[i];
+                ResourceName table = tables[i];
+                futures.add(executor.submit(() -> {
+                    lockman.acquire(t, dbResource, LockType.IS);
+                    for (int j = 0; j < 1000; ++j) {
+                        lockman.acquire(t, table, LockType.X);
+                        lockman.release(t, table);
+                    }
+                    lockman.acquire(t, table, LockType.S);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(transactions.length, lockman.getLocks(dbResource).size());
+        for (int i = 0; i < transactions.length; ++i) {
+            assertEquals(Arrays.asList(new Lock(dbResource, LockType.IS, (long) i),
+                                       new Lock(tables[i], LockType.S, (long) i)),
+                         lockman.getLocks(transactions[i]));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockDetection() throws InterruptedException {
+        DeterministicRunner runner = new DeterministicRunner(3);
+
+        TransactionContext t0 = transactions[0];
+        TransactionContext t1 = transactions[1];
+        TransactionContext t2 = transactions[2];
+        CountDownLatch aborted = new CountDownLatch(1);
+
+        /**
+         * Transactions 0 and 1 get X locks on table0 and table1, and
+         * transaction 2 waits for transaction 0's lock on table0: no deadlock
+         */
+        runner.run(0, () -> lockman.acquire(t0, tables[0], LockType.X));
+        runner.run(1, () -> lockman.acquire(t1, tables[1], LockType.X));
+        runner.run(2, () -> lockman.acquire(t2, tables[0], LockType.S));
+        assertEquals(0, lockman.detectDeadlocks(transNum -> 0L));
+
+        /**
+         * Transaction 0 waits for table1, and transaction 1 for table0, which
+         * deadlocks them. Transaction 1 (the youngest, as both cost the same)
+         * is aborted, and the lock on table1 is then given up.
+         */
+        runner.run(0, () -> lockman.acquire(t0, tables[1], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(t1, tables[0], LockType.X);
+            } catch (DeadlockException e) {
+                aborted.countDown();
+            }
+        });
+        assertTrue(t0.getBlocked() && t1.getBlocked() && t2.getBlocked());
+
+        assertEquals(1, lockman.detectDeadlocks(transNum -> 0L));
+        assertTrue(aborted.await(1, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(new Lock(tables[1], LockType.X, 1L)), lockman.getLocks(t1));
+        assertTrue(t0.getBlocked());
 
+        runner.run(1, () -> lockman.release(t1, tables[1]));
+        assertFalse(t0.getBlocked());
+        assertTrue(holds(lockman, t0, tables[1], LockType.X));
+        assertEquals(0, lockman.detectDeadlocks(transNum -> 0L));
+
+        runner.run(0, () -> lockman.release(t0, tables[0]));
+        assertFalse(t2.getBlocked());
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testWaitTimeoutAndContention() {
+        DeterministicRunner runner = new DeterministicRunner(3);
+
+        TransactionContext t0 = transactions[0];
+        TransactionContext t1 = transactions[1];
+        TransactionContext t2 = transactions[2];
+        AtomicBoolean timedOut = new AtomicBoolean();
+
+        /**
+         * Transaction 1 gives up waiting for transaction 0's X lock on table0
+         * after 100 ms, and its request leaves the queue.
+         */
+        lockman.setWaitTimeout(100);
+        runner.run(0, () -> lockman.acquire(t0, tables[0], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(t1, tables[0], LockType.S);
+            } catch (LockTimeoutException e) {
+                timedOut.set(true);
+            }
+        });
+        assertTrue(timedOut.get());
+        assertFalse(t1.getBlocked());
+        assertEquals(LockType.NL, lockman.getLockType(t1, tables[0]));
+
+        /**
+         * Without a timeout, transaction 2 waits until the lock is released.
+         */
+        lockman.setWaitTimeout(0);
+        runner.run(2, () -> lockman.acquire(t2, tables[0], LockType.S));
+        assertTrue(t2.getBlocked());
+        runner.run(0, () -> lockman.release(t0, tables[0]));
+        assertTrue(holds(lockman, t2, tables[0], LockType.S));
+
+        LockContention contention = lockman.getContention().get(0);
+        assertEquals(tables[0], contention.getName());
+        assertEquals(3, contention.getNumAcquires());
+        assertEquals(2, contention.getNumWaits());
+        assertEquals(1, contention.getNumTimeouts());
+        assertEquals(0, contention.getQueueLength());
+        assertTrue(contention.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(contention.getTotalWaitNanos() >= contention.getMaxWaitNanos());
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testRejectedRequestsNotCounted() {
+        DeterministicRunner runner = new DeterministicRunner(4);
+
+        TransactionContext t0 = transactions[0];
+
+        /**
+         * Duplicate, promotion and release requests that are rejected are not
+         * counted as acquisitions of table0. A worker stops once its task
+         * throws, so each request runs on its own.
+         */
+        runner.run(0, () -> lockman.acquire(t0, tables[0], LockType.S));
+        try {
+            runner.run(1, () -> lockman.acquire(t0, tables[0], LockType.S));
+            fail();
+        } catch (DuplicateLockRequestException e) {
+            // do nothing
+        }
+        try {
+            runner.run(2, () -> lockman.promote(t0, tables[0], LockType.IS));
+            fail();
+        } catch (InvalidLockException e) {
+            // do nothing
+        }
+        try {
+            runner.run(3, () -> lockman.acquireAndRelease(t0, tables[0], LockType.X,
+                    Collections.singletonList(tables[1])));
+            fail();
+        } catch (NoLockHeldException e) {
+            // do nothing
+        }
+
+        LockContention contention = lockman.getContention().get(0);
+        assertEquals(tables[0], contention.getName());
+        assertEquals(1, contention.getNumAcquires());
+        assertEquals(1, lockman.getContention().size());
+        runner.joinAll();
+    }
+
+}
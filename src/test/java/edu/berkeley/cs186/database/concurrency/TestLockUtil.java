@@ -278,5 +278,51 @@ public class TestLockUtil {
         assertEquals(Collections.emptyList(), lockManager.log);
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalation() {
+        /**
+         * With an escalation policy of 2 page locks on table1, the third page
+         * lock is not taken: the page locks are escalated to a table lock.
+         */
+        tableContext.setEscalationPolicy(2, 0);
+        lockManager.startLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[1], LockType.S);
+        LockUtil.ensureSufficientLockHeld(pageContexts[2], LockType.S);
+        lockManager.clearLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[3], LockType.S);
+        assertEquals(Collections.singletonList(
+                "acquire-and-release 0 database/table1 S [database/table1, database/table1/1, database/table1/2]"
+        ), lockManager.log);
+        assertEquals(0, tableContext.getNumChildren(transaction));
+
+        /**
+         * Writing a page afterwards promotes the table lock to SIX.
+         */
+        lockManager.clearLog();
+        LockUtil.ensureSufficientLockHeld(pageContexts[4], LockType.X);
+        assertEquals(Arrays.asList(
+                "promote 0 database IX",
+                "acquire-and-release 0 database/table1 SIX []",
+                "acquire 0 database/table1/4 X"
+        ), lockManager.log);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalationByFraction() {
+        /**
+         * Escalate once more than half of the 8 pages would be locked.
+         */
+        tableContext.setEscalationPolicy(0, 0.5);
+        tableContext.setCapacity(() -> pageContexts.length);
+        for (int i = 0; i < 4; ++i) {
+            LockUtil.ensureSufficientLockHeld(pageContexts[i], LockType.X);
+        }
+        assertEquals(4, tableContext.getNumChildren(transaction));
+        LockUtil.ensureSufficientLockHeld(pageContexts[4], LockType.X);
+        assertEquals(LockType.X, tableContext.getExplicitLockType(transaction));
+        assertEquals(0, tableContext.getNumChildren(transaction));
+    }
 }
 
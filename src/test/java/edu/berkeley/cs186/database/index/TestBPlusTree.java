@@ -10,8 +10,10 @@ import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
@@ -23,9 +25,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.function.Supplier;
 
@@ -33,6 +37,7 @@ import static org.junit.Assert.*;
 
 @Category(Proj2Tests.class)
 public class TestBPlusTree {
+    private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
     private BPlusTreeMetadata metadata;
     private LockContext treeContext;
@@ -43,6 +48,9 @@ public class TestBPlusTree {
     // max 1 I/Os per iterator next, unless overridden
     private static final int MAX_IO_PER_NEXT = 1;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     // 3 seconds max per method tested.
     @Rule
     public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
@@ -50,8 +58,8 @@ public class TestBPlusTree {
 
     @Before
     public void setup()  {
-        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
-        diskSpaceManager.allocPart(0);
+        this.diskSpaceManager = new MemoryDiskSpaceManager();
+        this.diskSpaceManager.allocPart(0);
         this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
                 new ClockEvictionPolicy());
         this.treeContext = new DummyLockContext();
@@ -64,6 +72,7 @@ public class TestBPlusTree {
         // seeing if any other errors appear which may be preventing
         // certain pages from being unpinned correctly.
         this.bufferManager.close();
+        this.diskSpaceManager.close();
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -72,6 +81,19 @@ public class TestBPlusTree {
                                               0, DiskSpaceManager.INVALID_PAGE_NUM, -1);
     }
 
+    // Backs the tree with pages on disk rather than in memory, for tests that
+    // split nodes from several threads at once: MemoryDiskSpaceManager is not
+    // thread safe, but DiskSpaceManagerImpl is.
+    private void useDiskSpaceManagerImpl() throws IOException {
+        this.bufferManager.close();
+        this.diskSpaceManager.close();
+        this.diskSpaceManager = new DiskSpaceManagerImpl(tempFolder.newFolder("disk").getAbsolutePath(),
+                                                         new DummyRecoveryManager());
+        this.diskSpaceManager.allocPart(0);
+        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+    }
+
     private BPlusTree getBPlusTree(Type keySchema, int order) {
         setBPlusTreeMetadata(keySchema, order);
         return new BPlusTree(bufferManager, metadata, treeContext);
@@ -470,6 +492,373 @@ public class TestBPlusTree {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testStringSeparators() {
+        // Leaves of string keys split on the shortest prefix of the first key
+        // of the right leaf that is greater than the last key of the left.
+        BPlusTree tree = getBPlusTree(Type.stringType(10), 1);
+        tree.put(new StringDataBox("apple", 10), new RecordId(1, (short) 1));
+        tree.put(new StringDataBox("apricot", 10), new RecordId(2, (short) 2));
+        tree.put(new StringDataBox("banana", 10), new RecordId(3, (short) 3));
+        String l = "((apple (1 1)))";
+        String r = "((apricot (2 2)) (banana (3 3)))";
+        assertEquals(String.format("(%s apr %s)", l, r), tree.toSexp());
+
+        tree.put(new StringDataBox("blueberry", 10), new RecordId(4, (short) 4));
+        r = "((banana (3 3)) (blueberry (4 4)))";
+        assertEquals(String.format("(%s apr ((apricot (2 2))) b %s)", l, r), tree.toSexp());
+
+        // Every key is still found, also from disk.
+        BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+        assertEquals(Optional.of(new RecordId(2, (short) 2)), fromDisk.get(new StringDataBox("apricot", 10)));
+        assertEquals(Optional.empty(), fromDisk.get(new StringDataBox("apr", 10)));
+        assertEquals(tree.toSexp(), fromDisk.toSexp());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPrefixCompressedStringKeys() {
+        // Long string keys with a common prefix take up a fraction of their
+        // width, so that nodes hold several times more of them.
+        Type keySchema = Type.stringType(100);
+        int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, keySchema);
+        int fixedWidthOrder = (BufferManager.EFFECTIVE_PAGE_SIZE - 13) / (100 + 10) / 2;
+        assertTrue(order > 4 * fixedWidthOrder);
+
+        BPlusTree tree = getBPlusTree(keySchema, order);
+        List<DataBox> keys = new ArrayList<>();
+        for (int i = 0; i < 600; ++i) {
+            keys.add(new StringDataBox(String.format("customer/%06d", i), 100));
+        }
+        Collections.shuffle(keys, new Random(42));
+        for (DataBox key : keys) {
+            tree.put(key, new RecordId(Integer.parseInt(key.getString().substring(9)), (short) 0));
+        }
+        // at full width, a leaf holds at most 36 keys, so 600 keys would take
+        // up at least 17 leaves
+        assertEquals(1, metadata.getHeight());
+        InnerNode root = InnerNode.fromBytes(metadata, bufferManager, treeContext, metadata.getRootPageNum());
+        assertTrue(root.getChildren().size() <= 600 / 36 / 2);
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < 600; ++i) {
+            expected.add(new RecordId(i, (short) 0));
+        }
+        BPlusTree fromDisk = new BPlusTree(bufferManager, metadata, treeContext);
+        assertEquals(expected, indexIteratorToList(fromDisk::scanAll));
+        for (DataBox key : keys) {
+            assertTrue(fromDisk.get(key).isPresent());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPutAll() {
+        // Batches in no particular order, into an empty tree and then between
+        // the keys already there, splitting leaves and inner nodes.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        List<Pair<DataBox, RecordId>> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i += 2) {
+            batch.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+        }
+        Collections.shuffle(batch, new Random(42));
+        tree.putAll(batch.iterator());
+        batch.clear();
+        for (int i = 1; i < 1000; i += 2) {
+            batch.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+        }
+        Collections.shuffle(batch, new Random(43));
+        tree.putAll(batch.iterator());
+
+        Iterator<RecordId> iter = tree.scanAll();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(new RecordId(i, (short) i), iter.next());
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(i)));
+        }
+        assertFalse(iter.hasNext());
+
+        // A key already in the tree is rejected like put rejects it; the
+        // smaller keys of the batch are inserted.
+        batch.clear();
+        batch.add(new Pair<>(new IntDataBox(500), new RecordId(0, (short) 0)));
+        batch.add(new Pair<>(new IntDataBox(-1), new RecordId(0, (short) 0)));
+        try {
+            tree.putAll(batch.iterator());
+            fail();
+        } catch (BPlusTreeException e) {
+            // expected
+        }
+        assertTrue(tree.get(new IntDataBox(-1)).isPresent());
+        assertEquals(Optional.of(new RecordId(500, (short) 500)), tree.get(new IntDataBox(500)));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testSharedLatch() {
+        // Two trees of the same index see each other's changes, including
+        // splits of the root, which stays on the same page.
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTreeLatch latch = new BPlusTreeLatch();
+        BPlusTree tree0 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        long rootPageNum = metadata.getRootPageNum();
+        BPlusTree tree1 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        for (int i = 0; i < 100; ++i) {
+            (i % 2 == 0 ? tree0 : tree1).put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        assertEquals(rootPageNum, metadata.getRootPageNum());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree0.get(new IntDataBox(i)));
+        }
+
+        // An iterator carries on from where it was after the tree changes.
+        Iterator<RecordId> iter = tree0.scanAll();
+        for (int i = 0; i < 50; ++i) {
+            assertEquals(new RecordId(i, (short) i), iter.next());
+        }
+        tree1.remove(new IntDataBox(50));
+        tree1.put(new IntDataBox(200), new RecordId(200, (short) 200));
+        for (int i = 51; i < 100; ++i) {
+            assertEquals(new RecordId(i, (short) i), iter.next());
+        }
+        assertEquals(new RecordId(200, (short) 200), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBulkLoadDropsLatches() {
+        // Bulk loading a tree drops the latches of pages that are not its
+        // nodes, such as those of an earlier tree of the index, along with
+        // the cached nodes.
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTreeLatch latch = new BPlusTreeLatch();
+        BPlusTree tree0 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        for (int i = 0; i < 100; ++i) {
+            tree0.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        assertTrue(latch.size() > 1);
+
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTree tree1 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        List<Pair<DataBox, RecordId>> data = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            data.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+        }
+        tree1.bulkLoad(data.iterator(), 0.75f);
+        assertEquals(1, latch.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree1.get(new IntDataBox(i)));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testInnerNodeCache() {
+        // Lookups through either tree of an index go through the inner nodes
+        // cached by the other, and see the nodes again once they change.
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTreeLatch latch = new BPlusTreeLatch(4);
+        BPlusTree tree0 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        BPlusTree tree1 = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        for (int i = 0; i < 200; i += 2) {
+            tree0.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        assertTrue(metadata.getHeight() >= 2);
+        InnerNodeCache cache = tree0.getNodeCache();
+        assertSame(cache, tree1.getNodeCache());
+
+        for (int i = 0; i < 200; i += 2) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree0.get(new IntDataBox(i)));
+        }
+        assertTrue(cache.getMisses() > 0);
+        assertTrue(cache.size() <= 4);
+        // the path down to the first leaf is cached by the first lookup
+        assertTrue(tree1.get(new IntDataBox(0)).isPresent());
+        long misses = cache.getMisses();
+        long hits = cache.getHits();
+        for (int i = 0; i < 10; i += 2) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree1.get(new IntDataBox(i)));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertTrue(cache.getHits() >= hits + 10);
+
+        // splits change cached nodes
+        for (int i = 1; i < 200; i += 2) {
+            tree1.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        for (int i = 0; i < 200; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree0.get(new IntDataBox(i)));
+        }
+        assertTrue(cache.getMisses() > misses);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentPuts() throws InterruptedException, IOException {
+        // Threads insert interleaved keys into one index (each with its own
+        // BPlusTree object) while others scan it.
+        useDiskSpaceManagerImpl();
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTreeLatch latch = new BPlusTreeLatch();
+        new BPlusTree(bufferManager, metadata, treeContext, latch);
+        int numThreads = 4;
+        int keysPerThread = 500;
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            int first = t;
+            threads.add(new Thread(() -> {
+                try {
+                    BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext, latch);
+                    for (int i = first; i < numThreads * keysPerThread; i += numThreads) {
+                        tree.put(new IntDataBox(i), new RecordId(i, (short) 0));
+                        assertTrue(tree.get(new IntDataBox(i)).isPresent());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+            threads.add(new Thread(() -> {
+                try {
+                    BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext, latch);
+                    for (int j = 0; j < 5; ++j) {
+                        long previous = -1;
+                        for (RecordId rid : (Iterable<RecordId>) tree::scanAll) {
+                            assertTrue(rid.getPageNum() > previous);
+                            previous = rid.getPageNum();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < numThreads * keysPerThread; ++i) {
+            expected.add(new RecordId(i, (short) 0));
+        }
+        assertEquals(expected, indexIteratorToList(tree::scanAll));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testRangeScans() {
+        // Scans of ranges of the odd keys below 1000, in both directions, with
+        // every tenth key removed so that some leaves are empty.
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 1; i < 1000; i += 2) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) 0));
+            keys.add(i);
+        }
+        for (int i = 1; i < 1000; i += 20) {
+            tree.remove(new IntDataBox(i));
+            keys.remove(Integer.valueOf(i));
+        }
+
+        // the rids of the keys a scan returns, ascending
+        List<RecordId> all = new ArrayList<>();
+        for (int key : keys) {
+            all.add(new RecordId(key, (short) 0));
+        }
+        List<RecordId> reversed = new ArrayList<>(all);
+        Collections.reverse(reversed);
+        assertEquals(reversed, indexIteratorToList(() -> tree.scanRangeDescending(null, false, null, false)));
+        assertEquals(all, indexIteratorToList(() -> tree.scanRange(null, false, null, false)));
+
+        int[][] ranges = {{0, 1000}, {3, 3}, {41, 43}, {40, 44}, {100, 400}, {999, 999}, {500, 1000}, {-5, 0}};
+        for (int[] range : ranges) {
+            for (boolean loInclusive : new boolean[] {true, false}) {
+                for (boolean hiInclusive : new boolean[] {true, false}) {
+                    List<RecordId> expected = new ArrayList<>();
+                    for (int key : keys) {
+                        if ((key > range[0] || (loInclusive && key == range[0]))
+                                && (key < range[1] || (hiInclusive && key == range[1]))) {
+                            expected.add(new RecordId(key, (short) 0));
+                        }
+                    }
+                    DataBox lo = new IntDataBox(range[0]);
+                    DataBox hi = new IntDataBox(range[1]);
+                    assertEquals(expected, indexIteratorToList(() -> tree.scanRange(lo, loInclusive, hi, hiInclusive)));
+                    List<RecordId> descending = new ArrayList<>();
+                    tree.scanRangeDescending(lo, loInclusive, hi, hiInclusive).forEachRemaining(descending::add);
+                    Collections.reverse(descending);
+                    assertEquals(expected, descending);
+                }
+            }
+        }
+
+        // a scan below a key stops at the key
+        List<RecordId> expected = all.subList(0, keys.indexOf(103));
+        assertEquals(expected, indexIteratorToList(() -> tree.scanLessThan(new IntDataBox(103), false)));
+        assertEquals(all.subList(0, keys.indexOf(103) + 1),
+                     indexIteratorToList(() -> tree.scanLessThan(new IntDataBox(103), true)));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentGets() throws InterruptedException, IOException {
+        // Threads look up the even keys of an index, which are there all
+        // along, while others insert the odd keys and so split its nodes.
+        useDiskSpaceManagerImpl();
+        setBPlusTreeMetadata(Type.intType(), 2);
+        BPlusTreeLatch latch = new BPlusTreeLatch();
+        BPlusTree tree = new BPlusTree(bufferManager, metadata, treeContext, latch);
+        int numKeys = 2000;
+        for (int i = 0; i < numKeys; i += 2) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) 0));
+        }
+        int numThreads = 4;
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            int first = 2 * t + 1;
+            threads.add(new Thread(() -> {
+                try {
+                    BPlusTree writer = new BPlusTree(bufferManager, metadata, treeContext, latch);
+                    for (int i = first; i < numKeys; i += 2 * numThreads) {
+                        writer.put(new IntDataBox(i), new RecordId(i, (short) 0));
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+            threads.add(new Thread(() -> {
+                try {
+                    BPlusTree reader = new BPlusTree(bufferManager, metadata, treeContext, latch);
+                    for (int j = 0; j < 3; ++j) {
+                        for (int i = 0; i < numKeys; i += 2) {
+                            assertEquals(Optional.of(new RecordId(i, (short) 0)), reader.get(new IntDataBox(i)));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+
+        for (int i = 0; i < numKeys; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) 0)), tree.get(new IntDataBox(i)));
+        }
+    }
+
     @Test
     @Category(SystemTests.class)
     public void testMaxOrder() {
@@ -0,0 +1,87 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.categories.Proj2Tests;
+import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@Category(Proj2Tests.class)
+public class TestCompositeKey {
+    private static final List<Type> TYPES = Arrays.asList(Type.floatType(), Type.intType(), Type.stringType(3));
+
+    private static DataBox key(float f, int i, String s) {
+        return CompositeKey.of(Arrays.asList(new FloatDataBox(f), new IntDataBox(i), new StringDataBox(s, 3)), TYPES);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testKeySchema() {
+        assertEquals(Type.byteArrayType(11), CompositeKey.keySchema(TYPES));
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testOrder() {
+        // keys in order of their values, column by column
+        List<DataBox> keys = Arrays.asList(
+            key(Float.NEGATIVE_INFINITY, 0, "a"),
+            key(-2.5f, Integer.MAX_VALUE, "zzz"),
+            key(-1f, Integer.MIN_VALUE, "a"),
+            key(0f, -1, "b"),
+            key(0f, 0, ""),
+            key(0f, 0, "a"),
+            key(0f, 0, "ab"),
+            key(0f, 0, "b"),
+            key(0f, 1, "a"),
+            key(1.5f, -10, "a"),
+            key(Float.POSITIVE_INFINITY, 0, "a")
+        );
+        List<DataBox> sorted = new ArrayList<>(keys);
+        Collections.shuffle(sorted);
+        Collections.sort(sorted);
+        assertEquals(keys, sorted);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDecode() {
+        for (float f : new float[] {Float.NEGATIVE_INFINITY, -2.5f, -0f, 0f, 1.5f}) {
+            for (int i : new int[] {Integer.MIN_VALUE, -1, 0, 7, Integer.MAX_VALUE}) {
+                for (String s : new String[] {"", "a", "abc"}) {
+                    List<DataBox> values = Arrays.asList(new FloatDataBox(f), new IntDataBox(i),
+                                                         new StringDataBox(s, 3));
+                    assertEquals(values, CompositeKey.decode(CompositeKey.of(values, TYPES), TYPES));
+                }
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPrefixBounds() {
+        // the keys with a leading column of 0 lie between the bounds of the
+        // prefix (0), and no other keys do
+        List<DataBox> prefix = Collections.singletonList(new FloatDataBox(0f));
+        DataBox lower = CompositeKey.lowerBound(prefix, TYPES);
+        DataBox upper = CompositeKey.upperBound(prefix, TYPES);
+        for (DataBox key : Arrays.asList(key(0f, Integer.MIN_VALUE, ""), key(0f, 7, "x"),
+                                         key(0f, Integer.MAX_VALUE, "zzz"))) {
+            assertTrue(lower.compareTo(key) <= 0 && key.compareTo(upper) <= 0);
+        }
+        assertTrue(key(-0.5f, Integer.MAX_VALUE, "zzz").compareTo(lower) < 0);
+        assertTrue(key(0.5f, Integer.MIN_VALUE, "").compareTo(upper) > 0);
+    }
+}
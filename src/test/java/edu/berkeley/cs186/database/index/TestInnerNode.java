@@ -5,11 +5,13 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj2Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
@@ -225,6 +227,32 @@ public class TestInnerNode {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testFindChild() {
+        // The child of the serialized inner node is found in place.
+        Buffer node = BPlusNode.readBytes(bufferManager, treeContext, inner.getPage().getPageNum());
+        for (int i = 0; i < 30; ++i) {
+            long expected = i < 10 ? leaf0 : i < 20 ? leaf1 : leaf2;
+            assertEquals(expected, InnerNode.findChild(node, new IntDataBox(i), metadata.getKeySchema()));
+        }
+        assertEquals(leaf0, InnerNode.findChild(node, null, metadata.getKeySchema()));
+
+        // So is the child of one with prefix-compressed keys.
+        setBPlusTreeMetadata(Type.stringType(20), 2);
+        List<DataBox> keys = Arrays.asList(new StringDataBox("orange", 20), new StringDataBox("orb", 20));
+        InnerNode strings = new InnerNode(metadata, bufferManager, keys, innerChildren, treeContext);
+        node = BPlusNode.readBytes(bufferManager, treeContext, strings.getPage().getPageNum());
+        String[] lookups = {"", "or", "orange", "oranges", "orb", "orbit", "p"};
+        long[] expected = {leaf0, leaf0, leaf1, leaf1, leaf2, leaf2, leaf2};
+        for (int i = 0; i < lookups.length; ++i) {
+            DataBox key = new StringDataBox(lookups[i], 20);
+            assertEquals(expected[i], InnerNode.findChild(node, key, metadata.getKeySchema()));
+            assertEquals(expected[i], strings.getChildPageNum(key));
+        }
+        assertEquals(leaf0, InnerNode.findChild(node, null, metadata.getKeySchema()));
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testGetLeftmostLeaf() {
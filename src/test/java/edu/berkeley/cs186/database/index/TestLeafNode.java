@@ -5,12 +5,15 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj2Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.common.Buffer;
 import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
@@ -330,4 +333,77 @@ public class TestLeafNode {
             assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFindKey() {
+        // Keys of serialized leaves are found in place, at a fixed width and
+        // prefix compressed.
+        for (Type keySchema : Arrays.asList(Type.intType(), Type.stringType(20))) {
+            setBPlusTreeMetadata(keySchema, 5);
+            List<DataBox> keys = new ArrayList<>();
+            List<RecordId> rids = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                keys.add(key(keySchema, 2 * i));
+                rids.add(new RecordId(i, (short) i));
+            }
+            LeafNode leaf = new LeafNode(metadata, bufferManager, keys, rids, Optional.empty(), treeContext);
+            Buffer node = BPlusNode.readBytes(bufferManager, treeContext, leaf.getPage().getPageNum());
+            for (int i = -1; i < 20; i++) {
+                Optional<RecordId> expected = i >= 0 && i % 2 == 0 ? Optional.of(rids.get(i / 2))
+                                              : Optional.empty();
+                assertEquals(expected, LeafNode.findKey(node, key(keySchema, i), keySchema));
+                assertEquals(expected, leaf.getKey(key(keySchema, i)));
+            }
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testSizeTracked() {
+        // The size of a leaf is kept up to date as entries are added and
+        // removed, prefix compression included.
+        for (Type keySchema : Arrays.asList(Type.intType(), Type.stringType(20))) {
+            setBPlusTreeMetadata(keySchema, 5);
+            Random random = new Random(186);
+            LeafNode leaf = getEmptyLeaf(Optional.empty());
+            List<Integer> is = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                is.add(i);
+            }
+            Collections.shuffle(is, random);
+            for (int i : is) {
+                if (leaf.getKey(key(keySchema, i)).isPresent()) {
+                    continue;
+                }
+                // splits every so often, keeping the lower half
+                leaf.put(key(keySchema, i), new RecordId(i, (short) i));
+                assertEquals(leaf.toBytes().length, leaf.getSize());
+            }
+            while (!leaf.getKeys().isEmpty()) {
+                List<DataBox> keys = leaf.getKeys();
+                leaf.remove(keys.get(random.nextInt(keys.size())));
+                assertEquals(leaf.toBytes().length, leaf.getSize());
+            }
+
+            List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                entries.add(new Pair<>(key(keySchema, 3 * i), new RecordId(i, (short) i)));
+            }
+            leaf.putAll(entries.subList(5, 10));
+            leaf.putAll(entries.subList(0, 5));
+            assertEquals(leaf.toBytes().length, leaf.getSize());
+            LeafNode loaded = getEmptyLeaf(Optional.empty());
+            loaded.bulkLoad(entries.iterator(), 0.5f);
+            assertEquals(loaded.toBytes().length, loaded.getSize());
+        }
+    }
+
+    // Keys in the order of `i`, of either type.
+    private static DataBox key(Type keySchema, int i) {
+        if (keySchema.getTypeId() == TypeId.INT) {
+            return new IntDataBox(i);
+        }
+        return new StringDataBox(i < 0 ? "key" : String.format("key/%03d", i), keySchema.getSizeInBytes());
+    }
 }
@@ -109,4 +109,9 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
+
+    @Override
+    public void copyPartitions(String destDir, int excludedPartNum) {
+        throw new UnsupportedOperationException("cannot copy partitions of an in-memory disk space manager");
+    }
 }
@@ -8,7 +8,10 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj3Part2Tests;
 import edu.berkeley.cs186.database.categories.Proj3Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
+import edu.berkeley.cs186.database.common.Pair;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.After;
@@ -22,8 +25,13 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @Category({Proj3Tests.class, Proj3Part2Tests.class})
@@ -199,4 +207,119 @@ public class TestSingleAccess {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testIndexOnlyScan() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                records.add(new Record(false, i, "!", 0.0f));
+            }
+            transaction.insertAll("indexed_table", records);
+            transaction.getTransactionContext().getTable("indexed_table").buildStatistics(10);
+
+            // SELECT int FROM indexed_table WHERE int >= 1000 AND int < 1005;
+            QueryPlan query = transaction.query("indexed_table");
+            query.project("int");
+            query.select("int", PredicateOperator.GREATER_THAN_EQUALS, 1000);
+            query.select("int", PredicateOperator.LESS_THAN, 1005);
+            QueryOperator op = query.minCostSingleAccess("indexed_table");
+
+            // every column the query refers to is in the index on `int`, so
+            // the table is never read
+            assertTrue(op.isSelect());
+            assertTrue(op.getSource().isSelect());
+            assertTrue(op.getSource().getSource() instanceof IndexOnlyScanOperator);
+            records.clear();
+            op.iterator().forEachRemaining(records::add);
+            assertEquals(Arrays.asList(new Record(1000), new Record(1001), new Record(1002),
+                                       new Record(1003), new Record(1004)), records);
+
+            // SELECT int, bool FROM indexed_table WHERE int >= 1000 AND int < 1005;
+            query = transaction.query("indexed_table");
+            query.project("int", "bool");
+            query.select("int", PredicateOperator.GREATER_THAN_EQUALS, 1000);
+            query.select("int", PredicateOperator.LESS_THAN, 1005);
+            op = query.minCostSingleAccess("indexed_table");
+
+            // `bool` is not in the index
+            assertFalse(op.getSource().getSource() instanceof IndexOnlyScanOperator);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDescendingIndexScan() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 10000; ++i) {
+                records.add(new Record(false, i, "!", 0.0f));
+            }
+            transaction.insertAll("indexed_table", records);
+            transaction.getTransactionContext().getTable("indexed_table").buildStatistics(10);
+
+            // SELECT * FROM indexed_table WHERE int < 5 ORDER BY int DESC;
+            QueryPlan query = transaction.query("indexed_table");
+            query.select("int", PredicateOperator.LESS_THAN, 5);
+            query.sort("int", true);
+            records.clear();
+            query.execute().forEachRemaining(records::add);
+
+            // the index on `int` is read backwards rather than sorted
+            QueryOperator op = query.getFinalOperator();
+            assertFalse(op instanceof SortOperator);
+            assertTrue(op.str().contains("Index Scan Backward"));
+            List<Record> expected = new ArrayList<>();
+            for (int i = 4; i >= 0; --i) {
+                expected.add(new Record(false, i, "!", 0.0f));
+            }
+            assertEquals(expected, records);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testCompositeIndexSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "composite_table");
+            transaction.createIndex("composite_table", Arrays.asList("float", "int"), false);
+        }
+        try(Transaction transaction = this.db.beginTransaction()) {
+            List<Record> records = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                records.add(new Record(false, i, "!", (float) (i % 10)));
+            }
+            transaction.insertAll("composite_table", records);
+            transaction.getTransactionContext().getTable("composite_table").buildStatistics(10);
+
+            // SELECT * FROM composite_table WHERE float = 3.0 AND int = 503;
+            QueryPlan query = transaction.query("composite_table");
+            query.select("float", PredicateOperator.EQUALS, 3.0f);
+            query.select("int", PredicateOperator.EQUALS, 503);
+            QueryOperator op = query.minCostSingleAccess("composite_table");
+
+            // both predicates are used to search the index on (`float`, `int`),
+            // and applied again on top of the scan.
+            assertTrue(op.isSelect());
+            assertTrue(op.getSource().isSelect());
+            assertTrue(op.getSource().getSource().isIndexScan());
+            records.clear();
+            op.iterator().forEachRemaining(records::add);
+            assertEquals(Collections.singletonList(new Record(false, 503, "!", 3.0f)), records);
+
+            // a scan for a prefix of the index and a range on the next column
+            // stops at the end of the range.
+            CompositeIndexScanOperator scan = new CompositeIndexScanOperator(
+                transaction.getTransactionContext(), "composite_table", Arrays.asList("float", "int"),
+                Collections.singletonList(new FloatDataBox(3.0f)),
+                Collections.singletonList(new Pair<>(PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(53))));
+            records.clear();
+            scan.iterator().forEachRemaining(records::add);
+            assertEquals(Arrays.asList(new Record(false, 3, "!", 3.0f), new Record(false, 13, "!", 3.0f),
+                                       new Record(false, 23, "!", 3.0f), new Record(false, 33, "!", 3.0f),
+                                       new Record(false, 43, "!", 3.0f), new Record(false, 53, "!", 3.0f)),
+                         records);
+        }
+    }
+
 }
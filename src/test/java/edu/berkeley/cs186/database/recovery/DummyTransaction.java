@@ -13,8 +13,10 @@ import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.Table;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
@@ -177,6 +179,11 @@ class DummyTransaction extends Transaction {
             return false;
         }
 
+        @Override
+        public List<List<String>> getIndexColumns(String tableName) {
+            return Collections.emptyList();
+        }
+
         @Override
         public void updateIndexMetadata(BPlusTreeMetadata metadata) {}
 
@@ -190,6 +197,19 @@ class DummyTransaction extends Transaction {
             return null;
         }
 
+        @Override
+        public Iterator<Record> sortedScanRange(String tableName, String columnName,
+                                                DataBox lo, boolean loInclusive,
+                                                DataBox hi, boolean hiInclusive,
+                                                boolean descending) {
+            return null;
+        }
+
+        @Override
+        public Iterator<Record> indexOnlyScanFrom(String tableName, String columnName, DataBox startValue) {
+            return null;
+        }
+
         @Override
         public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) {
             return null;
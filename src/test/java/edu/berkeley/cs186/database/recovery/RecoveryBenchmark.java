@@ -0,0 +1,175 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long restart recovery takes. A crash image is generated by
+ * running random transactions (page writes, most of them committed) until the
+ * log reaches the requested size, and then dropping the buffer manager
+ * without flushing it; restart recovery is then run on copies of the image.
+ * The same seed always generates the same image.
+ *
+ * Usage (options are key=value, all optional):
+ *     RecoveryBenchmark [logPages=256] [dataPages=200] [bufferPages=64]
+ *                       [writesPerTransaction=20] [loserPercent=10]
+ *                       [checkpointEvery=0] [runs=3] [redoThreads=cores]
+ *                       [undoThreads=cores] [instant=false] [seed=186]
+ *
+ * checkpointEvery takes a checkpoint after every that many transactions (0:
+ * only the checkpoint taken when the log is created), which bounds how much
+ * of the log analysis and redo have to read.
+ */
+public class RecoveryBenchmark {
+    private static final int DATA_PARTITION = 1;
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private RecoveryBenchmark(String[] args) {
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("expected key=value, got " + arg);
+            }
+            options.put(parts[0], parts[1]);
+        }
+    }
+
+    private int option(String name, int defaultValue) {
+        return options.containsKey(name) ? Integer.parseInt(options.get(name)) : defaultValue;
+    }
+
+    /**
+     * Opens the recovery manager of a database directory, creating the data
+     * partition if the directory is new.
+     */
+    private ARIESRecoveryManager open(String dir) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManager(DummyTransaction::create,
+                Boolean.parseBoolean(options.getOrDefault("instant", "false")));
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir, recoveryManager);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, recoveryManager,
+                option("bufferPages", 64), new LRUEvictionPolicy());
+        boolean isNew = false;
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(DATA_PARTITION);
+            for (int i = 0; i < option("dataPages", 200); ++i) {
+                diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(DATA_PARTITION, i));
+            }
+            isNew = true;
+        } catch (IllegalStateException e) {
+            // already created
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        int cores = Runtime.getRuntime().availableProcessors();
+        recoveryManager.redoParallelism = option("redoThreads", cores);
+        recoveryManager.undoParallelism = option("undoThreads", cores);
+        if (isNew) {
+            recoveryManager.initialize();
+        }
+        return recoveryManager;
+    }
+
+    /**
+     * Runs random transactions on a new database in dir until the log has
+     * logPages pages, then crashes it: the log is flushed, but dirty pages
+     * still in the buffer manager are lost.
+     */
+    private void generateCrashImage(String dir) {
+        ARIESRecoveryManager recoveryManager = open(dir);
+        Random random = new Random(option("seed", 186));
+        int logPages = option("logPages", 256);
+        int dataPages = option("dataPages", 200);
+        int writesPerTransaction = option("writesPerTransaction", 20);
+        int loserPercent = option("loserPercent", 10);
+        int checkpointEvery = option("checkpointEvery", 0);
+
+        byte[] before = new byte[8];
+        byte[] after = new byte[8];
+        long transNum = 0;
+        long lastLSN = 0;
+        while (LogManager.getLSNPage(recoveryManager.logManager.getTailPageLSN()) < logPages) {
+            ++transNum;
+            recoveryManager.startTransaction(DummyTransaction.create(transNum));
+            for (int i = 0; i < writesPerTransaction; ++i) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(DATA_PARTITION, random.nextInt(dataPages));
+                short offset = (short) random.nextInt(BufferManager.EFFECTIVE_PAGE_SIZE - after.length);
+                Page page = recoveryManager.bufferManager.fetchPage(new DummyLockContext(), pageNum);
+                try {
+                    page.getBuffer().position(offset).get(before);
+                } finally {
+                    page.unpin();
+                }
+                random.nextBytes(after);
+                lastLSN = recoveryManager.logPageWrite(transNum, pageNum, offset, before, after);
+                recoveryManager.logManager.fetchLogRecord(lastLSN).redo(recoveryManager,
+                        recoveryManager.diskSpaceManager, recoveryManager.bufferManager);
+            }
+            if (random.nextInt(100) >= loserPercent) {
+                lastLSN = recoveryManager.commit(transNum);
+                recoveryManager.end(transNum);
+            }
+            if (checkpointEvery > 0 && transNum % checkpointEvery == 0) {
+                recoveryManager.checkpoint();
+            }
+        }
+        recoveryManager.logManager.flushToLSN(lastLSN);
+        recoveryManager.diskSpaceManager.close();
+        System.out.printf("crash image: %d transactions, %d log pages%n", transNum,
+                          LogManager.getLSNPage(recoveryManager.logManager.getTailPageLSN()));
+    }
+
+    private void run() throws IOException {
+        File image = Files.createTempDirectory("recovery-benchmark").toFile();
+        try {
+            generateCrashImage(new File(image, "image").getPath());
+            for (int run = 1; run <= option("runs", 3); ++run) {
+                File copy = new File(image, "run" + run);
+                copyDirectory(new File(image, "image"), copy);
+
+                DummyTransaction.cleanupTransactions();
+                ARIESRecoveryManager recoveryManager = open(copy.getPath());
+                long start = System.nanoTime();
+                recoveryManager.restart();
+                long nanos = System.nanoTime() - start;
+                System.out.printf("run %d: restart returned after %.1f ms%n", run, nanos / 1e6);
+                recoveryManager.close();
+                System.out.println(recoveryManager.getRecoveryStats());
+                recoveryManager.bufferManager.close();
+                recoveryManager.diskSpaceManager.close();
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(image.toPath())) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static void copyDirectory(File from, File to) throws IOException {
+        if (!to.mkdirs()) {
+            throw new IOException("could not make directory " + to);
+        }
+        File[] files = from.listFiles();
+        for (File f : files == null ? new File[0] : files) {
+            Files.copy(f.toPath(), new File(to, f.getName()).toPath());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new RecoveryBenchmark(args).run();
+    }
+}
@@ -86,6 +86,45 @@ public class TestLogRecord {
                                                "zxcvb".getBytes()));
     }
 
+    @Test
+    public void testInsertRecordSerialize() {
+        checkSerialize(new InsertRecordLogRecord(-98765L, -43210L, -12345L, (short) 10, (short) 3,
+                       (short) 1234, "asdfg".getBytes()));
+        checkSerialize(new InsertRecordLogRecord(-98765L, -43210L, -12345L, (short) -1, (short) 0,
+                       (short) 10, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testDeleteRecordSerialize() {
+        checkSerialize(new DeleteRecordLogRecord(-98765L, -43210L, -12345L, (short) 10, (short) 3,
+                       (short) 1234, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testUpdateRecordSerialize() {
+        checkSerialize(new UpdateRecordLogRecord(-98765L, -43210L, -12345L, (short) 1234,
+                       new short[] {0, 9}, new byte[][] {"ab".getBytes(), "cde".getBytes()},
+                       new byte[][] {"zx".getBytes(), "cvb".getBytes()}));
+    }
+
+    @Test
+    public void testUndoInsertRecordSerialize() {
+        checkSerialize(new UndoInsertRecordLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 10,
+                       (short) 3));
+    }
+
+    @Test
+    public void testUndoDeleteRecordSerialize() {
+        checkSerialize(new UndoDeleteRecordLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 10,
+                       (short) 3, (short) 1234, "asdfg".getBytes()));
+    }
+
+    @Test
+    public void testUndoUpdateRecordSerialize() {
+        checkSerialize(new UndoUpdateRecordLogRecord(-98765L, -43210L, -12345L, -57812L, (short) 1234,
+                       new short[] {0, 9}, new byte[][] {"ab".getBytes(), "cde".getBytes()}));
+    }
+
     @Test
     public void testUndoUpdatePageSerialize() {
         byte[] pageString = new String(new char[BufferManager.EFFECTIVE_PAGE_SIZE]).replace('\0',
@@ -6,10 +6,12 @@ import edu.berkeley.cs186.database.categories.HiddenTests;
 import edu.berkeley.cs186.database.categories.Proj5Tests;
 import edu.berkeley.cs186.database.categories.PublicTests;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
@@ -23,6 +25,7 @@ import org.junit.rules.Timeout;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.function.Consumer;
 
 import static junit.framework.TestCase.assertTrue;
@@ -83,6 +86,9 @@ public class TestRecoveryManager {
             // already loaded
         }
         recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        // redo checks expect records to be redone one at a time, in log order
+        recoveryManager.redoParallelism = 1;
+        recoveryManager.undoParallelism = 1;
         if (!isLoaded) {
             recoveryManager.initialize();
         }
@@ -222,6 +228,51 @@ public class TestRecoveryManager {
         assertEquals(Collections.singletonMap(10000000001L, updateCLR.getLSN()), dirtyPageTable);
     }
 
+    /**
+     * Tests rolling back a transaction with more records than its undo cache
+     * holds. T1 logs MAX_CACHED_RECORDS + 10 page writes, rolls back to a
+     * savepoint within the cached records, then aborts.
+     * Checks:
+     *  - The undo cache never holds more than MAX_CACHED_RECORDS records
+     *  - Every write is undone exactly once, newest first, including the
+     *    oldest ones that have to be read back from the log
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testRollbackPastUndoCache() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        int numWrites = TransactionTableEntry.MAX_CACHED_RECORDS + 10;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        List<Long> LSNs = new ArrayList<>();
+        for (int i = 0; i < numWrites; ++i) {
+            if (i == numWrites - 5) {
+                recoveryManager.savepoint(1L, "savepoint");
+            }
+            LSNs.add(recoveryManager.logPageWrite(1L, 10000000001L, (short) i, before, after));
+        }
+        TransactionTableEntry entry = transactionTable.get(1L);
+        assertEquals(TransactionTableEntry.MAX_CACHED_RECORDS, entry.numCachedRecords());
+        assertNull(entry.getCachedRecord(LSNs.get(0)));
+
+        List<Long> undone = new ArrayList<>();
+        LogRecord.onRedoHandler(record -> undone.add(record.getUndoNextLSN().orElse(-1L)));
+        recoveryManager.rollbackToSavepoint(1L, "savepoint");
+        assertEquals(5, undone.size());
+        assertTrue(entry.numCachedRecords() <= TransactionTableEntry.MAX_CACHED_RECORDS);
+
+        recoveryManager.abort(1L);
+        recoveryManager.end(1L);
+        assertEquals(numWrites, undone.size());
+        for (int i = 0; i < numWrites; ++i) {
+            // the CLR for the i-th newest write points at the write before it
+            int undoneWrite = numWrites - 1 - i;
+            assertEquals(undoneWrite == 0 ? 0L : (long) LSNs.get(undoneWrite - 1), (long) undone.get(i));
+        }
+    }
+
     /**
      * Basic test of a transaction updating and committing:
      * 1. Transaction 1 logs a page update and commits
@@ -976,6 +1027,65 @@ public class TestRecoveryManager {
         finishRedoChecks();
     }
 
+    /**
+     * Test redo phase of recovery with several redo threads:
+     * 1. Sets up log - T1 makes interleaved updates to 10 pages, overwriting
+     *    each location several times, commits, and ends. None of the updates
+     *    reach disk.
+     * 2. Simulate database shutdown and set up dpt (to simulate analysis)
+     * 3. Runs the redo phase with 4 redo threads
+     *    Checks:
+     *      - Every page ends up with the last value written to each location
+     *      - Every pageLSN is the LSN of the last update to that page
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelRedo() {
+        DummyTransaction.create(1L);
+
+        // 1. Set up log. Transaction 1 writes (round, page) to offset 0 and round
+        // to offset (round % 4) of each page, 20 times.
+        Map<Long, Long> lastLSNs = new HashMap<>();
+        long prevLSN = 0L;
+        for (byte round = 0; round < 20; ++round) {
+            for (int i = 0; i < 10; ++i) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+                prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) 0,
+                                                 new byte[2], new byte[] { round, (byte) i }));
+                dirtyPageTable.putIfAbsent(pageNum, prevLSN);
+                prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN,
+                                                 (short) (2 + round % 4), new byte[1], new byte[] { round }));
+                lastLSNs.put(pageNum, prevLSN);
+            }
+        }
+        long commitLSN = logManager.appendToLog(new CommitTransactionLogRecord(1L, prevLSN));
+        logManager.appendToLog(new EndTransactionLogRecord(1L, commitLSN));
+        Map<Long, Long> recLSNs = new HashMap<>(dirtyPageTable);
+        dirtyPageTable.clear();
+
+        // 2. Simulate database shutdown and set up dpt (to simulate analysis)
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        dirtyPageTable.putAll(recLSNs);
+
+        // 3. Run redo phase
+        recoveryManager.redoParallelism = 4;
+        recoveryManager.restartRedo();
+
+        for (int i = 0; i < 10; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i);
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            try {
+                byte[] contents = new byte[6];
+                page.getBuffer().get(contents);
+                assertArrayEquals(new byte[] { 19, (byte) i, 16, 17, 18, 19 }, contents);
+                assertEquals((long) lastLSNs.get(pageNum), page.getPageLSN());
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
     /**
      * Test undo phase of recovery:
      * 1. Sets up log - T1 makes 4 updates and then aborts.
@@ -1060,6 +1170,82 @@ public class TestRecoveryManager {
         assertEquals(Transaction.Status.COMPLETE, transaction1.getStatus());
     }
 
+    /**
+     * Test undo phase of recovery with several undo threads:
+     * 1. Sets up log - T1 through T4 each update their own page twice, T5 and
+     *    T6 both update the same byte of a fifth page (T5 first), and all six
+     *    transactions are aborting.
+     * 2. We execute the changes specified in log records, simulate a db
+     *    shutdown, and set up transaction table to simulate analysis phase
+     * 3. Runs the undo phase with 4 undo threads
+     *    Checks:
+     *      - Every page is back to its original contents (so T6's update
+     *        was undone before T5's)
+     *      - Every transaction is complete and removed from the transaction table
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelUndo() {
+        byte[] zero = new byte[] { 0 };
+        List<DummyTransaction> transactions = new ArrayList<>();
+        Map<Long, Long> lastLSNs = new HashMap<>();
+
+        // 1. Set up log
+        List<Long> LSNs = new ArrayList<>();
+        for (long transNum = 1; transNum <= 4; ++transNum) {
+            transactions.add(DummyTransaction.create(transNum));
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, (int) transNum);
+            long LSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum, 0L, (short) 0,
+                                              zero, new byte[] { 1 }));
+            LSNs.add(LSN);
+            LSN = logManager.appendToLog(new UpdatePageLogRecord(transNum, pageNum, LSN, (short) 0,
+                                         new byte[] { 1 }, new byte[] { 2 }));
+            LSNs.add(LSN);
+            lastLSNs.put(transNum, LSN);
+        }
+        long sharedPage = DiskSpaceManager.getVirtualPageNum(1, 5);
+        transactions.add(DummyTransaction.create(5L));
+        transactions.add(DummyTransaction.create(6L));
+        long LSN5 = logManager.appendToLog(new UpdatePageLogRecord(5L, sharedPage, 0L, (short) 0,
+                                           zero, new byte[] { 5 }));
+        long LSN6 = logManager.appendToLog(new UpdatePageLogRecord(6L, sharedPage, 0L, (short) 0,
+                                           new byte[] { 5 }, new byte[] { 6 }));
+        LSNs.add(LSN5);
+        LSNs.add(LSN6);
+        lastLSNs.put(5L, LSN5);
+        lastLSNs.put(6L, LSN6);
+
+        // 2. Execute logs, simulate shutdown, set up transaction table
+        for (long LSN : LSNs) {
+            logManager.fetchLogRecord(LSN).redo(recoveryManager, diskSpaceManager, bufferManager);
+        }
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        for (DummyTransaction transaction : transactions) {
+            TransactionTableEntry entry = new TransactionTableEntry(transaction);
+            entry.lastLSN = lastLSNs.get(transaction.getTransNum());
+            transaction.setStatus(Transaction.Status.RECOVERY_ABORTING);
+            transactionTable.put(transaction.getTransNum(), entry);
+        }
+
+        // 3. Run undo phase
+        recoveryManager.undoParallelism = 4;
+        recoveryManager.restartUndo();
+
+        for (int i = 1; i <= 5; ++i) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), DiskSpaceManager.getVirtualPageNum(1, i));
+            try {
+                assertEquals(0, page.getBuffer().get(0));
+            } finally {
+                page.unpin();
+            }
+        }
+        for (DummyTransaction transaction : transactions) {
+            assertEquals(Transaction.Status.COMPLETE, transaction.getStatus());
+        }
+        assertTrue(transactionTable.isEmpty());
+    }
+
     /**
      * Tests that CLR records are not undone in undo phase of recovery
      *
@@ -1327,6 +1513,337 @@ public class TestRecoveryManager {
         assertFalse(logs.hasNext());
     }
 
+    /**
+     * Tests the counters of restart recovery
+     *
+     * Does the following:
+     * 1. T1 logs a page write that reaches disk, and commits; T2 logs a write
+     *    to another page that does not reach disk. Simulate db shutdown.
+     * 2. Runs restart
+     *    Checks:
+     *      - T1's write is skipped by its pageLSN, T2's write is redone
+     *      - One CLR is written, for T2's write
+     *      - Every pass is timed, and analysis and redo scan the log
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testRecoveryStats() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        // 1
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        recoveryManager.startTransaction(DummyTransaction.create(2L));
+        long LSN1 = recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        logManager.fetchLogRecord(LSN1).redo(recoveryManager, diskSpaceManager, bufferManager);
+        recoveryManager.commit(1L);
+        recoveryManager.logPageWrite(2L, 10000000002L, (short) 0, before, after);
+        shutdownRecoveryManager(recoveryManager);
+
+        // 2
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+
+        RecoveryStats stats = recoveryManager.getRecoveryStats();
+        assertEquals(1L, stats.getRecordsRedone());
+        assertEquals(1L, stats.getRecordsSkippedByPageLSN());
+        assertEquals(1L, stats.getCLRsWritten());
+        for (RecoveryStats.Pass pass : RecoveryStats.Pass.values()) {
+            assertTrue(stats.getNanos(pass) > 0);
+        }
+        assertTrue(stats.getRecordsScanned(RecoveryStats.Pass.ANALYSIS) > 0);
+        assertTrue(stats.getRecordsScanned(RecoveryStats.Pass.REDO) > 0);
+    }
+
+    /**
+     * Tests instant restart
+     *
+     * Does the following:
+     * 1. T1 logs a page write, commits and ends; T2 logs a write to another
+     *    page. Neither write reaches disk. Simulate db shutdown.
+     * 2. Runs an instant restart
+     *    Checks:
+     *      - Fetching T1's page redoes T1's write
+     *      - Fetching T2's page waits for T2 to be rolled back, after which
+     *        T2 is no longer in the transaction table
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testInstantRestart() {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        // 1. T1 and T2 log page writes, T1 commits, simulate db shutdown
+        Transaction transaction1 = DummyTransaction.create(1L);
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.startTransaction(transaction2);
+        recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        recoveryManager.logPageWrite(2L, 10000000002L, (short) 0, before, after);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        shutdownRecoveryManager(recoveryManager);
+
+        // 2. Instant restart
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restartInstantly();
+
+        byte[] contents = new byte[4];
+        Page page = bufferManager.fetchPage(new DummyLockContext(), 10000000001L);
+        try {
+            page.getBuffer().get(contents);
+        } finally {
+            page.unpin();
+        }
+        assertArrayEquals(after, contents);
+
+        page = bufferManager.fetchPage(new DummyLockContext(), 10000000002L);
+        try {
+            page.getBuffer().get(contents);
+        } finally {
+            page.unpin();
+        }
+        assertArrayEquals(before, contents);
+        assertFalse(transactionTable.containsKey(2L));
+    }
+
+    /**
+     * Tests log truncation. T1 logs several pages worth of writes and commits,
+     * T2 then logs a write, and T3 logs a write early on and stays active.
+     * Checks:
+     *  - Nothing before T3's first record is truncated while T3 is active
+     *  - Once T3 ends, pages before T2's first record are freed
+     *  - T2's records can still be fetched and undone
+     *  - Restart after truncation works, and new LSNs keep increasing
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testTruncateLog() {
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        Arrays.fill(after, (byte) 0x2A);
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        Transaction transaction3 = DummyTransaction.create(3L);
+        recoveryManager.startTransaction(transaction3);
+        long LSN3 = recoveryManager.logPageWrite(3L, 10000000003L, (short) 0, before, after);
+        recoveryManager.startTransaction(transaction1);
+        long firstLSN1 = 0;
+        for (int i = 0; i < 10; ++i) {
+            long LSN = recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+            if (i == 0) {
+                firstLSN1 = LSN;
+            }
+        }
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction2);
+        long LSN2 = recoveryManager.logPageWrite(2L, 10000000002L, (short) 0, before, after);
+        // simulate the data pages written by T1 being flushed
+        dirtyPageTable.remove(10000000001L);
+
+        recoveryManager.checkpoint();
+        long tailLSN = logManager.getTailPageLSN();
+        // T3's first record is on the first log page, so nothing can be freed
+        assertEquals(0, recoveryManager.truncateLog());
+        assertNotNull(logManager.fetchLogRecord(LSN3));
+
+        recoveryManager.abort(3L);
+        recoveryManager.end(3L);
+        dirtyPageTable.remove(10000000003L);
+        recoveryManager.checkpoint();
+        assertTrue(recoveryManager.truncateLog() > 0);
+        assertNull(logManager.fetchLogRecord(LSN3));
+        assertNull(logManager.fetchLogRecord(firstLSN1));
+        assertEquals(LSN2, logManager.fetchLogRecord(LSN2).getLSN());
+        assertEquals(MasterLogRecord.class, logManager.fetchLogRecord(0L).getClass());
+        // scans skip the freed pages (page 0 also holds the initial checkpoint)
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(LogType.MASTER, iter.next().getType());
+        LogRecord record = iter.next();
+        while (LogManager.getLSNPage(record.getLSN()) == 0) {
+            record = iter.next();
+        }
+        assertTrue(record.getLSN() >= LogManager.makeLSN(LogManager.getLSNPage(LSN2), 0));
+
+        recoveryManager.abort(2L);
+        recoveryManager.end(2L);
+        shutdownRecoveryManager(recoveryManager);
+
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restart();
+        assertTrue(transactionTable.isEmpty());
+        assertTrue(logManager.getTailPageLSN() > tailLSN);
+    }
+
+    /**
+     * Tests log truncation during an instant restart, while a loser whose
+     * records change no page (so that it leaves nothing in pendingUndo) is
+     * still being rolled back.
+     *
+     * Does the following:
+     * 1. T1 allocates a partition, T2 logs several pages worth of writes and
+     *    commits, then T1 allocates another partition. A checkpoint is taken
+     *    after T2's page is flushed. Simulate db shutdown.
+     * 2. Runs an instant restart, and holds the background rollback of T1
+     *    after it undoes T1's second allocation
+     *    Checks:
+     *      - Nothing is truncated while T1 is still being rolled back, and
+     *        T1's first record can still be fetched
+     *      - T1 is rolled back once let go
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testTruncateLogDuringInstantRestart() throws InterruptedException {
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+
+        // 1. T1 allocates two partitions around T2's writes, simulate db shutdown
+        Transaction transaction1 = DummyTransaction.create(1L);
+        Transaction transaction2 = DummyTransaction.create(2L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.startTransaction(transaction2);
+        long firstLSN1 = recoveryManager.logAllocPart(1L, 5);
+        for (int i = 0; i < 10; ++i) {
+            recoveryManager.logPageWrite(2L, 10000000002L, (short) 0, before, after);
+        }
+        recoveryManager.commit(2L);
+        recoveryManager.end(2L);
+        recoveryManager.logAllocPart(1L, 6);
+        // simulate the data pages written by T2 being flushed
+        dirtyPageTable.remove(10000000002L);
+        recoveryManager.checkpoint();
+        shutdownRecoveryManager(recoveryManager);
+
+        // 2. Instant restart, holding the rollback of T1 after its first CLR
+        CountDownLatch undoing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        LogRecord.onRedoHandler(record -> {
+            if (record.getType() == LogType.UNDO_ALLOC_PART && undoing.getCount() > 0) {
+                undoing.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.restartInstantly();
+        try {
+            undoing.await();
+            recoveryManager.checkpoint();
+            assertEquals(0, recoveryManager.truncateLog());
+            assertEquals(firstLSN1, logManager.fetchLogRecord(firstLSN1).getLSN());
+        } finally {
+            resume.countDown();
+        }
+        while (transactionTable.containsKey(1L)) {
+            Thread.sleep(10);
+        }
+        assertEquals(Transaction.Status.COMPLETE, transaction1.getStatus());
+    }
+
+    /**
+     * Tests that the background checkpointer takes a checkpoint once enough
+     * log has been written after restart.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testPeriodicCheckpoint() throws InterruptedException {
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+
+        recoveryManager.setCheckpointPolicy(0, 2);
+        recoveryManager.restart();
+        long checkpointLSN = recoveryManager.lastCheckpointLSN;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        for (int i = 0; i < 10; ++i) {
+            recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, before, after);
+        }
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+
+        for (int i = 0; i < 20 && recoveryManager.lastCheckpointLSN == checkpointLSN; ++i) {
+            Thread.sleep(100);
+        }
+        assertTrue(recoveryManager.lastCheckpointLSN > checkpointLSN);
+    }
+
+    /**
+     * Tests an online backup and point-in-time restores from it.
+     * 1. T1 writes page 1 and commits, a backup is taken, then T2 writes page
+     *    2 and commits, and T3 writes page 3 and commits.
+     * 2. The backup is restored as of T2's commit, and restarted
+     *    Checks:
+     *      - T1's and T2's writes are there, T3's is not
+     * 3. The backup is restored as of the end of the archived log
+     *    Checks:
+     *      - All three writes are there
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testBackupAndRestore() throws IOException {
+        byte[] zeros = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        String backupDir = tempFolder.newFolder("backup").getAbsolutePath();
+
+        // 1. writes before, during, and after the backup
+        recoveryManager.startTransaction(DummyTransaction.create(1L));
+        recoveryManager.logPageWrite(1L, 10000000001L, (short) 0, zeros, after);
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.backup(backupDir);
+        recoveryManager.startTransaction(DummyTransaction.create(2L));
+        recoveryManager.logPageWrite(2L, 10000000002L, (short) 0, zeros, after);
+        long commitLSN2 = recoveryManager.commit(2L);
+        recoveryManager.end(2L);
+        recoveryManager.startTransaction(DummyTransaction.create(3L));
+        recoveryManager.logPageWrite(3L, 10000000003L, (short) 0, zeros, after);
+        recoveryManager.commit(3L);
+        recoveryManager.archiveLog();
+        ARIESRecoveryManager original = recoveryManager;
+
+        // 2. restore as of T2's commit
+        String restoreDir = tempFolder.newFolder("restore-t2").getAbsolutePath();
+        LogArchive.restore(backupDir, restoreDir, commitLSN2);
+        recoveryManager = loadRecoveryManager(restoreDir);
+        recoveryManager.restart();
+        assertArrayEquals(after, readPage(10000000001L, 4));
+        assertArrayEquals(after, readPage(10000000002L, 4));
+        assertArrayEquals(zeros, readPage(10000000003L, 4));
+        recoveryManager.close();
+        shutdownRecoveryManager(recoveryManager);
+
+        // 3. restore everything archived
+        restoreDir = tempFolder.newFolder("restore-all").getAbsolutePath();
+        LogArchive.restore(backupDir, restoreDir, Long.MAX_VALUE);
+        recoveryManager = loadRecoveryManager(restoreDir);
+        recoveryManager.restart();
+        assertArrayEquals(after, readPage(10000000001L, 4));
+        assertArrayEquals(after, readPage(10000000002L, 4));
+        assertArrayEquals(after, readPage(10000000003L, 4));
+        recoveryManager.close();
+        shutdownRecoveryManager(recoveryManager);
+
+        recoveryManager = original;
+    }
+
+    private byte[] readPage(long pageNum, int length) {
+        byte[] contents = new byte[length];
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            page.getBuffer().get(contents);
+        } finally {
+            page.unpin();
+        }
+        return contents;
+    }
+
     /**
      * Tests restart in its entirety
      *